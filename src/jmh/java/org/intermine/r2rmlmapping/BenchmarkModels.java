@@ -0,0 +1,88 @@
+package org.intermine.r2rmlmapping;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.intermine.metadata.Model;
+import org.intermine.modelproduction.xml.InterMineModelParser;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The InterMine models the benchmarks run on: the genomic model of src/main/resources,
+ * and synthetic ones made of several copies of it.
+ */
+final class BenchmarkModels
+{
+	private static final String GENOMIC_MODEL = "/genomic_model.xml";
+
+	private BenchmarkModels()
+	{
+	}
+
+	/**
+	 * @param copies how many times the classes of the genomic model are repeated; copy k
+	 * of class Gene is Gene_k, extends the copies k of Gene's superclasses and references
+	 * the copies k of its referenced classes, so every copy is a complete hierarchy
+	 * @return the genomic model itself when copies is 1
+	 */
+	static Model genomic(int copies) throws Exception
+	{
+		Document document;
+		try (InputStream in = BenchmarkModels.class.getResourceAsStream(GENOMIC_MODEL)) {
+			document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+		}
+		Element root = document.getDocumentElement();
+		List<Element> classes = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node instanceof Element && "class".equals(node.getNodeName())) {
+				classes.add((Element) node);
+				names.add(((Element) node).getAttribute("name"));
+			}
+		}
+		for (int copy = 2; copy <= copies; copy++) {
+			for (Element original : classes) {
+				Element clone = (Element) original.cloneNode(true);
+				clone.setAttribute("name", rename(original.getAttribute("name"), copy, names));
+				if (clone.hasAttribute("extends")) {
+					StringBuilder supers = new StringBuilder();
+					for (String superclass : clone.getAttribute("extends").trim().split("\\s+")) {
+						supers.append(supers.length() == 0 ? "" : " ").append(rename(superclass, copy, names));
+					}
+					clone.setAttribute("extends", supers.toString());
+				}
+				NodeList fields = clone.getElementsByTagName("*");
+				for (int i = 0; i < fields.getLength(); i++) {
+					Element field = (Element) fields.item(i);
+					if (field.hasAttribute("referenced-type")) {
+						field.setAttribute("referenced-type",
+								rename(field.getAttribute("referenced-type"), copy, names));
+					}
+				}
+				root.appendChild(clone);
+			}
+		}
+		StringWriter xml = new StringWriter();
+		TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(xml));
+		return new InterMineModelParser().process(new StringReader(xml.toString()));
+	}
+
+	private static String rename(String className, int copy, Set<String> names)
+	{
+		// classes outside the model, such as InterMineObject, are shared by all copies
+		return names.contains(className) ? className + "_" + copy : className;
+	}
+}
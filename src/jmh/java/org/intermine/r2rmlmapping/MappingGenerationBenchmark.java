@@ -0,0 +1,86 @@
+package org.intermine.r2rmlmapping;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.riot.system.StreamRDF;
+import org.intermine.metadata.Model;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generates the whole mapping, as R2RMLMapping.main does, for the genomic model and
+ * for synthetic models of a few thousand classes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingGenerationBenchmark
+{
+	/** copies of the genomic model's classes, 50 copies are about 4000 classes */
+	@Param({"1", "25", "50"})
+	public int copies;
+
+	private Model model;
+	private URIHelper uriHelper;
+	private MappingOptions options;
+
+	private static final OutputStream NULL = new OutputStream()
+	{
+		@Override
+		public void write(int b)
+		{
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+		}
+	};
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		model = BenchmarkModels.genomic(copies);
+		uriHelper = new URIHelper();
+		options = MappingOptions.parse(new String[0]);
+	}
+
+	@Benchmark
+	public ModelIndex index()
+	{
+		return new ModelIndex(model, uriHelper);
+	}
+
+	/**
+	 * The pretty printed path, the whole mapping in one Jena model.
+	 */
+	@Benchmark
+	public org.apache.jena.rdf.model.Model generate()
+	{
+		return R2RMLMapping.generate(new ModelIndex(model, uriHelper), uriHelper, options);
+	}
+
+	/**
+	 * The streaming path, serializing to N-Triples but not writing anywhere.
+	 */
+	@Benchmark
+	public void stream() throws Exception
+	{
+		StreamRDF stream = MappingWriter.createStream(NULL, MappingWriter.NTRIPLES);
+		MappingWriter.write(new ModelIndex(model, uriHelper), uriHelper, options, stream);
+		stream.finish();
+	}
+}
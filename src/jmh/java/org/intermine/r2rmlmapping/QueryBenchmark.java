@@ -0,0 +1,125 @@
+package org.intermine.r2rmlmapping;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Runs the queries of queries/ against an in-memory store holding proteins, genes and
+ * organisms shaped like the mapping's output. proteins_sequence_federate.rq is left out,
+ * it needs UniProt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark
+{
+	private static final String UP = URIHelper.uniProtNS;
+	private static final String IM = URIHelper.interMineVocNS;
+	private static final String ORGANISM = "http://intermine.org/biotestmine/Organism/";
+	private static final int[] TAXA = {36329, 7227, 9606, 10090, 4932};
+
+	@Param({"demo.rq", "proteins.rq", "proteins_seeAlso.rq", "proteins_sequence.rq", "proteins_taxonomy.rq"})
+	public String query;
+
+	@Param({"10000"})
+	public int proteins;
+
+	private Repository repository;
+	private String sparql;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		sparql = new String(Files.readAllBytes(new File("queries", query).toPath()), StandardCharsets.UTF_8);
+		repository = new SailRepository(new MemoryStore());
+		try (RepositoryConnection connection = repository.getConnection()) {
+			connection.add(sampleData(proteins));
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		repository.shutDown();
+	}
+
+	@Benchmark
+	public void evaluate(Blackhole blackhole)
+	{
+		try (RepositoryConnection connection = repository.getConnection();
+				TupleQueryResult result = connection.prepareTupleQuery(QueryLanguage.SPARQL, sparql).evaluate()) {
+			while (result.hasNext()) {
+				blackhole.consume(result.next());
+			}
+		}
+	}
+
+	/**
+	 * Proteins spread over a few organisms, each with its gene and sequence, using the
+	 * predicates the queries ask for.
+	 */
+	static Model sampleData(int proteins)
+	{
+		ValueFactory vf = SimpleValueFactory.getInstance();
+		Model data = new LinkedHashModel();
+		IRI[] organisms = new IRI[TAXA.length];
+		for (int i = 0; i < TAXA.length; i++) {
+			organisms[i] = vf.createIRI(ORGANISM + TAXA[i]);
+			data.add(organisms[i], RDF.TYPE, vf.createIRI(IM, "Organism"));
+			data.add(organisms[i], vf.createIRI(IM, "hasName"), vf.createLiteral("organism " + TAXA[i]));
+		}
+		for (int i = 0; i < proteins; i++) {
+			String accession = String.format("P%05d", i);
+			IRI protein = vf.createIRI(URIHelper.uniProtKbNS + accession);
+			IRI gene = vf.createIRI(URIHelper.interMineNS + "gene:GENE" + i);
+			IRI sequence = vf.createIRI(URIHelper.uniProtKbNS + accession + "#sequence");
+			IRI organism = organisms[i % organisms.length];
+			data.add(protein, RDF.TYPE, vf.createIRI(UP, "Protein"));
+			data.add(protein, vf.createIRI(IM, "hasPrimaryAccession"), vf.createLiteral(accession));
+			data.add(protein, vf.createIRI(IM, "hasUniprotName"), vf.createLiteral(accession + "_HUMAN"));
+			data.add(protein, vf.createIRI(IM, "hasOrganism"), organism);
+			data.add(protein, vf.createIRI(IM, "hasGene"), gene);
+			data.add(protein, RDFS.SEEALSO, organism);
+			data.add(protein, vf.createIRI(UP, "organism"),
+					vf.createIRI("http://purl.uniprot.org/taxonomy/" + TAXA[i % TAXA.length]));
+			data.add(protein, vf.createIRI(UP, "sequence"), sequence);
+			data.add(sequence, RDF.TYPE, vf.createIRI(UP, "Simple_Sequence"));
+			data.add(gene, RDF.TYPE, vf.createIRI(IM, "Gene"));
+			data.add(gene, vf.createIRI(IM, "hasPrimaryIdentifier"), vf.createLiteral("GENE" + i));
+			data.add(gene, vf.createIRI(IM, "hasSecondaryIdentifier"), vf.createLiteral("CG" + i));
+		}
+		return data;
+	}
+}
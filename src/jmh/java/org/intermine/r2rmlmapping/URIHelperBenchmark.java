@@ -0,0 +1,91 @@
+package org.intermine.r2rmlmapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.sql.DatabaseUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The per field lookups of the mapping generation. Each benchmark sweeps every class or
+ * attribute of the genomic model, with the arguments the generator passes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class URIHelperBenchmark
+{
+	private URIHelper uriHelper;
+	private String[] tableNames;
+	private String[] columnTables;
+	private String[] columnNames;
+	private AttributeDescriptor[] attributes;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		Model model = BenchmarkModels.genomic(1);
+		uriHelper = new URIHelper();
+		List<String> tables = new ArrayList<>();
+		List<String> columnTableList = new ArrayList<>();
+		List<String> columnList = new ArrayList<>();
+		List<AttributeDescriptor> attributeList = new ArrayList<>();
+		for (ClassDescriptor cd : model.getClassDescriptors()) {
+			String tableName = DatabaseUtil.getTableName(cd);
+			tables.add(tableName);
+			for (FieldDescriptor fd : cd.getAllFieldDescriptors()) {
+				if (fd instanceof AttributeDescriptor) {
+					columnTableList.add(tableName);
+					columnList.add(DatabaseUtil.getColumnName(fd));
+					attributeList.add((AttributeDescriptor) fd);
+				}
+			}
+		}
+		tableNames = tables.toArray(new String[0]);
+		columnTables = columnTableList.toArray(new String[0]);
+		columnNames = columnList.toArray(new String[0]);
+		attributes = attributeList.toArray(new AttributeDescriptor[0]);
+	}
+
+	@Benchmark
+	public void isURIIdentifier(Blackhole blackhole)
+	{
+		for (int i = 0; i < columnNames.length; i++) {
+			blackhole.consume(uriHelper.isURIIdentifier(columnTables[i], columnNames[i]));
+		}
+	}
+
+	@Benchmark
+	public void createURI(Blackhole blackhole)
+	{
+		for (String tableName : tableNames) {
+			blackhole.consume(uriHelper.createURI(tableName));
+		}
+	}
+
+	@Benchmark
+	public void getXsdForFullyQualifiedClassName(Blackhole blackhole)
+	{
+		for (AttributeDescriptor attribute : attributes) {
+			blackhole.consume(R2RMLMapping.getXsdForFullyQualifiedClassName(attribute));
+		}
+	}
+}
@@ -1,45 +1,186 @@
 package org.intermine.r2rmlmapping;
 
-import java.util.Arrays;
-import org.eclipse.rdf4j.query.QueryLanguage;
-import org.eclipse.rdf4j.query.TupleQuery;
-import org.eclipse.rdf4j.query.TupleQueryResult;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
 import org.eclipse.rdf4j.repository.Repository;
-import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sparql.SPARQLRepository;
+import org.eclipse.rdf4j.repository.sparql.federation.SPARQLServiceResolver;
 import org.eclipse.rdf4j.federated.FedXFactory;
+import org.eclipse.rdf4j.federated.endpoint.Endpoint;
+import org.intermine.r2rmlmapping.federation.CachingEndpoints;
+import org.intermine.r2rmlmapping.federation.ResultCache;
+import org.intermine.r2rmlmapping.federation.ServiceJoinConfig;
+import org.intermine.r2rmlmapping.federation.VoidDescription;
+import org.intermine.r2rmlmapping.federation.VoidFederationEvalStrategy;
+import org.intermine.r2rmlmapping.query.NamedQuery;
+import org.intermine.r2rmlmapping.query.QueryMetrics;
+import org.intermine.r2rmlmapping.query.StreamingQueryRunner;
 
+/**
+ * Runs queries over UniProt and the mine, streaming the results to stdout or to one
+ * file per query, and reports their metrics on stderr.
+ *
+ * Usage: FederatedQuery [--format=tsv|csv|json|binary] [--output=directory] [--buffer=rows]
+ *   [--clear-cache] [--service-block=bindings] [--service-threads=requests] [--ordered]
+ *   [--shards=mapping-federation.ttl]
+ *   [queries/x.rq | templates.toml [template name...]]
+ */
 public class FederatedQuery {
 
+  static final String UNIPROT = "https://sparql.uniprot.org/sparql";
+  static final String MINE = "http://localhost:8081/sparql";
+
+  static final String EXAMPLE = "PREFIX up: <http://purl.uniprot.org/core/> \n"
+      +"PREFIX voc: <http://intermine.org/vocabulary/> \n"
+      + "SELECT ?protein ?citation ?sequence  WHERE {\n"
+      + "?protein a up:Protein .\n"
+      + "?protein up:citation ?citation .\n"
+      + "?protein voc:hasSequence ?sequence . "
+      + "FILTER(?protein = <http://purl.uniprot.org/uniprot/Q8ILG7>)}";
+
   public static void main (String args[]) throws Exception {
-    Repository repo = FedXFactory.createSparqlFederation(Arrays.asList(
-        "https://sparql.uniprot.org/sparql",
-        "http://localhost:8081/sparql"
-        ));
-
-    String q = "PREFIX up: <http://purl.uniprot.org/core/> \n"
-        +"PREFIX voc: <http://intermine.org/vocabulary/> \n"
-        + "SELECT ?protein ?citation ?sequence  WHERE {\n"
-        + "?protein a up:Protein .\n"
-        + "?protein up:citation ?citation .\n"
-        + "?protein voc:hasSequence ?sequence . "
-        + "FILTER(?protein = <http://purl.uniprot.org/uniprot/Q8ILG7>)}";
-
-
-    try (RepositoryConnection conn = repo.getConnection()) {
-      TupleQuery query = conn.prepareTupleQuery(QueryLanguage.SPARQL, q);
-      try (TupleQueryResult res = query.evaluate()) {
-
-        while (res.hasNext()) {
-          System.out.println(res.next());
-        }
+    String format = "tsv";
+    String output = null;
+    int buffer = 1024;
+    boolean clearCache = false;
+    int serviceBlock = 100;
+    int serviceThreads = 4;
+    boolean ordered = false;
+    String shards = null;
+    List<String> positional = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.startsWith("--format=")) {
+        format = arg.substring("--format=".length());
+      } else if (arg.startsWith("--output=")) {
+        output = arg.substring("--output=".length());
+      } else if (arg.startsWith("--buffer=")) {
+        buffer = Integer.parseInt(arg.substring("--buffer=".length()));
+      } else if (arg.equals("--clear-cache")) {
+        clearCache = true;
+      } else if (arg.startsWith("--service-block=")) {
+        serviceBlock = Integer.parseInt(arg.substring("--service-block=".length()));
+      } else if (arg.startsWith("--service-threads=")) {
+        serviceThreads = Integer.parseInt(arg.substring("--service-threads=".length()));
+      } else if (arg.equals("--ordered")) {
+        ordered = true;
+      } else if (arg.startsWith("--shards=")) {
+        shards = arg.substring("--shards=".length());
+      } else if (arg.startsWith("--")) {
+        System.err.println("Unknown option " + arg);
+        System.exit(1);
+      } else {
+        positional.add(arg);
       }
     }
+    List<NamedQuery> queries = selectQueries(positional);
+    if (queries.isEmpty()) {
+      System.err.println("No query named " + positional.subList(1, positional.size()));
+      System.exit(1);
+    }
 
-    repo.shutDown();
-    System.out.println("Done.");
-    System.exit(0);
+    // UniProt answers slowly from here and its data changes once per release
+    ResultCache cache = new ResultCache(64L * 1024 * 1024, new File("federation-cache"),
+        TimeUnit.DAYS.toMillis(1));
+    if (clearCache) {
+      cache.invalidateAll();
+    }
+    // SERVICE clauses get blocks of bindings, up to serviceThreads requests at a time over
+    // as many kept-alive connections, whether they name UniProt or another endpoint
+    CloseableHttpClient serviceClient = CachingEndpoints.pooledHttpClient(serviceThreads);
+    SPARQLServiceResolver services = new SPARQLServiceResolver();
+    services.setHttpClient(serviceClient);
+    List<Endpoint> members = new ArrayList<>();
+    members.add(CachingEndpoints.sparqlEndpoint(UNIPROT, cache, serviceClient));
+    // the mine's VoID replaces FedX's ASK queries to it, UniProt's ASKs are cached
+    if (shards == null) {
+      VoidDescription mineDescription = VoidDescription.cached(new File("mapping.ttl"),
+          new File("void.ttl"), MINE);
+      members.add(CachingEndpoints.endpoint(MINE, new SPARQLRepository(MINE), null, mineDescription));
+    } else {
+      // one member per shard of the mine, each only asked for what its mapping produces
+      for (VoidDescription shard : VoidDescription.readAll(new File(shards))) {
+        members.add(CachingEndpoints.endpoint(shard.getEndpoint(),
+            new SPARQLRepository(shard.getEndpoint()), null, shard));
+      }
+    }
+    Repository repo = FedXFactory.newFederation()
+        .withMembers(members)
+        .withConfig(new ServiceJoinConfig()
+            .withServiceBlockSize(serviceBlock)
+            .withServiceConcurrency(serviceThreads)
+            .withOrderedServiceResults(ordered)
+            .withSparqlEvaluationStrategy(VoidFederationEvalStrategy.class))
+        .withFederatedServiceResolver(services)
+        .create();
 
+    StreamingQueryRunner runner = new StreamingQueryRunner(repo,
+        StreamingQueryRunner.formatForName(format), buffer);
+    boolean failed = false;
+    try (OutputStream stdout = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out))) {
+      for (NamedQuery query : queries) {
+        try {
+          QueryMetrics metrics;
+          if (output == null) {
+            metrics = runner.run(query, stdout);
+          } else {
+            try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(outputFile(output, query, runner.getFormat())))) {
+              metrics = runner.run(query, out);
+            }
+          }
+          System.err.println(metrics);
+        } catch (RuntimeException | IOException e) {
+          System.err.println(query.getName() + " failed: " + e);
+          failed = true;
+        }
+      }
+    } finally {
+      runner.shutDown();
+      repo.shutDown();
+      services.shutDown();
+      serviceClient.close();
+      System.err.println("UniProt cache: " + cache);
+    }
+    if (failed) {
+      System.exit(1);
+    }
+  }
 
+  private static List<NamedQuery> selectQueries(List<String> positional) throws IOException {
+    if (positional.isEmpty()) {
+      return Collections.singletonList(new NamedQuery("example", EXAMPLE));
+    }
+    List<NamedQuery> queries = NamedQuery.load(new File(positional.get(0)));
+    if (positional.size() == 1) {
+      return queries;
+    }
+    List<String> names = positional.subList(1, positional.size());
+    List<NamedQuery> selected = new ArrayList<>();
+    for (NamedQuery query : queries) {
+      if (names.contains(query.getName())) {
+        selected.add(query);
+      }
+    }
+    return selected;
+  }
+
+  private static File outputFile(String directory, NamedQuery query, TupleQueryResultFormat format) {
+    File dir = new File(directory);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create " + dir);
+    }
+    String name = query.getName().replaceAll("[^A-Za-z0-9._-]+", "_");
+    return new File(dir, name + "." + format.getDefaultFileExtension());
   }
 
 }
@@ -0,0 +1,130 @@
+package org.intermine.r2rmlmapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+
+/**
+ * A class and its exportable subclasses read from the class' own table, which in
+ * InterMine holds the rows of all its subclasses too. The concrete class of each row
+ * comes from the class column of intermineobject, and is turned into the type part
+ * of the URI, so that one TriplesMap produces the same URIs as the TriplesMaps of all
+ * the subclasses together.
+ *
+ * This only works if every member uses the same URI identifier and the InterMine
+ * URI namespace; {@link #create(ClassDescriptor, ModelIndex, URIHelper)} returns null otherwise.
+ */
+public class HierarchyView
+{
+	/** The column of the view holding the type part of the URI */
+	public static final String TYPE_COLUMN = "imtype";
+	public static final String OBJECT_TABLE = "intermineobject";
+	public static final String CLASS_COLUMN = "class";
+
+	private final String tableName;
+	private final String identifierName;
+	private final List<ClassDescriptor> members;
+	private final List<String> memberTableNames;
+
+	private HierarchyView(String tableName, String identifierName, List<ClassDescriptor> members,
+			List<String> memberTableNames)
+	{
+		this.tableName = tableName;
+		this.identifierName = identifierName;
+		this.members = members;
+		this.memberTableNames = memberTableNames;
+	}
+
+	/**
+	 * Needs the table name, URI identifier and exportability of cd and its subclasses,
+	 * so is called while the index is being built.
+	 */
+	static HierarchyView create(ClassDescriptor cd, ModelIndex index, URIHelper uriHelper)
+	{
+		AttributeDescriptor identifier = index.getURIIdentifier(cd);
+		if (index.getAllSubs(cd).isEmpty() || identifier == null) {
+			return null;
+		}
+		List<ClassDescriptor> candidates = new ArrayList<>();
+		candidates.add(cd);
+		candidates.addAll(index.getAllSubs(cd));
+		List<ClassDescriptor> members = new ArrayList<>();
+		List<String> memberTableNames = new ArrayList<>();
+		for (ClassDescriptor candidate : candidates)
+		{
+			AttributeDescriptor candidateIdentifier = index.getURIIdentifier(candidate);
+			// the per subclass mapping skips these as well
+			if (!index.isExportable(candidate) || candidateIdentifier == null) {
+				continue;
+			}
+			String candidateTable = index.getTableName(candidate);
+			if (!identifier.getName().equals(candidateIdentifier.getName())
+					|| !uriHelper.isInterMineType(candidateTable)) {
+				return null;
+			}
+			members.add(candidate);
+			memberTableNames.add(candidateTable);
+		}
+		if (members.isEmpty()) {
+			return null;
+		}
+		return new HierarchyView(index.getTableName(cd), identifier.getName(),
+				Collections.unmodifiableList(members), Collections.unmodifiableList(memberTableNames));
+	}
+
+	public String getTableName()
+	{
+		return tableName;
+	}
+
+	public String getIdentifierName()
+	{
+		return identifierName;
+	}
+
+	public List<ClassDescriptor> getMembers()
+	{
+		return members;
+	}
+
+	/**
+	 * @return the type part of the URI, as URIHelper.createURI builds it, for the row of alias
+	 */
+	public String getTypeExpression(String objectAlias)
+	{
+		StringBuilder sql = new StringBuilder("CASE ").append(objectAlias).append('.').append(CLASS_COLUMN);
+		for (int i = 0; i < members.size(); i++)
+		{
+			sql.append(" WHEN '").append(members.get(i).getName()).append("' THEN '")
+					.append(StringUtils.lowerCase(memberTableNames.get(i))).append('\'');
+		}
+		return sql.append(" END").toString();
+	}
+
+	/**
+	 * @return a condition keeping only the rows of exportable members, as the per subclass mapping does
+	 */
+	public String getClassCondition(String objectAlias)
+	{
+		List<String> names = new ArrayList<>();
+		for (ClassDescriptor member : members)
+		{
+			names.add('\'' + member.getName() + '\'');
+		}
+		return objectAlias + "." + CLASS_COLUMN + " IN (" + String.join(", ", names) + ")";
+	}
+
+	/**
+	 * @return the logical table of the TriplesMap every collapsed reference joins to
+	 */
+	public String getSql()
+	{
+		return "SELECT t.id, t." + identifierName + ", " + getTypeExpression("o") + " AS " + TYPE_COLUMN
+				+ " FROM " + tableName + " t, " + OBJECT_TABLE + " o"
+				+ " WHERE o.id = t.id AND " + getClassCondition("o");
+	}
+}
@@ -0,0 +1,211 @@
+package org.intermine.r2rmlmapping;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFOps;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.intermine.metadata.ClassDescriptor;
+
+/**
+ * Regenerates only the TriplesMaps of the classes that changed since the last run.
+ *
+ * Next to the output, e.g. mapping.ttl, two things are kept: mapping.ttl.d holds the
+ * TriplesMaps of each class as N-Triples, and mapping.ttl.fingerprints the
+ * {@link ModelFingerprint} each fragment was generated from, and the format the output
+ * was written in. A class is regenerated when its fingerprint changed, or when it joins
+ * to a class that changed or disappeared; the output is then reassembled from the
+ * fragments, as it is when the format changed.
+ */
+public class IncrementalMapping
+{
+	private static final String OPTIONS_KEY = "_options";
+	private static final String FORMAT_KEY = "_format";
+
+	private final ModelIndex index;
+	private final URIHelper uriHelper;
+	private final MappingOptions options;
+	private final File fragments;
+	private final File fingerprintFile;
+
+	public IncrementalMapping(ModelIndex index, URIHelper uriHelper, MappingOptions options)
+	{
+		this.index = index;
+		this.uriHelper = uriHelper;
+		this.options = options;
+		this.fragments = new File(options.getOutput() + ".d");
+		this.fingerprintFile = new File(options.getOutput() + ".fingerprints");
+	}
+
+	public void run() throws IOException
+	{
+		Properties previous = loadFingerprints();
+		String previousFormat = previous.getProperty(FORMAT_KEY);
+		Map<String, String> current = ModelFingerprint.compute(index, uriHelper);
+		if (!options.getGenerationSignature().equals(previous.getProperty(OPTIONS_KEY))) {
+			// different generation options, nothing from the last run can be reused
+			previous.clear();
+		}
+
+		Set<String> changed = new HashSet<>();
+		for (Map.Entry<String, String> entry : current.entrySet())
+		{
+			if (!entry.getValue().equals(previous.getProperty(entry.getKey()))
+					|| !fragmentFile(entry.getKey()).exists()) {
+				changed.add(entry.getKey());
+			}
+		}
+		Set<String> removed = new HashSet<>(previous.stringPropertyNames());
+		removed.remove(OPTIONS_KEY);
+		removed.remove(FORMAT_KEY);
+		removed.removeAll(current.keySet());
+
+		Set<String> stale = new HashSet<>(changed);
+		stale.addAll(removed);
+		Set<String> affected = new HashSet<>(changed);
+		affected.addAll(ModelFingerprint.findDependents(index, stale));
+
+		if (!fragments.isDirectory() && !fragments.mkdirs()) {
+			throw new IOException("Cannot create " + fragments);
+		}
+		for (String className : removed)
+		{
+			Files.deleteIfExists(fragmentFile(className).toPath());
+		}
+		index.getClassDescriptors().parallelStream()
+				.filter(cd -> affected.contains(cd.getName()))
+				.forEach(this::writeFragment);
+		System.err.println("Regenerated " + affected.size() + " of " + current.size() + " classes, removed "
+				+ removed.size());
+
+		if (!affected.isEmpty() || !removed.isEmpty() || !new File(options.getOutput()).exists()
+				|| !options.getFormat().equals(previousFormat)) {
+			assemble();
+		}
+		saveFingerprints(current);
+	}
+
+	private void writeFragment(ClassDescriptor cd)
+	{
+		org.apache.jena.rdf.model.Model classMapping = R2RMLMapping.mapClass(cd, index, uriHelper, options);
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fragmentFile(cd.getName())))) {
+			StreamRDF stream = MappingWriter.createStream(out, MappingWriter.NTRIPLES);
+			StreamRDFOps.sendTriplesToStream(classMapping.getGraph(), stream);
+			stream.finish();
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot write the mapping of " + cd.getName(), e);
+		}
+	}
+
+	/**
+	 * Rebuilds the output from the fragments, in index order.
+	 */
+	private void assemble() throws IOException
+	{
+		String format = options.getFormat();
+		if (MappingWriter.NTRIPLES.equals(format)) {
+			// the fragments are N-Triples already
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(options.getOutput()))) {
+				for (ClassDescriptor cd : index.getClassDescriptors())
+				{
+					Files.copy(fragmentFile(cd.getName()).toPath(), out);
+				}
+			}
+		} else if (MappingWriter.isStreaming(format)) {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(options.getOutput()))) {
+				StreamRDF stream = MappingWriter.createStream(out, format);
+				MappingWriter.sendPrefixes(stream);
+				// the parser starts and finishes its destination for every fragment
+				StreamRDF fragmentSink = new StreamRDFWrapper(stream) {
+					@Override
+					public void start()
+					{
+					}
+
+					@Override
+					public void finish()
+					{
+					}
+				};
+				for (ClassDescriptor cd : index.getClassDescriptors())
+				{
+					readFragment(cd).parse(fragmentSink);
+				}
+				stream.finish();
+			}
+		} else {
+			org.apache.jena.rdf.model.Model jenaModel = ModelFactory.createDefaultModel();
+			R2RMLMapping.setKnownPrefixes(jenaModel);
+			for (ClassDescriptor cd : index.getClassDescriptors())
+			{
+				readFragment(cd).parse(jenaModel.getGraph());
+			}
+			try (PrintWriter out = new PrintWriter(new FileWriter(options.getOutput()))) {
+				jenaModel.write(out, "turtle");
+			}
+		}
+	}
+
+	private RDFParser readFragment(ClassDescriptor cd)
+	{
+		// keep the blank node labels as written, so that reassembly is reproducible
+		return RDFParser.create()
+				.source(fragmentFile(cd.getName()).toPath())
+				.lang(Lang.NTRIPLES)
+				.labelToNode(LabelToNode.createUseLabelEncoded())
+				.build();
+	}
+
+	private File fragmentFile(String className)
+	{
+		return new File(fragments, className + ".nt");
+	}
+
+	private Properties loadFingerprints() throws IOException
+	{
+		Properties fingerprints = new Properties();
+		if (fingerprintFile.exists()) {
+			try (InputStream in = new FileInputStream(fingerprintFile)) {
+				fingerprints.load(in);
+			}
+		}
+		return fingerprints;
+	}
+
+	private void saveFingerprints(Map<String, String> current) throws IOException
+	{
+		// sorted, so the file itself is stable between runs
+		Map<String, String> sorted = new TreeMap<>(current);
+		try (PrintWriter out = new PrintWriter(new FileWriter(fingerprintFile))) {
+			out.println(OPTIONS_KEY + "=" + escape(options.getGenerationSignature()));
+			out.println(FORMAT_KEY + "=" + escape(options.getFormat()));
+			for (Map.Entry<String, String> entry : sorted.entrySet())
+			{
+				out.println(escape(entry.getKey()) + "=" + entry.getValue());
+			}
+		}
+	}
+
+	private static String escape(String value)
+	{
+		return value.replace("\\", "\\\\").replace("=", "\\=").replace(":", "\\:");
+	}
+}
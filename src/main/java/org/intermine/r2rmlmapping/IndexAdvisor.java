@@ -0,0 +1,211 @@
+package org.intermine.r2rmlmapping;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.ReferenceDescriptor;
+
+/**
+ * Works out the PostgreSQL indexes the generated mapping needs to be served
+ * efficiently, by walking the same descriptors as R2RMLMapping:
+ * <ul>
+ * <li>every URI identifier column, so a constant IRI becomes an index lookup</li>
+ * <li>the id of every table that is the parent of a join, covering its URI identifier</li>
+ * <li>every reference column (e.g. organismid) used in an rr:joinCondition</li>
+ * <li>both directions of every indirection table used by a many to many view</li>
+ * </ul>
+ * Optionally each many to many view is also (re)created as a materialized view, and
+ * a second script with the REFRESH statements is written for after each build.
+ *
+ * The indexes use INCLUDE, so PostgreSQL 11 or later is needed.
+ */
+public class IndexAdvisor
+{
+	private final ModelIndex index;
+	private final boolean materializedViews;
+	private final boolean collapsedHierarchy;
+	private final Set<String> tables = new LinkedHashSet<>();
+	private final Set<String> indexes = new LinkedHashSet<>();
+	private final Set<String> views = new LinkedHashSet<>();
+	private final Set<String> refreshes = new LinkedHashSet<>();
+
+	public IndexAdvisor(ModelIndex index, MappingOptions options)
+	{
+		this.index = index;
+		this.materializedViews = options.isMaterializedViews();
+		this.collapsedHierarchy = options.isCollapsedHierarchy();
+		for (ClassDescriptor cd : index.getClassDescriptors())
+		{
+			if (index.isExportable(cd)) {
+				adviseClass(cd);
+			}
+		}
+	}
+
+	private void adviseClass(ClassDescriptor cd)
+	{
+		final String tableName = index.getTableName(cd);
+		final AttributeDescriptor uriIdentifier = index.getURIIdentifier(cd);
+		if (uriIdentifier != null) {
+			addIndex(tableName, uriIdentifier.getName(), "id");
+		}
+		for (FieldDescriptor fd : cd.getAllFieldDescriptors())
+		{
+			if (fd.isCollection()) {
+				CollectionDescriptor collection = (CollectionDescriptor) fd;
+				if (collection.relationType() == FieldDescriptor.ONE_N_RELATION) {
+					adviseOneToMany(collection);
+				} else if (collection.relationType() == FieldDescriptor.M_N_RELATION) {
+					HierarchyView hierarchy = collapsed(collection);
+					if (hierarchy != null) {
+						adviseManyToMany(ManyToManyJoin.createCollapsed(cd, hierarchy, collection, index));
+						addObjectClassIndex();
+						continue;
+					}
+					for (ClassDescriptor to : targets(collection)) {
+						adviseManyToMany(ManyToManyJoin.create(cd, to, collection, index));
+					}
+				}
+			} else if (fd instanceof ReferenceDescriptor) {
+				HierarchyView hierarchy = collapsed((ReferenceDescriptor) fd);
+				if (hierarchy != null) {
+					addIndex(tableName, fd.getName() + "id", uriIdentifier == null ? null : uriIdentifier.getName());
+					addIndex(hierarchy.getTableName(), "id", hierarchy.getIdentifierName());
+					addObjectClassIndex();
+					continue;
+				}
+				for (ClassDescriptor to : targets((ReferenceDescriptor) fd)) {
+					AttributeDescriptor parentIdentifier = index.getURIIdentifier(to);
+					if (parentIdentifier != null) {
+						addIndex(tableName, fd.getName() + "id", uriIdentifier == null ? null : uriIdentifier.getName());
+						addIndex(index.getTableName(to), "id", parentIdentifier.getName());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the hierarchy a reference is mapped to when collapsing, otherwise null
+	 */
+	private HierarchyView collapsed(ReferenceDescriptor reference)
+	{
+		return collapsedHierarchy ? index.getHierarchyView(reference.getReferencedClassDescriptor()) : null;
+	}
+
+	/**
+	 * The collapsed views read the class of every row from intermineobject.
+	 */
+	private void addObjectClassIndex()
+	{
+		addIndex(HierarchyView.OBJECT_TABLE, "id", HierarchyView.CLASS_COLUMN);
+	}
+
+	/**
+	 * @return the exportable classes a reference is mapped to, as in R2RMLMapping
+	 */
+	private List<ClassDescriptor> targets(ReferenceDescriptor reference)
+	{
+		final ClassDescriptor referenced = reference.getReferencedClassDescriptor();
+		List<ClassDescriptor> subs = index.getAllSubs(referenced);
+		List<ClassDescriptor> candidates = subs.isEmpty() ? Collections.singletonList(referenced) : subs;
+		List<ClassDescriptor> targets = new ArrayList<>();
+		for (ClassDescriptor candidate : candidates)
+		{
+			if (index.isExportable(candidate)) {
+				targets.add(candidate);
+			}
+		}
+		return targets;
+	}
+
+	private void adviseOneToMany(CollectionDescriptor collection)
+	{
+		ClassDescriptor referenced = collection.getReferencedClassDescriptor();
+		ReferenceDescriptor reverse = collection.getReverseReferenceDescriptor();
+		AttributeDescriptor identifier = index.getURIIdentifier(referenced);
+		if (reverse != null && identifier != null && index.isExportable(referenced)) {
+			// R2RMLMapping joins to the TriplesMap named after the simple name here
+			addIndex(referenced.getSimpleName(), reverse.getName() + "id", identifier.getName());
+		}
+	}
+
+	private void adviseManyToMany(ManyToManyJoin join)
+	{
+		if (join == null) {
+			return;
+		}
+		addIndex(join.getJoinTableName(), join.getInwardColumnName() + ", " + join.getOutwardColumnName(), null);
+		addIndex(join.getJoinTableName(), join.getOutwardColumnName() + ", " + join.getInwardColumnName(), null);
+		addIndex(join.getFromTableName(), "id", join.getFromColumnName());
+		addIndex(join.getToTableName(), "id", join.getToColumnName());
+		if (materializedViews) {
+			String view = join.getViewName();
+			// recreated, so that a view left by an older mapping never keeps its old definition
+			views.add("DROP MATERIALIZED VIEW IF EXISTS " + view + ";");
+			views.add("CREATE MATERIALIZED VIEW " + view + " AS " + join.getSql() + ";");
+			addIndex(view, join.getFromColumnName(), ManyToManyJoin.TO_COLUMN_ALIAS);
+			addIndex(view, ManyToManyJoin.TO_COLUMN_ALIAS, join.getFromColumnName());
+			// the materializer reads the view in ranges of the id
+			addIndex(view, ManyToManyJoin.ID_ALIAS, null);
+			refreshes.add("REFRESH MATERIALIZED VIEW " + view + ";");
+			tables.add(view);
+		}
+	}
+
+	private void addIndex(String tableName, String columns, String included)
+	{
+		String name = SqlNames.identifier(tableName + "_" + columns.replace(", ", "_") + "_im_idx");
+		indexes.add("CREATE INDEX IF NOT EXISTS " + name + " ON " + tableName + " (" + columns + ")"
+				+ (included == null || included.equalsIgnoreCase(columns) ? "" : " INCLUDE (" + included + ")") + ";");
+		tables.add(tableName);
+	}
+
+	/**
+	 * Writes the script, and, with materialized views, the refresh script next to it.
+	 * @param fileName e.g. mapping-indexes.sql, the refresh script is mapping-indexes.refresh.sql
+	 */
+	public void write(String fileName) throws IOException
+	{
+		try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
+			out.println("-- Indexes for the joins and URI identifiers of the generated R2RML mapping.");
+			out.println("-- Generated from the InterMine model, needs PostgreSQL 11 or later.");
+			writeSection(out, views);
+			writeSection(out, indexes);
+			for (String table : tables)
+			{
+				out.println("ANALYZE " + table + ";");
+			}
+		}
+		if (materializedViews) {
+			String refreshFile = fileName.endsWith(".sql")
+					? fileName.substring(0, fileName.length() - 4) + ".refresh.sql" : fileName + ".refresh";
+			try (PrintWriter out = new PrintWriter(new FileWriter(refreshFile))) {
+				out.println("-- Run after every build of the mine to bring the mapping's views up to date.");
+				writeSection(out, refreshes);
+			}
+		}
+	}
+
+	private static void writeSection(PrintWriter out, Set<String> statements)
+	{
+		if (statements.isEmpty()) {
+			return;
+		}
+		out.println();
+		for (String statement : statements)
+		{
+			out.println(statement);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package org.intermine.r2rmlmapping;
+
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.sql.DatabaseUtil;
+
+/**
+ * The tables and columns behind one many to many TriplesMap: the two class tables,
+ * the indirection table between them and the URI identifier columns exposed.
+ */
+public class ManyToManyJoin
+{
+	/** The alias of the referenced identifier in the view, it may clash with the referring one */
+	public static final String TO_COLUMN_ALIAS = "toColumnName";
+	/** The alias of the referring id, from the indirection table, that the view is partitioned on */
+	public static final String ID_ALIAS = "id";
+
+	private final String fromTableName;
+	private final String fromColumnName;
+	private final String joinTableName;
+	private final String inwardColumnName;
+	private final String outwardColumnName;
+	private final String toTableName;
+	private final String toColumnName;
+	private final HierarchyView toHierarchy;
+
+	public ManyToManyJoin(String fromTableName, String fromColumnName, String joinTableName,
+			String inwardColumnName, String outwardColumnName, String toTableName, String toColumnName)
+	{
+		this(fromTableName, fromColumnName, joinTableName, inwardColumnName, outwardColumnName, toTableName,
+				toColumnName, null);
+	}
+
+	private ManyToManyJoin(String fromTableName, String fromColumnName, String joinTableName,
+			String inwardColumnName, String outwardColumnName, String toTableName, String toColumnName,
+			HierarchyView toHierarchy)
+	{
+		this.fromTableName = fromTableName;
+		this.fromColumnName = fromColumnName;
+		this.joinTableName = joinTableName;
+		this.inwardColumnName = inwardColumnName;
+		this.outwardColumnName = outwardColumnName;
+		this.toTableName = toTableName;
+		this.toColumnName = toColumnName;
+		this.toHierarchy = toHierarchy;
+	}
+
+	/**
+	 * @return the join from a class through collection to one of its (sub)classes, or null
+	 * if either side has no URI identifier
+	 */
+	public static ManyToManyJoin create(ClassDescriptor from, ClassDescriptor to, CollectionDescriptor collection,
+			ModelIndex index)
+	{
+		AttributeDescriptor fromIdentifier = index.getURIIdentifier(from);
+		AttributeDescriptor toIdentifier = index.getURIIdentifier(to);
+		if (fromIdentifier == null || toIdentifier == null) {
+			return null;
+		}
+		return new ManyToManyJoin(index.getTableName(from), fromIdentifier.getName(),
+				DatabaseUtil.getIndirectionTableName(collection),
+				DatabaseUtil.getInwardIndirectionColumnName(collection, R2RMLMapping.FORMAT_VERSION),
+				DatabaseUtil.getOutwardIndirectionColumnName(collection, R2RMLMapping.FORMAT_VERSION),
+				index.getTableName(to), toIdentifier.getName());
+	}
+
+	/**
+	 * @return the join from a class through collection to the collapsed hierarchy of the
+	 * referenced class, or null if the referring class has no URI identifier
+	 */
+	public static ManyToManyJoin createCollapsed(ClassDescriptor from, HierarchyView to,
+			CollectionDescriptor collection, ModelIndex index)
+	{
+		AttributeDescriptor fromIdentifier = index.getURIIdentifier(from);
+		if (fromIdentifier == null) {
+			return null;
+		}
+		return new ManyToManyJoin(index.getTableName(from), fromIdentifier.getName(),
+				DatabaseUtil.getIndirectionTableName(collection),
+				DatabaseUtil.getInwardIndirectionColumnName(collection, R2RMLMapping.FORMAT_VERSION),
+				DatabaseUtil.getOutwardIndirectionColumnName(collection, R2RMLMapping.FORMAT_VERSION),
+				to.getTableName(), to.getIdentifierName(), to);
+	}
+
+	public String getFromTableName()
+	{
+		return fromTableName;
+	}
+
+	public String getFromColumnName()
+	{
+		return fromColumnName;
+	}
+
+	public String getJoinTableName()
+	{
+		return joinTableName;
+	}
+
+	public String getInwardColumnName()
+	{
+		return inwardColumnName;
+	}
+
+	public String getOutwardColumnName()
+	{
+		return outwardColumnName;
+	}
+
+	public String getToTableName()
+	{
+		return toTableName;
+	}
+
+	public String getToColumnName()
+	{
+		return toColumnName;
+	}
+
+	/**
+	 * @return the hierarchy the join goes to if it was collapsed, otherwise null
+	 */
+	public HierarchyView getToHierarchy()
+	{
+		return toHierarchy;
+	}
+
+	/**
+	 * We build a big sql query to join internally via the intermine id's,
+	 * but expose the external identifiers only, and the referring id so that the
+	 * materializer can split the view into ranges of it.
+	 * @return the query of the R2RMLView
+	 */
+	public String getSql()
+	{
+		final Stream<String> distinct = Stream.of(fromTableName, joinTableName, toTableName).distinct();
+		String tables = distinct.collect(Collectors.joining(","));
+		if (toHierarchy != null) {
+			// the type of the referenced row comes from intermineobject
+			return "SELECT " + fromTableName + "." + fromColumnName
+					+ ", " + toHierarchy.getTypeExpression("o") + " AS " + HierarchyView.TYPE_COLUMN
+					+ ", " + toTableName + "." + toColumnName + " AS " + TO_COLUMN_ALIAS
+					+ ", " + joinTableName + "." + inwardColumnName + " AS " + ID_ALIAS
+					+ " FROM " + tables + ", " + HierarchyView.OBJECT_TABLE + " o"
+					+ " WHERE " + fromTableName + ".id = " + joinTableName + "." + inwardColumnName
+					+ " AND " + toTableName + ".id = " + joinTableName + "." + outwardColumnName
+					+ " AND o.id = " + toTableName + ".id AND " + toHierarchy.getClassCondition("o");
+		}
+		return "SELECT " + fromTableName + "." + fromColumnName
+				+ ", "
+				+ toTableName
+				+ "." + toColumnName + " AS " + TO_COLUMN_ALIAS
+				+ ", " + joinTableName + "." + inwardColumnName + " AS " + ID_ALIAS + "  FROM "
+				+ tables
+				+ " WHERE " + fromTableName + ".id = " + joinTableName + "." + inwardColumnName
+				+ " AND " + toTableName + ".id = " + joinTableName + "." + outwardColumnName;
+	}
+
+	/**
+	 * @return the name of the materialized view that can replace {@link #getSql()}
+	 */
+	public String getViewName()
+	{
+		return SqlNames.identifier("im_mv_" + fromTableName + "_" + joinTableName + "_" + toTableName);
+	}
+}
@@ -0,0 +1,48 @@
+package org.intermine.r2rmlmapping;
+
+import org.apache.jena.rdf.model.AnonId;
+import org.apache.jena.rdf.model.Resource;
+
+/**
+ * The state needed while generating the TriplesMaps of one class.
+ *
+ * Blank nodes get labels derived from the class' table and a counter instead of
+ * random ids. Jena orders a graph by node hash, so this is what makes two runs over
+ * the same model write identical files.
+ */
+public class MappingContext
+{
+	private final ModelIndex index;
+	private final URIHelper uriHelper;
+	private final MappingOptions options;
+	private final String blankNodePrefix;
+	private int blankNodes = 0;
+
+	public MappingContext(ModelIndex index, URIHelper uriHelper, MappingOptions options, String tableName)
+	{
+		this.index = index;
+		this.uriHelper = uriHelper;
+		this.options = options;
+		this.blankNodePrefix = tableName + "_";
+	}
+
+	public ModelIndex getIndex()
+	{
+		return index;
+	}
+
+	public URIHelper getURIHelper()
+	{
+		return uriHelper;
+	}
+
+	public MappingOptions getOptions()
+	{
+		return options;
+	}
+
+	public Resource createResource(org.apache.jena.rdf.model.Model model)
+	{
+		return model.createResource(AnonId.create(blankNodePrefix + (++blankNodes)));
+	}
+}
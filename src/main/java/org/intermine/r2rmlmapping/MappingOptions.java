@@ -0,0 +1,238 @@
+package org.intermine.r2rmlmapping;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.intermine.r2rmlmapping.jdbc.ClobReader;
+
+/**
+ * The command line of R2RMLMapping, given as --name=value pairs, e.g.
+ * <code>--output=mapping.nt --format=ntriples</code>.
+ */
+public class MappingOptions
+{
+	/** Every exportable subclass of a referenced class gets its own join */
+	public static final String PER_SUBCLASS = "per-subclass";
+	/** A reference to a class with subclasses is one join to the class' table, see HierarchyView */
+	public static final String COLLAPSED = "collapsed";
+	/** ClobAccess attributes are literals of their class' TriplesMap, like any other attribute */
+	public static final String INLINE = "inline";
+	/** ClobAccess attributes are literals of a TriplesMap of their own */
+	public static final String SEPARATE = "separate";
+	/** ClobAccess attributes are IRIs under --clob-base, which ClobServer dereferences */
+	public static final String IRI = "iri";
+	/** ClobAccess attributes are described by their length */
+	public static final String SUMMARY = "summary";
+
+	private final Map<String, String> values = new HashMap<>();
+
+	private MappingOptions()
+	{
+		values.put("output", "mapping.ttl");
+		values.put("format", MappingWriter.TURTLE);
+		values.put("incremental", "false");
+		values.put("ddl", "");
+		values.put("db-metadata", "");
+		values.put("constraints", "");
+		values.put("unique-keys", "");
+		values.put("materialized-views", "false");
+		values.put("hierarchy", PER_SUBCLASS);
+		values.put("sql-tags", "false");
+		values.put("shards", "1");
+		values.put("shard-endpoint", "http://localhost:{port}/sparql");
+		values.put("clobs", INLINE);
+		values.put("clob-base", "http://localhost:8090/clob/");
+		values.put("clob-storage", ClobReader.INTERMINE_STORAGE);
+	}
+
+	public static MappingOptions parse(String[] args)
+	{
+		MappingOptions options = new MappingOptions();
+		for (String arg : args)
+		{
+			if (!arg.startsWith("--")) {
+				throw new IllegalArgumentException("Expected --name=value but got " + arg);
+			}
+			int equals = arg.indexOf('=');
+			String name = equals < 0 ? arg.substring(2) : arg.substring(2, equals);
+			String value = equals < 0 ? "true" : arg.substring(equals + 1);
+			if (!options.values.containsKey(name)) {
+				throw new IllegalArgumentException("Unknown option --" + name);
+			}
+			options.values.put(name, value);
+		}
+		return options;
+	}
+
+	/**
+	 * @return the file the mapping is written to
+	 */
+	public String getOutput()
+	{
+		return values.get("output");
+	}
+
+	/**
+	 * @return one of the formats of {@link MappingWriter}
+	 */
+	public String getFormat()
+	{
+		return values.get("format");
+	}
+
+	/**
+	 * @return true to only regenerate what changed since the last run, see {@link IncrementalMapping}
+	 */
+	public boolean isIncremental()
+	{
+		return Boolean.parseBoolean(values.get("incremental"));
+	}
+
+	/**
+	 * @return the file for the index script of {@link IndexAdvisor}, or null for none
+	 */
+	public String getDdl()
+	{
+		String ddl = values.get("ddl");
+		return ddl.isEmpty() ? null : ddl;
+	}
+
+	/**
+	 * @return the file for ontop's database metadata from {@link OntopMetadata}, or null for none
+	 */
+	public String getDbMetadata()
+	{
+		String dbMetadata = values.get("db-metadata");
+		return dbMetadata.isEmpty() ? null : dbMetadata;
+	}
+
+	/**
+	 * @return the file for ontop's implicit constraints from {@link OntopMetadata}, or null for none
+	 */
+	public String getConstraints()
+	{
+		String constraints = values.get("constraints");
+		return constraints.isEmpty() ? null : constraints;
+	}
+
+	/**
+	 * @return the db.properties of the mine whose URI identifier columns are checked for
+	 * duplicates, so that {@link OntopMetadata} declares the unique ones keys, or null to
+	 * declare none
+	 */
+	public String getUniqueKeys()
+	{
+		String uniqueKeys = values.get("unique-keys");
+		return uniqueKeys.isEmpty() ? null : uniqueKeys;
+	}
+
+	/**
+	 * @return true if the many to many TriplesMaps should read from materialized views
+	 * instead of running their join inline
+	 */
+	public boolean isMaterializedViews()
+	{
+		return Boolean.parseBoolean(values.get("materialized-views"));
+	}
+
+	/**
+	 * @return true if every logical table is an rr:sqlQuery that starts with a comment
+	 * naming its TriplesMap, see {@link org.intermine.r2rmlmapping.jdbc.SqlTags}
+	 */
+	public boolean isSqlTags()
+	{
+		return Boolean.parseBoolean(values.get("sql-tags"));
+	}
+
+	/**
+	 * @return the number of mappings to split the TriplesMaps into, see {@link ShardedMapping}
+	 */
+	public int getShards()
+	{
+		return Integer.parseInt(values.get("shards"));
+	}
+
+	/**
+	 * @param shard the number of a shard, from 1
+	 * @return the endpoint serving the shard, from a template where {shard} is its number
+	 * and {port} 8080 plus its number
+	 */
+	public String getShardEndpoint(int shard)
+	{
+		return values.get("shard-endpoint").replace("{shard}", String.valueOf(shard))
+				.replace("{port}", String.valueOf(8080 + shard));
+	}
+
+	/**
+	 * @return true if references to classes with subclasses are mapped once, against a {@link HierarchyView}
+	 */
+	public boolean isCollapsedHierarchy()
+	{
+		String hierarchy = values.get("hierarchy");
+		if (!PER_SUBCLASS.equals(hierarchy) && !COLLAPSED.equals(hierarchy)) {
+			throw new IllegalArgumentException("--hierarchy must be " + PER_SUBCLASS + " or " + COLLAPSED);
+		}
+		return COLLAPSED.equals(hierarchy);
+	}
+
+	/**
+	 * @return how ClobAccess attributes are mapped besides inline: {@link #SEPARATE} or {@link #IRI},
+	 * and/or {@link #SUMMARY}; empty for {@link #INLINE}
+	 */
+	public Set<String> getClobs()
+	{
+		Set<String> clobs = new LinkedHashSet<>(Arrays.asList(values.get("clobs").split(",")));
+		if (clobs.equals(Collections.singleton(INLINE))) {
+			return Collections.emptySet();
+		}
+		if (!Arrays.asList(SEPARATE, IRI, SUMMARY).containsAll(clobs) || clobs.contains(SEPARATE) && clobs.contains(IRI)) {
+			throw new IllegalArgumentException("--clobs must be " + INLINE + ", " + SEPARATE + " or " + IRI
+					+ ", optionally with " + SUMMARY + ", e.g. --clobs=" + IRI + "," + SUMMARY);
+		}
+		if (clobs.contains(SEPARATE) && isInterMineClobStorage()) {
+			throw new IllegalArgumentException("--clobs=" + SEPARATE + " maps the column, which only refers to"
+					+ " the clob table in a mine built by InterMine: use --clobs=" + IRI
+					+ ", or --clob-storage=" + ClobReader.COLUMN_STORAGE + " if the column holds the content");
+		}
+		return clobs;
+	}
+
+	/**
+	 * @return true if ClobAccess attributes refer to InterMine's clob table, false if their
+	 * columns hold the content, see ClobReader
+	 */
+	public boolean isInterMineClobStorage()
+	{
+		String storage = values.get("clob-storage");
+		if (!ClobReader.INTERMINE_STORAGE.equals(storage) && !ClobReader.COLUMN_STORAGE.equals(storage)) {
+			throw new IllegalArgumentException("--clob-storage must be " + ClobReader.INTERMINE_STORAGE + " or "
+					+ ClobReader.COLUMN_STORAGE);
+		}
+		return ClobReader.INTERMINE_STORAGE.equals(storage);
+	}
+
+	/**
+	 * @return the IRI that the IRIs of --clobs=iri start with, followed by table/column/identifier
+	 */
+	public String getClobBase()
+	{
+		String base = values.get("clob-base");
+		return base.endsWith("/") ? base : base + "/";
+	}
+
+	/**
+	 * @return the options that change the generated TriplesMaps, as one string
+	 */
+	public String getGenerationSignature()
+	{
+		Map<String, String> generation = new TreeMap<>(values);
+		generation.keySet().removeAll(Arrays.asList("output", "format", "incremental", "ddl",
+				"db-metadata", "constraints", "unique-keys", "shards", "shard-endpoint"));
+		return generation.toString();
+	}
+}
@@ -0,0 +1,111 @@
+package org.intermine.r2rmlmapping;
+
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFOps;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.shared.PrefixMapping;
+import org.intermine.metadata.ClassDescriptor;
+
+/**
+ * Writes the mapping class by class to a StreamRDF instead of building one big model.
+ *
+ * Classes are still mapped in parallel, but at most a small window of finished class
+ * mappings is held at a time and they are written in the order of the index. Memory
+ * is therefore bounded by a few classes' triples, and the output is as reproducible
+ * as the pretty printed one.
+ */
+public class MappingWriter
+{
+	/** Jena's pretty printer, needs the whole mapping in memory */
+	public static final String TURTLE = "turtle";
+	/** Streaming turtle, grouped by subject */
+	public static final String TURTLE_BLOCKS = "turtle-blocks";
+	public static final String NTRIPLES = "ntriples";
+	public static final String THRIFT = "thrift";
+
+	private MappingWriter()
+	{
+	}
+
+	public static boolean isStreaming(String format)
+	{
+		return !TURTLE.equals(format);
+	}
+
+	/**
+	 * @return a started sink for one of the streaming formats
+	 */
+	public static StreamRDF createStream(OutputStream out, String format)
+	{
+		StreamRDF stream;
+		switch (format)
+		{
+			case TURTLE_BLOCKS:
+				stream = StreamRDFWriter.getWriterStream(out, RDFFormat.TURTLE_BLOCKS, null);
+				break;
+			case NTRIPLES:
+				stream = StreamRDFWriter.getWriterStream(out, RDFFormat.NTRIPLES, null);
+				break;
+			case THRIFT:
+				stream = StreamRDFWriter.getWriterStream(out, RDFFormat.RDF_THRIFT, null);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown streaming format: " + format);
+		}
+		stream.start();
+		return stream;
+	}
+
+	/**
+	 * Sends the prefixes and then the TriplesMaps of every class to sink.
+	 * The sink is neither started nor finished here.
+	 */
+	public static void write(ModelIndex index, URIHelper uriHelper, MappingOptions options, StreamRDF sink)
+			throws InterruptedException, ExecutionException
+	{
+		sendPrefixes(sink);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		Deque<Future<org.apache.jena.rdf.model.Model>> window = new ArrayDeque<>();
+		try {
+			for (ClassDescriptor cd : index.getClassDescriptors())
+			{
+				if (window.size() >= 2 * threads) {
+					send(window.removeFirst(), sink);
+				}
+				window.addLast(workers.submit(() -> R2RMLMapping.mapClass(cd, index, uriHelper, options)));
+			}
+			while (!window.isEmpty()) {
+				send(window.removeFirst(), sink);
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sends the prefixes of {@link R2RMLMapping#setKnownPrefixes(PrefixMapping)} to sink.
+	 */
+	public static void sendPrefixes(StreamRDF sink)
+	{
+		PrefixMapping prefixes = PrefixMapping.Factory.create();
+		R2RMLMapping.setKnownPrefixes(prefixes);
+		prefixes.getNsPrefixMap().forEach(sink::prefix);
+	}
+
+	private static void send(Future<org.apache.jena.rdf.model.Model> classMapping, StreamRDF sink)
+			throws InterruptedException, ExecutionException
+	{
+		StreamRDFOps.sendTriplesToStream(classMapping.get().getGraph(), sink);
+	}
+}
@@ -0,0 +1,144 @@
+package org.intermine.r2rmlmapping;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.sql.DatabaseUtil;
+
+/**
+ * A digest of everything about a class that ends up in its TriplesMaps: the fields,
+ * references and collections, the subclasses and the URI template built from
+ * class_keys.properties. Two runs that give a class the same fingerprint generate
+ * the same TriplesMaps for it, as long as the classes it joins to are unchanged too.
+ */
+public final class ModelFingerprint
+{
+	private ModelFingerprint()
+	{
+	}
+
+	/**
+	 * @return the fingerprint of every class, keyed by class name, in index order
+	 */
+	public static Map<String, String> compute(ModelIndex index, URIHelper uriHelper)
+	{
+		Map<String, String> fingerprints = new LinkedHashMap<>();
+		for (ClassDescriptor cd : index.getClassDescriptors())
+		{
+			fingerprints.put(cd.getName(), fingerprint(cd, index, uriHelper));
+		}
+		return fingerprints;
+	}
+
+	/**
+	 * @return the names of the classes whose TriplesMaps join to cd or one of its subclasses
+	 */
+	public static Set<String> findDependents(ModelIndex index, Set<String> classNames)
+	{
+		Set<String> dependents = new HashSet<>();
+		for (ClassDescriptor cd : index.getClassDescriptors())
+		{
+			for (FieldDescriptor fd : cd.getAllFieldDescriptors())
+			{
+				if (fd instanceof ReferenceDescriptor && joinsTo(index, (ReferenceDescriptor) fd, classNames)) {
+					dependents.add(cd.getName());
+					break;
+				}
+			}
+		}
+		return dependents;
+	}
+
+	private static boolean joinsTo(ModelIndex index, ReferenceDescriptor reference, Set<String> classNames)
+	{
+		ClassDescriptor referenced = reference.getReferencedClassDescriptor();
+		if (classNames.contains(referenced.getName())) {
+			return true;
+		}
+		for (ClassDescriptor sub : index.getAllSubs(referenced))
+		{
+			if (classNames.contains(sub.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String fingerprint(ClassDescriptor cd, ModelIndex index, URIHelper uriHelper)
+	{
+		ModelIndex.ClassInfo info = index.get(cd);
+		List<String> parts = new ArrayList<>();
+		parts.add("class " + cd.getName() + " " + info.getTableName() + " " + cd.getFairTerm()
+				+ " " + info.isExportable() + " " + info.isJoinTarget());
+		AttributeDescriptor uriIdentifier = info.getURIIdentifier();
+		if (uriIdentifier != null) {
+			parts.add("uri " + uriIdentifier.getName() + " " + uriHelper.createURI(info.getTableName()));
+		}
+		List<String> fields = new ArrayList<>();
+		for (FieldDescriptor fd : cd.getAllFieldDescriptors())
+		{
+			fields.add(describe(fd));
+		}
+		Collections.sort(fields);
+		parts.addAll(fields);
+		for (ClassDescriptor sub : info.getSubclasses())
+		{
+			// the collapsed hierarchy view depends on how the subclasses are exported
+			AttributeDescriptor subIdentifier = index.getURIIdentifier(sub);
+			parts.add("sub " + sub.getName() + " " + index.isExportable(sub) + " "
+					+ (subIdentifier == null ? "" : subIdentifier.getName() + " "
+					+ uriHelper.createURI(index.getTableName(sub))));
+		}
+		return digest(parts);
+	}
+
+	private static String describe(FieldDescriptor fd)
+	{
+		if (fd instanceof AttributeDescriptor) {
+			AttributeDescriptor ad = (AttributeDescriptor) fd;
+			return "attribute " + ad.getName() + " " + ad.getType() + " " + ad.getFairTerm();
+		}
+		ReferenceDescriptor rd = (ReferenceDescriptor) fd;
+		ReferenceDescriptor reverse = rd.getReverseReferenceDescriptor();
+		String description = (fd.isCollection() ? "collection " : "reference ") + rd.getName() + " "
+				+ rd.getReferencedClassName() + " " + rd.relationType() + " "
+				+ (reverse == null ? "" : reverse.getName());
+		if (rd.relationType() == FieldDescriptor.M_N_RELATION) {
+			description += " " + DatabaseUtil.getIndirectionTableName((CollectionDescriptor) rd);
+		}
+		return description;
+	}
+
+	private static String digest(List<String> parts)
+	{
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			for (String part : parts)
+			{
+				sha.update(part.getBytes(StandardCharsets.UTF_8));
+				sha.update((byte) '\n');
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : sha.digest())
+			{
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
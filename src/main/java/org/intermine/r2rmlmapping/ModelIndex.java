@@ -0,0 +1,188 @@
+package org.intermine.r2rmlmapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.sql.DatabaseUtil;
+
+/**
+ * Everything the generator asks about a class, worked out once per model:
+ * its table, the attribute its URIs are built from, whether it is exported and
+ * its subclasses. The index is read only once built, so the per-class mappings can be
+ * generated in parallel.
+ */
+public class ModelIndex
+{
+	/**
+	 * What we know about one ClassDescriptor.
+	 */
+	public static class ClassInfo
+	{
+		private final ClassDescriptor classDescriptor;
+		private final String tableName;
+		private final AttributeDescriptor uriIdentifier;
+		private final boolean exportable;
+		private final List<ClassDescriptor> subclasses;
+		private HierarchyView hierarchyView;
+		private boolean joinTarget;
+
+		ClassInfo(ClassDescriptor classDescriptor, String tableName, AttributeDescriptor uriIdentifier,
+				boolean exportable, List<ClassDescriptor> subclasses)
+		{
+			this.classDescriptor = classDescriptor;
+			this.tableName = tableName;
+			this.uriIdentifier = uriIdentifier;
+			this.exportable = exportable;
+			this.subclasses = subclasses;
+		}
+
+		public ClassDescriptor getClassDescriptor()
+		{
+			return classDescriptor;
+		}
+
+		public String getTableName()
+		{
+			return tableName;
+		}
+
+		/**
+		 * @return the attribute used in the URI template, or null if the class has none
+		 */
+		public AttributeDescriptor getURIIdentifier()
+		{
+			return uriIdentifier;
+		}
+
+		public boolean isExportable()
+		{
+			return exportable;
+		}
+
+		/**
+		 * @return all the subclasses, ordered by name
+		 */
+		public List<ClassDescriptor> getSubclasses()
+		{
+			return subclasses;
+		}
+
+		/**
+		 * @return the view over the class and its subclasses, null if they cannot be collapsed
+		 */
+		public HierarchyView getHierarchyView()
+		{
+			return hierarchyView;
+		}
+
+		/**
+		 * @return true if a reference or many to many collection of an exported class points here
+		 */
+		public boolean isJoinTarget()
+		{
+			return joinTarget;
+		}
+	}
+
+	private static final Comparator<ClassDescriptor> BY_NAME = Comparator.comparing(ClassDescriptor::getName);
+
+	private final Model model;
+	private final List<ClassDescriptor> classDescriptors;
+	private final Map<ClassDescriptor, ClassInfo> infos = new HashMap<>();
+
+	public ModelIndex(Model model, URIHelper uriHelper)
+	{
+		this.model = model;
+		List<ClassDescriptor> sorted = new ArrayList<>(model.getClassDescriptors());
+		sorted.sort(BY_NAME);
+		this.classDescriptors = Collections.unmodifiableList(sorted);
+		for (ClassDescriptor cd : classDescriptors) {
+			String tableName = DatabaseUtil.getTableName(cd);
+			List<ClassDescriptor> subs = new ArrayList<>(model.getAllSubs(cd));
+			subs.sort(BY_NAME);
+			infos.put(cd, new ClassInfo(cd, tableName, findURIIdentifier(cd, tableName, uriHelper),
+					R2RMLMapping.isExportable(cd), Collections.unmodifiableList(subs)));
+		}
+		for (ClassDescriptor cd : classDescriptors) {
+			ClassInfo info = infos.get(cd);
+			info.hierarchyView = HierarchyView.create(cd, this, uriHelper);
+			if (info.isExportable()) {
+				for (FieldDescriptor fd : cd.getAllFieldDescriptors()) {
+					if (fd instanceof ReferenceDescriptor && (!fd.isCollection()
+							|| ((CollectionDescriptor) fd).relationType() == FieldDescriptor.M_N_RELATION)) {
+						infos.get(((ReferenceDescriptor) fd).getReferencedClassDescriptor()).joinTarget = true;
+					}
+				}
+			}
+		}
+	}
+
+	private static AttributeDescriptor findURIIdentifier(ClassDescriptor cd, String tableName, URIHelper uriHelper)
+	{
+		for (FieldDescriptor fd : cd.getAllFieldDescriptors())
+		{
+			if (fd instanceof AttributeDescriptor
+					&& uriHelper.isURIIdentifier(tableName, DatabaseUtil.getColumnName(fd))) {
+				return (AttributeDescriptor) fd;
+			}
+		}
+		return null;
+	}
+
+	public Model getModel()
+	{
+		return model;
+	}
+
+	/**
+	 * @return the classes of the model ordered by name, the order the mapping is written in
+	 */
+	public List<ClassDescriptor> getClassDescriptors()
+	{
+		return classDescriptors;
+	}
+
+	public ClassInfo get(ClassDescriptor cd)
+	{
+		ClassInfo info = infos.get(cd);
+		if (info == null) {
+			throw new IllegalArgumentException(cd.getName() + " is not in model " + model.getName());
+		}
+		return info;
+	}
+
+	public String getTableName(ClassDescriptor cd)
+	{
+		return get(cd).getTableName();
+	}
+
+	public AttributeDescriptor getURIIdentifier(ClassDescriptor cd)
+	{
+		return get(cd).getURIIdentifier();
+	}
+
+	public boolean isExportable(ClassDescriptor cd)
+	{
+		return get(cd).isExportable();
+	}
+
+	public List<ClassDescriptor> getAllSubs(ClassDescriptor cd)
+	{
+		return get(cd).getSubclasses();
+	}
+
+	public HierarchyView getHierarchyView(ClassDescriptor cd)
+	{
+		return get(cd).getHierarchyView();
+	}
+}
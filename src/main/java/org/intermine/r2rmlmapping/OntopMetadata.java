@@ -0,0 +1,383 @@
+package org.intermine.r2rmlmapping;
+
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonArray;
+import org.apache.jena.atlas.json.JsonObject;
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.r2rmlmapping.jdbc.UniqueKeys;
+import org.intermine.sql.DatabaseUtil;
+
+/**
+ * Describes the tables the generated mapping reads, so that ontop neither has to
+ * introspect the database at startup nor miss the keys it needs to drop self joins:
+ * <ul>
+ * <li>the id of every class table is its primary key and not null</li>
+ * <li>the URI identifier of a class is unique in its table, but only if
+ * {@link #addVerifiedKeys} found it so in the mine: InterMine does not enforce it, and
+ * ontop drops self joins on the strength of these keys</li>
+ * <li>every reference column (e.g. organismid) is a foreign key to the id of the
+ * referenced class' table, which holds the objects of all its subclasses as well</li>
+ * <li>both columns of an indirection table are not null foreign keys</li>
+ * <li>columns of primitive types, e.g. int, are not null</li>
+ * </ul>
+ * The facts are written as ontop's database metadata (--db-metadata), and the keys also
+ * as an implicit constraints file (-c) for when ontop should still read the schema.
+ *
+ * The types are PostgreSQL's, as InterMine uses it.
+ */
+public class OntopMetadata
+{
+	private static final String SCHEMA = "public";
+
+	private static class ForeignKey
+	{
+		final String column;
+		final String parentTable;
+
+		ForeignKey(String column, String parentTable)
+		{
+			this.column = column;
+			this.parentTable = parentTable;
+		}
+	}
+
+	private static class Relation
+	{
+		final String name;
+		final Map<String, String> columnTypes = new LinkedHashMap<>();
+		final Set<String> notNull = new LinkedHashSet<>();
+		final Set<String> unique = new LinkedHashSet<>();
+		// the URI identifier, a key only once the database says so
+		String candidateKey;
+		final Map<String, ForeignKey> foreignKeys = new LinkedHashMap<>();
+		String primaryKey;
+
+		Relation(String name)
+		{
+			this.name = name;
+		}
+
+		void addColumn(String column, String type, boolean nullable)
+		{
+			columnTypes.putIfAbsent(column, type);
+			if (!nullable) {
+				notNull.add(column);
+			}
+		}
+	}
+
+	private final ModelIndex index;
+	private final boolean materializedViews;
+	private final boolean collapsedHierarchy;
+	private final Map<String, Relation> relations = new TreeMap<>();
+
+	public OntopMetadata(ModelIndex index, MappingOptions options)
+	{
+		this.index = index;
+		this.materializedViews = options.isMaterializedViews();
+		this.collapsedHierarchy = options.isCollapsedHierarchy();
+		for (ClassDescriptor cd : index.getClassDescriptors())
+		{
+			describeClass(cd);
+		}
+		if (collapsedHierarchy) {
+			// the collapsed views read the class of every row from intermineobject
+			Relation objects = relation(HierarchyView.OBJECT_TABLE);
+			objects.addColumn("id", "int4", false);
+			objects.addColumn(HierarchyView.CLASS_COLUMN, "text", true);
+			objects.primaryKey = "id";
+		}
+	}
+
+	private void describeClass(ClassDescriptor cd)
+	{
+		Relation table = relation(index.getTableName(cd));
+		table.addColumn("id", "int4", false);
+		table.primaryKey = "id";
+		AttributeDescriptor uriIdentifier = index.getURIIdentifier(cd);
+		if (uriIdentifier != null && !"id".equalsIgnoreCase(uriIdentifier.getName())) {
+			table.candidateKey = column(uriIdentifier);
+		}
+		for (FieldDescriptor fd : cd.getAllFieldDescriptors())
+		{
+			if (fd instanceof AttributeDescriptor) {
+				String type = ((AttributeDescriptor) fd).getType();
+				table.addColumn(column(fd), sqlType(type), !isPrimitive(type));
+			} else if (fd.isCollection()) {
+				CollectionDescriptor collection = (CollectionDescriptor) fd;
+				if (collection.relationType() == FieldDescriptor.M_N_RELATION) {
+					describeIndirection(cd, collection);
+				}
+			} else {
+				ReferenceDescriptor reference = (ReferenceDescriptor) fd;
+				// the join conditions of R2RMLMapping name the column this way
+				String column = name(fd.getName() + "id");
+				table.addColumn(column, "int4", true);
+				table.foreignKeys.put(column, new ForeignKey(column,
+						name(index.getTableName(reference.getReferencedClassDescriptor()))));
+			}
+		}
+	}
+
+	/**
+	 * Declares the URI identifiers unique whose values are unique in the mine.
+	 */
+	public void addVerifiedKeys(UniqueKeys keys) throws SQLException
+	{
+		for (Relation relation : relations.values())
+		{
+			if (relation.candidateKey == null) {
+				continue;
+			}
+			if (keys.isUnique(relation.name, relation.candidateKey)) {
+				relation.unique.add(relation.candidateKey);
+			} else {
+				System.err.println("Not declaring " + relation.name + "." + relation.candidateKey
+						+ " unique, it has duplicate values");
+			}
+		}
+	}
+
+	private void describeIndirection(ClassDescriptor cd, CollectionDescriptor collection)
+	{
+		Relation table = relation(DatabaseUtil.getIndirectionTableName(collection));
+		String inward = name(DatabaseUtil.getInwardIndirectionColumnName(collection, R2RMLMapping.FORMAT_VERSION));
+		String outward = name(DatabaseUtil.getOutwardIndirectionColumnName(collection, R2RMLMapping.FORMAT_VERSION));
+		table.addColumn(inward, "int4", false);
+		table.addColumn(outward, "int4", false);
+		table.foreignKeys.putIfAbsent(inward, new ForeignKey(inward, name(index.getTableName(cd))));
+		table.foreignKeys.putIfAbsent(outward, new ForeignKey(outward,
+				name(index.getTableName(collection.getReferencedClassDescriptor()))));
+		if (materializedViews && index.isExportable(cd)) {
+			describeViews(cd, collection);
+		}
+	}
+
+	/**
+	 * The materialized views of {@link IndexAdvisor} that the many to many TriplesMaps read.
+	 */
+	private void describeViews(ClassDescriptor cd, CollectionDescriptor collection)
+	{
+		ClassDescriptor referenced = collection.getReferencedClassDescriptor();
+		List<ManyToManyJoin> joins = new ArrayList<>();
+		HierarchyView hierarchy = collapsedHierarchy ? index.getHierarchyView(referenced) : null;
+		if (hierarchy != null) {
+			joins.add(ManyToManyJoin.createCollapsed(cd, hierarchy, collection, index));
+		} else {
+			List<ClassDescriptor> subs = index.getAllSubs(referenced);
+			for (ClassDescriptor to : subs.isEmpty() ? Collections.singletonList(referenced) : subs)
+			{
+				if (index.isExportable(to)) {
+					joins.add(ManyToManyJoin.create(cd, to, collection, index));
+				}
+			}
+		}
+		for (ManyToManyJoin join : joins)
+		{
+			if (join == null) {
+				continue;
+			}
+			Relation view = relation(join.getViewName());
+			view.addColumn(name(join.getFromColumnName()), "text", true);
+			if (join.getToHierarchy() != null) {
+				view.addColumn(HierarchyView.TYPE_COLUMN, "text", true);
+			}
+			view.addColumn(name(ManyToManyJoin.TO_COLUMN_ALIAS), "text", true);
+			view.addColumn(ManyToManyJoin.ID_ALIAS, "int4", false);
+		}
+	}
+
+	private Relation relation(String tableName)
+	{
+		return relations.computeIfAbsent(name(tableName), Relation::new);
+	}
+
+	private static String column(FieldDescriptor fd)
+	{
+		return name(DatabaseUtil.getColumnName(fd));
+	}
+
+	/**
+	 * PostgreSQL folds unquoted names, as the mapping uses them, to lower case.
+	 */
+	private static String name(String name)
+	{
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	private static String quote(String name)
+	{
+		return "\"" + name + "\"";
+	}
+
+	static boolean isPrimitive(String type)
+	{
+		return !type.contains(".");
+	}
+
+	static String sqlType(String type)
+	{
+		switch (type)
+		{
+			case "int":
+			case "java.lang.Integer":
+				return "int4";
+			case "short":
+			case "java.lang.Short":
+				return "int2";
+			case "long":
+			case "java.lang.Long":
+			case "java.util.Date":
+				return "int8";
+			case "boolean":
+			case "java.lang.Boolean":
+				return "bool";
+			case "float":
+			case "java.lang.Float":
+				return "float4";
+			case "double":
+			case "java.lang.Double":
+				return "float8";
+			case "java.math.BigDecimal":
+				return "numeric";
+			default:
+				// String and ClobAccess
+				return "text";
+		}
+	}
+
+	/**
+	 * Writes the database metadata, in the format of ontop's extract-db-metadata command.
+	 */
+	public void writeDatabaseMetadata(String fileName) throws IOException
+	{
+		JsonArray relationsJson = new JsonArray();
+		for (Relation relation : relations.values())
+		{
+			JsonObject relationJson = new JsonObject();
+			relationJson.put("name", qualifiedName(relation.name));
+			JsonArray columns = new JsonArray();
+			for (Map.Entry<String, String> column : relation.columnTypes.entrySet())
+			{
+				JsonObject columnJson = new JsonObject();
+				columnJson.put("name", quote(column.getKey()));
+				columnJson.put("isNullable", !relation.notNull.contains(column.getKey()));
+				columnJson.put("datatype", column.getValue());
+				columns.add(columnJson);
+			}
+			relationJson.put("columns", columns);
+			JsonArray uniqueConstraints = new JsonArray();
+			if (relation.primaryKey != null) {
+				uniqueConstraints.add(uniqueConstraint(relation.name + "_pkey", relation.primaryKey, true));
+			}
+			for (String column : relation.unique)
+			{
+				uniqueConstraints.add(uniqueConstraint(relation.name + "_" + column + "_key", column, false));
+			}
+			relationJson.put("uniqueConstraints", uniqueConstraints);
+			relationJson.put("otherFunctionalDependencies", new JsonArray());
+			JsonArray foreignKeys = new JsonArray();
+			for (ForeignKey foreignKey : relation.foreignKeys.values())
+			{
+				JsonObject foreignKeyJson = new JsonObject();
+				foreignKeyJson.put("name", SqlNames.identifier(relation.name + "_" + foreignKey.column + "_fkey"));
+				foreignKeyJson.put("from", columnReference(relation.name, foreignKey.column));
+				foreignKeyJson.put("to", columnReference(foreignKey.parentTable, "id"));
+				foreignKeys.add(foreignKeyJson);
+			}
+			relationJson.put("foreignKeys", foreignKeys);
+			relationsJson.add(relationJson);
+		}
+		JsonObject metadata = new JsonObject();
+		metadata.put("dbmsProductName", "PostgreSQL");
+		metadata.put("dbmsVersion", "11");
+		metadata.put("driverName", "PostgreSQL JDBC Driver");
+		metadata.put("driverVersion", "42.2.18");
+		metadata.put("quotationString", "\"");
+		metadata.put("extractionTime", Instant.now().toString());
+		metadata.put("idFactoryType", "POSTGRESQL");
+		JsonObject json = new JsonObject();
+		json.put("relations", relationsJson);
+		json.put("metadata", metadata);
+		try (OutputStream out = new FileOutputStream(fileName)) {
+			JSON.write(out, json);
+		}
+	}
+
+	private static JsonArray qualifiedName(String table)
+	{
+		JsonArray name = new JsonArray();
+		name.add(quote(SCHEMA));
+		name.add(quote(table));
+		return name;
+	}
+
+	private static JsonObject uniqueConstraint(String name, String column, boolean primaryKey)
+	{
+		JsonObject constraint = new JsonObject();
+		constraint.put("name", SqlNames.identifier(name));
+		JsonArray determinants = new JsonArray();
+		determinants.add(quote(column));
+		constraint.put("determinants", determinants);
+		constraint.put("isPrimaryKey", primaryKey);
+		return constraint;
+	}
+
+	private static JsonObject columnReference(String table, String column)
+	{
+		JsonObject reference = new JsonObject();
+		reference.put("relation", qualifiedName(table));
+		JsonArray columns = new JsonArray();
+		columns.add(quote(column));
+		reference.put("columns", columns);
+		return reference;
+	}
+
+	/**
+	 * Writes the keys as ontop's implicit constraints: table:columns for a unique key and
+	 * table:columns:parent table:parent columns for a foreign key.
+	 */
+	public void writeConstraints(String fileName) throws IOException
+	{
+		try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
+			for (Relation relation : relations.values())
+			{
+				if (relation.primaryKey != null) {
+					out.println(relation.name + ":" + relation.primaryKey);
+				}
+				for (String column : relation.unique)
+				{
+					out.println(relation.name + ":" + column);
+				}
+			}
+			for (Relation relation : relations.values())
+			{
+				for (ForeignKey foreignKey : relation.foreignKeys.values())
+				{
+					out.println(relation.name + ":" + foreignKey.column + ":" + foreignKey.parentTable + ":id");
+				}
+			}
+		}
+	}
+}
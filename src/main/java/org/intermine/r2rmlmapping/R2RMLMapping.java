@@ -1,15 +1,24 @@
 package org.intermine.r2rmlmapping;
 
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.shared.PrefixMapping;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 import org.apache.jena.vocabulary.XSD;
@@ -19,6 +28,10 @@ import org.intermine.metadata.CollectionDescriptor;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.Model;
 import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.r2rmlmapping.jdbc.DatabaseConfig;
+import org.intermine.r2rmlmapping.jdbc.SqlTags;
+import org.intermine.r2rmlmapping.jdbc.UniqueKeys;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
 import org.intermine.r2rmlmapping.vocabulary.R2RML;
 import org.intermine.sql.DatabaseUtil;
 
@@ -27,23 +40,73 @@ public class R2RMLMapping
 {
 	/** The version number of the database format */
 	static final int FORMAT_VERSION = 1;
+	static final String CLOB_TYPE = "org.intermine.objectstore.query.ClobAccess";
 
 	public static void main(String[] args)
 	{
+		MappingOptions options = MappingOptions.parse(args);
 		Model model = Model.getInstanceByName("genomic");
-		Set<ClassDescriptor> classDescriptors = model.getClassDescriptors();
-		final org.apache.jena.rdf.model.Model jenaModel = ModelFactory.createDefaultModel();
-		setKnownPrefixes(jenaModel);
 		URIHelper uriHelper = new URIHelper();
-
-		for (ClassDescriptor cd : classDescriptors)
-		{
-			if (isExportable(cd)) {
-				mapBasicFields(cd, jenaModel, uriHelper);
-				mapJoinToOtherTable(cd, jenaModel, uriHelper);
+		ModelIndex index = new ModelIndex(model, uriHelper);
+		if (options.getDdl() != null) {
+			try {
+				new IndexAdvisor(index, options).write(options.getDdl());
+			} catch (IOException ex) {
+				ex.printStackTrace();
+				System.exit(1);
+			}
+		}
+		if (options.getDbMetadata() != null || options.getConstraints() != null) {
+			try {
+				OntopMetadata metadata = new OntopMetadata(index, options);
+				if (options.getUniqueKeys() != null) {
+					metadata.addVerifiedKeys(new UniqueKeys(DatabaseConfig.load(options.getUniqueKeys()).getDataSource()));
+				}
+				if (options.getDbMetadata() != null) {
+					metadata.writeDatabaseMetadata(options.getDbMetadata());
+				}
+				if (options.getConstraints() != null) {
+					metadata.writeConstraints(options.getConstraints());
+				}
+			} catch (IOException | SQLException ex) {
+				ex.printStackTrace();
+				System.exit(1);
+			}
+		}
+		if (options.getShards() > 1) {
+			if (options.isIncremental()) {
+				throw new IllegalArgumentException("--shards cannot be combined with --incremental");
+			}
+			try {
+				new ShardedMapping(index, uriHelper, options).run();
+			} catch (IOException | SQLException ex) {
+				ex.printStackTrace();
+				System.exit(1);
+			}
+			return;
+		}
+		if (options.isIncremental()) {
+			try {
+				new IncrementalMapping(index, uriHelper, options).run();
+			} catch (IOException ex) {
+				ex.printStackTrace();
+				System.exit(1);
+			}
+			return;
+		}
+		if (MappingWriter.isStreaming(options.getFormat())) {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(options.getOutput()))) {
+				StreamRDF stream = MappingWriter.createStream(out, options.getFormat());
+				MappingWriter.write(index, uriHelper, options, stream);
+				stream.finish();
+			} catch (IOException | InterruptedException | ExecutionException ex) {
+				ex.printStackTrace();
+				System.exit(1);
 			}
+			return;
 		}
-		try (PrintWriter out = new PrintWriter(new FileWriter("mapping.ttl"))){
+		final org.apache.jena.rdf.model.Model jenaModel = generate(index, uriHelper, options);
+		try (PrintWriter out = new PrintWriter(new FileWriter(options.getOutput()))){
 			jenaModel.write(out, "turtle");
 		} catch (IOException ex) {
 			ex.printStackTrace();
@@ -51,7 +114,48 @@ public class R2RMLMapping
 		}
 	}
 
-	private static boolean isExportable(ClassDescriptor classDescriptor) {
+	/**
+	 * Generates the TriplesMaps of every class in parallel, each into its own graph, and
+	 * merges them in the order of the index so the result does not depend on scheduling.
+	 * @param index the index of the InterMine model to map
+	 * @param uriHelper
+	 * @param options
+	 * @return the complete mapping
+	 */
+	public static org.apache.jena.rdf.model.Model generate(ModelIndex index, URIHelper uriHelper,
+			MappingOptions options)
+	{
+		List<org.apache.jena.rdf.model.Model> classMappings = index.getClassDescriptors().parallelStream()
+				.map(cd -> mapClass(cd, index, uriHelper, options))
+				.collect(Collectors.toList());
+		final org.apache.jena.rdf.model.Model jenaModel = ModelFactory.createDefaultModel();
+		setKnownPrefixes(jenaModel);
+		for (org.apache.jena.rdf.model.Model classMapping : classMappings)
+		{
+			jenaModel.add(classMapping);
+		}
+		return jenaModel;
+	}
+
+	/**
+	 * @return the TriplesMaps of one class, empty if the class is not exported
+	 */
+	static org.apache.jena.rdf.model.Model mapClass(ClassDescriptor cd, ModelIndex index, URIHelper uriHelper,
+			MappingOptions options)
+	{
+		final org.apache.jena.rdf.model.Model model = ModelFactory.createDefaultModel();
+		MappingContext context = new MappingContext(index, uriHelper, options, index.getTableName(cd));
+		if (index.isExportable(cd)) {
+			mapBasicFields(cd, model, context);
+			mapJoinToOtherTable(cd, model, context);
+		}
+		if (options.isCollapsedHierarchy() && index.get(cd).isJoinTarget() && index.getHierarchyView(cd) != null) {
+			mapHierarchy(cd, model, context);
+		}
+		return model;
+	}
+
+	static boolean isExportable(ClassDescriptor classDescriptor) {
 		String dataType = classDescriptor.getSimpleName();
 		if ("Annotatable".equalsIgnoreCase(dataType) || "BioEntity".equalsIgnoreCase(dataType)
 				|| "SequenceFeature".equalsIgnoreCase(dataType)) {
@@ -60,7 +164,7 @@ public class R2RMLMapping
 		return true;
 	}
 
-	private static void setKnownPrefixes(final org.apache.jena.rdf.model.Model jenaModel)
+	static void setKnownPrefixes(final PrefixMapping jenaModel)
 	{
 		jenaModel.setNsPrefix("rr", R2RML.uri);
 		jenaModel.setNsPrefix("rdfs", RDFS.uri);
@@ -68,67 +172,107 @@ public class R2RMLMapping
 	}
 
 	private static void mapJoinToOtherTable(ClassDescriptor cd,
-	    org.apache.jena.rdf.model.Model model, URIHelper uriHelper)
+	    org.apache.jena.rdf.model.Model model, MappingContext context)
 	{
 		for (CollectionDescriptor collection : cd.getAllCollectionDescriptors())
 		{
 			if (FieldDescriptor.M_N_RELATION == collection.relationType())
 			{
-                String indirectionTable = DatabaseUtil.getIndirectionTableName(collection);
-                System.err.println("JOINING TABLE: " + indirectionTable);
-                mapManyToMany(model, cd, uriHelper, collection);
+                mapManyToMany(model, cd, context, collection);
 			}
 		}
 	}
 
-	private static void mapBasicFields(ClassDescriptor cd, org.apache.jena.rdf.model.Model model, URIHelper uriHelper)
+	private static void mapBasicFields(ClassDescriptor cd, org.apache.jena.rdf.model.Model model, MappingContext context)
 	{
-		final String tableName = DatabaseUtil.getTableName(cd);
-		System.err.println("TABLE: " + tableName);
+		final String tableName = context.getIndex().getTableName(cd);
 		final Resource basicTableMapping = createMappingNameForTable(model, tableName);
 		
-		final Resource logicalTable = model.createResource();
+		final Resource logicalTable = context.createResource(model);
 		
-		final AttributeDescriptor subjectMap = generateSubjectMap(cd, model, tableName, basicTableMapping, uriHelper);
+		final AttributeDescriptor subjectMap = generateSubjectMap(cd, model, tableName, basicTableMapping, context);
 		if (subjectMap != null) {
 				model.add(basicTableMapping, RDF.type, R2RML.TriplesMap);
 				model.add(basicTableMapping, R2RML.logicalTable, logicalTable);
-				model.add(logicalTable, R2RML.tableName, tableName);
+				addLogicalTable(model, basicTableMapping, logicalTable, tableName, getColumnNames(cd, context), context);
 		}
 		for (FieldDescriptor fd : cd.getAllFieldDescriptors())
 		{
-			String columnName = DatabaseUtil.getColumnName(fd);
-
 			if (fd instanceof AttributeDescriptor)
 			{
-				mapPrimitiveObjects(model, tableName, basicTableMapping, (AttributeDescriptor) fd);
-				System.err.println(columnName +
-				    (columnName.equalsIgnoreCase("id") ? ": PRIMARY KEY" : ": column")
-				    + " with type " + ((AttributeDescriptor) fd).getType());
+				if (!isOutOfLine((AttributeDescriptor) fd, context)) {
+					mapPrimitiveObjects(model, tableName, basicTableMapping, (AttributeDescriptor) fd, context);
+				} else if (subjectMap != null) {
+					mapClob(model, tableName, (AttributeDescriptor) fd, context);
+				}
 			} else if (fd.isCollection() && ((CollectionDescriptor) fd).relationType() == FieldDescriptor.ONE_N_RELATION) {
 				//Gene->Synonyms
-				if (isExportable(cd)) {
-					createOneToManyResources(model, cd, (CollectionDescriptor) fd, basicTableMapping, uriHelper);
+				if (context.getIndex().isExportable(cd)) {
+					createOneToManyResources(model, cd, (CollectionDescriptor) fd, basicTableMapping, context);
+				}
+			} else if (!fd.isCollection()) {
+				mapManyToOne(model, basicTableMapping, fd, context);
+			}
+		}
+	}
+
+	/**
+	 * @return the columns of the class' table that its TriplesMaps and the joins to them use
+	 */
+	private static Set<String> getColumnNames(ClassDescriptor cd, MappingContext context)
+	{
+		Set<String> columns = new LinkedHashSet<>();
+		columns.add("id");
+		for (FieldDescriptor fd : cd.getAllFieldDescriptors())
+		{
+			if (fd instanceof AttributeDescriptor) {
+				if (isOutOfLine((AttributeDescriptor) fd, context)) {
+					continue;
 				}
+				columns.add(DatabaseUtil.getColumnName(fd));
 			} else if (!fd.isCollection()) {
-				mapManyToOne(model, basicTableMapping, fd, uriHelper);
+				columns.add(fd.getName() + "id");
 			}
 		}
-		System.err.println();
+		return columns;
+	}
+
+	/**
+	 * The table itself, or with --sql-tags a tagged query of the columns used from it.
+	 */
+	private static void addLogicalTable(org.apache.jena.rdf.model.Model model, final Resource triplesMap,
+			final Resource logicalTable, String tableName, Iterable<String> columns, MappingContext context)
+	{
+		if (context.getOptions().isSqlTags()) {
+			addSqlQuery(model, triplesMap, logicalTable, "SELECT " + String.join(", ", columns) + " FROM " + tableName,
+					context);
+		} else {
+			model.add(logicalTable, R2RML.tableName, tableName);
+		}
+	}
+
+	/**
+	 * An R2RMLView, with --sql-tags tagged with the name of its TriplesMap.
+	 */
+	private static void addSqlQuery(org.apache.jena.rdf.model.Model model, final Resource triplesMap,
+			final Resource logicalTable, String sql, MappingContext context)
+	{
+		model.add(logicalTable, RDF.type, R2RML.R2RMLView);
+		model.add(logicalTable, R2RML.sqlQuery,
+				context.getOptions().isSqlTags() ? SqlTags.tag(triplesMap.getURI(), sql) : sql);
 	}
 
 	public static void createOneToManyResources(org.apache.jena.rdf.model.Model model,
-			ClassDescriptor cd, CollectionDescriptor collection, Resource basicTableMapping, URIHelper uriHelper) {
-		System.err.println("ONE_N_RELATION");
-		System.err.println(cd.getSimpleName());//Gene
+			ClassDescriptor cd, CollectionDescriptor collection, Resource basicTableMapping, MappingContext context) {
 		ReferenceDescriptor reverse = collection.getReverseReferenceDescriptor();
 
 		String jointTable = collection.getReferencedClassDescriptor().getSimpleName();
-		if (findSubjectMap(collection.getReferencedClassDescriptor(),collection.getReferencedClassDescriptor().getSimpleName(), uriHelper) != null
-				&& isExportable(collection.getReferencedClassDescriptor())) {//e.g strain -> Sequencefeature
-			Resource objectMap = model.createResource();
-			Resource objectPredicateMap = model.createResource();
-			Resource joinCondition = model.createResource();
+		final ModelIndex index = context.getIndex();
+		if (index.getURIIdentifier(collection.getReferencedClassDescriptor()) != null
+				&& index.isExportable(collection.getReferencedClassDescriptor())) {//e.g strain -> Sequencefeature
+			Resource objectMap = context.createResource(model);
+			Resource objectPredicateMap = context.createResource(model);
+			Resource joinCondition = context.createResource(model);
 			model.add(basicTableMapping, R2RML.predicateObjectMap, objectPredicateMap);
 			model.add(objectPredicateMap, R2RML.predicate, R2RML.createIMProperty(collection.getReferencedClassDescriptor().getSimpleName()));
 			model.add(objectPredicateMap, R2RML.objectMap, objectMap);
@@ -141,51 +285,22 @@ public class R2RMLMapping
 	}
 
 	private static AttributeDescriptor generateSubjectMap(ClassDescriptor cd, org.apache.jena.rdf.model.Model model,
-	    final String tableName, final Resource basicTableMapping, URIHelper uriHelper)
+	    final String tableName, final Resource basicTableMapping, MappingContext context)
 	{
-		for (FieldDescriptor fd : cd.getAllFieldDescriptors())
+		final AttributeDescriptor ad = context.getIndex().getURIIdentifier(cd);
+		if (ad != null)
 		{
-			String columnName = DatabaseUtil.getColumnName(fd);
-
-			if (fd instanceof AttributeDescriptor)
-			{
-				AttributeDescriptor ad = (AttributeDescriptor) fd;
-				if (uriHelper.isURIIdentifier(tableName, columnName))
-				{
-					
-					Resource subjectMap = model.createResource();
-					model.add(basicTableMapping, R2RML.subjectMap, subjectMap);
-
-					model.add(subjectMap, R2RML.template, uriHelper.createURI(tableName));
+			Resource subjectMap = context.createResource(model);
+			model.add(basicTableMapping, R2RML.subjectMap, subjectMap);
 
-					if (cd.getFairTerm() != null && !cd.getFairTerm().isEmpty()){
-						Resource classInOutsideWorld = ResourceFactory.createProperty(cd.getFairTerm());
-						model.add(subjectMap, R2RML.classProperty, classInOutsideWorld);
-					}
-					return ad;
-				}
-			}
-		}
-		return null;
-	}
-
-	private static AttributeDescriptor findSubjectMap(ClassDescriptor cd,
-	    final String tableName, URIHelper uriHelper)
-	{
-		for (FieldDescriptor fd : cd.getAllFieldDescriptors())
-		{
-			String columnName = DatabaseUtil.getColumnName(fd);
+			model.add(subjectMap, R2RML.template, context.getURIHelper().createURI(tableName));
 
-			if (fd instanceof AttributeDescriptor)
-			{
-				AttributeDescriptor ad = (AttributeDescriptor) fd;
-				if (uriHelper.isURIIdentifier(tableName, columnName))
-				{
-					return ad;
-				}
+			if (cd.getFairTerm() != null && !cd.getFairTerm().isEmpty()){
+				Resource classInOutsideWorld = ResourceFactory.createProperty(cd.getFairTerm());
+				model.add(subjectMap, R2RML.classProperty, classInOutsideWorld);
 			}
 		}
-		return null;
+		return ad;
 	}
 
 	/***
@@ -201,25 +316,35 @@ public class R2RMLMapping
 	 * 
 	 * @param model
 	 * @param fromTableDescription 
-	 * @param uriHelper
+	 * @param context
 	 * @param collection 
 	 */
 	private static void mapManyToMany(org.apache.jena.rdf.model.Model model,
-	    ClassDescriptor fromTableDescription, URIHelper uriHelper, CollectionDescriptor collection) {
+	    ClassDescriptor fromTableDescription, MappingContext context, CollectionDescriptor collection) {
 
 		final ClassDescriptor toTableDescription = collection.getReferencedClassDescriptor();
 
-		Model imModel = Model.getInstanceByName("genomic");
-		Set<ClassDescriptor> toSubDescriptors = imModel.getAllSubs(toTableDescription);
+		final ModelIndex index = context.getIndex();
+		final HierarchyView hierarchy = index.getHierarchyView(toTableDescription);
+		if (context.getOptions().isCollapsedHierarchy() && hierarchy != null) {
+			ManyToManyJoin join = ManyToManyJoin.createCollapsed(fromTableDescription, hierarchy, collection, index);
+			if (join != null) {
+				mapManyToManyJoin(model, fromTableDescription, join,
+						context.getURIHelper().createTypedURI(HierarchyView.TYPE_COLUMN, ManyToManyJoin.TO_COLUMN_ALIAS),
+						context);
+			}
+			return;
+		}
+		List<ClassDescriptor> toSubDescriptors = index.getAllSubs(toTableDescription);
 		if (!toSubDescriptors.isEmpty()) {
 			for (ClassDescriptor toSubDescriptor : toSubDescriptors) {
-				if (isExportable(toSubDescriptor)) {
-					createManytoManyResources(model, fromTableDescription, toSubDescriptor, uriHelper, collection);
+				if (index.isExportable(toSubDescriptor)) {
+					createManytoManyResources(model, fromTableDescription, toSubDescriptor, context, collection);
 				}
 			}
 		} else {
-			if (isExportable(toTableDescription)) {
-				createManytoManyResources(model, fromTableDescription, toTableDescription, uriHelper, collection);
+			if (index.isExportable(toTableDescription)) {
+				createManytoManyResources(model, fromTableDescription, toTableDescription, context, collection);
 			}
 		}
 	}
@@ -227,54 +352,56 @@ public class R2RMLMapping
 	public static void createManytoManyResources(org.apache.jena.rdf.model.Model model,
 										  ClassDescriptor fromTableDescription,
 										  ClassDescriptor toTableDescription,
-										  URIHelper uriHelper,
+										  MappingContext context,
 										  CollectionDescriptor collection) {
-		final String fromTableName = DatabaseUtil.getTableName(fromTableDescription);
-		final String joinTableName = DatabaseUtil.getIndirectionTableName(collection);
-		final String toTableName = DatabaseUtil.getTableName(toTableDescription);
-		String fromJoinColumn = DatabaseUtil.getInwardIndirectionColumnName(collection, FORMAT_VERSION);
-		String toJoinColumn = DatabaseUtil.getOutwardIndirectionColumnName(collection, FORMAT_VERSION);
-		Resource table = model.createResource();
-		if (findSubjectMap(fromTableDescription, fromTableName, uriHelper) != null)
+		final ManyToManyJoin join = ManyToManyJoin.create(fromTableDescription, toTableDescription, collection,
+				context.getIndex());
+		if (join != null)
 		{
-			Resource jointTriplesMap = createMappingNameForJoinTable(model, fromTableName, joinTableName, toTableName);
-			final AttributeDescriptor toColumnName = findSubjectMap(toTableDescription, toTableName, uriHelper);
-			if (toColumnName != null) {
-				final AttributeDescriptor fromColumnname = generateSubjectMap(fromTableDescription, model,
-						fromTableName,
-						jointTriplesMap,
-						uriHelper);
-				Resource objectPredicateMap = model.createResource();
-				Resource objectMap = model.createResource();
-				model.add(jointTriplesMap, RDF.type, R2RML.TriplesMap);
-				model.add(jointTriplesMap, R2RML.logicalTable, table);
-				model.add(table, RDF.type, R2RML.R2RMLView);
-				final Stream<String> distinct = Stream.of(fromTableName, joinTableName, toTableName).distinct();
-				String tables = distinct.collect(Collectors.joining(","));
-				// We build a big sql query to join internally via the intermine id's.
-				// But expose the external identifiers only.
-				// We need the "AS" fromColumnname because that column name is used in the
-				// GenerateSubjectsMap method.
-				model.add(table, R2RML.sqlQuery,
-						"SELECT " + fromTableName + "." + fromColumnname.getName()
-								+ ", "
-								+ toTableName
-								+ "." + toColumnName.getName() + " AS toColumnName  FROM "
-								+ tables
-								+ " WHERE " + fromTableName + ".id = " + joinTableName + "." + fromJoinColumn + " AND " + toTableName + ".id = " + joinTableName + "." + toJoinColumn);
-				model.add(jointTriplesMap, R2RML.predicateObjectMap, objectPredicateMap);
-				//TODO figure out what predicate to use. Maybe for now just use intermine
-				model.add(objectPredicateMap, R2RML.predicate, R2RML.createIMProperty(toTableName));
-				model.add(objectPredicateMap, R2RML.objectMap, objectMap);
-				model.add(objectMap, RDF.type, R2RML.TermMap);
-				model.add(objectMap, RDF.type, R2RML.ObjectMap);
-				// We need to disambiguate here as the toColumnName and fromColumnName might be lexically the same.
-				model.add(objectMap, R2RML.column, toColumnName.getName());
-				model.add(objectMap, R2RML.termType, R2RML.IRI);
-				model.add(objectMap, R2RML.template, uriHelper.createURI(toTableName, "toColumnName"));
-			}
+			mapManyToManyJoin(model, fromTableDescription, join,
+					context.getURIHelper().createURI(join.getToTableName(), ManyToManyJoin.TO_COLUMN_ALIAS), context);
 		}
+	}
 
+	private static void mapManyToManyJoin(org.apache.jena.rdf.model.Model model,
+										  ClassDescriptor fromTableDescription,
+										  ManyToManyJoin join,
+										  String objectTemplate,
+										  MappingContext context) {
+		final String fromTableName = join.getFromTableName();
+		final String toTableName = join.getToTableName();
+		Resource jointTriplesMap = createMappingNameForJoinTable(model, fromTableName, join.getJoinTableName(), toTableName);
+		Resource table = context.createResource(model);
+		generateSubjectMap(fromTableDescription, model, fromTableName, jointTriplesMap, context);
+		Resource objectPredicateMap = context.createResource(model);
+		Resource objectMap = context.createResource(model);
+		model.add(jointTriplesMap, RDF.type, R2RML.TriplesMap);
+		model.add(jointTriplesMap, R2RML.logicalTable, table);
+		if (context.getOptions().isMaterializedViews()) {
+			// see IndexAdvisor, the view has the same columns as the query
+			List<String> columns = new ArrayList<>();
+			columns.add(join.getFromColumnName());
+			if (join.getToHierarchy() != null) {
+				columns.add(HierarchyView.TYPE_COLUMN);
+			}
+			columns.add(ManyToManyJoin.TO_COLUMN_ALIAS);
+			columns.add(ManyToManyJoin.ID_ALIAS);
+			addLogicalTable(model, jointTriplesMap, table, join.getViewName(), columns, context);
+		} else {
+			// We need the "AS" fromColumnname because that column name is used in the
+			// GenerateSubjectsMap method.
+			addSqlQuery(model, jointTriplesMap, table, join.getSql(), context);
+		}
+		model.add(jointTriplesMap, R2RML.predicateObjectMap, objectPredicateMap);
+		//TODO figure out what predicate to use. Maybe for now just use intermine
+		model.add(objectPredicateMap, R2RML.predicate, R2RML.createIMProperty(toTableName));
+		model.add(objectPredicateMap, R2RML.objectMap, objectMap);
+		model.add(objectMap, RDF.type, R2RML.TermMap);
+		model.add(objectMap, RDF.type, R2RML.ObjectMap);
+		// We need to disambiguate here as the toColumnName and fromColumnName might be lexically the same.
+		model.add(objectMap, R2RML.column, join.getToColumnName());
+		model.add(objectMap, R2RML.termType, R2RML.IRI);
+		model.add(objectMap, R2RML.template, objectTemplate);
 	}
 
 	/**
@@ -286,19 +413,23 @@ public class R2RMLMapping
 	 * @param fd
 	 */
 	private static void mapManyToOne(org.apache.jena.rdf.model.Model model, final Resource basicTableMapping,
-	    FieldDescriptor fd, URIHelper uriHelper) {
+	    FieldDescriptor fd, MappingContext context) {
 		final ClassDescriptor refClassDescriptor = ((ReferenceDescriptor) fd).getReferencedClassDescriptor();
-		Model imModel = Model.getInstanceByName("genomic");
-		Set<ClassDescriptor> toSubDescriptors = imModel.getAllSubs(refClassDescriptor);
+		final ModelIndex index = context.getIndex();
+		if (context.getOptions().isCollapsedHierarchy() && index.getHierarchyView(refClassDescriptor) != null) {
+			createCollapsedManytoOneResources(model, basicTableMapping, fd, refClassDescriptor, context);
+			return;
+		}
+		List<ClassDescriptor> toSubDescriptors = index.getAllSubs(refClassDescriptor);
 		if (!toSubDescriptors.isEmpty()) {
 			for (ClassDescriptor toSubDescriptor : toSubDescriptors) {
-				if (isExportable(toSubDescriptor)) {
-					createManytoOneResources(model, basicTableMapping, fd, toSubDescriptor, uriHelper);
+				if (index.isExportable(toSubDescriptor)) {
+					createManytoOneResources(model, basicTableMapping, fd, toSubDescriptor, context);
 				}
 			}
 		} else {
-			if (isExportable(refClassDescriptor)) {
-				createManytoOneResources(model, basicTableMapping, fd, refClassDescriptor, uriHelper);
+			if (index.isExportable(refClassDescriptor)) {
+				createManytoOneResources(model, basicTableMapping, fd, refClassDescriptor, context);
 			}
 		}
 
@@ -306,12 +437,12 @@ public class R2RMLMapping
 
 	private static void createManytoOneResources(org.apache.jena.rdf.model.Model model,
 			final Resource basicTableMapping, FieldDescriptor fieldDescriptor,
-			ClassDescriptor referencedClassDescriptor, URIHelper uriHelper) {
-		String jointTable = DatabaseUtil.getTableName(referencedClassDescriptor);
-		if (findSubjectMap(referencedClassDescriptor,jointTable, uriHelper) != null) {
-			Resource objectMap = model.createResource();
-			Resource objectPredicateMap = model.createResource();
-			Resource joinCondition = model.createResource();
+			ClassDescriptor referencedClassDescriptor, MappingContext context) {
+		String jointTable = context.getIndex().getTableName(referencedClassDescriptor);
+		if (context.getIndex().getURIIdentifier(referencedClassDescriptor) != null) {
+			Resource objectMap = context.createResource(model);
+			Resource objectPredicateMap = context.createResource(model);
+			Resource joinCondition = context.createResource(model);
 			model.add(basicTableMapping, R2RML.predicateObjectMap, objectPredicateMap);
 			model.add(objectPredicateMap, R2RML.predicate, R2RML.createIMProperty(referencedClassDescriptor.getSimpleName()));
 			model.add(objectPredicateMap, R2RML.objectMap, objectMap);
@@ -322,6 +453,44 @@ public class R2RMLMapping
 		}
 	}
 
+	/**
+	 * One join to the TriplesMap of the whole hierarchy of the referenced class, instead of
+	 * one per subclass. The predicate is named after the referenced class.
+	 */
+	private static void createCollapsedManytoOneResources(org.apache.jena.rdf.model.Model model,
+			final Resource basicTableMapping, FieldDescriptor fieldDescriptor,
+			ClassDescriptor referencedClassDescriptor, MappingContext context) {
+		String jointTable = context.getIndex().getTableName(referencedClassDescriptor);
+		Resource objectMap = context.createResource(model);
+		Resource objectPredicateMap = context.createResource(model);
+		Resource joinCondition = context.createResource(model);
+		model.add(basicTableMapping, R2RML.predicateObjectMap, objectPredicateMap);
+		model.add(objectPredicateMap, R2RML.predicate, R2RML.createIMProperty(referencedClassDescriptor.getSimpleName()));
+		model.add(objectPredicateMap, R2RML.objectMap, objectMap);
+		model.add(objectMap, R2RML.parentTriplesMap, createMappingNameForHierarchy(model, jointTable));
+		model.add(objectMap, R2RML.joinCondition, joinCondition);
+		model.add(joinCondition, R2RML.child, fieldDescriptor.getName() + "id");
+		model.add(joinCondition, R2RML.parent, "id");
+	}
+
+	/**
+	 * The TriplesMap the collapsed references join to. It only has a subject map, whose
+	 * template takes the type of each row from the view, so it adds no triples itself.
+	 */
+	private static void mapHierarchy(ClassDescriptor cd, org.apache.jena.rdf.model.Model model, MappingContext context)
+	{
+		final HierarchyView hierarchy = context.getIndex().getHierarchyView(cd);
+		final Resource hierarchyMapping = createMappingNameForHierarchy(model, hierarchy.getTableName());
+		final Resource logicalTable = context.createResource(model);
+		final Resource subjectMap = context.createResource(model);
+		model.add(hierarchyMapping, RDF.type, R2RML.TriplesMap);
+		model.add(hierarchyMapping, R2RML.logicalTable, logicalTable);
+		addSqlQuery(model, hierarchyMapping, logicalTable, hierarchy.getSql(), context);
+		model.add(hierarchyMapping, R2RML.subjectMap, subjectMap);
+		model.add(subjectMap, R2RML.template,
+				context.getURIHelper().createTypedURI(HierarchyView.TYPE_COLUMN, hierarchy.getIdentifierName()));
+	}
+
 	/**
 	 * A primitive object is field that is just a value such as true, false or 1 or "lala"
 	 * @param model
@@ -330,21 +499,106 @@ public class R2RMLMapping
 	 * @param ad
 	 */
 	private static void mapPrimitiveObjects(org.apache.jena.rdf.model.Model model, final String tableName,
-	    final Resource basicTableMapping, AttributeDescriptor ad)
+	    final Resource basicTableMapping, AttributeDescriptor ad, MappingContext context)
 	{
 		String columnName = DatabaseUtil.getColumnName(ad);
-		System.err.println(tableName + '.' + columnName + " is primitive");
-		Resource predicateObjectMap = model.createResource();
-		Resource objectMap = model.createResource();
-		model.add(basicTableMapping, R2RML.predicateObjectMap, predicateObjectMap);
+		addLiteralObject(model, basicTableMapping, R2RML.createIMProperty(columnName), columnName,
+				getXsdForFullyQualifiedClassName(ad), context);
+	}
+
+	private static void addLiteralObject(org.apache.jena.rdf.model.Model model, final Resource triplesMap,
+			Resource predicate, String columnName, Resource datatype, MappingContext context)
+	{
+		Resource predicateObjectMap = context.createResource(model);
+		Resource objectMap = context.createResource(model);
+		model.add(triplesMap, R2RML.predicateObjectMap, predicateObjectMap);
 		model.add(predicateObjectMap, R2RML.objectMap, objectMap);
 		model.add(objectMap, RDF.type, R2RML.TermMap);
 		model.add(objectMap, RDF.type, R2RML.ObjectMap);
 		model.add(objectMap, R2RML.termType, R2RML.Literal);
 
-		model.add(objectMap, R2RML.datatype, getXsdForFullyQualifiedClassName(ad));
+		model.add(objectMap, R2RML.datatype, datatype);
 		model.add(objectMap, R2RML.column, columnName);
-		model.add(predicateObjectMap, R2RML.predicate, R2RML.createIMProperty(columnName));
+		model.add(predicateObjectMap, R2RML.predicate, predicate);
+	}
+
+	/**
+	 * @return true if ad is a ClobAccess attribute that --clobs maps in a TriplesMap of its own
+	 */
+	private static boolean isOutOfLine(AttributeDescriptor ad, MappingContext context)
+	{
+		return CLOB_TYPE.equals(ad.getType()) && !context.getOptions().getClobs().isEmpty();
+	}
+
+	/**
+	 * A ClobAccess attribute, such as Sequence.residues, in a TriplesMap of its own with
+	 * the subjects of its class, so that only the queries that ask for the attribute read
+	 * the column. Depending on --clobs, the object is the literal, an IRI under --clob-base
+	 * that ClobServer answers with the content, and/or the length of the content. The
+	 * TriplesMap has no rr:class, the class' own TriplesMap types the subjects.
+	 */
+	private static void mapClob(org.apache.jena.rdf.model.Model model, final String tableName,
+			AttributeDescriptor ad, MappingContext context)
+	{
+		final String columnName = DatabaseUtil.getColumnName(ad);
+		final Set<String> clobs = context.getOptions().getClobs();
+		final Resource clobMapping = createMappingNameForClob(model, tableName, columnName);
+		final Resource logicalTable = context.createResource(model);
+		final Resource subjectMap = context.createResource(model);
+		model.add(clobMapping, RDF.type, R2RML.TriplesMap);
+		model.add(clobMapping, R2RML.logicalTable, logicalTable);
+		model.add(clobMapping, R2RML.subjectMap, subjectMap);
+		model.add(subjectMap, R2RML.template, context.getURIHelper().createURI(tableName));
+
+		List<String> identifiers = context.getURIHelper().getTemplate(tableName).getColumns();
+		Set<String> columns = new LinkedHashSet<>();
+		columns.add("id");
+		columns.addAll(identifiers);
+		if (clobs.contains(MappingOptions.SEPARATE)) {
+			columns.add(columnName);
+		}
+		if (clobs.contains(MappingOptions.SUMMARY)) {
+			// computed by the database, the content itself never leaves it
+			List<String> select = new ArrayList<>(columns);
+			select.add(clobLengthSql(columnName, context.getOptions().isInterMineClobStorage()) + " AS "
+					+ columnName + "_length");
+			addSqlQuery(model, clobMapping, logicalTable,
+					"SELECT " + String.join(", ", select) + " FROM " + tableName, context);
+			addLiteralObject(model, clobMapping, R2RML.createIMProperty(columnName + "Length"),
+					columnName + "_length", XSD.integer, context);
+		} else {
+			addLogicalTable(model, clobMapping, logicalTable, tableName, columns, context);
+		}
+
+		if (clobs.contains(MappingOptions.SEPARATE)) {
+			addLiteralObject(model, clobMapping, R2RML.createIMProperty(columnName), columnName,
+					getXsdForFullyQualifiedClassName(ad), context);
+		} else if (clobs.contains(MappingOptions.IRI)) {
+			Resource predicateObjectMap = context.createResource(model);
+			Resource objectMap = context.createResource(model);
+			model.add(clobMapping, R2RML.predicateObjectMap, predicateObjectMap);
+			model.add(predicateObjectMap, R2RML.predicate, R2RML.createIMProperty(columnName));
+			model.add(predicateObjectMap, R2RML.objectMap, objectMap);
+			model.add(objectMap, RDF.type, R2RML.TermMap);
+			model.add(objectMap, RDF.type, R2RML.ObjectMap);
+			model.add(objectMap, R2RML.termType, R2RML.IRI);
+			model.add(objectMap, R2RML.template, context.getOptions().getClobBase() + tableName + "/"
+					+ columnName + "/{" + identifiers.get(0) + "}");
+		}
+	}
+
+	/**
+	 * @param interMine true if the column holds InterMine's clobid,offset,length, whose
+	 *     last part is the length, rather than the content
+	 * @return the length of the content of a ClobAccess attribute, in standard SQL
+	 */
+	static String clobLengthSql(String columnName, boolean interMine)
+	{
+		if (!interMine) {
+			return "CHAR_LENGTH(" + columnName + ")";
+		}
+		String afterId = "SUBSTRING(" + columnName + " FROM POSITION(',' IN " + columnName + ") + 1)";
+		return "CAST(SUBSTRING(" + afterId + " FROM POSITION(',' IN " + afterId + ") + 1) AS BIGINT)";
 	}
 
 	private static Resource createMappingNameForTable(org.apache.jena.rdf.model.Model model, final String tableName)
@@ -352,6 +606,17 @@ public class R2RMLMapping
 		return model.createResource("urn:intermine-table:" + tableName);
 	}
 
+	private static Resource createMappingNameForHierarchy(org.apache.jena.rdf.model.Model model, final String tableName)
+	{
+		return model.createResource("urn:intermine-hierarchy:" + tableName);
+	}
+
+	private static Resource createMappingNameForClob(org.apache.jena.rdf.model.Model model, final String tableName,
+	    final String columnName)
+	{
+		return model.createResource(TriplesMapDefinition.CLOB_PREFIX + tableName + '/' + columnName);
+	}
+
 	private static Resource createMappingNameForJoinTable(org.apache.jena.rdf.model.Model model, final String tableName,
 	    final String joinTableName, final String otherTableName)
 	{
@@ -364,11 +629,11 @@ public class R2RMLMapping
 	 * @param ad
 	 * @return an XSD for the value
 	 */
-	private static Resource getXsdForFullyQualifiedClassName(AttributeDescriptor ad)
+	static Resource getXsdForFullyQualifiedClassName(AttributeDescriptor ad)
 	{
 		switch (ad.getType())
 		{
-                        case "org.intermine.objectstore.query.ClobAccess":
+                        case CLOB_TYPE:
 			case "java.lang.String":
 				return XSD.xstring;
 			case "java.lang.Boolean":
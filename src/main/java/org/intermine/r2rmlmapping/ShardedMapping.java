@@ -0,0 +1,306 @@
+package org.intermine.r2rmlmapping;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFOps;
+import org.apache.jena.vocabulary.RDF;
+import org.intermine.r2rmlmapping.federation.VoidDescription;
+import org.intermine.r2rmlmapping.r2rml.MappingReader;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+import org.intermine.r2rmlmapping.vocabulary.R2RML;
+import org.intermine.r2rmlmapping.vocabulary.VOID;
+
+/**
+ * Splits the mapping into --shards mappings, each to be served by its own ontop over
+ * its own read replica, and writes a federation file with the VoID description of every
+ * shard for FederatedQuery.
+ *
+ * The TriplesMaps of a class always stay together. Classes are clustered greedily along
+ * their joins, heaviest first, as long as a cluster stays within an even share of the
+ * predicate-object maps, and the clusters are then spread over the shards. A join whose
+ * parent TriplesMap ended up in another shard gets a stub of that parent: its logical
+ * table and subject map without rr:class, which produces no triples of its own. Every
+ * triple therefore comes from exactly one shard, and the replicas need the tables that
+ * the joins reach as well as those of their own classes.
+ *
+ * For mapping.ttl the shards are mapping-shard1.ttl, mapping-shard2.ttl, ... and the
+ * federation file is mapping-federation.ttl.
+ */
+public class ShardedMapping
+{
+	private final ModelIndex index;
+	private final URIHelper uriHelper;
+	private final MappingOptions options;
+
+	public ShardedMapping(ModelIndex index, URIHelper uriHelper, MappingOptions options)
+	{
+		this.index = index;
+		this.uriHelper = uriHelper;
+		this.options = options;
+	}
+
+	public void run() throws IOException, SQLException
+	{
+		List<org.apache.jena.rdf.model.Model> classMappings = index.getClassDescriptors().parallelStream()
+				.map(cd -> R2RMLMapping.mapClass(cd, index, uriHelper, options))
+				.collect(Collectors.toList());
+		List<Shard> shards = split(classMappings, options.getShards());
+		org.apache.jena.rdf.model.Model federation = ModelFactory.createDefaultModel();
+		for (int i = 0; i < shards.size(); i++)
+		{
+			Shard shard = shards.get(i);
+			write(shard.getMapping(), shardFile(options.getOutput(), "-shard" + (i + 1)));
+			federation.add(shard.describe(options.getShardEndpoint(i + 1)).toModel());
+			System.err.println("Shard " + (i + 1) + ": " + shard);
+		}
+		federation.setNsPrefix("void", VOID.uri);
+		federation.setNsPrefix("rdf", RDF.uri);
+		try (PrintWriter out = new PrintWriter(new FileWriter(shardFile(options.getOutput(), "-federation")))) {
+			federation.write(out, "turtle");
+		}
+	}
+
+	/**
+	 * @param classMappings the TriplesMaps of each class, in index order
+	 */
+	static List<Shard> split(List<org.apache.jena.rdf.model.Model> classMappings, int count)
+	{
+		long mapped = classMappings.stream().filter(classMapping -> !classMapping.isEmpty()).count();
+		if (count < 1 || count > mapped) {
+			throw new IllegalArgumentException("--shards must be between 1 and the " + mapped + " mapped classes");
+		}
+		// which class defines each TriplesMap
+		Map<Resource, Integer> owners = new HashMap<>();
+		int[] weights = new int[classMappings.size()];
+		int total = 0;
+		for (int i = 0; i < classMappings.size(); i++)
+		{
+			org.apache.jena.rdf.model.Model classMapping = classMappings.get(i);
+			for (Resource triplesMap : classMapping.listSubjectsWithProperty(RDF.type, R2RML.TriplesMap).toList())
+			{
+				owners.put(triplesMap, i);
+				weights[i]++;
+			}
+			weights[i] += classMapping.listStatements(null, R2RML.predicateObjectMap, (RDFNode) null).toList().size();
+			total += weights[i];
+		}
+
+		// joins between classes, both ways, counted per pair
+		Map<Long, Integer> joins = new TreeMap<>();
+		for (int i = 0; i < classMappings.size(); i++)
+		{
+			for (RDFNode parent : classMappings.get(i).listObjectsOfProperty(R2RML.parentTriplesMap).toList())
+			{
+				Integer owner = owners.get(parent.asResource());
+				if (owner != null && owner != i) {
+					joins.merge(pair(Math.min(i, owner), Math.max(i, owner)), 1, Integer::sum);
+				}
+			}
+		}
+		List<Map.Entry<Long, Integer>> edges = new ArrayList<>(joins.entrySet());
+		// the TreeMap is ordered by pair, the stable sort keeps that order among equal weights
+		edges.sort(Map.Entry.<Long, Integer>comparingByValue().reversed());
+
+		int capacity = (total + count - 1) / count;
+		int[] cluster = new int[classMappings.size()];
+		int[] clusterWeights = weights.clone();
+		for (int i = 0; i < cluster.length; i++)
+		{
+			cluster[i] = i;
+		}
+		for (Map.Entry<Long, Integer> edge : edges)
+		{
+			int a = find(cluster, (int) (edge.getKey() >>> 32));
+			int b = find(cluster, (int) (long) edge.getKey());
+			if (a != b && clusterWeights[a] + clusterWeights[b] <= capacity) {
+				cluster[b] = a;
+				clusterWeights[a] += clusterWeights[b];
+			}
+		}
+
+		List<Integer> roots = new ArrayList<>();
+		for (int i = 0; i < cluster.length; i++)
+		{
+			if (find(cluster, i) == i) {
+				roots.add(i);
+			}
+		}
+		roots.sort(Comparator.comparingInt((Integer root) -> clusterWeights[root]).reversed());
+		int[] loads = new int[count];
+		int[] shardOf = new int[classMappings.size()];
+		Map<Integer, Integer> rootShards = new HashMap<>();
+		for (int root : roots)
+		{
+			int lightest = 0;
+			for (int shard = 1; shard < count; shard++)
+			{
+				if (loads[shard] < loads[lightest]) {
+					lightest = shard;
+				}
+			}
+			rootShards.put(root, lightest);
+			loads[lightest] += clusterWeights[root];
+		}
+
+		List<Shard> shards = new ArrayList<>();
+		for (int shard = 0; shard < count; shard++)
+		{
+			shards.add(new Shard());
+		}
+		for (int i = 0; i < classMappings.size(); i++)
+		{
+			shardOf[i] = rootShards.get(find(cluster, i));
+			shards.get(shardOf[i]).addClass(classMappings.get(i), weights[i]);
+		}
+		for (int i = 0; i < classMappings.size(); i++)
+		{
+			Shard shard = shards.get(shardOf[i]);
+			for (RDFNode parent : classMappings.get(i).listObjectsOfProperty(R2RML.parentTriplesMap).toList())
+			{
+				Integer owner = owners.get(parent.asResource());
+				if (owner != null && shardOf[owner] != shardOf[i]) {
+					shard.addStub(classMappings.get(owner), parent.asResource());
+				}
+			}
+		}
+		return shards;
+	}
+
+	private static long pair(int a, int b)
+	{
+		return ((long) a << 32) | b;
+	}
+
+	private static int find(int[] cluster, int i)
+	{
+		while (cluster[i] != i) {
+			cluster[i] = cluster[cluster[i]];
+			i = cluster[i];
+		}
+		return i;
+	}
+
+	private void write(org.apache.jena.rdf.model.Model mapping, File file) throws IOException
+	{
+		if (MappingWriter.isStreaming(options.getFormat())) {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+				StreamRDF stream = MappingWriter.createStream(out, options.getFormat());
+				MappingWriter.sendPrefixes(stream);
+				StreamRDFOps.sendTriplesToStream(mapping.getGraph(), stream);
+				stream.finish();
+			}
+		} else {
+			try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+				mapping.write(out, "turtle");
+			}
+		}
+	}
+
+	/**
+	 * @return output with suffix before its extension, e.g. mapping-shard1.ttl for mapping.ttl
+	 */
+	static File shardFile(String output, String suffix)
+	{
+		File file = new File(output);
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String shardName = dot <= 0 ? name + suffix : name.substring(0, dot) + suffix + name.substring(dot);
+		return new File(file.getParentFile(), shardName);
+	}
+
+	/**
+	 * The TriplesMaps of some classes, plus stubs of the parents of their joins that other
+	 * shards own.
+	 */
+	static class Shard
+	{
+		private final org.apache.jena.rdf.model.Model mapping = ModelFactory.createDefaultModel();
+		private final Set<String> stubs = new HashSet<>();
+		private int classes = 0;
+		private int weight = 0;
+
+		Shard()
+		{
+			R2RMLMapping.setKnownPrefixes(mapping);
+		}
+
+		void addClass(org.apache.jena.rdf.model.Model classMapping, int classWeight)
+		{
+			mapping.add(classMapping);
+			if (!classMapping.isEmpty()) {
+				classes++;
+			}
+			weight += classWeight;
+		}
+
+		void addStub(org.apache.jena.rdf.model.Model ownerMapping, Resource triplesMap)
+		{
+			if (!stubs.add(triplesMap.getURI())) {
+				return;
+			}
+			Resource owned = ownerMapping.getResource(triplesMap.getURI());
+			mapping.add(owned, RDF.type, R2RML.TriplesMap);
+			Resource logicalTable = owned.getPropertyResourceValue(R2RML.logicalTable);
+			if (logicalTable != null) {
+				mapping.add(owned, R2RML.logicalTable, logicalTable);
+				mapping.add(logicalTable.listProperties());
+			}
+			Resource subjectMap = owned.getPropertyResourceValue(R2RML.subjectMap);
+			if (subjectMap != null) {
+				mapping.add(owned, R2RML.subjectMap, subjectMap);
+				StmtIterator it = subjectMap.listProperties();
+				while (it.hasNext()) {
+					Statement statement = it.next();
+					if (!statement.getPredicate().equals(R2RML.classProperty)) {
+						mapping.add(statement);
+					}
+				}
+			}
+		}
+
+		org.apache.jena.rdf.model.Model getMapping()
+		{
+			return mapping;
+		}
+
+		/**
+		 * @return what the shard's endpoint answers; the stubs produce no triples, so their
+		 * subjects are not part of it
+		 */
+		VoidDescription describe(String endpoint) throws SQLException
+		{
+			List<TriplesMapDefinition> triplesMaps = MappingReader.read(mapping);
+			triplesMaps.removeIf(map -> stubs.contains(map.getName()));
+			return VoidDescription.fromMapping(triplesMaps, endpoint, null);
+		}
+
+		@Override
+		public String toString()
+		{
+			return classes + " classes, " + weight + " TriplesMaps and predicate-object maps, "
+					+ stubs.size() + " stub parents";
+		}
+	}
+}
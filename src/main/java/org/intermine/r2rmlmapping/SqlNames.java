@@ -0,0 +1,30 @@
+package org.intermine.r2rmlmapping;
+
+import java.util.Locale;
+
+/**
+ * Names for the database objects we generate.
+ */
+public final class SqlNames
+{
+	/** PostgreSQL truncates identifiers longer than this */
+	public static final int MAX_IDENTIFIER_LENGTH = 63;
+
+	private SqlNames()
+	{
+	}
+
+	/**
+	 * @return name in lower case, shortened with a hash suffix if it is too long, so
+	 * that different long names stay different
+	 */
+	public static String identifier(String name)
+	{
+		String lower = name.toLowerCase(Locale.ROOT);
+		if (lower.length() <= MAX_IDENTIFIER_LENGTH) {
+			return lower;
+		}
+		String hash = Integer.toHexString(lower.hashCode());
+		return lower.substring(0, MAX_IDENTIFIER_LENGTH - hash.length() - 1) + "_" + hash;
+	}
+}
@@ -0,0 +1,668 @@
+package org.intermine.r2rmlmapping;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.r2rmlmapping.jdbc.ClobReader;
+import org.intermine.r2rmlmapping.jdbc.DatabaseConfig;
+import org.intermine.sql.DatabaseUtil;
+
+/**
+ * Fills a database with a synthetic mine laid out the way InterMine stores the model:
+ * one table per class, holding the rows of all its subclasses too, a column per
+ * attribute and per reference, an indirection table per many to many collection, and
+ * intermineobject with the class of every object. The mapping generated from the same
+ * model then runs against it unchanged, so the whole path from mapping to query can be
+ * benchmarked offline, e.g. with SparqlBenchmark.
+ *
+ * Objects are only created for classes without subclasses, BASE_OBJECTS times the scale
+ * factor per class, divided by one plus the number of references to the class: classes
+ * many others point at, such as Organism or DataSet, stay small. --count=Class:n gives a
+ * class n objects whatever the scale factor.
+ *
+ * References pick their object with a Zipf-like skew, so a few parents have most of the
+ * children, as the organisms of a real mine do. One to many collections are the reverse of
+ * such references. Many to many collections link every object to a geometric number of
+ * objects, --fanout on average, with the same skew. Values are drawn from a random
+ * generator seeded by the object's id and the field's name, so an object has the same
+ * values in the table of every class it belongs to, and a seed always fills the same
+ * mine, in H2 as in PostgreSQL.
+ *
+ * URI identifiers are not unique in a real mine, where the same gene identifier comes
+ * with several organisms or data sources, and some objects have none.
+ * --duplicate-identifiers gives that share of the objects of a class the identifier of
+ * another one (1%), --null-identifiers leaves that share of them without one (2%).
+ *
+ * ClobAccess attributes are stored as InterMine stores them, in pages of the clob table
+ * that their column refers to with clobid,offset,length; --clob-storage=column puts the
+ * content in the column instead.
+ *
+ * Usage: SyntheticMine [--scale=1] [--seed=42] [--fanout=3] [--max-clob=100000]
+ *   [--clob-storage=intermine] [--duplicate-identifiers=0.01] [--null-identifiers=0.02]
+ *   [--count=Class:n...] db.properties
+ *
+ * Every table the mine needs is dropped and created again.
+ */
+public class SyntheticMine
+{
+	static final int BASE_OBJECTS = 1000;
+	private static final int BATCH_SIZE = 1000;
+	private static final String TEXT = "text";
+	private static final String RESIDUES = "ACGT";
+	// the characters per row of the clob table, as ObjectStoreInterMineImpl writes them
+	private static final int CLOB_PAGE_SIZE = 1000000;
+
+	private final ModelIndex index;
+	private final DataSource dataSource;
+	private final boolean h2;
+	private final long seed;
+	private final double fanout;
+	private final int maxClob;
+	private final boolean interMineClobs;
+	private final double duplicateIdentifiers;
+	private final double nullIdentifiers;
+	// the ClobAccess attributes by name, their position makes the clobids of an object
+	private final List<String> clobAttributes = new ArrayList<>();
+	private final Map<ClassDescriptor, Long> counts = new LinkedHashMap<>();
+	// the ids of the objects of a class without subclasses are first to first + count - 1
+	private final Map<ClassDescriptor, Long> firstIds = new HashMap<>();
+	private final Map<ClassDescriptor, List<ClassDescriptor>> leaves = new HashMap<>();
+
+	/**
+	 * @param interMineClobs true to store ClobAccess attributes in the clob table
+	 * @param duplicateIdentifiers the share of objects with the URI identifier of another
+	 * @param nullIdentifiers the share of objects without a URI identifier
+	 * @param counts the number of objects of some classes, by simple name, whatever the scale
+	 */
+	public SyntheticMine(ModelIndex index, DatabaseConfig config, double scale, long seed, double fanout,
+			int maxClob, boolean interMineClobs, double duplicateIdentifiers, double nullIdentifiers,
+			Map<String, Long> counts)
+	{
+		this.index = index;
+		this.dataSource = config.getDataSource();
+		this.h2 = config.getUrl().startsWith("jdbc:h2:");
+		this.seed = seed;
+		this.fanout = fanout;
+		this.maxClob = maxClob;
+		this.interMineClobs = interMineClobs;
+		this.duplicateIdentifiers = duplicateIdentifiers;
+		this.nullIdentifiers = nullIdentifiers;
+		Map<ClassDescriptor, Integer> references = new HashMap<>();
+		for (ClassDescriptor cd : index.getClassDescriptors())
+		{
+			for (FieldDescriptor fd : cd.getAllFieldDescriptors())
+			{
+				if (fd instanceof ReferenceDescriptor && !fd.isCollection()) {
+					references.merge(((ReferenceDescriptor) fd).getReferencedClassDescriptor(), 1, Integer::sum);
+				} else if (fd instanceof AttributeDescriptor
+						&& R2RMLMapping.CLOB_TYPE.equals(((AttributeDescriptor) fd).getType())
+						&& !clobAttributes.contains(fd.getName())) {
+					clobAttributes.add(fd.getName());
+				}
+			}
+		}
+		long nextId = 1;
+		for (ClassDescriptor cd : index.getClassDescriptors())
+		{
+			if (!index.getAllSubs(cd).isEmpty() || isObjectTable(cd)) {
+				continue;
+			}
+			Long count = counts.get(cd.getSimpleName());
+			if (count == null) {
+				count = Math.max(1, Math.round(scale * BASE_OBJECTS / (1 + references.getOrDefault(cd, 0))));
+			}
+			this.counts.put(cd, count);
+			firstIds.put(cd, nextId);
+			nextId += count;
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		double scale = 1;
+		long seed = 42;
+		double fanout = 3;
+		int maxClob = 100000;
+		String clobStorage = ClobReader.INTERMINE_STORAGE;
+		double duplicateIdentifiers = 0.01;
+		double nullIdentifiers = 0.02;
+		Map<String, Long> counts = new HashMap<>();
+		List<String> positional = new ArrayList<>();
+		for (String arg : args)
+		{
+			if (arg.startsWith("--scale=")) {
+				scale = Double.parseDouble(arg.substring("--scale=".length()));
+			} else if (arg.startsWith("--seed=")) {
+				seed = Long.parseLong(arg.substring("--seed=".length()));
+			} else if (arg.startsWith("--fanout=")) {
+				fanout = Double.parseDouble(arg.substring("--fanout=".length()));
+			} else if (arg.startsWith("--max-clob=")) {
+				maxClob = Integer.parseInt(arg.substring("--max-clob=".length()));
+			} else if (arg.startsWith("--clob-storage=")) {
+				clobStorage = arg.substring("--clob-storage=".length());
+			} else if (arg.startsWith("--duplicate-identifiers=")) {
+				duplicateIdentifiers = Double.parseDouble(arg.substring("--duplicate-identifiers=".length()));
+			} else if (arg.startsWith("--null-identifiers=")) {
+				nullIdentifiers = Double.parseDouble(arg.substring("--null-identifiers=".length()));
+			} else if (arg.startsWith("--count=")) {
+				String[] count = arg.substring("--count=".length()).split(":");
+				counts.put(count[0], Long.parseLong(count[1]));
+			} else {
+				positional.add(arg);
+			}
+		}
+		if (positional.size() != 1 || !clobStorage.equals(ClobReader.INTERMINE_STORAGE)
+				&& !clobStorage.equals(ClobReader.COLUMN_STORAGE)
+				|| duplicateIdentifiers < 0 || nullIdentifiers < 0 || duplicateIdentifiers + nullIdentifiers > 1) {
+			System.err.println("Usage: SyntheticMine [--scale=1] [--seed=42] [--fanout=3] [--max-clob=100000]"
+					+ " [--clob-storage=intermine|column] [--duplicate-identifiers=0.01] [--null-identifiers=0.02]"
+					+ " [--count=Class:n...] db.properties");
+			System.exit(1);
+		}
+		ModelIndex index = new ModelIndex(Model.getInstanceByName("genomic"), new URIHelper());
+		SyntheticMine mine = new SyntheticMine(index, DatabaseConfig.load(positional.get(0)), scale, seed,
+				fanout, maxClob, clobStorage.equals(ClobReader.INTERMINE_STORAGE), duplicateIdentifiers,
+				nullIdentifiers, counts);
+		mine.generate();
+	}
+
+	/**
+	 * Creates and fills every table, then indexes the id, URI identifier and reference
+	 * columns the way a built mine has them.
+	 */
+	public void generate() throws SQLException
+	{
+		long start = System.currentTimeMillis();
+		long objects = counts.values().stream().mapToLong(Long::longValue).sum();
+		System.err.println("Generating " + objects + " objects of " + counts.size() + " classes");
+		try (Connection connection = dataSource.getConnection()) {
+			connection.setAutoCommit(false);
+			long rows = writeObjects(connection);
+			if (interMineClobs) {
+				createClobTable(connection);
+			}
+			for (ClassDescriptor cd : index.getClassDescriptors())
+			{
+				if (!isObjectTable(cd)) {
+					rows += writeClass(connection, cd);
+				}
+			}
+			Set<String> indirections = new HashSet<>();
+			for (ClassDescriptor cd : index.getClassDescriptors())
+			{
+				for (CollectionDescriptor collection : cd.getAllCollectionDescriptors())
+				{
+					if (collection.relationType() == FieldDescriptor.M_N_RELATION
+							&& indirections.add(DatabaseUtil.getIndirectionTableName(collection).toLowerCase(Locale.ROOT))) {
+						rows += writeIndirection(connection, collection);
+					}
+				}
+			}
+			writeMetadata(connection);
+			System.err.println("Wrote " + rows + " rows in " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	private static boolean isObjectTable(ClassDescriptor cd)
+	{
+		return HierarchyView.OBJECT_TABLE.equalsIgnoreCase(DatabaseUtil.getTableName(cd));
+	}
+
+	/**
+	 * @return the classes without subclasses whose objects are in the table of cd
+	 */
+	private List<ClassDescriptor> getLeaves(ClassDescriptor cd)
+	{
+		return leaves.computeIfAbsent(cd, c -> {
+			List<ClassDescriptor> members = new ArrayList<>();
+			if (counts.containsKey(c)) {
+				members.add(c);
+			}
+			for (ClassDescriptor sub : index.getAllSubs(c))
+			{
+				if (counts.containsKey(sub)) {
+					members.add(sub);
+				}
+			}
+			return members;
+		});
+	}
+
+	private long writeObjects(Connection connection) throws SQLException
+	{
+		Map<String, String> columns = new LinkedHashMap<>();
+		columns.put("id", "int4");
+		columns.put(HierarchyView.CLASS_COLUMN, columnType(TEXT));
+		createTable(connection, HierarchyView.OBJECT_TABLE, columns);
+		long rows = 0;
+		try (PreparedStatement insert = connection.prepareStatement(insert(HierarchyView.OBJECT_TABLE, columns))) {
+			for (Map.Entry<ClassDescriptor, Long> count : counts.entrySet())
+			{
+				long first = firstIds.get(count.getKey());
+				for (long id = first; id < first + count.getValue(); id++)
+				{
+					insert.setLong(1, id);
+					insert.setString(2, count.getKey().getName());
+					rows = addBatch(insert, rows);
+				}
+			}
+			insert.executeBatch();
+		}
+		connection.commit();
+		return rows;
+	}
+
+	private long writeClass(Connection connection, ClassDescriptor cd) throws SQLException
+	{
+		String tableName = index.getTableName(cd);
+		// the attributes and references, in the order of their columns
+		List<FieldDescriptor> fields = new ArrayList<>();
+		Map<String, String> columns = new LinkedHashMap<>();
+		columns.put("id", "int4");
+		for (FieldDescriptor fd : cd.getAllFieldDescriptors())
+		{
+			if (fd instanceof AttributeDescriptor) {
+				String column = DatabaseUtil.getColumnName(fd).toLowerCase(Locale.ROOT);
+				if (!"id".equals(column)) {
+					fields.add(fd);
+					columns.put(column, columnType((AttributeDescriptor) fd));
+				}
+			} else if (!fd.isCollection()) {
+				fields.add(fd);
+				// the join conditions of R2RMLMapping name the column this way
+				columns.put((fd.getName() + "id").toLowerCase(Locale.ROOT), "int4");
+			}
+		}
+		createTable(connection, tableName, columns);
+
+		long rows = 0;
+		try (PreparedStatement insert = connection.prepareStatement(insert(tableName, columns));
+				PreparedStatement clobInsert = interMineClobs
+						? connection.prepareStatement(insert(ClobReader.CLOB_TABLE, clobColumns())) : null) {
+			for (ClassDescriptor leaf : getLeaves(cd))
+			{
+				long first = firstIds.get(leaf);
+				for (long id = first; id < first + counts.get(leaf); id++)
+				{
+					int parameter = 1;
+					insert.setLong(parameter++, id);
+					for (FieldDescriptor fd : fields)
+					{
+						if (fd instanceof AttributeDescriptor) {
+							Object value = value((AttributeDescriptor) fd, leaf, id);
+							if (clobInsert != null && value instanceof String
+									&& R2RMLMapping.CLOB_TYPE.equals(((AttributeDescriptor) fd).getType())) {
+								long clobId = id * clobAttributes.size() + clobAttributes.indexOf(fd.getName());
+								// the object's row in the tables of its superclasses refers to the same pages
+								if (cd == leaf) {
+									writeClob(clobInsert, clobId, (String) value);
+								}
+								value = clobId + ",0," + ((String) value).length();
+							}
+							insert.setObject(parameter++, value);
+						} else {
+							Long referenced = reference((ReferenceDescriptor) fd, id);
+							if (referenced == null) {
+								insert.setNull(parameter++, Types.INTEGER);
+							} else {
+								insert.setLong(parameter++, referenced);
+							}
+						}
+					}
+					rows = addBatch(insert, rows);
+				}
+			}
+			insert.executeBatch();
+			if (clobInsert != null) {
+				clobInsert.executeBatch();
+			}
+		}
+		for (FieldDescriptor fd : fields)
+		{
+			if (fd instanceof ReferenceDescriptor) {
+				createIndex(connection, tableName, fd.getName() + "id");
+			}
+		}
+		AttributeDescriptor identifier = index.getURIIdentifier(cd);
+		if (identifier != null && !"id".equalsIgnoreCase(identifier.getName())) {
+			createIndex(connection, tableName, DatabaseUtil.getColumnName(identifier));
+		}
+		connection.commit();
+		System.err.println(tableName + ": " + rows + " rows");
+		return rows;
+	}
+
+	private long writeIndirection(Connection connection, CollectionDescriptor collection) throws SQLException
+	{
+		String tableName = DatabaseUtil.getIndirectionTableName(collection);
+		String inward = DatabaseUtil.getInwardIndirectionColumnName(collection, R2RMLMapping.FORMAT_VERSION);
+		String outward = DatabaseUtil.getOutwardIndirectionColumnName(collection, R2RMLMapping.FORMAT_VERSION);
+		Map<String, String> columns = new LinkedHashMap<>();
+		columns.put(inward, "int4 NOT NULL");
+		columns.put(outward, "int4 NOT NULL");
+		createTable(connection, tableName, columns);
+
+		List<ClassDescriptor> targets = getLeaves(collection.getReferencedClassDescriptor());
+		long targetCount = count(targets);
+		long rows = 0;
+		if (targetCount > 0) {
+			// p of the geometric distribution of the links per object, whose mean is fanout
+			double p = 1 / (fanout + 1);
+			try (PreparedStatement insert = connection.prepareStatement(insert(tableName, columns))) {
+				Set<Long> linked = new HashSet<>();
+				for (ClassDescriptor leaf : getLeaves(collection.getClassDescriptor()))
+				{
+					long first = firstIds.get(leaf);
+					for (long id = first; id < first + counts.get(leaf); id++)
+					{
+						Random random = random(id, tableName);
+						long links = Math.min(targetCount,
+								(long) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - p)));
+						linked.clear();
+						// popular targets come up again and again, give up on the rarest links
+						for (long attempt = 0; linked.size() < links && attempt < 4 * links; attempt++)
+						{
+							linked.add(pick(targets, skewed(random, targetCount), tableName.hashCode()));
+						}
+						for (long target : linked)
+						{
+							insert.setLong(1, id);
+							insert.setLong(2, target);
+							rows = addBatch(insert, rows);
+						}
+					}
+				}
+				insert.executeBatch();
+			}
+		}
+		createIndex(connection, tableName, inward + ", " + outward);
+		createIndex(connection, tableName, outward + ", " + inward);
+		connection.commit();
+		System.err.println(tableName + ": " + rows + " rows");
+		return rows;
+	}
+
+	private void createClobTable(Connection connection) throws SQLException
+	{
+		createTable(connection, ClobReader.CLOB_TABLE, clobColumns());
+		createIndex(connection, ClobReader.CLOB_TABLE, "clobid, clobpage");
+		connection.commit();
+	}
+
+	private Map<String, String> clobColumns()
+	{
+		Map<String, String> columns = new LinkedHashMap<>();
+		columns.put("clobid", "int4 NOT NULL");
+		columns.put("clobpage", "int4 NOT NULL");
+		columns.put(ClobReader.CLOB_TABLE, columnType(TEXT));
+		return columns;
+	}
+
+	/**
+	 * Adds the pages of content to the batch of insert, each executed with the batch of
+	 * its table's rows.
+	 */
+	private static void writeClob(PreparedStatement insert, long clobId, String content) throws SQLException
+	{
+		for (int page = 0; page * CLOB_PAGE_SIZE < content.length(); page++)
+		{
+			insert.setLong(1, clobId);
+			insert.setInt(2, page);
+			insert.setString(3, content.substring(page * CLOB_PAGE_SIZE,
+					Math.min(content.length(), (page + 1) * CLOB_PAGE_SIZE)));
+			insert.addBatch();
+		}
+	}
+
+	/**
+	 * The version TemplateService and the result caches key their results by.
+	 */
+	private void writeMetadata(Connection connection) throws SQLException
+	{
+		Map<String, String> columns = new LinkedHashMap<>();
+		columns.put("key", columnType(TEXT));
+		columns.put("value", columnType(TEXT));
+		createTable(connection, "intermine_metadata", columns);
+		try (PreparedStatement insert = connection.prepareStatement(insert("intermine_metadata", columns))) {
+			insert.setString(1, "serialNumber");
+			insert.setString(2, "synthetic-" + counts.values().stream().mapToLong(Long::longValue).sum() + "-" + seed);
+			insert.executeUpdate();
+		}
+		connection.commit();
+	}
+
+	private static long addBatch(PreparedStatement insert, long rows) throws SQLException
+	{
+		insert.addBatch();
+		if (++rows % BATCH_SIZE == 0) {
+			insert.executeBatch();
+		}
+		return rows;
+	}
+
+	private void createTable(Connection connection, String tableName, Map<String, String> columns) throws SQLException
+	{
+		List<String> definitions = new ArrayList<>();
+		for (Map.Entry<String, String> column : columns.entrySet())
+		{
+			definitions.add(column.getKey() + " " + column.getValue() + ("id".equals(column.getKey()) ? " PRIMARY KEY" : ""));
+		}
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("DROP TABLE IF EXISTS " + tableName + " CASCADE");
+			statement.execute("CREATE TABLE " + tableName + " (" + String.join(", ", definitions) + ")");
+		}
+	}
+
+	private static void createIndex(Connection connection, String tableName, String columns) throws SQLException
+	{
+		String name = SqlNames.identifier(tableName + "_" + columns.replace(", ", "_") + "_syn_idx");
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE INDEX IF NOT EXISTS " + name + " ON " + tableName + " (" + columns + ")");
+		}
+	}
+
+	private static String insert(String tableName, Map<String, String> columns)
+	{
+		return "INSERT INTO " + tableName + " (" + String.join(", ", columns.keySet()) + ") VALUES ("
+				+ String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+	}
+
+	/**
+	 * @return the PostgreSQL type of OntopMetadata, or its H2 equivalent
+	 */
+	private String columnType(AttributeDescriptor ad)
+	{
+		if (h2 && !interMineClobs && R2RMLMapping.CLOB_TYPE.equals(ad.getType())) {
+			return "CLOB";
+		}
+		return columnType(OntopMetadata.sqlType(ad.getType()));
+	}
+
+	private String columnType(String sqlType)
+	{
+		// H2's TEXT is a CLOB, which cannot be compared or indexed like a string
+		return h2 && "text".equals(sqlType) ? "VARCHAR" : sqlType;
+	}
+
+	/**
+	 * @return the value of an attribute of the object id of class leaf, null for about
+	 * one in ten values of non primitive attributes other than the URI identifier
+	 */
+	private Object value(AttributeDescriptor ad, ClassDescriptor leaf, long id)
+	{
+		Random random = random(id, ad.getName());
+		String type = ad.getType();
+		AttributeDescriptor identifier = index.getURIIdentifier(leaf);
+		if (identifier != null && identifier.getName().equals(ad.getName())) {
+			return identifier(type, leaf, id, random);
+		}
+		if (!OntopMetadata.isPrimitive(type) && random.nextInt(10) == 0) {
+			return null;
+		}
+		switch (type)
+		{
+			case "java.lang.String":
+				// values repeat, the lowest ranks most often
+				return StringUtils.capitalize(ad.getName()) + "_" + skewed(random, Math.max(1, counts.get(leaf) / 4));
+			case R2RMLMapping.CLOB_TYPE:
+				int length = (int) Math.min(maxClob, Math.round(Math.exp(6 + random.nextGaussian())));
+				StringBuilder residues = new StringBuilder(length);
+				for (int i = 0; i < length; i++)
+				{
+					residues.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+				}
+				return residues.toString();
+			case "boolean":
+			case "java.lang.Boolean":
+				return random.nextBoolean();
+			case "float":
+			case "java.lang.Float":
+			case "double":
+			case "java.lang.Double":
+			case "java.math.BigDecimal":
+				return convert(type, Math.round(random.nextDouble() * 1000000) / 100.0);
+			case "java.util.Date":
+				// milliseconds since 1970, as InterMine stores dates
+				return 946684800000L + (long) (random.nextDouble() * 20 * 365.25 * 86400000);
+			default:
+				// lengths, positions and counts, mostly in the hundreds
+				return convert(type, Math.round(Math.exp(5 + 1.5 * Math.abs(random.nextGaussian()))));
+		}
+	}
+
+	/**
+	 * @return the URI identifier of the object id of class leaf, in the form of the
+	 * identifiers of the mine, e.g. GENE12, or that of another object of the class, or
+	 * null, in the shares given
+	 */
+	private Object identifier(String type, ClassDescriptor leaf, long id, Random random)
+	{
+		double draw = random.nextDouble();
+		if (draw < nullIdentifiers && !OntopMetadata.isPrimitive(type)) {
+			return null;
+		}
+		long identity = id;
+		if (draw >= nullIdentifiers && draw < nullIdentifiers + duplicateIdentifiers) {
+			identity = firstIds.get(leaf) + (long) (random.nextDouble() * counts.get(leaf));
+		}
+		return "java.lang.String".equals(type) ? leaf.getSimpleName().toUpperCase(Locale.ROOT) + identity
+				: convert(type, identity);
+	}
+
+	private static Object convert(String type, double value)
+	{
+		switch (type)
+		{
+			case "short":
+			case "java.lang.Short":
+				return (short) Math.min(Short.MAX_VALUE, value);
+			case "int":
+			case "java.lang.Integer":
+				return (int) Math.min(Integer.MAX_VALUE, value);
+			case "long":
+			case "java.lang.Long":
+				return (long) value;
+			case "float":
+			case "java.lang.Float":
+				return (float) value;
+			case "java.math.BigDecimal":
+				return BigDecimal.valueOf(value);
+			case "java.lang.String":
+				return String.valueOf((long) value);
+			default:
+				return value;
+		}
+	}
+
+	/**
+	 * @return the id of the object referenced by object id, null for about one in twenty
+	 */
+	private Long reference(ReferenceDescriptor rd, long id)
+	{
+		Random random = random(id, rd.getName());
+		List<ClassDescriptor> targets = getLeaves(rd.getReferencedClassDescriptor());
+		long targetCount = count(targets);
+		if (targetCount == 0 || random.nextInt(20) == 0) {
+			return null;
+		}
+		long rank = rd.relationType() == FieldDescriptor.ONE_ONE_RELATION
+				? (long) (random.nextDouble() * targetCount) : skewed(random, targetCount);
+		return pick(targets, rank, rd.getName().hashCode());
+	}
+
+	private long count(List<ClassDescriptor> classes)
+	{
+		long count = 0;
+		for (ClassDescriptor cd : classes)
+		{
+			count += counts.get(cd);
+		}
+		return count;
+	}
+
+	/**
+	 * @param rank from 0 to the number of objects of classes
+	 * @param salt spreads the popular ranks over the objects differently per field
+	 * @return the id of an object of classes
+	 */
+	private long pick(List<ClassDescriptor> classes, long rank, long salt)
+	{
+		long position = Math.floorMod(mix(rank ^ mix(salt)), count(classes));
+		for (ClassDescriptor cd : classes)
+		{
+			long count = counts.get(cd);
+			if (position < count) {
+				return firstIds.get(cd) + position;
+			}
+			position -= count;
+		}
+		throw new IllegalStateException();
+	}
+
+	/**
+	 * @return a rank below n, rank r with a probability proportional to 1 / (r + 1)
+	 */
+	private static long skewed(Random random, long n)
+	{
+		return Math.min(n - 1, (long) Math.floor(Math.pow(n + 1, random.nextDouble())) - 1);
+	}
+
+	private Random random(long id, String field)
+	{
+		return new Random(mix(seed ^ mix(id) ^ field.hashCode()));
+	}
+
+	/**
+	 * The finalizer of SplitMix64, so that neighbouring ids get unrelated seeds.
+	 */
+	private static long mix(long value)
+	{
+		long z = value + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
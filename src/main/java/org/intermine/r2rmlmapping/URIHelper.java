@@ -1,5 +1,8 @@
 package org.intermine.r2rmlmapping;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.commons.lang.StringUtils;
 import org.intermine.web.uri.ClassNameURIIdentifierMapper;
 
@@ -12,6 +15,8 @@ public class URIHelper {
 
     private static final String DEFAULT_IDENTIFIER = "primaryIdentifier";
     private ClassNameURIIdentifierMapper classNameIdentifierMapper = null;
+    // the template of createURI(type) by type, built once per type
+    private final ConcurrentMap<String, URITemplate> templates = new ConcurrentHashMap<>();
 
     public URIHelper() {
         classNameIdentifierMapper = ClassNameURIIdentifierMapper.getMapper();
@@ -29,7 +34,38 @@ public class URIHelper {
         return false;
     }
 
+    /**
+     * @return false for types whose URIs are not in the InterMine namespace, such as Protein
+     */
+    public boolean isInterMineType(String type) {
+        return !("Protein").equalsIgnoreCase(type);
+    }
+
+    /**
+     * A template whose type part also comes from a column, for mixing several classes
+     * in one logical table.
+     */
+    public String createTypedURI(String typeColumn, String allias) {
+        return interMineNS + "{" + typeColumn + "}:{" + allias + "}";
+    }
+
     public String createURI(String type) {
+        return getTemplate(type).getTemplate();
+    }
+
+    /**
+     * @return the compiled template of {@link #createURI(String)}, whose one column is the
+     *     URI identifier of type
+     */
+    public URITemplate getTemplate(String type) {
+        URITemplate template = templates.get(type);
+        if (template == null) {
+            template = templates.computeIfAbsent(type, t -> URITemplate.compile(buildURI(t)));
+        }
+        return template;
+    }
+
+    private String buildURI(String type) {
         String identifier = getIdentifier(type);
         if (("Protein").equalsIgnoreCase(type)) {
             return uniProtKbNS + "{" + identifier +"}";
@@ -37,7 +73,7 @@ public class URIHelper {
             return interMineNS + StringUtils.lowerCase(type) + ":{" + identifier +"}";
         }
     }
-    
+
      public String createURI(String type, String allias) {
         if (("Protein").equalsIgnoreCase(type)) {
             return uniProtKbNS + "{" + allias +"}";
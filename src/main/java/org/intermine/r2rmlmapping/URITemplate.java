@@ -0,0 +1,269 @@
+package org.intermine.r2rmlmapping;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An R2RML string template, e.g. <code>http://purl.uniprot.org/uniprot/{primaryAccession}</code>,
+ * parsed once into its constant fragments and column references.
+ *
+ * Rendering follows <a href="https://www.w3.org/TR/r2rml/#from-template">the spec</a>:
+ * column values are made IRI-safe by percent-encoding, and a null value means no term.
+ * {@link #match(String)} goes the other way, from an IRI back to the column values that
+ * render it, so that a constant IRI can be looked up by its key columns.
+ */
+public final class URITemplate {
+
+    /**
+     * Supplies the value of a column for the row being rendered.
+     */
+    public interface ColumnValues {
+        String get(String column) throws SQLException;
+    }
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final String template;
+    // fragments.length == columns.length + 1, fragments and columns alternate
+    private final String[] fragments;
+    private final String[] columns;
+
+    private URITemplate(String template, String[] fragments, String[] columns) {
+        this.template = template;
+        this.fragments = fragments;
+        this.columns = columns;
+    }
+
+    public static URITemplate compile(String template) {
+        List<String> fragments = new ArrayList<>();
+        List<String> columns = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inColumn = false;
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c == '\\' && i + 1 < template.length()) {
+                current.append(template.charAt(++i));
+            } else if (c == '{' && !inColumn) {
+                fragments.add(current.toString());
+                current.setLength(0);
+                inColumn = true;
+            } else if (c == '}' && inColumn) {
+                columns.add(current.toString());
+                current.setLength(0);
+                inColumn = false;
+            } else {
+                current.append(c);
+            }
+        }
+        if (inColumn) {
+            throw new IllegalArgumentException("Unterminated column reference in template: " + template);
+        }
+        fragments.add(current.toString());
+        return new URITemplate(template, fragments.toArray(new String[0]), columns.toArray(new String[0]));
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(Arrays.asList(columns));
+    }
+
+    /**
+     * @return the template with its column names left out, e.g.
+     *     <code>http://purl.uniprot.org/uniprot/{}</code>: templates with the same shape
+     *     render the same IRIs from the same values, whatever their columns are called
+     */
+    public String getShape() {
+        StringBuilder shape = new StringBuilder();
+        for (int i = 0; i < fragments.length; i++) {
+            if (i > 0) {
+                shape.append("{}");
+            }
+            for (char c : fragments[i].toCharArray()) {
+                if (c == '\\' || c == '{' || c == '}') {
+                    shape.append('\\');
+                }
+                shape.append(c);
+            }
+        }
+        return shape.toString();
+    }
+
+    /**
+     * Appends the IRI for one row to out.
+     * @return false, leaving out untouched, if one of the columns is null
+     */
+    public boolean render(StringBuilder out, ColumnValues values) throws SQLException {
+        int start = out.length();
+        out.append(fragments[0]);
+        for (int i = 0; i < columns.length; i++) {
+            String value = values.get(columns[i]);
+            if (value == null) {
+                out.setLength(start);
+                return false;
+            }
+            appendIriSafe(out, value);
+            out.append(fragments[i + 1]);
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of each column of the template in rs, for
+     *     {@link #render(StringBuilder, ResultSet, int[])}
+     * @param prefix the prefix of the columns' aliases in the query, or ""
+     */
+    public int[] findColumns(ResultSet rs, String prefix) throws SQLException {
+        int[] positions = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            positions[i] = rs.findColumn(prefix + columns[i]);
+        }
+        return positions;
+    }
+
+    /**
+     * Appends the IRI for the current row of rs to out, reading the columns by position
+     * so that no column names are built or looked up per row.
+     * @return false, leaving out untouched, if one of the columns is null
+     */
+    public boolean render(StringBuilder out, ResultSet rs, int[] positions) throws SQLException {
+        int start = out.length();
+        out.append(fragments[0]);
+        for (int i = 0; i < columns.length; i++) {
+            String value = rs.getString(positions[i]);
+            if (value == null) {
+                out.setLength(start);
+                return false;
+            }
+            appendIriSafe(out, value);
+            out.append(fragments[i + 1]);
+        }
+        return true;
+    }
+
+    /**
+     * Parses an IRI rendered by this template.
+     *
+     * Rendered values never contain the characters of the fragments between them, those
+     * are percent-encoded, so each value ends at the next occurrence of its following
+     * fragment. Only the IRI this template renders for the values is matched: a value
+     * that is not percent-encoded the way {@link #appendIriSafe(StringBuilder, String)}
+     * does it cannot come from the database, so no row could produce that IRI.
+     * @return the value of each column, in the order of {@link #getColumns()}, or null if
+     *     the template cannot render iri
+     */
+    public String[] match(String iri) {
+        if (!iri.startsWith(fragments[0])) {
+            return null;
+        }
+        String[] values = new String[columns.length];
+        int position = fragments[0].length();
+        for (int i = 0; i < columns.length; i++) {
+            String next = fragments[i + 1];
+            int end;
+            if (i + 1 == columns.length) {
+                end = iri.length() - next.length();
+                if (end < position || !iri.endsWith(next)) {
+                    return null;
+                }
+            } else if (next.isEmpty()) {
+                // two adjacent columns, there is no telling where the first one ends
+                return null;
+            } else {
+                end = iri.indexOf(next, position);
+                if (end < 0) {
+                    return null;
+                }
+            }
+            values[i] = decode(iri.substring(position, end));
+            if (values[i] == null) {
+                return null;
+            }
+            position = end + next.length();
+        }
+        return position == iri.length() ? values : null;
+    }
+
+    /**
+     * @return the value that {@link #appendIriSafe(StringBuilder, String)} encodes as
+     *     encoded, or null if it is not encoded that way
+     */
+    static String decode(String encoded) {
+        if (encoded.indexOf('%') < 0) {
+            for (int i = 0; i < encoded.length(); i++) {
+                char c = encoded.charAt(i);
+                if (!isIriUnreserved(c) && !Character.isSurrogate(c)) {
+                    return null;
+                }
+            }
+            return encoded;
+        }
+        StringBuilder value = new StringBuilder(encoded.length());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < encoded.length()) {
+            if (encoded.charAt(i) != '%') {
+                value.append(encoded.charAt(i++));
+                continue;
+            }
+            bytes.reset();
+            while (i < encoded.length() && encoded.charAt(i) == '%') {
+                if (i + 2 >= encoded.length()) {
+                    return null;
+                }
+                int high = Character.digit(encoded.charAt(i + 1), 16);
+                int low = Character.digit(encoded.charAt(i + 2), 16);
+                if (high < 0 || low < 0) {
+                    return null;
+                }
+                bytes.write(high << 4 | low);
+                i += 3;
+            }
+            value.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        }
+        String decoded = value.toString();
+        // rejects lower case hex digits, encoded unreserved characters and malformed UTF-8
+        StringBuilder canonical = new StringBuilder(encoded.length());
+        appendIriSafe(canonical, decoded);
+        return canonical.toString().equals(encoded) ? decoded : null;
+    }
+
+    /**
+     * Percent-encodes everything but the iunreserved characters of RFC 3987.
+     */
+    public static void appendIriSafe(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isIriUnreserved(c)) {
+                out.append(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()) {
+                // supplementary characters are ucschar as well
+                out.append(c).append(value.charAt(++i));
+            } else {
+                for (byte b : String.valueOf(c).getBytes(StandardCharsets.UTF_8)) {
+                    out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+                }
+            }
+        }
+    }
+
+    private static boolean isIriUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+            || c == '-' || c == '.' || c == '_' || c == '~'
+            || (c >= '\u00A0' && c <= '\uD7FF') || (c >= '\uF900' && c <= '\uFDCF')
+            || (c >= '\uFDF0' && c <= '\uFFEF');
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
@@ -0,0 +1,193 @@
+package org.intermine.r2rmlmapping.federation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.Binding;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+
+/**
+ * Joins the bindings of the rest of a query with a SERVICE clause by sending them in
+ * VALUES blocks, several at a time. The clause is either one FedX leaves to the endpoint,
+ * or the statements FedX made exclusive to the member the clause names.
+ *
+ * The bindings are read as the results are consumed, so at most concurrency blocks are
+ * in flight or waiting to be read. The blocks are sent by the
+ * {@link ServiceJoinConfig#getServiceExecutor() service threads} of the federation, or,
+ * for a join evaluated by one of those threads, one at a time by that thread. When
+ * ordered, the results come back in the order of the bindings they extend; otherwise
+ * each block is returned as soon as it completes.
+ */
+class BatchedServiceJoin extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+
+    private final CloseableIteration<BindingSet, QueryEvaluationException> left;
+    private final Function<List<BindingSet>, CloseableIteration<BindingSet, QueryEvaluationException>> service;
+    private final int blockSize;
+    private final int concurrency;
+    private final boolean ordered;
+    private final ExecutorService executor;
+    // nested in a block of another join, whose service thread must not wait for the pool
+    private final boolean inline;
+
+    private final Deque<Future<List<BindingSet>>> inFlight = new ArrayDeque<>();
+    private final CompletionService<List<BindingSet>> completed;
+    private Iterator<BindingSet> current = Collections.emptyIterator();
+
+    /**
+     * @param service evaluates the clause for a block of bindings, returning the joined results
+     */
+    BatchedServiceJoin(CloseableIteration<BindingSet, QueryEvaluationException> left,
+            Function<List<BindingSet>, CloseableIteration<BindingSet, QueryEvaluationException>> service,
+            ServiceJoinConfig config) {
+        this.left = left;
+        this.service = service;
+        this.blockSize = config.getServiceBlockSize();
+        this.concurrency = config.getServiceConcurrency();
+        this.ordered = config.isOrderedServiceResults();
+        this.executor = config.getServiceExecutor();
+        this.inline = config.isServiceThread();
+        this.completed = new ExecutorCompletionService<>(executor);
+    }
+
+    @Override
+    protected BindingSet getNextElement() throws QueryEvaluationException {
+        while (!current.hasNext()) {
+            if (inline) {
+                if (!left.hasNext()) {
+                    return null;
+                }
+                current = evaluate(nextBindings()).iterator();
+                continue;
+            }
+            submitBlocks();
+            if (inFlight.isEmpty()) {
+                return null;
+            }
+            current = nextBlock().iterator();
+        }
+        return current.next();
+    }
+
+    private void submitBlocks() {
+        while (inFlight.size() < concurrency && left.hasNext()) {
+            List<BindingSet> block = nextBindings();
+            if (ordered) {
+                inFlight.add(executor.submit(() -> evaluate(block)));
+            } else {
+                inFlight.add(completed.submit(() -> evaluate(block)));
+            }
+        }
+    }
+
+    /**
+     * @return the next block of bindings from the left
+     */
+    private List<BindingSet> nextBindings() {
+        List<BindingSet> block = new ArrayList<>(blockSize);
+        while (block.size() < blockSize && left.hasNext()) {
+            block.add(left.next());
+        }
+        return block;
+    }
+
+    private List<BindingSet> nextBlock() {
+        try {
+            if (ordered) {
+                return inFlight.poll().get();
+            }
+            Future<List<BindingSet>> done = completed.take();
+            inFlight.remove(done);
+            return done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryEvaluationException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof QueryEvaluationException) {
+                throw (QueryEvaluationException) e.getCause();
+            }
+            throw new QueryEvaluationException(e.getCause());
+        }
+    }
+
+    private List<BindingSet> evaluate(List<BindingSet> block) {
+        List<BindingSet> results = new ArrayList<>();
+        try (CloseableIteration<BindingSet, QueryEvaluationException> joined =
+                service.apply(block)) {
+            while (joined.hasNext()) {
+                results.add(joined.next());
+            }
+        }
+        return ordered ? inBindingOrder(block, results) : results;
+    }
+
+    /**
+     * Puts the results of a block, which the endpoint returns in any order, in the order
+     * of the bindings they extend.
+     */
+    private static List<BindingSet> inBindingOrder(List<BindingSet> block, List<BindingSet> results) {
+        List<List<BindingSet>> byBinding = new ArrayList<>(block.size() + 1);
+        for (int i = 0; i <= block.size(); i++) {
+            byBinding.add(new ArrayList<>(1));
+        }
+        for (BindingSet result : results) {
+            byBinding.get(indexOf(block, result)).add(result);
+        }
+        List<BindingSet> sorted = new ArrayList<>(results.size());
+        for (List<BindingSet> extensions : byBinding) {
+            sorted.addAll(extensions);
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the position of the first of bindings that result extends, or their number
+     */
+    private static int indexOf(List<BindingSet> bindings, BindingSet result) {
+        for (int i = 0; i < bindings.size(); i++) {
+            if (isExtendedBy(bindings.get(i), result)) {
+                return i;
+            }
+        }
+        return bindings.size();
+    }
+
+    private static boolean isExtendedBy(BindingSet bindings, BindingSet result) {
+        for (Binding binding : bindings) {
+            Value value = result.getValue(binding.getName());
+            if (value == null || !value.equals(binding.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void handleClose() throws QueryEvaluationException {
+        try {
+            for (Future<List<BindingSet>> block : inFlight) {
+                block.cancel(true);
+            }
+            inFlight.clear();
+        } finally {
+            try {
+                left.close();
+            } finally {
+                super.handleClose();
+            }
+        }
+    }
+}
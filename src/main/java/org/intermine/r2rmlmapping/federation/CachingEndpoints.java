@@ -0,0 +1,86 @@
+package org.intermine.r2rmlmapping.federation;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.rdf4j.federated.endpoint.Endpoint;
+import org.eclipse.rdf4j.federated.endpoint.EndpointClassification;
+import org.eclipse.rdf4j.federated.endpoint.EndpointType;
+import org.eclipse.rdf4j.federated.endpoint.ManagedRepositoryEndpoint;
+import org.eclipse.rdf4j.federated.endpoint.SparqlEndpointConfiguration;
+import org.eclipse.rdf4j.federated.endpoint.provider.RepositoryInformation;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.sparql.SPARQLRepository;
+
+/**
+ * Creates FedX federation members whose sub-queries go through a {@link ResultCache},
+ * optionally with a {@link VoidDescription} for {@link VoidFederationEvalStrategy}.
+ *
+ * FedX also routes a SERVICE clause naming a member's location to that member, so
+ * <code>SERVICE &lt;https://sparql.uniprot.org/sparql&gt;</code> is cached as well
+ * once UniProt is a caching member.
+ */
+public final class CachingEndpoints {
+
+    private CachingEndpoints() {
+    }
+
+    /**
+     * A remote SPARQL endpoint.
+     */
+    public static Endpoint sparqlEndpoint(String url, ResultCache cache) {
+        return endpoint(url, new SPARQLRepository(url), cache);
+    }
+
+    /**
+     * A remote SPARQL endpoint queried through client, e.g. one from {@link #pooledHttpClient}.
+     */
+    public static Endpoint sparqlEndpoint(String url, ResultCache cache, HttpClient client) {
+        SPARQLRepository repository = new SPARQLRepository(url);
+        repository.setHttpClient(client);
+        return endpoint(url, repository, cache);
+    }
+
+    /**
+     * An HTTP client keeping up to connections connections per host alive between
+     * requests. Like every HttpClientBuilder client it asks for gzip or deflate encoded
+     * responses and decodes them.
+     */
+    public static CloseableHttpClient pooledHttpClient(int connections) {
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(connections);
+        pool.setDefaultMaxPerRoute(connections);
+        return HttpClients.custom().setConnectionManager(pool).useSystemProperties().build();
+    }
+
+    /**
+     * Any repository, e.g. an in-memory one standing in for a remote endpoint, queried the
+     * way FedX queries SPARQL endpoints.
+     */
+    public static Endpoint endpoint(String location, Repository repository, ResultCache cache) {
+        return endpoint(location, repository, cache, null);
+    }
+
+    /**
+     * @param cache the cache for the member's results, or null to not cache them
+     * @param description what the member holds, or null to let FedX find out by ASK queries
+     */
+    public static Endpoint endpoint(String location, Repository repository, ResultCache cache,
+            VoidDescription description) {
+        RepositoryInformation info = new RepositoryInformation(id(location), location, location,
+                EndpointType.SparqlEndpoint);
+        SparqlEndpointConfiguration config = new SparqlEndpointConfiguration();
+        config.setSupportsASKQueries(true);
+        info.setEndpointConfiguration(config);
+        Repository member = cache == null ? repository : new CachingRepository(repository, cache);
+        if (description != null) {
+            return new DescribedEndpoint(info, location, EndpointClassification.Remote, member, description);
+        }
+        return new ManagedRepositoryEndpoint(info, location, EndpointClassification.Remote, member);
+    }
+
+    private static String id(String location) {
+        return "sparql_" + location.replaceAll("^[a-z]+://", "").replaceAll("[^A-Za-z0-9]+", "_");
+    }
+}
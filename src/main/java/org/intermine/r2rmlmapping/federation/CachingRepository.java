@@ -0,0 +1,229 @@
+package org.intermine.r2rmlmapping.federation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.BooleanQuery;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.query.Query;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.QueryResults;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.TupleQueryResultHandler;
+import org.eclipse.rdf4j.query.resultio.BooleanQueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.QueryResultIO;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.base.RepositoryConnectionWrapper;
+import org.eclipse.rdf4j.repository.base.RepositoryWrapper;
+
+/**
+ * Answers SELECT and ASK queries from a {@link ResultCache} before asking the wrapped
+ * repository, typically a SPARQLRepository for a remote endpoint.
+ *
+ * Results are cached in the binary SPARQL results format. A miss reads the whole result
+ * from the delegate before handing it out, which suits the bounded sub-queries a
+ * federation sends to its members. Graph queries and updates are passed through.
+ */
+public class CachingRepository extends RepositoryWrapper {
+
+    private final ResultCache cache;
+
+    public CachingRepository(Repository delegate, ResultCache cache) {
+        super(delegate);
+        this.cache = cache;
+    }
+
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public RepositoryConnection getConnection() throws RepositoryException {
+        return new CachingConnection(this, getDelegate().getConnection());
+    }
+
+    private class CachingConnection extends RepositoryConnectionWrapper {
+
+        CachingConnection(Repository repository, RepositoryConnection delegate) {
+            super(repository, delegate);
+        }
+
+        @Override
+        public TupleQuery prepareTupleQuery(QueryLanguage ql, String query)
+                throws MalformedQueryException, RepositoryException {
+            return prepareTupleQuery(ql, query, null);
+        }
+
+        @Override
+        public TupleQuery prepareTupleQuery(QueryLanguage ql, String query, String baseURI)
+                throws MalformedQueryException, RepositoryException {
+            return new CachingTupleQuery(getDelegate().prepareTupleQuery(ql, query, baseURI),
+                    ql + "\n" + query, baseURI);
+        }
+
+        @Override
+        public BooleanQuery prepareBooleanQuery(QueryLanguage ql, String query)
+                throws MalformedQueryException, RepositoryException {
+            return prepareBooleanQuery(ql, query, null);
+        }
+
+        @Override
+        public BooleanQuery prepareBooleanQuery(QueryLanguage ql, String query, String baseURI)
+                throws MalformedQueryException, RepositoryException {
+            return new CachingBooleanQuery(getDelegate().prepareBooleanQuery(ql, query, baseURI),
+                    ql + "\n" + query, baseURI);
+        }
+    }
+
+    /**
+     * Passes the query settings through, keeping what the cache key is made of.
+     */
+    private abstract static class QueryWrapper<Q extends Query> implements Query {
+
+        final Q delegate;
+        private final String query;
+        private final String baseURI;
+
+        QueryWrapper(Q delegate, String query, String baseURI) {
+            this.delegate = delegate;
+            this.query = query;
+            this.baseURI = baseURI;
+        }
+
+        String key(String kind) {
+            return QueryKey.of(kind + "\n" + query, baseURI, delegate.getBindings(),
+                    delegate.getDataset(), delegate.getIncludeInferred());
+        }
+
+        @Override
+        public void setBinding(String name, Value value) {
+            delegate.setBinding(name, value);
+        }
+
+        @Override
+        public void removeBinding(String name) {
+            delegate.removeBinding(name);
+        }
+
+        @Override
+        public void clearBindings() {
+            delegate.clearBindings();
+        }
+
+        @Override
+        public BindingSet getBindings() {
+            return delegate.getBindings();
+        }
+
+        @Override
+        public void setDataset(Dataset dataset) {
+            delegate.setDataset(dataset);
+        }
+
+        @Override
+        public Dataset getDataset() {
+            return delegate.getDataset();
+        }
+
+        @Override
+        public void setIncludeInferred(boolean includeInferred) {
+            delegate.setIncludeInferred(includeInferred);
+        }
+
+        @Override
+        public boolean getIncludeInferred() {
+            return delegate.getIncludeInferred();
+        }
+
+        @Override
+        public void setMaxExecutionTime(int maxExecTime) {
+            delegate.setMaxExecutionTime(maxExecTime);
+        }
+
+        @Override
+        public int getMaxExecutionTime() {
+            return delegate.getMaxExecutionTime();
+        }
+
+        @Override
+        @Deprecated
+        public void setMaxQueryTime(int maxQueryTime) {
+            delegate.setMaxQueryTime(maxQueryTime);
+        }
+
+        @Override
+        @Deprecated
+        public int getMaxQueryTime() {
+            return delegate.getMaxQueryTime();
+        }
+    }
+
+    private class CachingTupleQuery extends QueryWrapper<TupleQuery> implements TupleQuery {
+
+        CachingTupleQuery(TupleQuery delegate, String query, String baseURI) {
+            super(delegate, query, baseURI);
+        }
+
+        @Override
+        public TupleQueryResult evaluate() throws QueryEvaluationException {
+            String key = key("select");
+            byte[] cached = cache.get(key);
+            if (cached == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (TupleQueryResult result = delegate.evaluate()) {
+                    QueryResultIO.writeTuple(result, TupleQueryResultFormat.BINARY, out);
+                } catch (IOException e) {
+                    throw new QueryEvaluationException(e);
+                }
+                cached = out.toByteArray();
+                cache.put(key, cached);
+            }
+            try {
+                return QueryResultIO.parseTuple(new ByteArrayInputStream(cached),
+                        TupleQueryResultFormat.BINARY);
+            } catch (IOException e) {
+                throw new QueryEvaluationException(e);
+            }
+        }
+
+        @Override
+        public void evaluate(TupleQueryResultHandler handler) throws QueryEvaluationException {
+            QueryResults.report(evaluate(), handler);
+        }
+    }
+
+    private class CachingBooleanQuery extends QueryWrapper<BooleanQuery> implements BooleanQuery {
+
+        CachingBooleanQuery(BooleanQuery delegate, String query, String baseURI) {
+            super(delegate, query, baseURI);
+        }
+
+        @Override
+        public boolean evaluate() throws QueryEvaluationException {
+            String key = key("ask");
+            byte[] cached = cache.get(key);
+            if (cached == null) {
+                boolean result = delegate.evaluate();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                QueryResultIO.writeBoolean(result, BooleanQueryResultFormat.TEXT, out);
+                cache.put(key, out.toByteArray());
+                return result;
+            }
+            try {
+                return QueryResultIO.parseBoolean(new ByteArrayInputStream(cached),
+                        BooleanQueryResultFormat.TEXT);
+            } catch (IOException e) {
+                throw new QueryEvaluationException(e);
+            }
+        }
+    }
+}
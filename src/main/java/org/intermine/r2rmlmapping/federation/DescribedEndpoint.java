@@ -0,0 +1,25 @@
+package org.intermine.r2rmlmapping.federation;
+
+import org.eclipse.rdf4j.federated.endpoint.EndpointClassification;
+import org.eclipse.rdf4j.federated.endpoint.ManagedRepositoryEndpoint;
+import org.eclipse.rdf4j.federated.endpoint.provider.RepositoryInformation;
+import org.eclipse.rdf4j.repository.Repository;
+
+/**
+ * A federation member that comes with a {@link VoidDescription} of its data.
+ */
+public class DescribedEndpoint extends ManagedRepositoryEndpoint {
+
+    private final VoidDescription description;
+
+    public DescribedEndpoint(RepositoryInformation repoInfo, String location,
+            EndpointClassification endpointClassification, Repository repository,
+            VoidDescription description) {
+        super(repoInfo, location, endpointClassification, repository);
+        this.description = description;
+    }
+
+    public VoidDescription getDescription() {
+        return description;
+    }
+}
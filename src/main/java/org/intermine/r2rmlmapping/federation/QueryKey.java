@@ -0,0 +1,142 @@
+package org.intermine.r2rmlmapping.federation;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.query.Binding;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+
+/**
+ * Cache keys for sub-queries sent to a remote endpoint.
+ *
+ * Two requests get the same key when their query text is the same up to whitespace and
+ * comments, and they use the same base IRI, bindings, dataset and inference flag.
+ */
+public final class QueryKey {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private QueryKey() {
+    }
+
+    public static String of(String query, String baseURI, BindingSet bindings, Dataset dataset,
+            boolean includeInferred) {
+        StringBuilder key = new StringBuilder(normalize(query));
+        key.append('\n').append(baseURI == null ? "" : baseURI);
+        key.append('\n');
+        if (bindings != null) {
+            // binding sets do not promise an iteration order
+            Map<String, String> sorted = new TreeMap<>();
+            for (Binding binding : bindings) {
+                sorted.put(binding.getName(), String.valueOf(binding.getValue()));
+            }
+            for (Map.Entry<String, String> binding : sorted.entrySet()) {
+                key.append(binding.getKey()).append('=').append(binding.getValue()).append(';');
+            }
+        }
+        key.append('\n');
+        if (dataset != null) {
+            for (IRI graph : dataset.getDefaultGraphs()) {
+                key.append("from ").append(graph).append(';');
+            }
+            for (IRI graph : dataset.getNamedGraphs()) {
+                key.append("named ").append(graph).append(';');
+            }
+        }
+        key.append('\n').append(includeInferred);
+        return sha256(key.toString());
+    }
+
+    /**
+     * Strips comments and collapses whitespace outside of string literals and IRIs.
+     */
+    public static String normalize(String query) {
+        StringBuilder out = new StringBuilder(query.length());
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            int end;
+            if (c == '"' || c == '\'') {
+                end = endOfString(query, i);
+            } else if (c == '<' && endOfIri(query, i) > i) {
+                end = endOfIri(query, i);
+            } else if (c == '#') {
+                while (i < query.length() && query.charAt(i) != '\n') {
+                    i++;
+                }
+                pendingSpace = true;
+                continue;
+            } else if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+                continue;
+            } else {
+                end = i + 1;
+            }
+            if (pendingSpace && out.length() > 0) {
+                out.append(' ');
+            }
+            pendingSpace = false;
+            out.append(query, i, end);
+            i = end;
+        }
+        return out.toString();
+    }
+
+    private static int endOfString(String query, int start) {
+        char quote = query.charAt(start);
+        String triple = "" + quote + quote + quote;
+        String delimiter = query.startsWith(triple, start) ? triple : String.valueOf(quote);
+        int i = start + delimiter.length();
+        while (i < query.length()) {
+            if (query.charAt(i) == '\\') {
+                i += 2;
+            } else if (query.startsWith(delimiter, i)) {
+                return i + delimiter.length();
+            } else {
+                i++;
+            }
+        }
+        return query.length();
+    }
+
+    /**
+     * @return the index after the closing '>', or start if this is not an IRI
+     */
+    private static int endOfIri(String query, int start) {
+        for (int i = start + 1; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '>') {
+                return i + 1;
+            }
+            if (Character.isWhitespace(c) || c == '<' || c == '"' || c == '{' || c == '}') {
+                return start;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * @return a file name safe key for any other text, taken as is
+     */
+    public static String sha256(String value) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            byte[] digest = sha.digest(value.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+                hex[2 * i + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.intermine.r2rmlmapping.federation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A two level cache of serialized query results.
+ *
+ * The first level is an LRU in memory bounded by the total size of its entries, the
+ * second an optional directory with one file per key. Entries of both levels expire
+ * after the time to live; a disk hit is promoted to memory. Keys are expected to be
+ * file name safe, e.g. the hashes made by {@link QueryKey}.
+ */
+public class ResultCache {
+
+    // rough per entry overhead of the map, the entry and the key
+    private static final int ENTRY_OVERHEAD = 200;
+
+    private static final class Entry {
+        final byte[] value;
+        final long created;
+
+        Entry(byte[] value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+
+    private final long maxMemoryBytes;
+    private final File directory;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * @param maxMemoryBytes upper bound of the in memory level, 0 disables it
+     * @param directory where the disk level lives, null disables it
+     * @param ttlMillis how long an entry is served, 0 or less for forever
+     */
+    public ResultCache(long maxMemoryBytes, File directory, long ttlMillis) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create cache directory " + directory);
+        }
+    }
+
+    /**
+     * @return the cached value, or null on a miss
+     */
+    public byte[] get(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                if (!isExpired(entry.created, now)) {
+                    memoryHits.incrementAndGet();
+                    return entry.value;
+                }
+                removeFromMemory(key);
+                expirations.incrementAndGet();
+            }
+        }
+        if (directory != null) {
+            File file = file(key);
+            long created = file.lastModified();
+            if (created != 0L) {
+                if (isExpired(created, now)) {
+                    if (file.delete()) {
+                        expirations.incrementAndGet();
+                    }
+                } else {
+                    try {
+                        byte[] value = Files.readAllBytes(file.toPath());
+                        diskHits.incrementAndGet();
+                        putInMemory(key, new Entry(value, created));
+                        return value;
+                    } catch (IOException e) {
+                        // deleted or being replaced concurrently, treat as a miss
+                    }
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, byte[] value) {
+        Entry entry = new Entry(value, System.currentTimeMillis());
+        putInMemory(key, entry);
+        if (directory != null) {
+            try {
+                File tmp = File.createTempFile(key, ".tmp", directory);
+                Files.write(tmp.toPath(), value);
+                Files.move(tmp.toPath(), file(key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // the disk level is best effort, the memory level still has the entry
+                System.err.println("Could not write cache entry " + key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public void invalidate(String key) {
+        synchronized (memory) {
+            removeFromMemory(key);
+        }
+        if (directory != null) {
+            file(key).delete();
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (memory) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void putInMemory(String key, Entry entry) {
+        long weight = weight(key, entry);
+        if (weight > maxMemoryBytes) {
+            return;
+        }
+        synchronized (memory) {
+            removeFromMemory(key);
+            memory.put(key, entry);
+            memoryBytes += weight;
+            Iterator<Map.Entry<String, Entry>> eldest = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+                Map.Entry<String, Entry> evicted = eldest.next();
+                memoryBytes -= weight(evicted.getKey(), evicted.getValue());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void removeFromMemory(String key) {
+        Entry removed = memory.remove(key);
+        if (removed != null) {
+            memoryBytes -= weight(key, removed);
+        }
+    }
+
+    private static long weight(String key, Entry entry) {
+        return ENTRY_OVERHEAD + 2L * key.length() + entry.value.length;
+    }
+
+    private boolean isExpired(long created, long now) {
+        return ttlMillis > 0 && now - created > ttlMillis;
+    }
+
+    private File file(String key) {
+        return new File(directory, key);
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    public long getMemoryBytes() {
+        synchronized (memory) {
+            return memoryBytes;
+        }
+    }
+
+    public double getHitRatio() {
+        long hits = getMemoryHits() + getDiskHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("memory hits=%d, disk hits=%d, misses=%d, hit ratio=%.2f, "
+                + "evictions=%d, expirations=%d, memory=%d bytes", getMemoryHits(), getDiskHits(),
+                getMisses(), getHitRatio(), getEvictions(), getExpirations(), getMemoryBytes());
+    }
+}
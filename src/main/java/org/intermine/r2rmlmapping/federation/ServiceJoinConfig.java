@@ -0,0 +1,106 @@
+package org.intermine.r2rmlmapping.federation;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.rdf4j.federated.FedXConfig;
+
+/**
+ * FedX's configuration plus how {@link VoidFederationEvalStrategy} joins SERVICE clauses
+ * with the bindings of the rest of the query: in VALUES blocks of a given size, with a
+ * bounded number of blocks in flight, and optionally keeping the order of the bindings.
+ *
+ * FedX itself sends SERVICE blocks of its bound join block size, which it also uses for
+ * every other bound join, and hands back the results of whichever block finishes first.
+ *
+ * The requests of all the joins of a federation are sent by one pool of
+ * serviceConcurrency threads, so that together they need no more connections than,
+ * e.g., a {@link CachingEndpoints#pooledHttpClient} of that size keeps alive. A join
+ * evaluated by one of these threads, e.g. a SERVICE nested in the block of another join,
+ * sends its blocks itself: waiting for the pool from within it could deadlock it.
+ */
+public class ServiceJoinConfig extends FedXConfig {
+
+    private int serviceBlockSize = 100;
+    private int serviceConcurrency = 4;
+    private boolean orderedServiceResults = false;
+    private ThreadPoolExecutor serviceExecutor;
+    private final ThreadLocal<Boolean> serviceThread = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * @param blockSize the number of bindings per SERVICE request
+     */
+    public ServiceJoinConfig withServiceBlockSize(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Service block size must be positive: " + blockSize);
+        }
+        this.serviceBlockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * @param concurrency the number of SERVICE requests a join may have in flight
+     */
+    public synchronized ServiceJoinConfig withServiceConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Service concurrency must be positive: " + concurrency);
+        }
+        this.serviceConcurrency = concurrency;
+        if (serviceExecutor != null) {
+            serviceExecutor.setCorePoolSize(Math.min(concurrency, serviceExecutor.getCorePoolSize()));
+            serviceExecutor.setMaximumPoolSize(concurrency);
+            serviceExecutor.setCorePoolSize(concurrency);
+        }
+        return this;
+    }
+
+    /**
+     * @param ordered whether the joined results follow the order of the bindings, rather
+     *        than the order in which the blocks complete
+     */
+    public ServiceJoinConfig withOrderedServiceResults(boolean ordered) {
+        this.orderedServiceResults = ordered;
+        return this;
+    }
+
+    public int getServiceBlockSize() {
+        return serviceBlockSize;
+    }
+
+    public synchronized int getServiceConcurrency() {
+        return serviceConcurrency;
+    }
+
+    /**
+     * @return the threads that send the SERVICE requests, serviceConcurrency of them at
+     *         most. They are daemons and end after a minute without requests.
+     */
+    synchronized ExecutorService getServiceExecutor() {
+        if (serviceExecutor == null) {
+            serviceExecutor = new ThreadPoolExecutor(serviceConcurrency, serviceConcurrency, 1, TimeUnit.MINUTES,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(() -> {
+                            serviceThread.set(Boolean.TRUE);
+                            r.run();
+                        }, "service-join");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            serviceExecutor.allowCoreThreadTimeOut(true);
+        }
+        return serviceExecutor;
+    }
+
+    /**
+     * @return whether the current thread is one of the {@link #getServiceExecutor() service threads}
+     */
+    boolean isServiceThread() {
+        return serviceThread.get();
+    }
+
+    public boolean isOrderedServiceResults() {
+        return orderedServiceResults;
+    }
+}
@@ -0,0 +1,78 @@
+package org.intermine.r2rmlmapping.federation;
+
+import java.util.Set;
+
+import org.eclipse.rdf4j.federated.FederationContext;
+import org.eclipse.rdf4j.federated.algebra.ExclusiveGroup;
+import org.eclipse.rdf4j.federated.algebra.ExclusiveTupleExpr;
+import org.eclipse.rdf4j.federated.algebra.StatementSource;
+import org.eclipse.rdf4j.federated.algebra.StatementTupleExpr;
+import org.eclipse.rdf4j.federated.endpoint.Endpoint;
+import org.eclipse.rdf4j.federated.optimizer.DefaultFedXCostModel;
+import org.eclipse.rdf4j.federated.optimizer.FedXCostModel;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+
+/**
+ * FedX's join order heuristic with the VoID triple counts as a tie breaker.
+ *
+ * The default model ranks expressions by how many of their variables are still unbound.
+ * Within a rank, the pattern whose predicate has fewer triples at its sources goes
+ * first; patterns without statistics keep their default cost.
+ */
+public class VoidCostModel implements FedXCostModel {
+
+    private final FederationContext federationContext;
+
+    public VoidCostModel(FederationContext federationContext) {
+        this.federationContext = federationContext;
+    }
+
+    @Override
+    public double estimateCost(TupleExpr expr, Set<String> joinVars) {
+        double cost = DefaultFedXCostModel.INSTANCE.estimateCost(expr, joinVars);
+        long triples = estimateTriples(expr);
+        if (triples == VoidDescription.UNKNOWN) {
+            return cost;
+        }
+        // below 1 for anything up to 10^20 triples, so the default ranks are kept
+        return cost + Math.log10(1 + triples) / 20;
+    }
+
+    private long estimateTriples(TupleExpr expr) {
+        if (expr instanceof ExclusiveGroup) {
+            // the group is as selective as its most selective pattern
+            long min = VoidDescription.UNKNOWN;
+            for (ExclusiveTupleExpr member : ((ExclusiveGroup) expr).getExclusiveExpressions()) {
+                long triples = estimateTriples((TupleExpr) member);
+                if (triples != VoidDescription.UNKNOWN && (min == VoidDescription.UNKNOWN || triples < min)) {
+                    min = triples;
+                }
+            }
+            return min;
+        }
+        if (!(expr instanceof StatementPattern) || !(expr instanceof StatementTupleExpr)) {
+            return VoidDescription.UNKNOWN;
+        }
+        Var predicate = ((StatementPattern) expr).getPredicateVar();
+        Value predicateValue = predicate.getValue();
+        if (predicateValue == null) {
+            return VoidDescription.UNKNOWN;
+        }
+        long total = 0;
+        for (StatementSource source : ((StatementTupleExpr) expr).getStatementSources()) {
+            Endpoint endpoint = federationContext.getEndpointManager().getEndpoint(source.getEndpointID());
+            if (!(endpoint instanceof DescribedEndpoint)) {
+                return VoidDescription.UNKNOWN;
+            }
+            long triples = ((DescribedEndpoint) endpoint).getDescription().getTriples(predicateValue.stringValue());
+            if (triples == VoidDescription.UNKNOWN) {
+                return VoidDescription.UNKNOWN;
+            }
+            total += triples;
+        }
+        return total;
+    }
+}
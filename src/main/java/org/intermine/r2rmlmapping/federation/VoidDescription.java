@@ -0,0 +1,356 @@
+package org.intermine.r2rmlmapping.federation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.sql.DataSource;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.vocabulary.RDF;
+import org.intermine.r2rmlmapping.jdbc.DatabaseConfig;
+import org.intermine.r2rmlmapping.r2rml.MappingReader;
+import org.intermine.r2rmlmapping.r2rml.PredicateObjectDefinition;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+import org.intermine.r2rmlmapping.vocabulary.VOID;
+
+/**
+ * A VoID description of what an endpoint can answer: its classes, its properties and
+ * the namespaces its subjects live in, optionally with row counts.
+ *
+ * For a mine it is derived from the mapping, which names every class and predicate
+ * the endpoint can produce, and every subject comes from a subject template, so the
+ * constant start of those templates bounds the subject IRIs. FedX uses it instead of
+ * sending ASK queries, see {@link VoidSourceSelectionCache}.
+ *
+ * Usage: VoidDescription mapping.ttl void.ttl endpoint-url [db.properties]
+ *
+ * With db.properties the partitions get void:entities and void:triples counts.
+ */
+public class VoidDescription {
+
+    /** The count of a partition without statistics */
+    public static final long UNKNOWN = -1L;
+
+    private final String endpoint;
+    private final List<String> uriSpaces = new ArrayList<>();
+    private final Map<String, Long> classes = new TreeMap<>();
+    private final Map<String, Long> properties = new TreeMap<>();
+
+    public VoidDescription(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3 && args.length != 4) {
+            System.err.println("Usage: VoidDescription mapping.ttl void.ttl endpoint-url [db.properties]");
+            System.exit(1);
+        }
+        List<TriplesMapDefinition> triplesMaps = MappingReader.read(RDFDataMgr.loadModel(args[0]));
+        DataSource dataSource = args.length == 4 ? DatabaseConfig.load(args[3]).getDataSource() : null;
+        fromMapping(triplesMaps, args[2], dataSource).write(new File(args[1]));
+    }
+
+    /**
+     * @param dataSource the mine, to count the rows behind every partition, or null
+     */
+    public static VoidDescription fromMapping(List<TriplesMapDefinition> triplesMaps, String endpoint,
+            DataSource dataSource) throws SQLException {
+        VoidDescription description = new VoidDescription(endpoint);
+        TreeSet<String> prefixes = new TreeSet<>();
+        boolean anySubject = false;
+        for (TriplesMapDefinition map : triplesMaps) {
+            String template = map.getSubjectTemplate().getTemplate();
+            int column = template.indexOf('{');
+            String prefix = column < 0 ? template : template.substring(0, column);
+            if (prefix.isEmpty()) {
+                anySubject = true;
+            }
+            prefixes.add(prefix);
+        }
+        if (!anySubject) {
+            // sorted, so a prefix comes right before the prefixes it covers
+            for (String prefix : prefixes) {
+                if (description.uriSpaces.isEmpty()
+                        || !prefix.startsWith(description.uriSpaces.get(description.uriSpaces.size() - 1))) {
+                    description.uriSpaces.add(prefix);
+                }
+            }
+        }
+
+        if (dataSource == null) {
+            for (TriplesMapDefinition map : triplesMaps) {
+                for (String type : map.getClasses()) {
+                    description.classes.put(type, UNKNOWN);
+                }
+                for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+                    description.properties.put(pom.getPredicate(), UNKNOWN);
+                }
+            }
+            if (!description.classes.isEmpty()) {
+                description.properties.put(RDF.type.getURI(), UNKNOWN);
+            }
+            return description;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            for (TriplesMapDefinition map : triplesMaps) {
+                description.count(connection, map);
+            }
+        }
+        long types = 0;
+        for (long entities : description.classes.values()) {
+            types += entities;
+        }
+        if (!description.classes.isEmpty()) {
+            description.properties.put(RDF.type.getURI(), types);
+        }
+        return description;
+    }
+
+    /**
+     * Counts the subjects of a TriplesMap and the objects of each of its predicate-object
+     * maps in one scan of its logical table. A join is counted by its non null child
+     * columns, which ignores dangling references.
+     */
+    private void count(Connection connection, TriplesMapDefinition map) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(countWhereNotNull(map.getSubjectTemplate().getColumns()));
+        for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+            List<String> columns = new ArrayList<>(map.getSubjectTemplate().getColumns());
+            if (pom.isReferencing()) {
+                for (PredicateObjectDefinition.JoinCondition join : pom.getJoinConditions()) {
+                    columns.add(join.getChild());
+                }
+            } else if (pom.getTemplate() != null) {
+                columns.addAll(pom.getTemplate().getColumns());
+            } else {
+                columns.add(pom.getColumn());
+            }
+            sql.append(", ").append(countWhereNotNull(columns));
+        }
+        sql.append(" FROM ").append(map.getLogicalTableSql()).append(" t");
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery(sql.toString())) {
+            rs.next();
+            long subjects = rs.getLong(1);
+            for (String type : map.getClasses()) {
+                classes.merge(type, subjects, Long::sum);
+            }
+            int i = 2;
+            for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+                properties.merge(pom.getPredicate(), rs.getLong(i++), Long::sum);
+            }
+        }
+    }
+
+    private static String countWhereNotNull(List<String> columns) {
+        if (columns.isEmpty()) {
+            return "COUNT(*)";
+        }
+        List<String> conditions = new ArrayList<>();
+        for (String column : columns) {
+            conditions.add("t." + column + " IS NOT NULL");
+        }
+        return "SUM(CASE WHEN " + String.join(" AND ", conditions) + " THEN 1 ELSE 0 END)";
+    }
+
+    /**
+     * Reads a description back; only the parts written by {@link #toModel()} are understood.
+     */
+    public static VoidDescription read(Model model) {
+        Resource dataset = model.listSubjectsWithProperty(RDF.type, VOID.Dataset).nextOptional().orElse(null);
+        if (dataset == null) {
+            throw new IllegalArgumentException("No void:Dataset in the description");
+        }
+        return read(dataset);
+    }
+
+    /**
+     * Reads every dataset of a file with several, e.g. the federation file of
+     * {@link org.intermine.r2rmlmapping.ShardedMapping}.
+     */
+    public static List<VoidDescription> readAll(File file) {
+        List<VoidDescription> descriptions = new ArrayList<>();
+        Model model = RDFDataMgr.loadModel(file.getPath(), Lang.TURTLE);
+        for (Resource dataset : model.listSubjectsWithProperty(RDF.type, VOID.Dataset).toList()) {
+            descriptions.add(read(dataset));
+        }
+        descriptions.sort(Comparator.comparing(VoidDescription::getEndpoint,
+                Comparator.nullsFirst(Comparator.naturalOrder())));
+        return descriptions;
+    }
+
+    private static VoidDescription read(Resource dataset) {
+        Resource endpoint = dataset.getPropertyResourceValue(VOID.sparqlEndpoint);
+        VoidDescription description = new VoidDescription(endpoint == null ? null : endpoint.getURI());
+        StmtIterator it = dataset.listProperties(VOID.uriSpace);
+        while (it.hasNext()) {
+            description.uriSpaces.add(it.next().getString());
+        }
+        Collections.sort(description.uriSpaces);
+        it = dataset.listProperties(VOID.classPartition);
+        while (it.hasNext()) {
+            Resource partition = it.next().getResource();
+            description.classes.put(partition.getPropertyResourceValue(VOID.classProperty).getURI(),
+                    getCount(partition, VOID.entities));
+        }
+        it = dataset.listProperties(VOID.propertyPartition);
+        while (it.hasNext()) {
+            Resource partition = it.next().getResource();
+            description.properties.put(partition.getPropertyResourceValue(VOID.property).getURI(),
+                    getCount(partition, VOID.triples));
+        }
+        return description;
+    }
+
+    public static VoidDescription read(File file) {
+        return read(RDFDataMgr.loadModel(file.getPath(), Lang.TURTLE));
+    }
+
+    /**
+     * The description of a mine's endpoint, generated from its mapping without statistics
+     * unless the one in cache is at least as new as the mapping.
+     * @return null if there is neither a mapping nor a description
+     */
+    public static VoidDescription cached(File mapping, File cache, String endpoint)
+            throws IOException, SQLException {
+        if (cache.exists() && (!mapping.exists() || cache.lastModified() >= mapping.lastModified())) {
+            return read(cache);
+        }
+        if (!mapping.exists()) {
+            return null;
+        }
+        VoidDescription description = fromMapping(MappingReader.read(RDFDataMgr.loadModel(mapping.getPath())),
+                endpoint, null);
+        description.write(cache);
+        return description;
+    }
+
+    private static long getCount(Resource partition, org.apache.jena.rdf.model.Property property) {
+        org.apache.jena.rdf.model.Statement count = partition.getProperty(property);
+        return count == null ? UNKNOWN : count.getLong();
+    }
+
+    public Model toModel() {
+        Model model = ModelFactory.createDefaultModel();
+        model.setNsPrefix("void", VOID.uri);
+        model.setNsPrefix("rdf", RDF.uri);
+        Resource dataset = endpoint == null ? model.createResource() : model.createResource(endpoint);
+        dataset.addProperty(RDF.type, VOID.Dataset);
+        if (endpoint != null) {
+            dataset.addProperty(VOID.sparqlEndpoint, model.createResource(endpoint));
+        }
+        for (String uriSpace : uriSpaces) {
+            dataset.addProperty(VOID.uriSpace, uriSpace);
+        }
+        long triples = 0;
+        for (Map.Entry<String, Long> entry : classes.entrySet()) {
+            Resource partition = model.createResource()
+                    .addProperty(VOID.classProperty, model.createResource(entry.getKey()));
+            if (entry.getValue() != UNKNOWN) {
+                partition.addProperty(VOID.entities, integer(model, entry.getValue()));
+            }
+            dataset.addProperty(VOID.classPartition, partition);
+        }
+        for (Map.Entry<String, Long> entry : properties.entrySet()) {
+            Resource partition = model.createResource()
+                    .addProperty(VOID.property, model.createResource(entry.getKey()));
+            if (entry.getValue() != UNKNOWN) {
+                partition.addProperty(VOID.triples, integer(model, entry.getValue()));
+                triples += entry.getValue();
+            }
+            dataset.addProperty(VOID.propertyPartition, partition);
+        }
+        dataset.addProperty(VOID.classes, integer(model, classes.size()));
+        dataset.addProperty(VOID.properties, integer(model, properties.size()));
+        if (!properties.isEmpty() && !properties.containsValue(UNKNOWN)) {
+            dataset.addProperty(VOID.triples, integer(model, triples));
+        }
+        return model;
+    }
+
+    private static Literal integer(Model model, long value) {
+        return model.createTypedLiteral(String.valueOf(value), XSDDatatype.XSDinteger);
+    }
+
+    public void write(File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            RDFDataMgr.write(out, toModel(), Lang.TURTLE);
+        }
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return true if some subject IRI may start with this one
+     */
+    public boolean isInUriSpace(String iri) {
+        if (uriSpaces.isEmpty()) {
+            return true;
+        }
+        for (String uriSpace : uriSpaces) {
+            if (iri.startsWith(uriSpace)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the endpoint can have a triple matching the pattern.
+     * @param subject the subject IRI, or null if it is a variable or blank node
+     * @param predicate the predicate IRI or null
+     * @param object the object IRI or null, only used for rdf:type
+     */
+    public boolean mayMatch(String subject, String predicate, String object) {
+        if (subject != null && !isInUriSpace(subject)) {
+            return false;
+        }
+        if (predicate == null) {
+            return true;
+        }
+        if (RDF.type.getURI().equals(predicate) && object != null) {
+            return classes.containsKey(object);
+        }
+        return properties.containsKey(predicate);
+    }
+
+    /**
+     * @return the number of triples with the predicate, 0 if it is not in the description,
+     * or {@link #UNKNOWN} without statistics
+     */
+    public long getTriples(String predicate) {
+        Long triples = properties.get(predicate);
+        return triples == null ? 0L : triples;
+    }
+
+    /**
+     * @return the number of instances of the class, 0 if it is not in the description,
+     * or {@link #UNKNOWN} without statistics
+     */
+    public long getEntities(String type) {
+        Long entities = classes.get(type);
+        return entities == null ? 0L : entities;
+    }
+}
@@ -0,0 +1,101 @@
+package org.intermine.r2rmlmapping.federation;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.federated.FederationContext;
+import org.eclipse.rdf4j.federated.algebra.ExclusiveTupleExpr;
+import org.eclipse.rdf4j.federated.algebra.FedXService;
+import org.eclipse.rdf4j.federated.algebra.StatementTupleExpr;
+import org.eclipse.rdf4j.federated.cache.SourceSelectionCache;
+import org.eclipse.rdf4j.federated.endpoint.Endpoint;
+import org.eclipse.rdf4j.federated.evaluation.SparqlFederationEvalStrategy;
+import org.eclipse.rdf4j.federated.evaluation.concurrent.ControlledWorkerScheduler;
+import org.eclipse.rdf4j.federated.optimizer.GenericInfoOptimizer;
+import org.eclipse.rdf4j.federated.optimizer.StatementGroupAndJoinOptimizer;
+import org.eclipse.rdf4j.federated.structures.QueryInfo;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.Service;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+
+/**
+ * FedX's strategy for federations of SPARQL endpoints, with source selection and join
+ * ordering informed by the VoID descriptions of {@link DescribedEndpoint} members.
+ *
+ * Enabled with <code>new FedXConfig().withSparqlEvaluationStrategy(VoidFederationEvalStrategy.class)</code>.
+ * With a {@link ServiceJoinConfig} instead, SERVICE clauses are joined by
+ * {@link BatchedServiceJoin}.
+ */
+public class VoidFederationEvalStrategy extends SparqlFederationEvalStrategy {
+
+    /**
+     * The ids of the members named by the SERVICE clauses of each query, whose statements
+     * FedX's ServiceOptimizer turns into expressions exclusive to the member.
+     */
+    private final Map<QueryInfo, Set<String>> serviceMembers = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public VoidFederationEvalStrategy(FederationContext federationContext) {
+        super(federationContext);
+    }
+
+    @Override
+    protected SourceSelectionCache createSourceSelectionCache() {
+        return new VoidSourceSelectionCache(super.createSourceSelectionCache());
+    }
+
+    @Override
+    protected Set<Endpoint> performSourceSelection(List<Endpoint> members, SourceSelectionCache cache,
+            QueryInfo queryInfo, GenericInfoOptimizer info) {
+        if (info.hasService()) {
+            Set<String> ids = new HashSet<>();
+            for (Service service : info.getServices()) {
+                if (service.getServiceRef().hasValue()) {
+                    String ref = service.getServiceRef().getValue().stringValue();
+                    Endpoint member = federationContext.getEndpointManager().getEndpointByUrl(ref);
+                    if (member == null) {
+                        member = federationContext.getEndpointManager().getEndpointByName(ref);
+                    }
+                    if (member != null) {
+                        ids.add(member.getId());
+                    }
+                }
+            }
+            serviceMembers.put(queryInfo, ids);
+        }
+        return super.performSourceSelection(members, cache, queryInfo, info);
+    }
+
+    @Override
+    protected void optimizeJoinOrder(TupleExpr query, QueryInfo queryInfo, GenericInfoOptimizer info) {
+        new StatementGroupAndJoinOptimizer(queryInfo, new VoidCostModel(federationContext)).optimize(query);
+    }
+
+    @Override
+    public CloseableIteration<BindingSet, QueryEvaluationException> executeJoin(
+            ControlledWorkerScheduler<BindingSet> joinScheduler,
+            CloseableIteration<BindingSet, QueryEvaluationException> leftIter, TupleExpr rightArg,
+            Set<String> joinVars, BindingSet bindings, QueryInfo queryInfo)
+            throws QueryEvaluationException {
+        if (federationContext.getConfig() instanceof ServiceJoinConfig) {
+            ServiceJoinConfig config = (ServiceJoinConfig) federationContext.getConfig();
+            if (rightArg instanceof FedXService) {
+                FedXService service = (FedXService) rightArg;
+                return new BatchedServiceJoin(leftIter, block -> evaluateService(service, block), config);
+            }
+            if (rightArg instanceof ExclusiveTupleExpr && rightArg instanceof StatementTupleExpr
+                    && serviceMembers.getOrDefault(queryInfo, Collections.emptySet())
+                            .contains(((ExclusiveTupleExpr) rightArg).getOwner().getEndpointID())) {
+                StatementTupleExpr statements = (StatementTupleExpr) rightArg;
+                return new BatchedServiceJoin(leftIter,
+                        block -> evaluateBoundJoinStatementPattern(statements, block), config);
+            }
+        }
+        return super.executeJoin(joinScheduler, leftIter, rightArg, joinVars, bindings, queryInfo);
+    }
+}
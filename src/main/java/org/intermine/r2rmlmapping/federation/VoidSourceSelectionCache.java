@@ -0,0 +1,47 @@
+package org.intermine.r2rmlmapping.federation;
+
+import org.eclipse.rdf4j.federated.cache.SourceSelectionCache;
+import org.eclipse.rdf4j.federated.endpoint.Endpoint;
+import org.eclipse.rdf4j.federated.structures.SubQuery;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+
+/**
+ * Answers FedX's source selection from the VoID descriptions of {@link DescribedEndpoint}s,
+ * so that they are never sent ASK queries. Other endpoints are left to the cache FedX
+ * would use otherwise.
+ *
+ * An endpoint whose description admits the pattern is reported as having statements for
+ * it. That may be wrong for a particular subject, which costs one empty sub-query, where
+ * the ASK it replaces would have cost a round trip for every query.
+ */
+public class VoidSourceSelectionCache implements SourceSelectionCache {
+
+    private final SourceSelectionCache fallback;
+
+    public VoidSourceSelectionCache(SourceSelectionCache fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public StatementSourceAssurance getAssurance(SubQuery subQuery, Endpoint endpoint) {
+        if (!(endpoint instanceof DescribedEndpoint)) {
+            return fallback.getAssurance(subQuery, endpoint);
+        }
+        VoidDescription description = ((DescribedEndpoint) endpoint).getDescription();
+        boolean mayMatch = description.mayMatch(iri(subQuery.subject()), iri(subQuery.predicate()),
+                iri(subQuery.object()));
+        return mayMatch ? StatementSourceAssurance.HAS_REMOTE_STATEMENTS : StatementSourceAssurance.NONE;
+    }
+
+    @Override
+    public void updateInformation(SubQuery subQuery, Endpoint endpoint, boolean hasStatements) {
+        if (!(endpoint instanceof DescribedEndpoint)) {
+            fallback.updateInformation(subQuery, endpoint, hasStatements);
+        }
+    }
+
+    private static String iri(Value value) {
+        return value instanceof IRI ? value.stringValue() : null;
+    }
+}
@@ -0,0 +1,235 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads the content of a ClobAccess attribute a bounded piece at a time, so that neither
+ * the driver nor the caller holds a whole chromosome's residues: PostgreSQL's driver
+ * reads a text value whole, even through getCharacterStream.
+ *
+ * A mine built by InterMine keeps the content in its clob table, a page of up to a
+ * million characters per row, and the attribute's column only holds
+ * <code>clobid,offset,length</code>: {@link #interMine} reads the pages one row at a time.
+ * Databases that hold the content in the column itself, such as SyntheticMine's with
+ * --clob-storage=column, are read by {@link #column}, CHUNK_SIZE characters per statement
+ * with the standard <code>SUBSTRING(column FROM ? FOR ?)</code>.
+ */
+public abstract class ClobReader extends Reader
+{
+	public static final int CHUNK_SIZE = 1 << 16;
+	/** The column of a ClobAccess attribute refers to InterMine's clob table */
+	public static final String INTERMINE_STORAGE = "intermine";
+	/** The column of a ClobAccess attribute holds the content */
+	public static final String COLUMN_STORAGE = "column";
+	/** The table InterMine's ObjectStoreInterMineImpl writes the pages of clobs to */
+	public static final String CLOB_TABLE = "clob";
+
+	private String piece = "";
+	private int position = 0;
+	private boolean done = false;
+
+	/**
+	 * @return the next piece of the content, or null after the last one
+	 */
+	protected abstract String nextPiece() throws SQLException;
+
+	@Override
+	public int read(char[] buffer, int offset, int length) throws IOException
+	{
+		if (length == 0) {
+			return 0;
+		}
+		while (position == piece.length())
+		{
+			if (done) {
+				return -1;
+			}
+			String next;
+			try {
+				next = nextPiece();
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+			if (next == null) {
+				done = true;
+				return -1;
+			}
+			piece = next;
+			position = 0;
+		}
+		int read = Math.min(length, piece.length() - position);
+		piece.getChars(position, position + read, buffer, offset);
+		position += read;
+		return read;
+	}
+
+	/**
+	 * @param tag the {@link SqlTags tag} of the statements
+	 * @return the content of column in the row id of table, or null if it is NULL. Closing
+	 *     the reader closes its statement, not the connection.
+	 */
+	public static ClobReader column(Connection connection, String table, String column, long id, String tag)
+			throws SQLException
+	{
+		PreparedStatement statement = connection.prepareStatement(SqlTags.tag(tag,
+				"SELECT SUBSTRING(" + column + " FROM ? FOR ?) FROM " + table + " WHERE id = ?"));
+		try {
+			ColumnReader reader = new ColumnReader(statement, id);
+			if (reader.fetch() == null) {
+				statement.close();
+				return null;
+			}
+			return reader;
+		} catch (SQLException | RuntimeException e) {
+			statement.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param description the value of a ClobAccess attribute in a mine built by InterMine,
+	 *     clobid,offset,length
+	 * @return the content described. Closing the reader closes its statement, not the
+	 *     connection, which must not be in auto-commit mode for PostgreSQL to fetch a page
+	 *     at a time.
+	 */
+	public static ClobReader interMine(Connection connection, String description, String tag) throws SQLException
+	{
+		String[] parts = description.split(",");
+		if (parts.length != 3) {
+			throw new SQLException("Not a clob description: " + description);
+		}
+		PreparedStatement statement = connection.prepareStatement(SqlTags.tag(tag,
+				"SELECT " + CLOB_TABLE + " FROM " + CLOB_TABLE + " WHERE clobid = ? ORDER BY clobpage"),
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			statement.setFetchSize(1);
+			statement.setLong(1, Long.parseLong(parts[0].trim()));
+			return new PageReader(statement, statement.executeQuery(), Long.parseLong(parts[1].trim()),
+					Long.parseLong(parts[2].trim()));
+		} catch (NumberFormatException e) {
+			statement.close();
+			throw new SQLException("Not a clob description: " + description, e);
+		} catch (SQLException | RuntimeException e) {
+			statement.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * The part of the pages of a clob from offset to offset + length. The position of a
+	 * page is the sum of the lengths of the ones before it, whatever the page size.
+	 */
+	private static final class PageReader extends ClobReader
+	{
+		private final PreparedStatement statement;
+		private final ResultSet pages;
+		private final long start;
+		private final long end;
+		// the position in the clob of the next page
+		private long position = 0;
+
+		PageReader(PreparedStatement statement, ResultSet pages, long offset, long length)
+		{
+			this.statement = statement;
+			this.pages = pages;
+			this.start = offset;
+			this.end = offset + length;
+		}
+
+		@Override
+		protected String nextPiece() throws SQLException
+		{
+			while (position < end && pages.next())
+			{
+				String page = pages.getString(1);
+				long pageStart = position;
+				position += page.length();
+				if (position > start) {
+					return page.substring((int) Math.max(0, start - pageStart),
+							(int) (Math.min(end, position) - pageStart));
+				}
+			}
+			if (position < end) {
+				throw new SQLException("The clob ends at " + position + " before " + end);
+			}
+			return null;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/**
+	 * The pieces of a text column, up to the first one shorter than CHUNK_SIZE.
+	 */
+	private static final class ColumnReader extends ClobReader
+	{
+		private final PreparedStatement statement;
+		private final long id;
+		// SQL counts characters from 1
+		private long start = 1;
+		private boolean last = false;
+		// the piece read by fetch and not yet returned by nextPiece
+		private String fetched;
+
+		ColumnReader(PreparedStatement statement, long id)
+		{
+			this.statement = statement;
+			this.id = id;
+		}
+
+		@Override
+		protected String nextPiece() throws SQLException
+		{
+			if (fetched == null) {
+				fetch();
+			}
+			String piece = fetched;
+			fetched = null;
+			return piece;
+		}
+
+		String fetch() throws SQLException
+		{
+			if (last) {
+				return null;
+			}
+			statement.setLong(1, start);
+			statement.setInt(2, CHUNK_SIZE);
+			statement.setLong(3, id);
+			String piece;
+			try (ResultSet rs = statement.executeQuery()) {
+				piece = rs.next() ? rs.getString(1) : null;
+			}
+			if (piece == null || piece.length() < CHUNK_SIZE) {
+				last = true;
+			}
+			start += CHUNK_SIZE;
+			fetched = piece;
+			return piece;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+/**
+ * The connection settings of a mine, read from the same db.properties file that
+ * ontop uses (jdbc.url, jdbc.user, jdbc.password). Any other keys in the file are
+ * available as tuning options for the tools in this project.
+ *
+ * trace.report names a file that the statistics of a {@link TracingDataSource} are
+ * written to every trace.reportSeconds (60 by default), and trace.jmx=true publishes them
+ * as MXBeans.
+ */
+public class DatabaseConfig
+{
+	private final Properties properties;
+	private DataSource dataSource;
+
+	public DatabaseConfig(Properties properties)
+	{
+		this.properties = properties;
+	}
+
+	public static DatabaseConfig load(String fileName) throws IOException
+	{
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(fileName)) {
+			properties.load(in);
+		}
+		return new DatabaseConfig(properties);
+	}
+
+	public String getUrl()
+	{
+		String url = properties.getProperty("jdbc.url");
+		if (url == null) {
+			throw new IllegalArgumentException("jdbc.url is not set");
+		}
+		return url.trim();
+	}
+
+	public String getUser()
+	{
+		return properties.getProperty("jdbc.user", "");
+	}
+
+	public String getPassword()
+	{
+		return properties.getProperty("jdbc.password", "");
+	}
+
+	public String getProperty(String key, String defaultValue)
+	{
+		return properties.getProperty(key, defaultValue).trim();
+	}
+
+	public int getInt(String key, int defaultValue)
+	{
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	public long getLong(String key, long defaultValue)
+	{
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Long.parseLong(value.trim());
+	}
+
+	/**
+	 * @return the mine's DataSource, the same one on every call so that it is traced once
+	 */
+	public synchronized DataSource getDataSource()
+	{
+		if (dataSource != null) {
+			return dataSource;
+		}
+		dataSource = new DriverManagerDataSource(getUrl(), getUser(), getPassword());
+		String report = properties.getProperty("trace.report");
+		boolean jmx = Boolean.parseBoolean(getProperty("trace.jmx", "false"));
+		if (report != null || jmx) {
+			TracingDataSource tracing = new TracingDataSource(dataSource);
+			if (jmx) {
+				tracing.registerMBeans();
+			}
+			if (report != null) {
+				tracing.startReporting(new File(report.trim()), getInt("trace.reportSeconds", 60), TimeUnit.SECONDS);
+			}
+			dataSource = tracing;
+		}
+		return dataSource;
+	}
+}
@@ -0,0 +1,87 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * A DataSource that opens a new connection through the DriverManager every time.
+ * The tools here hold on to a connection for a whole partition or query, so pooling
+ * would buy little; the short statements of the direct SQL path go through a
+ * {@link PooledDataSource}.
+ */
+public class DriverManagerDataSource implements DataSource
+{
+	private final String url;
+	private final String user;
+	private final String password;
+
+	public DriverManagerDataSource(String url, String user, String password)
+	{
+		this.url = url;
+		this.user = user;
+		this.password = password;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException
+	{
+		return DriverManager.getConnection(url, user, password);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException
+	{
+		return DriverManager.getConnection(url, username, password);
+	}
+
+	@Override
+	public PrintWriter getLogWriter()
+	{
+		return DriverManager.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out)
+	{
+		DriverManager.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds)
+	{
+		DriverManager.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout()
+	{
+		return DriverManager.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException
+	{
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException
+	{
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("Not a wrapper for " + iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface)
+	{
+		return iface.isInstance(this);
+	}
+}
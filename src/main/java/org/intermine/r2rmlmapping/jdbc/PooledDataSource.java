@@ -0,0 +1,237 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * A DataSource that keeps at most maxConnections connections of another one open, and
+ * hands out the idle ones again instead of logging in for every call. It is meant for
+ * the direct SQL path, where each query is a short statement and a new PostgreSQL
+ * connection would cost more than running it.
+ *
+ * Closing a connection returns it, rolled back and set back to auto-commit and
+ * read-write. When all of them are in use, getConnection waits up to the login timeout
+ * (30 seconds if none is set) for one to be returned.
+ */
+public class PooledDataSource implements DataSource, AutoCloseable
+{
+	private static final int DEFAULT_WAIT_SECONDS = 30;
+
+	private final DataSource delegate;
+	private final Semaphore available;
+	// the most recently returned first, it is the least likely to have timed out
+	private final BlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+	private volatile int loginTimeout = 0;
+	private volatile boolean closed = false;
+
+	public PooledDataSource(DataSource delegate, int maxConnections)
+	{
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("At least one connection is needed: " + maxConnections);
+		}
+		this.delegate = delegate;
+		this.available = new Semaphore(maxConnections, true);
+	}
+
+	/**
+	 * @return the number of open connections that are not in use
+	 */
+	public int getIdleCount()
+	{
+		return idle.size();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException
+	{
+		if (closed) {
+			throw new SQLException("The pool is closed");
+		}
+		int wait = loginTimeout > 0 ? loginTimeout : DEFAULT_WAIT_SECONDS;
+		try {
+			if (!available.tryAcquire(wait, TimeUnit.SECONDS)) {
+				throw new SQLException("No connection was returned within " + wait + " seconds");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", e);
+		}
+		try {
+			Connection connection = idle.pollFirst();
+			while (connection != null && connection.isClosed()) {
+				connection = idle.pollFirst();
+			}
+			if (connection == null) {
+				connection = delegate.getConnection();
+			}
+			return lend(connection);
+		} catch (SQLException | RuntimeException e) {
+			available.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Pooled connections are all of the same user.
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException
+	{
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	private Connection lend(Connection connection)
+	{
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class}, new LentConnection(connection));
+	}
+
+	/**
+	 * Takes back a connection, or closes it if it cannot be reset or the pool is closed.
+	 */
+	private void giveBack(Connection connection)
+	{
+		try {
+			if (!connection.isClosed()) {
+				if (!connection.getAutoCommit()) {
+					connection.rollback();
+					connection.setAutoCommit(true);
+				}
+				connection.setReadOnly(false);
+				if (!closed) {
+					idle.offerFirst(connection);
+					return;
+				}
+			}
+		} catch (SQLException e) {
+			// broken, a new one is opened instead
+		} finally {
+			available.release();
+		}
+		closeQuietly(connection);
+	}
+
+	/**
+	 * Closes the idle connections, and every other one when it is returned.
+	 */
+	@Override
+	public void close()
+	{
+		closed = true;
+		Connection connection;
+		while ((connection = idle.pollFirst()) != null) {
+			closeQuietly(connection);
+		}
+	}
+
+	private static void closeQuietly(Connection connection)
+	{
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// nothing to do
+		}
+	}
+
+	/**
+	 * A connection until it is closed, which gives it back to the pool.
+	 */
+	private final class LentConnection implements InvocationHandler
+	{
+		private final Connection connection;
+		private boolean returned = false;
+
+		LentConnection(Connection connection)
+		{
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			switch (method.getName()) {
+				case "close":
+					synchronized (this) {
+						if (!returned) {
+							returned = true;
+							giveBack(connection);
+						}
+					}
+					return null;
+				case "isClosed":
+					return returned || connection.isClosed();
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					if (returned) {
+						throw new SQLException("The connection is closed");
+					}
+					try {
+						return method.invoke(connection, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+			}
+		}
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException
+	{
+		return delegate.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException
+	{
+		delegate.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds)
+	{
+		loginTimeout = seconds;
+	}
+
+	@Override
+	public int getLoginTimeout()
+	{
+		return loginTimeout;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException
+	{
+		return delegate.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException
+	{
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return delegate.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException
+	{
+		return iface.isInstance(this) || delegate.isWrapperFor(iface);
+	}
+}
@@ -0,0 +1,117 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latency, rows and bytes of the statements of one tag, one record per statement.
+ */
+public class SqlTagStatistics implements SqlTagStatisticsMXBean
+{
+	private final String tag;
+	private final Histogram latencyMicros = new Histogram();
+	private final Histogram rows = new Histogram();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+
+	public SqlTagStatistics(String tag)
+	{
+		this.tag = tag;
+	}
+
+	/**
+	 * @param nanos from executing the statement to closing its result
+	 * @param bytes the approximate size of the values read from the result
+	 */
+	void record(long nanos, long rows, long bytes, boolean failed)
+	{
+		latencyMicros.record(nanos / 1000);
+		this.rows.record(rows);
+		this.bytes.add(bytes);
+		if (failed) {
+			errors.increment();
+		}
+	}
+
+	private static double millis(long micros)
+	{
+		return micros / 1000.0;
+	}
+
+	@Override
+	public String getTag()
+	{
+		return tag;
+	}
+
+	@Override
+	public long getStatements()
+	{
+		return latencyMicros.getCount();
+	}
+
+	@Override
+	public long getErrors()
+	{
+		return errors.sum();
+	}
+
+	@Override
+	public long getRows()
+	{
+		return rows.getSum();
+	}
+
+	@Override
+	public long getBytes()
+	{
+		return bytes.sum();
+	}
+
+	@Override
+	public double getTotalMillis()
+	{
+		return millis(latencyMicros.getSum());
+	}
+
+	@Override
+	public double getMeanMillis()
+	{
+		return latencyMicros.getMean() / 1000;
+	}
+
+	@Override
+	public double getP50Millis()
+	{
+		return millis(latencyMicros.getPercentile(50));
+	}
+
+	@Override
+	public double getP95Millis()
+	{
+		return millis(latencyMicros.getPercentile(95));
+	}
+
+	@Override
+	public double getP99Millis()
+	{
+		return millis(latencyMicros.getPercentile(99));
+	}
+
+	@Override
+	public double getMaxMillis()
+	{
+		return millis(latencyMicros.getMax());
+	}
+
+	@Override
+	public String getLatencyHistogram()
+	{
+		return latencyMicros.getBuckets();
+	}
+
+	@Override
+	public String getRowHistogram()
+	{
+		return rows.getBuckets();
+	}
+}
@@ -0,0 +1,40 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+/**
+ * The statements of one tag, as seen through JMX, e.g. in jconsole under
+ * org.intermine.r2rmlmapping/SqlTrace. Latencies are in milliseconds.
+ */
+public interface SqlTagStatisticsMXBean
+{
+	String getTag();
+
+	long getStatements();
+
+	long getErrors();
+
+	long getRows();
+
+	long getBytes();
+
+	double getTotalMillis();
+
+	double getMeanMillis();
+
+	double getP50Millis();
+
+	double getP95Millis();
+
+	double getP99Millis();
+
+	double getMaxMillis();
+
+	/**
+	 * @return the latency histogram in microseconds, as "upper bound:count" pairs
+	 */
+	String getLatencyHistogram();
+
+	/**
+	 * @return the histogram of rows per statement, as "upper bound:count" pairs
+	 */
+	String getRowHistogram();
+}
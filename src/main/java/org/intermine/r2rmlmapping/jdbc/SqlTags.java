@@ -0,0 +1,76 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+/**
+ * Names SQL statements after the TriplesMap they were generated for, with a leading
+ * comment such as <code>/* urn:intermine-table:gene *&#47; SELECT ...</code>. The
+ * database ignores it, but it shows up in its logs and lets {@link TracingDataSource}
+ * group the statements it times.
+ */
+public final class SqlTags
+{
+	/** The tag of statements that do not start with one */
+	public static final String UNTAGGED = "untagged";
+
+	private static final String OPEN = "/* ";
+	private static final String CLOSE = " */";
+
+	private SqlTags()
+	{
+	}
+
+	/**
+	 * @return sql with a leading comment naming tag, unless it already has one
+	 */
+	public static String tag(String tag, String sql)
+	{
+		if (find(sql).equals(tag)) {
+			return sql;
+		}
+		// a tag must not end the comment early
+		return OPEN + tag.replace("*/", "* /") + CLOSE + " " + sql;
+	}
+
+	/**
+	 * @return the tag of the first comment of sql, the outermost one if tags were
+	 * nested by wrapping a tagged query, or {@link #UNTAGGED}
+	 */
+	public static String find(String sql)
+	{
+		int start = skipWhitespace(sql, 0);
+		int end = endOfTag(sql, start);
+		if (end < 0) {
+			return UNTAGGED;
+		}
+		String tag = sql.substring(start + 2, end).trim();
+		return tag.isEmpty() ? UNTAGGED : tag;
+	}
+
+	/**
+	 * @return sql without its leading comment, if it starts with one
+	 */
+	public static String strip(String sql)
+	{
+		int start = skipWhitespace(sql, 0);
+		int end = endOfTag(sql, start);
+		return end < 0 ? sql : sql.substring(skipWhitespace(sql, end + 2));
+	}
+
+	private static int skipWhitespace(String sql, int start)
+	{
+		while (start < sql.length() && Character.isWhitespace(sql.charAt(start))) {
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 * @return the position of the end of the comment at start, or -1 if there is none
+	 */
+	private static int endOfTag(String sql, int start)
+	{
+		if (!sql.startsWith("/*", start)) {
+			return -1;
+		}
+		return sql.indexOf("*/", start + 2);
+	}
+}
@@ -0,0 +1,470 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+/**
+ * A DataSource that times every statement run through its connections, from executing
+ * it to closing its result, and counts the rows and approximate bytes read from the
+ * result. The statements are grouped by their {@link SqlTags tag}, i.e. by the TriplesMap
+ * they were generated for.
+ *
+ * The statistics are available from {@link #getStatistics()}, optionally as one MXBean
+ * per tag, and optionally as a report file rewritten periodically and on exit.
+ */
+public class TracingDataSource implements DataSource, AutoCloseable
+{
+	static final String JMX_DOMAIN = "org.intermine.r2rmlmapping";
+
+	private final DataSource delegate;
+	private final ConcurrentMap<String, SqlTagStatistics> statistics = new ConcurrentHashMap<>();
+	private final List<ObjectName> registered = new ArrayList<>();
+	private volatile boolean jmx = false;
+	private ScheduledExecutorService reporter;
+	private File reportFile;
+	private Thread shutdownHook;
+
+	public TracingDataSource(DataSource delegate)
+	{
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @return the statistics of every tag seen so far
+	 */
+	public Collection<SqlTagStatistics> getStatistics()
+	{
+		return statistics.values();
+	}
+
+	/**
+	 * @return the statistics of tag, or null if no statement had it
+	 */
+	public SqlTagStatistics getStatistics(String tag)
+	{
+		return statistics.get(tag);
+	}
+
+	private SqlTagStatistics statisticsFor(String tag)
+	{
+		SqlTagStatistics tagStatistics = statistics.get(tag);
+		if (tagStatistics != null) {
+			return tagStatistics;
+		}
+		tagStatistics = new SqlTagStatistics(tag);
+		SqlTagStatistics existing = statistics.putIfAbsent(tag, tagStatistics);
+		if (existing != null) {
+			return existing;
+		}
+		if (jmx) {
+			register(tagStatistics);
+		}
+		return tagStatistics;
+	}
+
+	/**
+	 * Registers an MXBean for every tag, now and as new ones are seen.
+	 */
+	public synchronized void registerMBeans()
+	{
+		jmx = true;
+		for (SqlTagStatistics tagStatistics : statistics.values()) {
+			register(tagStatistics);
+		}
+	}
+
+	private synchronized void register(SqlTagStatistics tagStatistics)
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(JMX_DOMAIN + ":type=SqlTrace,name="
+					+ ObjectName.quote(tagStatistics.getTag()));
+			if (registered.contains(name)) {
+				return;
+			}
+			server.registerMBean(tagStatistics, name);
+			registered.add(name);
+		} catch (InstanceAlreadyExistsException e) {
+			// another TracingDataSource in this JVM reports the tag already
+		} catch (JMException e) {
+			System.err.println("Cannot register " + tagStatistics.getTag() + " with JMX: " + e);
+		}
+	}
+
+	/**
+	 * Rewrites file with the current statistics every period, and once more on close
+	 * or when the JVM exits.
+	 */
+	public synchronized void startReporting(File file, long period, TimeUnit unit)
+	{
+		if (reporter != null) {
+			throw new IllegalStateException("Already reporting to " + reportFile);
+		}
+		reportFile = file;
+		reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "sql-trace-report");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(this::report, period, period, unit);
+		shutdownHook = new Thread(this::report, "sql-trace-final-report");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	private void report()
+	{
+		try {
+			writeReport(reportFile);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Cannot write " + reportFile + ": " + e);
+		}
+	}
+
+	/**
+	 * Writes the statistics as tab separated values, the tags taking the most time first.
+	 * The file is replaced atomically, so a reader never sees half a report.
+	 */
+	public void writeReport(File file) throws IOException
+	{
+		List<SqlTagStatistics> sorted = new ArrayList<>(statistics.values());
+		sorted.sort(Comparator.comparingDouble(SqlTagStatistics::getTotalMillis).reversed());
+		File directory = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8))) {
+				out.println("tag\tstatements\terrors\trows\tbytes\ttotal_ms\tmean_ms\tp50_ms\tp95_ms\tp99_ms\tmax_ms");
+				for (SqlTagStatistics s : sorted) {
+					out.println(String.format(Locale.ROOT, "%s\t%d\t%d\t%d\t%d\t%.1f\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f",
+							s.getTag(), s.getStatements(), s.getErrors(), s.getRows(), s.getBytes(),
+							s.getTotalMillis(), s.getMeanMillis(), s.getP50Millis(), s.getP95Millis(),
+							s.getP99Millis(), s.getMaxMillis()));
+				}
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+	/**
+	 * Stops reporting, writes the last report and unregisters the MXBeans.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (reporter != null) {
+			reporter.shutdownNow();
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			report();
+			reporter = null;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : registered) {
+			try {
+				server.unregisterMBean(name);
+			} catch (JMException e) {
+				// already gone
+			}
+		}
+		registered.clear();
+		jmx = false;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException
+	{
+		return trace(delegate.getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException
+	{
+		return trace(delegate.getConnection(username, password));
+	}
+
+	private Connection trace(Connection connection)
+	{
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class}, new ConnectionHandler(connection));
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException
+	{
+		return delegate.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException
+	{
+		delegate.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException
+	{
+		delegate.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException
+	{
+		return delegate.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException
+	{
+		return delegate.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException
+	{
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return delegate.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException
+	{
+		return iface.isInstance(this) || delegate.isWrapperFor(iface);
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable
+	{
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * One execution of a statement, finished when its result is closed.
+	 */
+	private final class Execution
+	{
+		private final SqlTagStatistics tagStatistics;
+		private final long start = System.nanoTime();
+		private long rows = 0;
+		private long bytes = 0;
+		private boolean finished = false;
+
+		Execution(String sql)
+		{
+			this.tagStatistics = statisticsFor(SqlTags.find(sql));
+		}
+
+		void finish(boolean failed)
+		{
+			if (!finished) {
+				finished = true;
+				tagStatistics.record(System.nanoTime() - start, rows, bytes, failed);
+			}
+		}
+	}
+
+	private final class ConnectionHandler implements InvocationHandler
+	{
+		private final Connection connection;
+
+		ConnectionHandler(Connection connection)
+		{
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			Object result = TracingDataSource.invoke(connection, method, args);
+			switch (method.getName())
+			{
+				case "createStatement":
+					return statement(Statement.class, (Statement) result, null, (Connection) proxy);
+				case "prepareStatement":
+					return statement(PreparedStatement.class, (Statement) result, (String) args[0], (Connection) proxy);
+				case "prepareCall":
+					return statement(CallableStatement.class, (Statement) result, (String) args[0], (Connection) proxy);
+				default:
+					return result;
+			}
+		}
+
+		private Object statement(Class<? extends Statement> type, Statement statement, String sql, Connection proxy)
+		{
+			return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+					new StatementHandler(statement, sql, proxy));
+		}
+	}
+
+	private final class StatementHandler implements InvocationHandler
+	{
+		private final Statement statement;
+		private final String preparedSql;
+		private final Connection connection;
+		private String batchSql;
+		private Execution execution;
+
+		StatementHandler(Statement statement, String preparedSql, Connection connection)
+		{
+			this.statement = statement;
+			this.preparedSql = preparedSql;
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			if (name.equals("getConnection")) {
+				return connection;
+			}
+			if (name.equals("addBatch") && args != null && batchSql == null) {
+				batchSql = (String) args[0];
+			}
+			if (!name.startsWith("execute")) {
+				if (name.equals("close")) {
+					finish(false);
+				}
+				Object result = TracingDataSource.invoke(statement, method, args);
+				if (name.equals("getResultSet") && result != null && execution != null) {
+					return resultSet((ResultSet) result, proxy);
+				}
+				return result;
+			}
+			finish(false);
+			String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0]
+					: preparedSql != null ? preparedSql : batchSql;
+			if (name.equals("executeBatch")) {
+				batchSql = null;
+			}
+			execution = new Execution(sql == null ? "" : sql);
+			Object result;
+			try {
+				result = TracingDataSource.invoke(statement, method, args);
+			} catch (Throwable e) {
+				execution.finish(true);
+				throw e;
+			}
+			if (result instanceof ResultSet) {
+				return resultSet((ResultSet) result, proxy);
+			}
+			if (!Boolean.TRUE.equals(result)) {
+				// an update, or execute() without a result set
+				execution.finish(false);
+			}
+			return result;
+		}
+
+		private void finish(boolean failed)
+		{
+			if (execution != null) {
+				execution.finish(failed);
+			}
+		}
+
+		private ResultSet resultSet(ResultSet resultSet, Object statementProxy)
+		{
+			return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+					new Class<?>[] {ResultSet.class},
+					new ResultSetHandler(resultSet, execution, (Statement) statementProxy));
+		}
+	}
+
+	private static final class ResultSetHandler implements InvocationHandler
+	{
+		private final ResultSet resultSet;
+		private final Execution execution;
+		private final Statement statement;
+
+		ResultSetHandler(ResultSet resultSet, Execution execution, Statement statement)
+		{
+			this.resultSet = resultSet;
+			this.execution = execution;
+			this.statement = statement;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			if (name.equals("getStatement")) {
+				return statement;
+			}
+			Object result;
+			try {
+				result = TracingDataSource.invoke(resultSet, method, args);
+			} catch (SQLException e) {
+				execution.finish(true);
+				throw e;
+			}
+			if (name.equals("next")) {
+				if (Boolean.TRUE.equals(result)) {
+					execution.rows++;
+				}
+			} else if (name.equals("close")) {
+				execution.finish(false);
+			} else if (name.startsWith("get") && args != null && args.length >= 1) {
+				execution.bytes += size(result);
+			}
+			return result;
+		}
+
+		/**
+		 * @return roughly the bytes the value took on the wire
+		 */
+		private static long size(Object value)
+		{
+			if (value == null) {
+				return 0;
+			}
+			if (value instanceof CharSequence) {
+				return ((CharSequence) value).length();
+			}
+			if (value instanceof byte[]) {
+				return ((byte[]) value).length;
+			}
+			if (value instanceof Number || value instanceof Boolean || value instanceof java.util.Date) {
+				return 8;
+			}
+			return 0;
+		}
+	}
+}
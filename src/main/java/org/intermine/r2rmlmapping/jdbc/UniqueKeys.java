@@ -0,0 +1,62 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+/**
+ * Checks which columns are keys of a mine as it is, rather than as the model suggests.
+ * InterMine enforces no uniqueness besides the id: a primaryIdentifier repeats across
+ * organisms, and the table of a class such as BioEntity holds the rows of all its
+ * subclasses. A column is only taken as a key when no two rows share a value, counted
+ * with <code>count(DISTINCT column) = count(column)</code>; NULLs do not count.
+ *
+ * The answers are cached, the counts scan the whole table.
+ */
+public class UniqueKeys
+{
+	private static final String TAG = "unique-keys";
+
+	private final DataSource dataSource;
+	private final Map<String, Boolean> checked = new ConcurrentHashMap<>();
+
+	public UniqueKeys(DataSource dataSource)
+	{
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * @return true if column is id, or no two rows of table have the same value in it
+	 */
+	public boolean isUnique(String table, String column) throws SQLException
+	{
+		if ("id".equalsIgnoreCase(column)) {
+			return true;
+		}
+		String key = (table + "." + column).toLowerCase(Locale.ROOT);
+		Boolean unique = checked.get(key);
+		if (unique == null) {
+			try (Connection connection = dataSource.getConnection()) {
+				unique = isUnique(connection, table, column);
+			}
+			checked.put(key, unique);
+		}
+		return unique;
+	}
+
+	private static boolean isUnique(Connection connection, String table, String column) throws SQLException
+	{
+		try (Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(SqlTags.tag(TAG,
+						"SELECT count(DISTINCT " + column + "), count(" + column + ") FROM " + table))) {
+			rs.next();
+			return rs.getLong(1) == rs.getLong(2);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.tdb2.loader.DataLoader;
+import org.apache.jena.tdb2.loader.LoaderFactory;
+import org.apache.jena.tdb2.loader.base.MonitorOutput;
+
+/**
+ * Loads every partition into a TDB2 dataset, into the named graph of its TriplesMap,
+ * with TDB2's parallel bulk loader.
+ *
+ * The loader is single threaded on its input and works inside a transaction bound to
+ * the thread that started it, so one loader thread owns it. The materializer's workers
+ * hand it batches of quads through a bounded queue, which keeps them from running
+ * ahead of the index building.
+ */
+public class DatasetPartitionSink implements PartitionSink
+{
+	private static final int BATCH_SIZE = 10000;
+	private static final List<Quad> END = new ArrayList<>();
+
+	private final DataLoader loader;
+	private final BlockingQueue<List<Quad>> batches;
+	private final Thread loaderThread;
+	private volatile Throwable failure;
+	private volatile boolean aborted;
+
+	/**
+	 * Starts loading, {@link #finish()} or {@link #abort()} must follow.
+	 * @param queueSize the number of batches of 10000 quads waiting for the loader
+	 */
+	public DatasetPartitionSink(DatasetGraph dataset, int queueSize, MonitorOutput output)
+	{
+		this.loader = LoaderFactory.parallelLoader(dataset, output);
+		this.batches = new ArrayBlockingQueue<>(queueSize);
+		this.loaderThread = new Thread(this::load, "dataset-loader");
+		loaderThread.start();
+	}
+
+	/**
+	 * @return the IRI of the named graph holding the triples of a TriplesMap
+	 */
+	public static Node graphName(Partition partition)
+	{
+		return NodeFactory.createURI(partition.getTriplesMap().getName());
+	}
+
+	private void load()
+	{
+		loader.startBulk();
+		try {
+			StreamRDF stream = loader.stream();
+			List<Quad> batch = batches.take();
+			while (batch != END) {
+				for (Quad quad : batch) {
+					stream.quad(quad);
+				}
+				batch = batches.take();
+			}
+			if (aborted) {
+				throw new InterruptedException("Load aborted");
+			}
+			loader.finishBulk();
+		} catch (Exception e) {
+			failure = e;
+			loader.finishException(e);
+		} catch (Error e) {
+			failure = e;
+			loader.finishException(new RuntimeException(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public StreamRDF open(Partition partition) throws IOException
+	{
+		checkLoader();
+		return new QuadBatcher(graphName(partition));
+	}
+
+	@Override
+	public void close(Partition partition, StreamRDF stream) throws IOException
+	{
+		((QuadBatcher) stream).flush();
+	}
+
+	/**
+	 * Waits for the loader to commit everything sent to it.
+	 */
+	public void finish() throws IOException, InterruptedException
+	{
+		send(END);
+		loaderThread.join();
+		checkLoader();
+	}
+
+	/**
+	 * Drops everything sent to the loader since it started.
+	 */
+	public void abort() throws InterruptedException
+	{
+		aborted = true;
+		while (loaderThread.isAlive() && !batches.offer(END, 1, TimeUnit.SECONDS)) {
+			batches.clear();
+		}
+		loaderThread.join();
+	}
+
+	private void send(List<Quad> batch) throws IOException
+	{
+		try {
+			while (!batches.offer(batch, 1, TimeUnit.SECONDS)) {
+				checkLoader();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the loader", e);
+		}
+	}
+
+	private void checkLoader() throws IOException
+	{
+		if (failure != null) {
+			throw new IOException("Loading the dataset failed", failure);
+		}
+	}
+
+	/**
+	 * Turns the triples of one partition into quads of its graph, sent in batches.
+	 */
+	private class QuadBatcher extends StreamRDFBase
+	{
+		private final Node graph;
+		private List<Quad> batch = new ArrayList<>(BATCH_SIZE);
+
+		QuadBatcher(Node graph)
+		{
+			this.graph = graph;
+		}
+
+		@Override
+		public void triple(Triple triple)
+		{
+			batch.add(new Quad(graph, triple));
+			if (batch.size() == BATCH_SIZE) {
+				try {
+					flush();
+				} catch (IOException e) {
+					throw new IllegalStateException(e.getMessage(), e.getCause());
+				}
+			}
+		}
+
+		void flush() throws IOException
+		{
+			if (!batch.isEmpty()) {
+				send(batch);
+				batch = new ArrayList<>(BATCH_SIZE);
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+
+/**
+ * Writes every partition to its own gzip'd file in the output directory, e.g.
+ * urn_intermine-table_Gene-00003.nt.gz, in N-Triples or RDF-Thrift.
+ */
+public class FilePartitionSink implements PartitionSink
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final File outputDirectory;
+	private final Lang lang;
+	private final Map<StreamRDF, OutputStream> open = new ConcurrentHashMap<>();
+
+	public FilePartitionSink(File outputDirectory, Lang lang)
+	{
+		if (!StreamRDFWriter.registered(lang)) {
+			throw new IllegalArgumentException("No streaming writer for " + lang);
+		}
+		this.outputDirectory = outputDirectory;
+		this.lang = lang;
+	}
+
+	/**
+	 * @param format nt or thrift
+	 */
+	public static Lang langForFormat(String format)
+	{
+		switch (format.toLowerCase()) {
+			case "nt":
+			case "ntriples":
+				return Lang.NTRIPLES;
+			case "thrift":
+			case "rdf-thrift":
+				return RDFLanguages.RDFTHRIFT;
+			default:
+				throw new IllegalArgumentException("Unknown dump format: " + format);
+		}
+	}
+
+	@Override
+	public StreamRDF open(Partition partition) throws IOException
+	{
+		File file = new File(outputDirectory, fileName(partition));
+		OutputStream out = new GZIPOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE);
+		// N-Triples the way Jena writes it, but with clob literals streamed, see PartitionWriter
+		StreamRDF stream = Lang.NTRIPLES.equals(lang) ? new NTriplesStream(out) : StreamRDFWriter.getWriterStream(out, lang);
+		open.put(stream, out);
+		stream.start();
+		return stream;
+	}
+
+	@Override
+	public void close(Partition partition, StreamRDF stream) throws IOException
+	{
+		stream.finish();
+		OutputStream out = open.remove(stream);
+		if (out != null) {
+			out.close();
+		}
+	}
+
+	private String fileName(Partition partition)
+	{
+		String base = partition.getTriplesMap().getName().replaceAll("[^A-Za-z0-9_-]", "_");
+		String extension = lang.getFileExtensions().get(0);
+		return String.format("%s-%05d.%s.gz", base, partition.getIndex(), extension);
+	}
+}
@@ -0,0 +1,182 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.intermine.r2rmlmapping.jdbc.SqlTags;
+import org.intermine.r2rmlmapping.r2rml.PredicateObjectDefinition;
+import org.intermine.r2rmlmapping.r2rml.PredicateObjectDefinition.JoinCondition;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+
+/**
+ * The signature of each named graph of a store: a digest of its TriplesMap and of the
+ * high-water marks (row count, lowest and highest id) of the logical tables it reads,
+ * its own and those of the parents it joins to.
+ *
+ * InterMine tables are rebuilt by a release rather than updated in place, so a table
+ * whose count and id range did not move did not change, and its graph need not be
+ * reloaded. The signatures a store was loaded with are kept in a properties file.
+ */
+public class GraphSignatures
+{
+	private final File file;
+	private final Map<String, String> signatures;
+
+	private GraphSignatures(File file, Map<String, String> signatures)
+	{
+		this.file = file;
+		this.signatures = signatures;
+	}
+
+	/**
+	 * @return the signatures in file, none if there is no such file yet
+	 */
+	public static GraphSignatures load(File file) throws IOException
+	{
+		Map<String, String> signatures = new TreeMap<>();
+		if (file.exists()) {
+			Properties properties = new Properties();
+			try (InputStream in = new FileInputStream(file)) {
+				properties.load(in);
+			}
+			for (String name : properties.stringPropertyNames()) {
+				signatures.put(name, properties.getProperty(name));
+			}
+		}
+		return new GraphSignatures(file, signatures);
+	}
+
+	public String get(String graphName)
+	{
+		return signatures.get(graphName);
+	}
+
+	public List<String> getGraphNames()
+	{
+		return new ArrayList<>(signatures.keySet());
+	}
+
+	public void put(String graphName, String signature)
+	{
+		signatures.put(graphName, signature);
+	}
+
+	public void remove(String graphName)
+	{
+		signatures.remove(graphName);
+	}
+
+	/**
+	 * Replaces the file atomically, so that a crash leaves the previous signatures.
+	 */
+	public void save() throws IOException
+	{
+		Properties properties = new Properties();
+		properties.putAll(signatures);
+		File tmp = new File(file.getPath() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tmp)) {
+			properties.store(out, "Signatures of the named graphs, see " + GraphSignatures.class.getName());
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the current signature of every TriplesMap, by name, one scan of the id
+	 *     index per logical table
+	 */
+	public static Map<String, String> compute(Connection connection, List<TriplesMapDefinition> triplesMaps)
+			throws SQLException
+	{
+		Map<String, String> watermarks = new HashMap<>();
+		Map<String, String> signatures = new LinkedHashMap<>();
+		for (TriplesMapDefinition map : triplesMaps) {
+			List<String> parts = new ArrayList<>();
+			describe(map, parts);
+			parts.add(watermark(connection, map, watermarks));
+			for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+				if (pom.isReferencing()) {
+					parts.add(pom.getParentName() + " " + watermark(connection, pom.getParent(), watermarks));
+				}
+			}
+			signatures.put(map.getName(), digest(parts));
+		}
+		return signatures;
+	}
+
+	private static void describe(TriplesMapDefinition map, List<String> parts)
+	{
+		parts.add(map.getName() + " " + map.getLogicalTableSql() + " " + map.getSubjectTemplate());
+		parts.add("classes " + map.getClasses());
+		for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+			StringBuilder description = new StringBuilder(pom.getPredicate());
+			description.append(' ').append(pom.getColumn()).append(' ').append(pom.getDatatype())
+					.append(' ').append(pom.getTemplate()).append(' ').append(pom.getParentName());
+			for (JoinCondition join : pom.getJoinConditions()) {
+				description.append(' ').append(join.getChild()).append('=').append(join.getParent());
+			}
+			parts.add(description.toString());
+		}
+	}
+
+	private static String watermark(Connection connection, TriplesMapDefinition map, Map<String, String> cache)
+			throws SQLException
+	{
+		String logicalTable = map.getLogicalTableSql();
+		String watermark = cache.get(logicalTable);
+		if (watermark == null) {
+			// views need not have an id, their row count has to do
+			String sql = map.isView()
+					? "SELECT count(*) FROM " + logicalTable + " v"
+					: "SELECT count(*), min(id), max(id) FROM " + map.getTableName();
+			try (Statement statement = connection.createStatement();
+					ResultSet rs = statement.executeQuery(SqlTags.tag(map.getName(), sql))) {
+				rs.next();
+				watermark = map.isView() ? rs.getString(1)
+						: rs.getString(1) + " " + rs.getString(2) + " " + rs.getString(3);
+			}
+			cache.put(logicalTable, watermark);
+		}
+		return watermark;
+	}
+
+	private static String digest(List<String> parts)
+	{
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			for (String part : parts)
+			{
+				sha.update(part.getBytes(StandardCharsets.UTF_8));
+				sha.update((byte) '\n');
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : sha.digest())
+			{
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
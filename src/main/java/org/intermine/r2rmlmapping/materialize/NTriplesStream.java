@@ -0,0 +1,58 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+
+import org.apache.jena.atlas.io.IO;
+import org.apache.jena.atlas.lib.CharSpace;
+import org.apache.jena.atlas.lib.Chars;
+import org.apache.jena.atlas.lib.EscapeStr;
+import org.apache.jena.graph.Node;
+import org.apache.jena.riot.writer.WriterStreamRDFPlain;
+
+/**
+ * Jena's N-Triples writer, plus string literals whose lexical form is read from a Reader
+ * and escaped chunk by chunk, so that a ClobAccess value such as the residues of a
+ * chromosome is never held as one String, let alone as a Node.
+ */
+public class NTriplesStream extends WriterStreamRDFPlain
+{
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final char[] buffer = new char[CHUNK_SIZE];
+
+	public NTriplesStream(OutputStream out)
+	{
+		super(IO.wrapUTF8(out), CharSpace.UTF8);
+	}
+
+	/**
+	 * Writes a triple whose object is the plain literal read from lexical, which is closed.
+	 */
+	public void literal(Node subject, Node predicate, Reader lexical) throws IOException
+	{
+		try (Reader reader = lexical) {
+			nodeFmt.format(out, subject);
+			out.print(" ");
+			nodeFmt.format(out, predicate);
+			out.print(" \"");
+			int carried = 0;
+			int read;
+			while ((read = reader.read(buffer, carried, buffer.length - carried)) >= 0) {
+				int length = carried + read;
+				// a surrogate pair must not be split between chunks
+				carried = length > 0 && Character.isHighSurrogate(buffer[length - 1]) ? 1 : 0;
+				EscapeStr.stringEsc(out, new String(buffer, 0, length - carried), Chars.CH_QUOTE2, true,
+						CharSpace.UTF8);
+				if (carried > 0) {
+					buffer[0] = buffer[length - 1];
+				}
+			}
+			if (carried > 0) {
+				EscapeStr.stringEsc(out, new String(buffer, 0, 1), Chars.CH_QUOTE2, true, CharSpace.UTF8);
+			}
+			out.print("\" .\n");
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+
+/**
+ * A slice of one TriplesMap: the rows of its logical table whose id lies in
+ * [lowId, highId). A logical table without an id column forms a single, unbounded
+ * partition.
+ */
+public class Partition
+{
+	private final TriplesMapDefinition triplesMap;
+	private final int index;
+	private final Long lowId;
+	private final Long highId;
+
+	public Partition(TriplesMapDefinition triplesMap, int index, Long lowId, Long highId)
+	{
+		this.triplesMap = triplesMap;
+		this.index = index;
+		this.lowId = lowId;
+		this.highId = highId;
+	}
+
+	public TriplesMapDefinition getTriplesMap()
+	{
+		return triplesMap;
+	}
+
+	public int getIndex()
+	{
+		return index;
+	}
+
+	public boolean isBounded()
+	{
+		return lowId != null;
+	}
+
+	public Long getLowId()
+	{
+		return lowId;
+	}
+
+	public Long getHighId()
+	{
+		return highId;
+	}
+
+	@Override
+	public String toString()
+	{
+		return triplesMap.getName() + (isBounded() ? " [" + lowId + ", " + highId + ")" : "");
+	}
+}
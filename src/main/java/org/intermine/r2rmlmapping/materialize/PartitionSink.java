@@ -0,0 +1,22 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import java.io.IOException;
+
+import org.apache.jena.riot.system.StreamRDF;
+
+/**
+ * Where the triples of a partition go. Each partition is written by a single worker
+ * thread; the sink decides whether partitions share a destination.
+ */
+public interface PartitionSink
+{
+	/**
+	 * @return a stream that has already been started
+	 */
+	StreamRDF open(Partition partition) throws IOException;
+
+	/**
+	 * Finish the stream returned by {@link #open(Partition)}.
+	 */
+	void close(Partition partition, StreamRDF stream) throws IOException;
+}
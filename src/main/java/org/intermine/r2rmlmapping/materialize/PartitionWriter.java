@@ -0,0 +1,288 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.XSD;
+import org.intermine.r2rmlmapping.URITemplate;
+import org.intermine.r2rmlmapping.jdbc.ClobReader;
+import org.intermine.r2rmlmapping.jdbc.SqlTags;
+import org.intermine.r2rmlmapping.r2rml.PredicateObjectDefinition;
+import org.intermine.r2rmlmapping.r2rml.PredicateObjectDefinition.JoinCondition;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+
+/**
+ * Runs the SQL of one partition and streams the resulting triples.
+ *
+ * The plain columns and templates of a TriplesMap come from one scan of its logical
+ * table; every referencing object map is a second query joining the child to the
+ * parent logical table, as described in <a href="https://www.w3.org/TR/r2rml/#foreign-key">the spec</a>.
+ * Result sets are forward only with a fixed fetch size, so that drivers such as
+ * PostgreSQL's use a server side cursor instead of buffering the whole table.
+ *
+ * The TriplesMaps of ClobAccess attributes fetch at most CLOB_FETCH_SIZE rows at a time,
+ * without the attribute's content: that is read a {@link ClobReader} chunk at a time per
+ * row, and on an {@link NTriplesStream} copied to the output chunk by chunk.
+ */
+public class PartitionWriter
+{
+	private static final String CHILD = "c_";
+	private static final String PARENT = "p_";
+	private static final int CLOB_FETCH_SIZE = 16;
+
+	private final int fetchSize;
+	private final StringBuilder iri = new StringBuilder();
+
+	public PartitionWriter(int fetchSize)
+	{
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * @return the number of triples written
+	 */
+	public long write(Connection connection, Partition partition, StreamRDF out) throws SQLException
+	{
+		TriplesMapDefinition map = partition.getTriplesMap();
+		long triples = writeScan(connection, partition, out);
+		for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+			if (pom.isReferencing()) {
+				triples += writeJoin(connection, partition, pom, out);
+			}
+		}
+		return triples;
+	}
+
+	private long writeScan(Connection connection, Partition partition, StreamRDF out) throws SQLException
+	{
+		TriplesMapDefinition map = partition.getTriplesMap();
+		List<PredicateObjectDefinition> poms = new ArrayList<>();
+		Set<String> columns = new LinkedHashSet<>(map.getSubjectTemplate().getColumns());
+		if (map.isClob()) {
+			// the content is read by id
+			columns.add("id");
+		}
+		for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+			if (!pom.isReferencing()) {
+				poms.add(pom);
+				if (pom.getTemplate() != null) {
+					columns.addAll(pom.getTemplate().getColumns());
+				} else if (!isContent(map, pom)) {
+					columns.add(pom.getColumn());
+				}
+			}
+		}
+		List<Node> types = new ArrayList<>();
+		for (String type : map.getClasses()) {
+			types.add(NodeFactory.createURI(type));
+		}
+		if (poms.isEmpty() && types.isEmpty()) {
+			return 0;
+		}
+		List<Node> predicates = new ArrayList<>();
+		for (PredicateObjectDefinition pom : poms) {
+			predicates.add(NodeFactory.createURI(pom.getPredicate()));
+		}
+
+		String sql;
+		if (map.isClob()) {
+			// leaves the content out of a view too
+			sql = "SELECT " + String.join(", ", columns) + " FROM " + map.getLogicalTableSql() + " v"
+					+ rangeCondition(partition, "WHERE", "");
+		} else if (map.isView()) {
+			// a partition of a view is a range of the ids it selects
+			sql = partition.isBounded() ? "SELECT * FROM " + map.getLogicalTableSql() + " v"
+					+ rangeCondition(partition, "WHERE", "") : map.getSqlQuery();
+		} else {
+			sql = "SELECT " + String.join(", ", columns) + " FROM " + map.getTableName() + rangeCondition(partition, "WHERE", "");
+		}
+		sql = SqlTags.tag(map.getName(), sql);
+		long triples = 0;
+		try (PreparedStatement statement = prepare(connection, sql, partition);
+				ResultSet rs = statement.executeQuery()) {
+			int[] subjectColumns = map.getSubjectTemplate().findColumns(rs, "");
+			int[][] objectColumns = new int[poms.size()][];
+			for (int i = 0; i < poms.size(); i++) {
+				if (poms.get(i).getTemplate() != null) {
+					objectColumns[i] = poms.get(i).getTemplate().findColumns(rs, "");
+				}
+			}
+			while (rs.next()) {
+				Node subject = render(map.getSubjectTemplate(), rs, subjectColumns);
+				if (subject == null) {
+					continue;
+				}
+				for (Node type : types) {
+					out.triple(Triple.create(subject, RDF.type.asNode(), type));
+					triples++;
+				}
+				for (int i = 0; i < poms.size(); i++) {
+					PredicateObjectDefinition pom = poms.get(i);
+					if (isContent(map, pom)) {
+						if (writeClob(connection, map, rs.getLong("id"), subject, predicates.get(i), out)) {
+							triples++;
+						}
+						continue;
+					}
+					Node object = pom.getTemplate() != null ? render(pom.getTemplate(), rs, objectColumns[i])
+							: literal(rs, pom.getColumn(), pom.getDatatype());
+					if (object != null) {
+						out.triple(Triple.create(subject, predicates.get(i), object));
+						triples++;
+					}
+				}
+			}
+		}
+		return triples;
+	}
+
+	private long writeJoin(Connection connection, Partition partition, PredicateObjectDefinition pom,
+			StreamRDF out) throws SQLException
+	{
+		TriplesMapDefinition child = partition.getTriplesMap();
+		TriplesMapDefinition parent = pom.getParent();
+		List<String> select = new ArrayList<>();
+		for (String column : child.getSubjectTemplate().getColumns()) {
+			select.add("c." + column + " AS " + CHILD + column);
+		}
+		for (String column : parent.getSubjectTemplate().getColumns()) {
+			select.add("p." + column + " AS " + PARENT + column);
+		}
+		StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", select))
+				.append(" FROM ").append(child.getLogicalTableSql()).append(" c, ")
+				.append(parent.getLogicalTableSql()).append(" p WHERE 1 = 1");
+		for (JoinCondition join : pom.getJoinConditions()) {
+			sql.append(" AND c.").append(join.getChild()).append(" = p.").append(join.getParent());
+		}
+		sql.append(rangeCondition(partition, "AND", "c."));
+
+		Node predicate = NodeFactory.createURI(pom.getPredicate());
+		long triples = 0;
+		try (PreparedStatement statement = prepare(connection, SqlTags.tag(child.getName(), sql.toString()), partition);
+				ResultSet rs = statement.executeQuery()) {
+			int[] childColumns = child.getSubjectTemplate().findColumns(rs, CHILD);
+			int[] parentColumns = parent.getSubjectTemplate().findColumns(rs, PARENT);
+			while (rs.next()) {
+				Node subject = render(child.getSubjectTemplate(), rs, childColumns);
+				Node object = render(parent.getSubjectTemplate(), rs, parentColumns);
+				if (subject != null && object != null) {
+					out.triple(Triple.create(subject, predicate, object));
+					triples++;
+				}
+			}
+		}
+		return triples;
+	}
+
+	/**
+	 * @return true if pom maps the content of the attribute of a clob TriplesMap
+	 */
+	private static boolean isContent(TriplesMapDefinition map, PredicateObjectDefinition pom)
+	{
+		return map.isClob() && pom.getTemplate() == null && map.getClobColumn().equalsIgnoreCase(pom.getColumn())
+				&& (pom.getDatatype() == null || XSD.xstring.getURI().equals(pom.getDatatype()));
+	}
+
+	/**
+	 * Writes the content of the attribute of row id as a literal, copied chunk by chunk on
+	 * an NTriplesStream. Other streams need the whole literal as a Node.
+	 * @return false for SQL NULL
+	 */
+	private static boolean writeClob(Connection connection, TriplesMapDefinition map, long id, Node subject,
+			Node predicate, StreamRDF out) throws SQLException
+	{
+		Reader lexical = ClobReader.column(connection, map.getClobTable(), map.getClobColumn(), id, map.getName());
+		if (lexical == null) {
+			return false;
+		}
+		try {
+			if (out instanceof NTriplesStream) {
+				((NTriplesStream) out).literal(subject, predicate, lexical);
+			} else {
+				StringBuilder content = new StringBuilder();
+				try (Reader reader = lexical) {
+					char[] chunk = new char[ClobReader.CHUNK_SIZE];
+					int read;
+					while ((read = reader.read(chunk)) >= 0) {
+						content.append(chunk, 0, read);
+					}
+				}
+				out.triple(Triple.create(subject, predicate, NodeFactory.createLiteral(content.toString())));
+			}
+		} catch (IOException e) {
+			throw new SQLException("Failed to read " + map.getClobColumn() + " of " + id, e);
+		}
+		return true;
+	}
+
+	private static String rangeCondition(Partition partition, String keyword, String alias)
+	{
+		if (!partition.isBounded()) {
+			return "";
+		}
+		return " " + keyword + " " + alias + "id >= ? AND " + alias + "id < ?";
+	}
+
+	private PreparedStatement prepare(Connection connection, String sql, Partition partition) throws SQLException
+	{
+		PreparedStatement statement = connection.prepareStatement(sql,
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		statement.setFetchSize(partition.getTriplesMap().isClob() ? Math.min(fetchSize, CLOB_FETCH_SIZE) : fetchSize);
+		if (partition.isBounded()) {
+			statement.setLong(1, partition.getLowId());
+			statement.setLong(2, partition.getHighId());
+		}
+		return statement;
+	}
+
+	/**
+	 * @param columns the positions of the template's columns, looked up once per query
+	 */
+	private Node render(URITemplate template, ResultSet rs, int[] columns) throws SQLException
+	{
+		iri.setLength(0);
+		if (!template.render(iri, rs, columns)) {
+			return null;
+		}
+		return NodeFactory.createURI(iri.toString());
+	}
+
+	/**
+	 * @return the literal in the canonical lexical form of its datatype, or null for SQL NULL
+	 */
+	private static Node literal(ResultSet rs, String column, String datatype) throws SQLException
+	{
+		String lexical;
+		if (XSD.xboolean.getURI().equals(datatype)) {
+			boolean value = rs.getBoolean(column);
+			lexical = rs.wasNull() ? null : String.valueOf(value);
+		} else if (XSD.decimal.getURI().equals(datatype)) {
+			BigDecimal value = rs.getBigDecimal(column);
+			lexical = value == null ? null : value.toPlainString();
+		} else {
+			lexical = rs.getString(column);
+		}
+		if (lexical == null) {
+			return null;
+		}
+		if (datatype == null || XSD.xstring.getURI().equals(datatype)) {
+			return NodeFactory.createLiteral(lexical);
+		}
+		return NodeFactory.createLiteral(lexical, TypeMapper.getInstance().getSafeTypeByName(datatype));
+	}
+}
@@ -0,0 +1,222 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDF;
+import org.intermine.r2rmlmapping.jdbc.DatabaseConfig;
+import org.intermine.r2rmlmapping.jdbc.SqlTags;
+import org.intermine.r2rmlmapping.r2rml.MappingReader;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+
+/**
+ * Materializes a generated mapping into an RDF dump of the mine.
+ *
+ * Every TriplesMap whose logical table has an id column, a table or a view such as
+ * a class hierarchy's or a many to many collection's, is split into ranges of the
+ * InterMine id holding about the same number of rows each. InterMine ids come from one
+ * sequence for the whole mine, so the ids of one table are far apart and ranges of a fixed
+ * width would mostly be empty. The partitions are run by a pool of workers, each with one
+ * connection for all the partitions it takes, and streamed straight to their own output.
+ * Heap use therefore depends on the fetch size and the number of workers, not on the size
+ * of the mine.
+ *
+ * Usage: R2RMLMaterializer mapping.ttl db.properties output-directory
+ *
+ * Besides the jdbc.* settings, db.properties may contain
+ * materialize.threads, materialize.fetchSize, materialize.partitionSize (rows per partition)
+ * and materialize.format (nt or thrift). Every statement is tagged with the TriplesMap it
+ * runs for, see {@link SqlTags} and the trace.* settings of {@link DatabaseConfig}.
+ */
+public class R2RMLMaterializer
+{
+	private final DataSource dataSource;
+	private final int threads;
+	private final int fetchSize;
+	private final long partitionSize;
+
+	public R2RMLMaterializer(DataSource dataSource, int threads, int fetchSize, long partitionSize)
+	{
+		this.dataSource = dataSource;
+		this.threads = threads;
+		this.fetchSize = fetchSize;
+		this.partitionSize = partitionSize;
+	}
+
+	public static R2RMLMaterializer fromConfig(DatabaseConfig config)
+	{
+		return new R2RMLMaterializer(config.getDataSource(),
+				config.getInt("materialize.threads", Runtime.getRuntime().availableProcessors()),
+				config.getInt("materialize.fetchSize", 10000),
+				config.getLong("materialize.partitionSize", 1000000L));
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length != 3) {
+			System.err.println("Usage: R2RMLMaterializer mapping.ttl db.properties output-directory");
+			System.exit(1);
+		}
+		DatabaseConfig config = DatabaseConfig.load(args[1]);
+		File outputDirectory = new File(args[2]);
+		if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create " + outputDirectory);
+		}
+		List<TriplesMapDefinition> triplesMaps = MappingReader.read(RDFDataMgr.loadModel(args[0]));
+		PartitionSink sink = new FilePartitionSink(outputDirectory,
+				FilePartitionSink.langForFormat(config.getProperty("materialize.format", "nt")));
+		fromConfig(config).materialize(triplesMaps, sink);
+	}
+
+	/**
+	 * @return the number of triples written
+	 */
+	public long materialize(List<TriplesMapDefinition> triplesMaps, PartitionSink sink)
+			throws SQLException, InterruptedException, ExecutionException
+	{
+		long start = System.currentTimeMillis();
+		List<Partition> partitions = new ArrayList<>();
+		try (Connection connection = dataSource.getConnection()) {
+			for (TriplesMapDefinition triplesMap : triplesMaps) {
+				partitions.addAll(plan(connection, triplesMap));
+			}
+		}
+		System.err.println("Materializing " + triplesMaps.size() + " TriplesMaps in "
+				+ partitions.size() + " partitions with " + threads + " workers");
+
+		Queue<Partition> queue = new ConcurrentLinkedQueue<>(partitions);
+		int workerCount = Math.max(1, Math.min(threads, partitions.size()));
+		ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+		long triples = 0;
+		try {
+			List<Future<Long>> results = new ArrayList<>();
+			for (int i = 0; i < workerCount; i++)
+			{
+				results.add(workers.submit(() -> work(queue, sink)));
+			}
+			for (Future<Long> result : results) {
+				triples += result.get();
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		System.err.println("Wrote " + triples + " triples in " + elapsed + " ms ("
+				+ (triples * 1000 / elapsed) + " triples/s)");
+		return triples;
+	}
+
+	/**
+	 * Splits a TriplesMap into id ranges of about partitionSize rows, the quantiles of
+	 * its ids, or leaves it whole if its logical table has no id column.
+	 */
+	List<Partition> plan(Connection connection, TriplesMapDefinition triplesMap) throws SQLException
+	{
+		List<Partition> partitions = new ArrayList<>();
+		String from = triplesMap.getLogicalTableSql() + (triplesMap.isView() ? " v" : "");
+		if (!hasId(connection, triplesMap, from)) {
+			partitions.add(new Partition(triplesMap, 0, null, null));
+			return partitions;
+		}
+		long rows;
+		long max;
+		try (Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(SqlTags.tag(triplesMap.getName(),
+						"SELECT count(id), max(id) FROM " + from))) {
+			rs.next();
+			rows = rs.getLong(1);
+			max = rs.getLong(2);
+		}
+		if (rows == 0) {
+			return partitions;
+		}
+		long buckets = (rows + partitionSize - 1) / partitionSize;
+		// the lowest id of each bucket, the rows of one id may fall in two buckets
+		List<Long> lows = new ArrayList<>();
+		try (Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(SqlTags.tag(triplesMap.getName(),
+						"SELECT DISTINCT min(id) FROM (SELECT id, NTILE(" + buckets + ") OVER (ORDER BY id) AS bucket"
+						+ " FROM " + from + " WHERE id IS NOT NULL) b GROUP BY bucket ORDER BY 1"))) {
+			while (rs.next())
+			{
+				lows.add(rs.getLong(1));
+			}
+		}
+		for (int i = 0; i < lows.size(); i++)
+		{
+			long high = i + 1 < lows.size() ? lows.get(i + 1) : max + 1;
+			partitions.add(new Partition(triplesMap, i, lows.get(i), high));
+		}
+		return partitions;
+	}
+
+	private static boolean hasId(Connection connection, TriplesMapDefinition triplesMap, String from)
+			throws SQLException
+	{
+		try (Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(SqlTags.tag(triplesMap.getName(),
+						"SELECT * FROM " + from + " WHERE 1 = 0"))) {
+			ResultSetMetaData metaData = rs.getMetaData();
+			for (int i = 1; i <= metaData.getColumnCount(); i++)
+			{
+				if ("id".equalsIgnoreCase(metaData.getColumnLabel(i))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the partitions taken from queue, until there are none left, on one connection.
+	 * @return the number of triples written
+	 */
+	private long work(Queue<Partition> queue, PartitionSink sink) throws Exception
+	{
+		long triples = 0;
+		try (Connection connection = dataSource.getConnection()) {
+			// needed for the PostgreSQL driver to honour the fetch size with a cursor
+			connection.setAutoCommit(false);
+			connection.setReadOnly(true);
+			PartitionWriter writer = new PartitionWriter(fetchSize);
+			Partition partition;
+			while (!Thread.currentThread().isInterrupted() && (partition = queue.poll()) != null)
+			{
+				triples += write(connection, writer, partition, sink);
+			}
+		}
+		return triples;
+	}
+
+	private static long write(Connection connection, PartitionWriter writer, Partition partition, PartitionSink sink)
+			throws Exception
+	{
+		try {
+			StreamRDF stream = sink.open(partition);
+			try {
+				return writer.write(connection, partition, stream);
+			} finally {
+				sink.close(partition, stream);
+				// ends the transaction of the partition's cursors
+				connection.rollback();
+			}
+		} catch (SQLException e) {
+			throw new SQLException("Failed to materialize " + partition, e);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.fuseki.main.FusekiServer;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.jena.tdb2.TDB2;
+import org.apache.jena.tdb2.loader.base.LoaderOps;
+import org.intermine.r2rmlmapping.jdbc.DatabaseConfig;
+import org.intermine.r2rmlmapping.r2rml.MappingReader;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+
+/**
+ * A materialized copy of the mine in a TDB2 dataset, with one named graph per TriplesMap,
+ * served as a SPARQL endpoint that FederatedQuery can use instead of ontop's.
+ *
+ * A refresh compares the {@link GraphSignatures} of the TriplesMaps with those the store
+ * was loaded with, and only drops and reloads the graphs of the tables that changed. The
+ * graphs are loaded by the materializer's workers into TDB2's parallel bulk loader. The
+ * default graph is the union of the named graphs, so queries need not know about them.
+ *
+ * Usage: TDB2Store [--full] [--serve] mapping.ttl db.properties store-directory
+ *
+ * Besides the materialize.* settings, db.properties may contain store.port (8081, the
+ * endpoint is http://localhost:port/sparql), store.queueSize (batches of quads waiting for
+ * the loader) and store.compact (true to compact the dataset after graphs were dropped).
+ */
+public class TDB2Store
+{
+	public static final String SIGNATURES = "graphs.properties";
+	public static final String ENDPOINT = "/sparql";
+
+	private final File directory;
+	private final DatasetGraph dataset;
+
+	public TDB2Store(File directory)
+	{
+		this.directory = directory;
+		this.dataset = DatabaseMgr.connectDatasetGraph(directory.getPath());
+		dataset.getContext().set(TDB2.symUnionDefaultGraph, true);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		boolean full = false;
+		boolean serve = false;
+		List<String> positional = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.equals("--full")) {
+				full = true;
+			} else if (arg.equals("--serve")) {
+				serve = true;
+			} else {
+				positional.add(arg);
+			}
+		}
+		if (positional.size() != 3) {
+			System.err.println("Usage: TDB2Store [--full] [--serve] mapping.ttl db.properties store-directory");
+			System.exit(1);
+		}
+		DatabaseConfig config = DatabaseConfig.load(positional.get(1));
+		List<TriplesMapDefinition> triplesMaps = MappingReader.read(RDFDataMgr.loadModel(positional.get(0)));
+		TDB2Store store = new TDB2Store(new File(positional.get(2)));
+		store.refresh(triplesMaps, config, full);
+		if (serve) {
+			int port = config.getInt("store.port", 8081);
+			FusekiServer server = store.serve(port);
+			System.err.println("SPARQL endpoint at http://localhost:" + port + ENDPOINT);
+			server.join();
+		}
+	}
+
+	public DatasetGraph getDataset()
+	{
+		return dataset;
+	}
+
+	/**
+	 * Reloads the graphs of the TriplesMaps whose signature changed, all of them if full,
+	 * and drops those of TriplesMaps no longer in the mapping.
+	 * @return the names of the graphs that were reloaded
+	 */
+	public List<String> refresh(List<TriplesMapDefinition> triplesMaps, DatabaseConfig config, boolean full)
+			throws Exception
+	{
+		GraphSignatures signatures = GraphSignatures.load(new File(directory, SIGNATURES));
+		Map<String, String> current;
+		try (Connection connection = config.getDataSource().getConnection()) {
+			current = GraphSignatures.compute(connection, triplesMaps);
+		}
+		List<TriplesMapDefinition> stale = new ArrayList<>();
+		for (TriplesMapDefinition map : triplesMaps) {
+			if (full || !current.get(map.getName()).equals(signatures.get(map.getName()))) {
+				stale.add(map);
+			}
+		}
+		List<String> dropped = new ArrayList<>();
+		for (String graphName : signatures.getGraphNames()) {
+			if (!current.containsKey(graphName)) {
+				dropped.add(graphName);
+			}
+		}
+		List<String> reloaded = new ArrayList<>();
+		for (TriplesMapDefinition map : stale) {
+			reloaded.add(map.getName());
+		}
+		if (stale.isEmpty() && dropped.isEmpty()) {
+			System.err.println("All " + triplesMaps.size() + " graphs are up to date");
+			return reloaded;
+		}
+		System.err.println("Reloading " + stale.size() + " of " + triplesMaps.size() + " graphs, dropping "
+				+ dropped.size());
+
+		// forget the signatures first, a load that fails half way must be redone next time
+		List<String> removed = new ArrayList<>(dropped);
+		removed.addAll(reloaded);
+		for (String graphName : removed) {
+			signatures.remove(graphName);
+		}
+		signatures.save();
+		Txn.executeWrite(dataset, () -> {
+			for (String graphName : removed) {
+				Node graph = NodeFactory.createURI(graphName);
+				dataset.deleteAny(graph, Node.ANY, Node.ANY, Node.ANY);
+			}
+		});
+
+		DatasetPartitionSink sink = new DatasetPartitionSink(dataset,
+				config.getInt("store.queueSize", 64), LoaderOps.outputTo(System.err));
+		try {
+			R2RMLMaterializer.fromConfig(config).materialize(stale, sink);
+			sink.finish();
+		} catch (Exception e) {
+			sink.abort();
+			throw e;
+		}
+		for (String graphName : reloaded) {
+			signatures.put(graphName, current.get(graphName));
+		}
+		signatures.save();
+
+		if (Boolean.parseBoolean(config.getProperty("store.compact", "false"))) {
+			// TDB2 only reclaims the space of deleted triples by compacting
+			DatabaseMgr.compact(dataset);
+		}
+		return reloaded;
+	}
+
+	/**
+	 * Starts a read-only SPARQL endpoint on the dataset at http://localhost:port/sparql.
+	 */
+	public FusekiServer serve(int port)
+	{
+		return FusekiServer.create()
+				.port(port)
+				.add(ENDPOINT, dataset, false)
+				.build()
+				.start();
+	}
+}
@@ -0,0 +1,223 @@
+package org.intermine.r2rmlmapping.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import javax.sql.DataSource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.jena.riot.RDFDataMgr;
+import org.intermine.r2rmlmapping.URITemplate;
+import org.intermine.r2rmlmapping.jdbc.ClobReader;
+import org.intermine.r2rmlmapping.jdbc.DatabaseConfig;
+import org.intermine.r2rmlmapping.jdbc.SqlTags;
+import org.intermine.r2rmlmapping.r2rml.MappingReader;
+import org.intermine.r2rmlmapping.r2rml.PredicateObjectDefinition;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+
+/**
+ * Dereferences the IRIs a mapping generated with --clobs=iri gives ClobAccess attributes,
+ * e.g. http://localhost:8090/clob/sequence/residues/{md5checksum}, by answering a GET of
+ * their path with the attribute's content as text/plain.
+ *
+ * The content is read a {@link ClobReader} chunk at a time and sent with chunked transfer
+ * encoding, so a request holds one chunk rather than the whole value. Identifiers are not
+ * unique in a mine; the row with the lowest id answers for all of them.
+ *
+ * Usage: ClobServer [--port=8090] mapping.ttl db.properties
+ *
+ * clob.threads in db.properties sets the number of requests answered at once (16), and
+ * clob.storage where the content is, intermine (in the clob table) or column, see
+ * {@link ClobReader}.
+ */
+public class ClobServer {
+
+    private final DataSource dataSource;
+    private final boolean interMineStorage;
+    private final List<ClobIri> iris = new ArrayList<>();
+
+    /**
+     * The IRI template of one clob TriplesMap, and the query for the row it stands for.
+     */
+    private static class ClobIri {
+        final TriplesMapDefinition map;
+        final URITemplate path;
+        final String sql;
+
+        ClobIri(TriplesMapDefinition map, URITemplate path, String sql) {
+            this.map = map;
+            this.path = path;
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * @param interMineStorage true if the columns refer to InterMine's clob table, false if
+     *     they hold the content
+     */
+    public ClobServer(List<TriplesMapDefinition> triplesMaps, DataSource dataSource, boolean interMineStorage) {
+        this.dataSource = dataSource;
+        this.interMineStorage = interMineStorage;
+        for (TriplesMapDefinition map : triplesMaps) {
+            if (!map.isClob()) {
+                continue;
+            }
+            for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+                URITemplate template = pom.getTemplate();
+                if (template == null || template.getColumns().size() != 1) {
+                    continue;
+                }
+                // the description of InterMine's storage is short, the content is read by id
+                String sql = "SELECT id" + (interMineStorage ? ", " + map.getClobColumn() : "") + " FROM "
+                        + map.getClobTable() + " WHERE " + template.getColumns().get(0) + " = ? ORDER BY id";
+                iris.add(new ClobIri(map, URITemplate.compile(pathOf(template.getTemplate())), sql));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 8090;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() != 2) {
+            System.err.println("Usage: ClobServer [--port=8090] mapping.ttl db.properties");
+            System.exit(1);
+        }
+        DatabaseConfig config = DatabaseConfig.load(positional.get(1));
+        String storage = config.getProperty("clob.storage", ClobReader.INTERMINE_STORAGE);
+        if (!storage.equals(ClobReader.INTERMINE_STORAGE) && !storage.equals(ClobReader.COLUMN_STORAGE)) {
+            System.err.println("clob.storage must be " + ClobReader.INTERMINE_STORAGE + " or "
+                    + ClobReader.COLUMN_STORAGE);
+            System.exit(1);
+        }
+        ClobServer clobs = new ClobServer(MappingReader.read(RDFDataMgr.loadModel(positional.get(0))),
+                config.getDataSource(), storage.equals(ClobReader.INTERMINE_STORAGE));
+        if (clobs.iris.isEmpty()) {
+            System.err.println("The mapping has no clob IRIs, generate it with --clobs=iri");
+            System.exit(1);
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", clobs::handle);
+        server.setExecutor(Executors.newFixedThreadPool(config.getInt("clob.threads", 16)));
+        server.start();
+        System.err.println("Serving " + clobs.iris.size() + " clob attributes on port " + port);
+    }
+
+    /**
+     * @return the path of an IRI template, e.g. /clob/sequence/residues/{md5checksum}
+     */
+    static String pathOf(String template) {
+        int authority = template.indexOf("//");
+        int path = template.indexOf('/', authority < 0 ? 0 : authority + 2);
+        return path < 0 ? "/" : template.substring(path);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+            if (!head && !"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String path = exchange.getRequestURI().getRawPath();
+            for (ClobIri iri : iris) {
+                String[] identifier = iri.path.match(path);
+                if (identifier != null) {
+                    send(exchange, iri, identifier[0], head);
+                    return;
+                }
+            }
+            exchange.sendResponseHeaders(404, -1);
+        } catch (SQLException e) {
+            System.err.println("Failed to answer " + exchange.getRequestURI() + ": " + e);
+            if (exchange.getResponseCode() < 0) {
+                exchange.sendResponseHeaders(500, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, ClobIri iri, String identifier, boolean head)
+            throws IOException, SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            // needed for the PostgreSQL driver to honour the fetch size with a cursor
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            try {
+                Reader content = open(connection, iri, identifier);
+                if (content == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                if (head) {
+                    content.close();
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                // a length of 0 means chunked
+                exchange.sendResponseHeaders(200, 0);
+                try (Reader reader = content;
+                        OutputStream body = exchange.getResponseBody();
+                        Writer out = new OutputStreamWriter(body, StandardCharsets.UTF_8)) {
+                    char[] chunk = new char[ClobReader.CHUNK_SIZE];
+                    int read;
+                    while ((read = reader.read(chunk)) >= 0) {
+                        out.write(chunk, 0, read);
+                    }
+                }
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    /**
+     * @return the content of the row with identifier and the lowest id, or null if there is
+     *     no such row or the attribute is null
+     */
+    private Reader open(Connection connection, ClobIri iri, String identifier) throws SQLException {
+        long id;
+        String description = null;
+        try (PreparedStatement statement = connection.prepareStatement(SqlTags.tag(iri.map.getName(), iri.sql))) {
+            statement.setFetchSize(1);
+            statement.setString(1, identifier);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                id = rs.getLong(1);
+                if (interMineStorage) {
+                    description = rs.getString(2);
+                    if (description == null) {
+                        return null;
+                    }
+                }
+            }
+        }
+        if (interMineStorage) {
+            return ClobReader.interMine(connection, description, iri.map.getName());
+        }
+        return ClobReader.column(connection, iri.map.getClobTable(), iri.map.getClobColumn(), id, iri.map.getName());
+    }
+}
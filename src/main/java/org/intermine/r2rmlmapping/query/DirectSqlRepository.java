@@ -0,0 +1,147 @@
+package org.intermine.r2rmlmapping.query;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.QueryResults;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.TupleQueryResultHandler;
+import org.eclipse.rdf4j.query.impl.AbstractQuery;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.base.RepositoryConnectionWrapper;
+import org.eclipse.rdf4j.repository.base.RepositoryWrapper;
+import org.intermine.r2rmlmapping.jdbc.PooledDataSource;
+
+/**
+ * Answers the SELECT queries that {@link StarQueryCompiler} compiles with one SQL
+ * statement on the mine, and passes every other query to the wrapped repository, e.g. a
+ * SPARQLRepository for ontop's endpoint.
+ *
+ * A compiled query costs a SPARQL parse and an indexed join, instead of a round trip to
+ * an engine that rewrites it first. It is compiled again on every call, the templates
+ * bind their values into the query text anyway. The statements run on a pool of at most
+ * maxConnections connections, closed when the repository is shut down.
+ */
+public class DirectSqlRepository extends RepositoryWrapper {
+
+    private final StarQueryCompiler compiler;
+    private final PooledDataSource dataSource;
+    private final int fetchSize;
+    private final LongAdder direct = new LongAdder();
+    private final LongAdder delegated = new LongAdder();
+
+    /**
+     * @param fetchSize the rows per round trip of a compiled query
+     * @param maxConnections the connections to the mine kept open at most
+     */
+    public DirectSqlRepository(Repository delegate, StarQueryCompiler compiler, DataSource dataSource,
+            int fetchSize, int maxConnections) {
+        super(delegate);
+        this.compiler = compiler;
+        this.dataSource = new PooledDataSource(dataSource, maxConnections);
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @return the number of queries answered with SQL
+     */
+    public long getDirectCount() {
+        return direct.sum();
+    }
+
+    /**
+     * @return the number of queries passed to the wrapped repository
+     */
+    public long getDelegatedCount() {
+        return delegated.sum();
+    }
+
+    @Override
+    public RepositoryConnection getConnection() throws RepositoryException {
+        return new DirectSqlConnection(this, getDelegate().getConnection());
+    }
+
+    @Override
+    public void shutDown() throws RepositoryException {
+        try {
+            super.shutDown();
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return direct.sum() + " queries in SQL, " + delegated.sum() + " passed on";
+    }
+
+    private class DirectSqlConnection extends RepositoryConnectionWrapper {
+
+        DirectSqlConnection(Repository repository, RepositoryConnection delegate) {
+            super(repository, delegate);
+        }
+
+        @Override
+        public TupleQuery prepareTupleQuery(QueryLanguage ql, String query)
+                throws MalformedQueryException, RepositoryException {
+            return prepareTupleQuery(ql, query, null);
+        }
+
+        @Override
+        public TupleQuery prepareTupleQuery(QueryLanguage ql, String query, String baseURI)
+                throws MalformedQueryException, RepositoryException {
+            SqlQuery sql = ql == QueryLanguage.SPARQL && baseURI == null ? compiler.compile(query) : null;
+            if (sql == null) {
+                delegated.increment();
+                return getDelegate().prepareTupleQuery(ql, query, baseURI);
+            }
+            return new DirectTupleQuery(sql, getDelegate(), query);
+        }
+    }
+
+    private class DirectTupleQuery extends AbstractQuery implements TupleQuery {
+
+        private final SqlQuery sql;
+        private final RepositoryConnection delegateConnection;
+        private final String query;
+
+        DirectTupleQuery(SqlQuery sql, RepositoryConnection delegateConnection, String query) {
+            this.sql = sql;
+            this.delegateConnection = delegateConnection;
+            this.query = query;
+        }
+
+        @Override
+        public TupleQueryResult evaluate() throws QueryEvaluationException {
+            if (getBindings().size() > 0 || getDataset() != null) {
+                // the compiled statement has its constants built in
+                delegated.increment();
+                TupleQuery delegate = delegateConnection.prepareTupleQuery(QueryLanguage.SPARQL, query);
+                getBindings().forEach(binding -> delegate.setBinding(binding.getName(), binding.getValue()));
+                delegate.setDataset(getDataset());
+                delegate.setIncludeInferred(getIncludeInferred());
+                delegate.setMaxExecutionTime(getMaxExecutionTime());
+                return delegate.evaluate();
+            }
+            direct.increment();
+            try {
+                return sql.evaluate(dataSource.getConnection(), fetchSize, Math.max(0, getMaxExecutionTime()));
+            } catch (SQLException e) {
+                throw new QueryEvaluationException("Failed to run " + sql.getSql(), e);
+            }
+        }
+
+        @Override
+        public void evaluate(TupleQueryResultHandler handler) throws QueryEvaluationException {
+            QueryResults.report(evaluate(), handler);
+        }
+    }
+}
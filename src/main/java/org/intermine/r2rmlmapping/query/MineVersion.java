@@ -0,0 +1,46 @@
+package org.intermine.r2rmlmapping.query;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+/**
+ * The version of a mine's data, read from the intermine_metadata table: the
+ * serialNumber InterMine gives the database every time it is built, and the release
+ * where the build records one. Results computed under one version are stale under any
+ * other.
+ */
+public final class MineVersion {
+
+    static final String SERIAL_NUMBER = "serialNumber";
+    static final String RELEASE = "release";
+
+    private MineVersion() {
+    }
+
+    /**
+     * @return e.g. "release=12;serialNumber=-4386172946203154826;", empty if the mine
+     *     records neither
+     */
+    public static String read(DataSource dataSource) throws SQLException {
+        Map<String, String> values = new TreeMap<>();
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT key, value FROM intermine_metadata WHERE key IN ('"
+                        + RELEASE + "', '" + SERIAL_NUMBER + "')")) {
+            while (rs.next()) {
+                values.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        StringBuilder version = new StringBuilder();
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            version.append(value.getKey()).append('=').append(value.getValue()).append(';');
+        }
+        return version.toString();
+    }
+}
@@ -0,0 +1,137 @@
+package org.intermine.r2rmlmapping.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A SPARQL query with a name to report it under, read from a .rq file or from the
+ * templates of a templates.toml.
+ */
+public class NamedQuery {
+
+    private static final String TABS = "[[tabGroups.tabs]]";
+    private static final String MULTI_LINE = "\"\"\"";
+
+    private final String name;
+    private final String query;
+
+    public NamedQuery(String name, String query) {
+        this.name = name;
+        this.query = query;
+    }
+
+    /**
+     * @return every template of a .toml file, or the one query of any other file
+     */
+    public static List<NamedQuery> load(File file) throws IOException {
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        if (file.getName().endsWith(".toml")) {
+            return parseTemplates(content);
+        }
+        String name = file.getName().replaceFirst("\\.rq$", "");
+        return Collections.singletonList(new NamedQuery(name, content));
+    }
+
+    /**
+     * Reads the name and query of each [[tabGroups.tabs]] table. This is not a TOML parser,
+     * just enough of one for the templates file of the SPARQL endpoint's UI: one key per
+     * line, with basic or multi-line basic string values.
+     */
+    static List<NamedQuery> parseTemplates(String toml) {
+        List<NamedQuery> queries = new ArrayList<>();
+        String[] lines = toml.split("\r?\n", -1);
+        boolean inTab = false;
+        String name = null;
+        String query = null;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.startsWith("[")) {
+                if (inTab && query != null) {
+                    queries.add(new NamedQuery(name == null ? "template " + (queries.size() + 1) : name, query));
+                }
+                inTab = line.equals(TABS);
+                name = null;
+                query = null;
+                continue;
+            }
+            int equals = line.indexOf('=');
+            if (!inTab || equals < 0) {
+                continue;
+            }
+            String key = line.substring(0, equals).trim();
+            String value = line.substring(equals + 1).trim();
+            if (value.startsWith(MULTI_LINE)) {
+                StringBuilder text = new StringBuilder(value.substring(MULTI_LINE.length()));
+                // a newline right after the opening delimiter is not part of the string
+                boolean first = text.length() == 0;
+                while (text.indexOf(MULTI_LINE) < 0 && i + 1 < lines.length) {
+                    if (!first) {
+                        text.append('\n');
+                    }
+                    first = false;
+                    text.append(lines[++i]);
+                }
+                int end = text.indexOf(MULTI_LINE);
+                value = unescape(end < 0 ? text.toString() : text.substring(0, end));
+            } else if (value.startsWith("\"") && value.lastIndexOf('"') > 0) {
+                value = unescape(value.substring(1, value.lastIndexOf('"')));
+            }
+            if (key.equals("name")) {
+                name = value;
+            } else if (key.equals("query")) {
+                query = value;
+            }
+        }
+        if (inTab && query != null) {
+            queries.add(new NamedQuery(name == null ? "template " + (queries.size() + 1) : name, query));
+        }
+        return queries;
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                out.append(c);
+                continue;
+            }
+            char escaped = value.charAt(++i);
+            switch (escaped) {
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                default:
+                    out.append(escaped);
+            }
+        }
+        return out.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
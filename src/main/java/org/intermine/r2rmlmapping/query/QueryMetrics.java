@@ -0,0 +1,58 @@
+package org.intermine.r2rmlmapping.query;
+
+/**
+ * What one run of a query cost, as seen by the consumer of its results.
+ */
+public class QueryMetrics {
+
+    private final String name;
+    private final long rows;
+    private final long firstRowNanos;
+    private final long totalNanos;
+    private final long peakHeapBytes;
+
+    public QueryMetrics(String name, long rows, long firstRowNanos, long totalNanos, long peakHeapBytes) {
+        this.name = name;
+        this.rows = rows;
+        this.firstRowNanos = firstRowNanos;
+        this.totalNanos = totalNanos;
+        this.peakHeapBytes = peakHeapBytes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the time from sending the query to writing its first row, -1 without rows
+     */
+    public double getTimeToFirstRowMillis() {
+        return firstRowNanos < 0 ? -1 : firstRowNanos / 1e6;
+    }
+
+    public double getTotalMillis() {
+        return totalNanos / 1e6;
+    }
+
+    public double getRowsPerSecond() {
+        return totalNanos == 0 ? 0 : rows * 1e9 / totalNanos;
+    }
+
+    /**
+     * @return the highest heap use during the run, of the whole JVM
+     */
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d rows in %.1f ms, first row after %.1f ms, %.0f rows/s, peak heap %d MB",
+                name, rows, getTotalMillis(), getTimeToFirstRowMillis(), getRowsPerSecond(),
+                peakHeapBytes / (1024 * 1024));
+    }
+}
@@ -0,0 +1,247 @@
+package org.intermine.r2rmlmapping.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A query of templates.toml whose FILTER constants are parameters, e.g.
+ * <code>FILTER(?symbol="ABRA"^^xsd:string)</code> makes a parameter named symbol, whose
+ * default is ABRA. A call gives the values of the parameters as plain strings, and they
+ * are written into the query in the form of the constant they replace: a literal with the
+ * same datatype or language, an IRI or a number.
+ */
+public class QueryTemplate {
+
+    private static final Pattern FILTER = Pattern.compile(
+            "FILTER\\s*\\(\\s*\\?(\\w+)\\s*=\\s*("
+            + "\"((?:[^\"\\\\]|\\\\.)*)\"(\\^\\^(?:<[^>]*>|[A-Za-z][\\w-]*:[\\w-]*)|@[A-Za-z]+(?:-[A-Za-z0-9]+)*)?"
+            + "|<([^>]*)>"
+            + "|([+-]?\\d+(?:\\.\\d+)?)"
+            + ")\\s*\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern NUMBER = Pattern.compile("[+-]?\\d+(?:\\.\\d+)?");
+    private static final Pattern PROJECTION = Pattern.compile(
+            "SELECT\\s.*?(?=WHERE\\s*\\{|\\{)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private enum Kind { LITERAL, IRI, NUMBER }
+
+    private static final class Parameter {
+        final String name;
+        final String variable;
+        final Kind kind;
+        // the datatype or language tag of a literal
+        final String suffix;
+        final String defaultValue;
+
+        Parameter(String name, String variable, Kind kind, String suffix, String defaultValue) {
+            this.name = name;
+            this.variable = variable;
+            this.kind = kind;
+            this.suffix = suffix;
+            this.defaultValue = defaultValue;
+        }
+    }
+
+    private final String name;
+    // fragments.length == parameters.length + 1, fragments and parameters alternate
+    private final String[] fragments;
+    private final Parameter[] parameters;
+    // the query without its FILTER constants, for sampling values
+    private final String unfiltered;
+
+    private QueryTemplate(String name, String[] fragments, Parameter[] parameters, String unfiltered) {
+        this.name = name;
+        this.fragments = fragments;
+        this.parameters = parameters;
+        this.unfiltered = unfiltered;
+    }
+
+    /**
+     * A query without FILTER constants is a template without parameters.
+     */
+    public static QueryTemplate parse(NamedQuery query) {
+        String text = query.getQuery();
+        List<String> fragments = new ArrayList<>();
+        List<Parameter> parameters = new ArrayList<>();
+        Map<String, Integer> seen = new LinkedHashMap<>();
+        Matcher matcher = FILTER.matcher(text);
+        int position = 0;
+        while (matcher.find()) {
+            String variable = matcher.group(1);
+            // a variable filtered twice has two parameters, symbol and symbol_2
+            int count = seen.merge(variable, 1, Integer::sum);
+            String parameterName = count == 1 ? variable : variable + "_" + count;
+            Parameter parameter;
+            if (matcher.group(3) != null) {
+                parameter = new Parameter(parameterName, variable, Kind.LITERAL,
+                        matcher.group(4) == null ? "" : matcher.group(4), NamedQuery.unescape(matcher.group(3)));
+            } else if (matcher.group(5) != null) {
+                parameter = new Parameter(parameterName, variable, Kind.IRI, "", matcher.group(5));
+            } else {
+                parameter = new Parameter(parameterName, variable, Kind.NUMBER, "", matcher.group(6));
+            }
+            fragments.add(text.substring(position, matcher.start(2)));
+            parameters.add(parameter);
+            position = matcher.end(2);
+        }
+        fragments.add(text.substring(position));
+        return new QueryTemplate(query.getName(), fragments.toArray(new String[0]),
+                parameters.toArray(new Parameter[0]), FILTER.matcher(text).replaceAll(""));
+    }
+
+    public static List<QueryTemplate> parseAll(List<NamedQuery> queries) {
+        List<QueryTemplate> templates = new ArrayList<>();
+        for (NamedQuery query : queries) {
+            templates.add(parse(query));
+        }
+        return templates;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getParameterNames() {
+        List<String> names = new ArrayList<>();
+        for (Parameter parameter : parameters) {
+            names.add(parameter.name);
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @return the constants of the original query, by parameter name
+     */
+    public Map<String, String> getDefaults() {
+        Map<String, String> defaults = new LinkedHashMap<>();
+        for (Parameter parameter : parameters) {
+            defaults.put(parameter.name, parameter.defaultValue);
+        }
+        return defaults;
+    }
+
+    /**
+     * @param values the values of the parameters, the defaults apply to the missing ones
+     * @return the query with the values in place of the FILTER constants
+     * @throws IllegalArgumentException for an unknown parameter, or a value that is not a
+     *     valid IRI or number where one is expected
+     */
+    public String bind(Map<String, String> values) {
+        for (String parameterName : values.keySet()) {
+            if (!getParameterNames().contains(parameterName)) {
+                throw new IllegalArgumentException("Template " + name + " has no parameter " + parameterName);
+            }
+        }
+        StringBuilder query = new StringBuilder(fragments[0]);
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter parameter = parameters[i];
+            String value = values.getOrDefault(parameter.name, parameter.defaultValue);
+            switch (parameter.kind) {
+                case LITERAL:
+                    query.append('"');
+                    escape(query, value);
+                    query.append('"').append(parameter.suffix);
+                    break;
+                case IRI:
+                    if (!value.matches("[^\\s<>\"{}|^`\\\\]*")) {
+                        throw new IllegalArgumentException("Not an IRI for " + parameter.name + ": " + value);
+                    }
+                    query.append('<').append(value).append('>');
+                    break;
+                default:
+                    if (!NUMBER.matcher(value).matches()) {
+                        throw new IllegalArgumentException("Not a number for " + parameter.name + ": " + value);
+                    }
+                    query.append(value);
+            }
+            query.append(fragments[i + 1]);
+        }
+        return query.toString();
+    }
+
+    /**
+     * The query without its FILTER constants, selecting the distinct values of the filtered
+     * variables, e.g. to call the template with values that have results. Any ORDER BY or
+     * LIMIT of the template is dropped.
+     *
+     * @return null for a template without parameters
+     */
+    String sampleQuery(int limit) {
+        if (parameters.length == 0) {
+            return null;
+        }
+        StringBuilder projection = new StringBuilder("SELECT DISTINCT");
+        for (String variable : getVariables()) {
+            projection.append(" ?").append(variable);
+        }
+        Matcher select = PROJECTION.matcher(unfiltered);
+        if (!select.find()) {
+            return null;
+        }
+        String body = unfiltered.substring(select.end());
+        body = body.substring(0, body.lastIndexOf('}') + 1);
+        return unfiltered.substring(0, select.start()) + projection + " " + body + "\nLIMIT " + limit;
+    }
+
+    /**
+     * @return the filtered variables, once each; the value of the variable symbol is that
+     *     of the parameters symbol, symbol_2...
+     */
+    List<String> getVariables() {
+        Set<String> variables = new LinkedHashSet<>();
+        for (Parameter parameter : parameters) {
+            variables.add(parameter.variable);
+        }
+        return new ArrayList<>(variables);
+    }
+
+    /**
+     * @return the parameter values for values of the filtered variables
+     */
+    Map<String, String> parametersFor(Map<String, String> variableValues) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Parameter parameter : parameters) {
+            String value = variableValues.get(parameter.variable);
+            if (value != null) {
+                values.put(parameter.name, value);
+            }
+        }
+        return values;
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + getParameterNames();
+    }
+}
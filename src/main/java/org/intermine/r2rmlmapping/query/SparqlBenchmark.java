@@ -0,0 +1,344 @@
+package org.intermine.r2rmlmapping.query;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.jena.riot.RDFDataMgr;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sparql.SPARQLRepository;
+import org.intermine.r2rmlmapping.federation.CachingEndpoints;
+import org.intermine.r2rmlmapping.jdbc.DatabaseConfig;
+import org.intermine.r2rmlmapping.jdbc.UniqueKeys;
+import org.intermine.r2rmlmapping.r2rml.MappingReader;
+
+/**
+ * Runs the queries of queries/ and templates.toml against an endpoint over the mine, e.g.
+ * ontop over a mine filled by {@link org.intermine.r2rmlmapping.SyntheticMine}, in the
+ * manner of the Berlin SPARQL Benchmark: a query mix runs every query once, in a random
+ * order, and a template is called with values drawn from those its unfiltered query finds
+ * in the mine, so that repeated calls do not all hit the same rows.
+ *
+ * After --warmup mixes on one client, each --concurrency level runs --runs mixes on every
+ * one of its clients. For each level the latency of every query is reported as exact p50,
+ * p95, p99 and maximum, with its rows and errors, and the throughput as query mixes per
+ * hour (QMpH), on stdout and as a TSV in --output.
+ *
+ * Queries with a SERVICE clause are skipped, they would measure the remote endpoint.
+ *
+ * Usage: SparqlBenchmark [--warmup=2] [--runs=10] [--concurrency=1,4,16] [--timeout=60]
+ *   [--samples=100] [--seed=42] [--output=benchmark.tsv] [--mapping=mapping.ttl --db=db.properties]
+ *   endpoint queries/ templates.toml...
+ *
+ * With --mapping, the queries {@link StarQueryCompiler} compiles run as SQL on the database
+ * of --db, as in {@link TemplateService}.
+ */
+public class SparqlBenchmark {
+
+    private static final Pattern SERVICE = Pattern.compile("\\bSERVICE\\b", Pattern.CASE_INSENSITIVE);
+
+    private final Repository repository;
+    private final List<QueryTemplate> queries;
+    private final int timeoutSeconds;
+    // sampled parameter values of each template with parameters
+    private final Map<String, List<Map<String, String>>> samples = new LinkedHashMap<>();
+
+    /**
+     * The latencies and rows of the runs of one query at one concurrency level.
+     */
+    static class QueryStats {
+        final String name;
+        final List<Long> nanos = new ArrayList<>();
+        long rows = 0;
+        int errors = 0;
+
+        QueryStats(String name) {
+            this.name = name;
+        }
+
+        synchronized void add(long elapsed, long rowCount) {
+            nanos.add(elapsed);
+            rows += rowCount;
+        }
+
+        synchronized void error() {
+            errors++;
+        }
+
+        /**
+         * @return the latency in ms that a share p of the runs did not exceed, nearest rank
+         */
+        synchronized double percentileMillis(double p) {
+            if (nanos.isEmpty()) {
+                return Double.NaN;
+            }
+            long[] sorted = nanos.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(p * sorted.length);
+            return sorted[Math.max(rank, 1) - 1] / 1e6;
+        }
+
+        synchronized double meanRows() {
+            return nanos.isEmpty() ? 0 : (double) rows / nanos.size();
+        }
+    }
+
+    public SparqlBenchmark(Repository repository, List<QueryTemplate> queries, int timeoutSeconds) {
+        this.repository = repository;
+        this.queries = queries;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int warmup = 2;
+        int runs = 10;
+        List<Integer> concurrency = Arrays.asList(1, 4, 16);
+        int timeout = 60;
+        int sampleSize = 100;
+        long seed = 42;
+        String output = "benchmark.tsv";
+        String mapping = null;
+        String db = null;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            } else if (arg.startsWith("--runs=")) {
+                runs = Integer.parseInt(arg.substring("--runs=".length()));
+            } else if (arg.startsWith("--concurrency=")) {
+                concurrency = new ArrayList<>();
+                for (String level : arg.substring("--concurrency=".length()).split(",")) {
+                    concurrency.add(Integer.parseInt(level.trim()));
+                }
+            } else if (arg.startsWith("--timeout=")) {
+                timeout = Integer.parseInt(arg.substring("--timeout=".length()));
+            } else if (arg.startsWith("--samples=")) {
+                sampleSize = Integer.parseInt(arg.substring("--samples=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--output=")) {
+                output = arg.substring("--output=".length());
+            } else if (arg.startsWith("--mapping=")) {
+                mapping = arg.substring("--mapping=".length());
+            } else if (arg.startsWith("--db=")) {
+                db = arg.substring("--db=".length());
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() < 2 || (mapping == null) != (db == null)) {
+            System.err.println("Usage: SparqlBenchmark [--warmup=mixes] [--runs=mixes] [--concurrency=1,4,16]"
+                    + " [--timeout=seconds] [--samples=100] [--seed=42] [--output=benchmark.tsv]"
+                    + " [--mapping=mapping.ttl --db=db.properties] endpoint queries/ templates.toml...");
+            System.exit(1);
+        }
+
+        List<NamedQuery> named = new ArrayList<>();
+        for (String source : positional.subList(1, positional.size())) {
+            named.addAll(load(new File(source)));
+        }
+        List<QueryTemplate> queries = new ArrayList<>();
+        for (NamedQuery query : named) {
+            if (SERVICE.matcher(query.getQuery()).find()) {
+                System.err.println("Skipping " + query.getName() + ", it has a SERVICE clause");
+            } else {
+                queries.add(QueryTemplate.parse(query));
+            }
+        }
+        if (queries.isEmpty()) {
+            System.err.println("No queries to run");
+            System.exit(1);
+        }
+
+        SPARQLRepository endpoint = new SPARQLRepository(positional.get(0));
+        CloseableHttpClient client = CachingEndpoints.pooledHttpClient(Collections.max(concurrency));
+        endpoint.setHttpClient(client);
+        Repository repository = endpoint;
+        if (mapping != null) {
+            DatabaseConfig config = DatabaseConfig.load(db);
+            repository = new DirectSqlRepository(repository,
+                    new StarQueryCompiler(MappingReader.read(RDFDataMgr.loadModel(mapping)),
+                            new UniqueKeys(config.getDataSource())),
+                    config.getDataSource(), config.getInt("direct.fetchSize", 1000),
+                    config.getInt("direct.connections", 8));
+        }
+        try {
+            SparqlBenchmark benchmark = new SparqlBenchmark(repository, queries, timeout);
+            benchmark.sample(sampleSize);
+            Random random = new Random(seed);
+            for (int mix = 0; mix < warmup; mix++) {
+                benchmark.runMix(new Random(random.nextLong()), null);
+            }
+            try (PrintWriter tsv = new PrintWriter(new FileWriter(output))) {
+                tsv.println("clients\tquery\truns\terrors\tmean rows\tp50 ms\tp95 ms\tp99 ms\tmax ms\tQMpH");
+                for (int clients : concurrency) {
+                    benchmark.runLevel(clients, runs, random.nextLong(), tsv);
+                }
+            }
+            if (repository instanceof DirectSqlRepository) {
+                System.err.println(repository);
+            }
+        } finally {
+            repository.shutDown();
+            client.close();
+        }
+    }
+
+    /**
+     * @return the queries of a file, or of the .rq files of a directory
+     */
+    static List<NamedQuery> load(File source) throws IOException {
+        if (!source.isDirectory()) {
+            return NamedQuery.load(source);
+        }
+        File[] files = source.listFiles((dir, name) -> name.endsWith(".rq"));
+        List<NamedQuery> queries = new ArrayList<>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                queries.addAll(NamedQuery.load(file));
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Finds up to size values of the parameters of every template. A template whose
+     * unfiltered query fails or finds nothing is called with its defaults.
+     */
+    void sample(int size) {
+        for (QueryTemplate query : queries) {
+            String sampleQuery = query.sampleQuery(size);
+            if (sampleQuery == null) {
+                continue;
+            }
+            List<Map<String, String>> values = new ArrayList<>();
+            try (RepositoryConnection connection = repository.getConnection()) {
+                TupleQuery tupleQuery = connection.prepareTupleQuery(QueryLanguage.SPARQL, sampleQuery);
+                tupleQuery.setMaxExecutionTime(timeoutSeconds);
+                try (TupleQueryResult result = tupleQuery.evaluate()) {
+                    List<String> variables = query.getVariables();
+                    while (result.hasNext()) {
+                        BindingSet bindings = result.next();
+                        Map<String, String> row = new LinkedHashMap<>();
+                        for (String variable : variables) {
+                            if (bindings.hasBinding(variable)) {
+                                row.put(variable, bindings.getValue(variable).stringValue());
+                            }
+                        }
+                        values.add(query.parametersFor(row));
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Failed to sample the parameters of " + query.getName() + ": " + e);
+            }
+            System.err.println(query.getName() + ": " + values.size() + " sampled values of "
+                    + query.getParameterNames());
+            if (!values.isEmpty()) {
+                samples.put(query.getName(), values);
+            }
+        }
+    }
+
+    /**
+     * Runs the mixes of clients clients at once and reports them on stdout and to tsv.
+     */
+    void runLevel(int clients, int runs, long seed, PrintWriter tsv) throws Exception {
+        Map<String, QueryStats> stats = new LinkedHashMap<>();
+        for (QueryTemplate query : queries) {
+            stats.put(query.getName(), new QueryStats(query.getName()));
+        }
+        Random seeds = new Random(seed);
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int client = 0; client < clients; client++) {
+                Random random = new Random(seeds.nextLong());
+                futures.add(executor.submit(() -> {
+                    for (int mix = 0; mix < runs; mix++) {
+                        runMix(random, stats);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double qmph = clients * runs * 3600 / seconds;
+
+        System.out.println(String.format(Locale.ROOT, "%d clients: %d query mixes in %.1f s, %.0f QMpH",
+                clients, clients * runs, seconds, qmph));
+        System.out.println(String.format(Locale.ROOT, "  %-40s %6s %6s %10s %10s %10s %10s %10s",
+                "query", "runs", "errors", "mean rows", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (QueryStats query : stats.values()) {
+            System.out.println(String.format(Locale.ROOT, "  %-40s %6d %6d %10.1f %10.1f %10.1f %10.1f %10.1f",
+                    query.name, query.nanos.size(), query.errors, query.meanRows(), query.percentileMillis(0.5),
+                    query.percentileMillis(0.95), query.percentileMillis(0.99), query.percentileMillis(1)));
+            tsv.println(String.format(Locale.ROOT, "%d\t%s\t%d\t%d\t%.1f\t%.3f\t%.3f\t%.3f\t%.3f\t%.0f",
+                    clients, query.name, query.nanos.size(), query.errors, query.meanRows(),
+                    query.percentileMillis(0.5), query.percentileMillis(0.95), query.percentileMillis(0.99),
+                    query.percentileMillis(1), qmph));
+        }
+        tsv.flush();
+    }
+
+    /**
+     * Runs every query once, in an order and with parameter values drawn from random.
+     *
+     * @param stats where to record the runs, by query name, null for a warm-up
+     */
+    void runMix(Random random, Map<String, QueryStats> stats) {
+        List<QueryTemplate> mix = new ArrayList<>(queries);
+        Collections.shuffle(mix, random);
+        for (QueryTemplate query : mix) {
+            List<Map<String, String>> values = samples.get(query.getName());
+            String text = query.bind(values == null
+                    ? Collections.emptyMap() : values.get(random.nextInt(values.size())));
+            QueryStats queryStats = stats == null ? null : stats.get(query.getName());
+            long start = System.nanoTime();
+            try (RepositoryConnection connection = repository.getConnection()) {
+                TupleQuery tupleQuery = connection.prepareTupleQuery(QueryLanguage.SPARQL, text);
+                tupleQuery.setMaxExecutionTime(timeoutSeconds);
+                long rows = 0;
+                try (TupleQueryResult result = tupleQuery.evaluate()) {
+                    while (result.hasNext()) {
+                        result.next();
+                        rows++;
+                    }
+                }
+                if (queryStats != null) {
+                    queryStats.add(System.nanoTime() - start, rows);
+                }
+            } catch (RuntimeException e) {
+                System.err.println(query.getName() + " failed: " + e);
+                if (queryStats != null) {
+                    queryStats.error();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.intermine.r2rmlmapping.query;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.vocabulary.XSD;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.impl.IteratingTupleQueryResult;
+import org.eclipse.rdf4j.query.impl.ListBindingSet;
+import org.intermine.r2rmlmapping.URITemplate;
+
+/**
+ * A SELECT query compiled by {@link StarQueryCompiler}: one prepared statement, its
+ * parameters, and how each variable is made from the columns of a row.
+ */
+public class SqlQuery {
+
+    private static final ValueFactory VALUES = SimpleValueFactory.getInstance();
+
+    /**
+     * A variable of the result, an IRI rendered from the columns of a template named
+     * prefix + column, or a literal read from the column named prefix.
+     */
+    static final class Output {
+        final URITemplate template;
+        final String prefix;
+        final String datatype;
+
+        Output(URITemplate template, String prefix, String datatype) {
+            this.template = template;
+            this.prefix = prefix;
+            this.datatype = datatype;
+        }
+    }
+
+    private final String sql;
+    private final List<Object> parameters;
+    private final List<String> bindingNames;
+    private final List<Output> outputs;
+
+    SqlQuery(String sql, List<Object> parameters, List<String> bindingNames, List<Output> outputs) {
+        this.sql = sql;
+        this.parameters = parameters;
+        this.bindingNames = bindingNames;
+        this.outputs = outputs;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    public List<String> getBindingNames() {
+        return bindingNames;
+    }
+
+    /**
+     * Runs the statement on connection. The result reads the rows as it is iterated, and
+     * closes the connection when it is closed.
+     * @param timeoutSeconds the query timeout, 0 for none
+     */
+    public TupleQueryResult evaluate(Connection connection, int fetchSize, int timeoutSeconds) throws SQLException {
+        PreparedStatement statement = null;
+        ResultSet rs;
+        try {
+            // needed for the PostgreSQL driver to honour the fetch size with a cursor
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            statement.setQueryTimeout(timeoutSeconds);
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+            rs = statement.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            close(connection, statement, null);
+            throw e;
+        }
+        return new IteratingTupleQueryResult(bindingNames, new Rows(connection, statement, rs));
+    }
+
+    private static void close(Connection connection, PreparedStatement statement, ResultSet rs) {
+        try {
+            try {
+                if (rs != null) {
+                    rs.close();
+                }
+                if (statement != null) {
+                    statement.close();
+                }
+                connection.rollback();
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new QueryEvaluationException(e);
+        }
+    }
+
+    private final class Rows extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final ResultSet rs;
+        private final int[][] templateColumns = new int[outputs.size()][];
+        private final int[] literalColumns = new int[outputs.size()];
+        private final StringBuilder iri = new StringBuilder();
+
+        Rows(Connection connection, PreparedStatement statement, ResultSet rs) throws SQLException {
+            this.connection = connection;
+            this.statement = statement;
+            this.rs = rs;
+            for (int i = 0; i < outputs.size(); i++) {
+                Output output = outputs.get(i);
+                if (output.template != null) {
+                    templateColumns[i] = output.template.findColumns(rs, output.prefix);
+                } else {
+                    literalColumns[i] = rs.findColumn(output.prefix);
+                }
+            }
+        }
+
+        @Override
+        protected BindingSet getNextElement() throws QueryEvaluationException {
+            try {
+                while (rs.next()) {
+                    List<Value> values = new ArrayList<>(outputs.size());
+                    for (int i = 0; i < outputs.size(); i++) {
+                        Value value = value(i);
+                        if (value == null) {
+                            break;
+                        }
+                        values.add(value);
+                    }
+                    // every variable is bound, a null column produces no term
+                    if (values.size() == outputs.size()) {
+                        return new ListBindingSet(bindingNames, values);
+                    }
+                }
+                return null;
+            } catch (SQLException e) {
+                throw new QueryEvaluationException(e);
+            }
+        }
+
+        private Value value(int i) throws SQLException {
+            Output output = outputs.get(i);
+            if (output.template != null) {
+                iri.setLength(0);
+                return output.template.render(iri, rs, templateColumns[i]) ? VALUES.createIRI(iri.toString()) : null;
+            }
+            // the canonical lexical forms of PartitionWriter
+            int column = literalColumns[i];
+            String lexical;
+            if (XSD.xboolean.getURI().equals(output.datatype)) {
+                boolean value = rs.getBoolean(column);
+                lexical = rs.wasNull() ? null : String.valueOf(value);
+            } else if (XSD.decimal.getURI().equals(output.datatype)) {
+                BigDecimal value = rs.getBigDecimal(column);
+                lexical = value == null ? null : value.toPlainString();
+            } else {
+                lexical = rs.getString(column);
+            }
+            if (lexical == null) {
+                return null;
+            }
+            if (XSD.xstring.getURI().equals(output.datatype)) {
+                return VALUES.createLiteral(lexical);
+            }
+            return VALUES.createLiteral(lexical, VALUES.createIRI(output.datatype));
+        }
+
+        @Override
+        protected void handleClose() throws QueryEvaluationException {
+            try {
+                super.handleClose();
+            } finally {
+                SqlQuery.close(connection, statement, rs);
+            }
+        }
+    }
+}
@@ -0,0 +1,659 @@
+package org.intermine.r2rmlmapping.query;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryException;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.Syntax;
+import org.apache.jena.shared.PrefixMapping;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.E_Equals;
+import org.apache.jena.sparql.expr.E_GreaterThan;
+import org.apache.jena.sparql.expr.E_GreaterThanOrEqual;
+import org.apache.jena.sparql.expr.E_LessThan;
+import org.apache.jena.sparql.expr.E_LessThanOrEqual;
+import org.apache.jena.sparql.expr.E_LogicalAnd;
+import org.apache.jena.sparql.expr.E_NotEquals;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprFunction2;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.sparql.syntax.ElementTriplesBlock;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.XSD;
+import org.intermine.r2rmlmapping.URITemplate;
+import org.intermine.r2rmlmapping.jdbc.SqlTags;
+import org.intermine.r2rmlmapping.jdbc.UniqueKeys;
+import org.intermine.r2rmlmapping.r2rml.PredicateObjectDefinition;
+import org.intermine.r2rmlmapping.r2rml.PredicateObjectDefinition.JoinCondition;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+
+/**
+ * Compiles the SELECT queries users send most, a star of triple patterns around one
+ * subject, or a few stars linked by references, into one SQL statement over the
+ * TriplesMaps of the mapping, with the constants as parameters.
+ *
+ * Each triple pattern has to be produced by exactly one TriplesMap, once the classes,
+ * predicates, templates and constants of the whole pattern are taken into account. The
+ * patterns of one subject that one TriplesMap produces read the same row of it only if
+ * the TriplesMap is keyed: a table whose subject template is made of its id, or of a
+ * column {@link UniqueKeys} found unique in the mine. InterMine does not enforce unique
+ * URI identifiers, and two rows with the same identifier are one subject with the values
+ * of both. Every other pattern reads a row of its own, and the solutions are made
+ * distinct over all variables, as SPARQL matches a set of triples rather than the rows
+ * behind them. FILTERs may compare a variable with a constant. Anything else, e.g.
+ * OPTIONAL, UNION, ORDER BY, property paths or a variable class, is not compiled, and is
+ * left to a general engine.
+ */
+public class StarQueryCompiler {
+
+    private static final String RDF_TYPE = RDF.type.getURI();
+    private static final String IRI = "iri ";
+    private static final String LITERAL = "literal ";
+    private static final Set<String> NUMERIC = new HashSet<>(Arrays.asList(XSD.integer.getURI(),
+            XSD.xint.getURI(), XSD.xlong.getURI(), XSD.decimal.getURI(), XSD.xdouble.getURI(), XSD.xfloat.getURI()));
+    private static final Set<String> INTEGER = new HashSet<>(Arrays.asList(XSD.integer.getURI(),
+            XSD.xint.getURI(), XSD.xlong.getURI()));
+
+    private final List<TriplesMapDefinition> triplesMaps;
+    private final Map<String, URITemplate> templates = new HashMap<>();
+    // the TriplesMaps with at most one row per subject
+    private final Set<String> keyed = new HashSet<>();
+
+    /**
+     * Only the TriplesMaps whose subjects are made of the id are keyed.
+     */
+    public StarQueryCompiler(List<TriplesMapDefinition> triplesMaps) {
+        this.triplesMaps = triplesMaps;
+        for (TriplesMapDefinition map : triplesMaps) {
+            List<String> columns = map.getSubjectTemplate().getColumns();
+            if (!map.isView() && columns.size() == 1 && columns.get(0).equalsIgnoreCase("id")) {
+                keyed.add(map.getName());
+            }
+        }
+        addTemplates();
+    }
+
+    /**
+     * @param keys checks the URI identifier columns of the TriplesMaps on tables
+     */
+    public StarQueryCompiler(List<TriplesMapDefinition> triplesMaps, UniqueKeys keys) throws SQLException {
+        this.triplesMaps = triplesMaps;
+        for (TriplesMapDefinition map : triplesMaps) {
+            List<String> columns = map.getSubjectTemplate().getColumns();
+            if (!map.isView() && columns.size() == 1 && keys.isUnique(map.getTableName(), columns.get(0))) {
+                keyed.add(map.getName());
+            }
+        }
+        addTemplates();
+    }
+
+    private void addTemplates() {
+        for (TriplesMapDefinition map : triplesMaps) {
+            templates.put(kind(map.getSubjectTemplate()), map.getSubjectTemplate());
+            for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+                if (pom.getTemplate() != null) {
+                    templates.put(kind(pom.getTemplate()), pom.getTemplate());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the kind of the IRIs template renders, the same for the subject of a table
+     *     and for the object of a many to many view that names its column differently
+     */
+    private static String kind(URITemplate template) {
+        return IRI + template.getShape();
+    }
+
+    /**
+     * @return the SQL for query, or null if it is not a query compiled here
+     */
+    public SqlQuery compile(String sparql) {
+        Query query = new Query();
+        // the templates of the endpoint use xsd: and rdfs: without declaring them
+        query.setPrefixMapping(PrefixMapping.Factory.create().setNsPrefixes(PrefixMapping.Standard));
+        try {
+            QueryFactory.parse(query, sparql, null, Syntax.syntaxSPARQL_11);
+            return new Compilation(query).compile();
+        } catch (QueryException | Unsupported e) {
+            return null;
+        }
+    }
+
+    /**
+     * Thrown for a query that is not compiled here.
+     */
+    private static final class Unsupported extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * A TriplesMap, and a predicate-object map of it, that could produce a triple pattern.
+     */
+    private static final class Candidate {
+        final TriplesMapDefinition map;
+        /** null for rdf:type */
+        final PredicateObjectDefinition pom;
+        final String subjectKind;
+        final String objectKind;
+
+        Candidate(TriplesMapDefinition map, PredicateObjectDefinition pom, String objectKind) {
+            this.map = map;
+            this.pom = pom;
+            this.subjectKind = kind(map.getSubjectTemplate());
+            this.objectKind = objectKind;
+        }
+    }
+
+    /**
+     * Where the value of a node comes from: the columns of a template, or a literal column,
+     * of one alias.
+     */
+    private static final class Occurrence {
+        final String alias;
+        final URITemplate template;
+        final String column;
+        final String datatype;
+
+        Occurrence(String alias, URITemplate template, String column, String datatype) {
+            this.alias = alias;
+            this.template = template;
+            this.column = column;
+            this.datatype = datatype;
+        }
+
+        List<String> columns() {
+            List<String> columns = new ArrayList<>();
+            if (template != null) {
+                for (String name : template.getColumns()) {
+                    columns.add(alias + "." + name);
+                }
+            } else {
+                columns.add(alias + "." + column);
+            }
+            return columns;
+        }
+    }
+
+    private final class Compilation {
+        private final Query query;
+        private final List<Triple> patterns = new ArrayList<>();
+        private final List<List<Candidate>> candidates = new ArrayList<>();
+        private final List<Expr> filters = new ArrayList<>();
+        // the kinds of term a variable can still be bound to, absent if any
+        private final Map<Node, Set<String>> kinds = new HashMap<>();
+        private final Map<Node, Map<String, String>> aliases = new HashMap<>();
+        private final List<String> from = new ArrayList<>();
+        private final Map<Node, List<Occurrence>> occurrences = new LinkedHashMap<>();
+        private final List<String> where = new ArrayList<>();
+        private final List<Object> parameters = new ArrayList<>();
+        // whether one solution can come from several combinations of rows
+        private boolean duplicates = false;
+
+        Compilation(Query query) {
+            this.query = query;
+        }
+
+        SqlQuery compile() throws Unsupported {
+            check(query.isSelectType() && !query.hasGroupBy() && !query.hasAggregators() && !query.hasHaving()
+                    && !query.hasOrderBy() && !query.hasValues() && !query.hasDatasetDescription()
+                    && query.getProject().getExprs().isEmpty());
+            check(query.getQueryPattern() instanceof ElementGroup);
+            for (Element element : ((ElementGroup) query.getQueryPattern()).getElements()) {
+                if (element instanceof ElementPathBlock) {
+                    for (TriplePath path : ((ElementPathBlock) element).getPattern()) {
+                        check(path.isTriple());
+                        patterns.add(path.asTriple());
+                    }
+                } else if (element instanceof ElementTriplesBlock) {
+                    patterns.addAll(((ElementTriplesBlock) element).getPattern().getList());
+                } else if (element instanceof ElementFilter) {
+                    filters.add(((ElementFilter) element).getExpr());
+                } else {
+                    throw new Unsupported();
+                }
+            }
+            check(!patterns.isEmpty());
+            for (Triple pattern : patterns) {
+                candidates.add(findCandidates(pattern));
+            }
+            narrowCandidates();
+            for (int i = 0; i < patterns.size(); i++) {
+                addPattern(patterns.get(i), candidates.get(i).get(0));
+            }
+            for (Map.Entry<Node, List<Occurrence>> node : occurrences.entrySet()) {
+                addNode(node.getKey(), node.getValue());
+            }
+            for (Expr filter : filters) {
+                addFilter(filter);
+            }
+            return select();
+        }
+
+        private List<Candidate> findCandidates(Triple pattern) throws Unsupported {
+            Node predicate = pattern.getPredicate();
+            check(predicate.isURI() && !pattern.getSubject().isLiteral());
+            List<Candidate> found = new ArrayList<>();
+            if (predicate.getURI().equals(RDF_TYPE)) {
+                check(pattern.getObject().isURI());
+                Set<String> tableKinds = new HashSet<>();
+                for (TriplesMapDefinition map : triplesMaps) {
+                    if (map.getClasses().contains(pattern.getObject().getURI())) {
+                        found.add(new Candidate(map, null, null));
+                        if (!map.isView()) {
+                            tableKinds.add(kind(map.getSubjectTemplate()));
+                        }
+                    }
+                }
+                // the view of a many to many collection has the class of its table, and
+                // the same subjects, which the table gives once each
+                found.removeIf(c -> c.map.isView() && tableKinds.contains(c.subjectKind));
+                return found;
+            }
+            for (TriplesMapDefinition map : triplesMaps) {
+                for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+                    if (!pom.getPredicate().equals(predicate.getURI())) {
+                        continue;
+                    }
+                    String objectKind;
+                    if (pom.isReferencing()) {
+                        objectKind = kind(pom.getParent().getSubjectTemplate());
+                    } else if (pom.getTemplate() != null) {
+                        objectKind = kind(pom.getTemplate());
+                    } else {
+                        objectKind = LITERAL + datatype(pom.getDatatype());
+                    }
+                    found.add(new Candidate(map, pom, objectKind));
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Drops the candidates that disagree with the others about the kind of a node, until
+         * nothing changes. Each pattern must then be left with exactly one candidate.
+         */
+        private void narrowCandidates() throws Unsupported {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int i = 0; i < patterns.size(); i++) {
+                    Triple pattern = patterns.get(i);
+                    List<Candidate> list = candidates.get(i);
+                    int before = list.size();
+                    list.removeIf(c -> !allows(pattern.getSubject(), c.subjectKind)
+                            || (c.objectKind != null && !allows(pattern.getObject(), c.objectKind)));
+                    // no row produces the pattern, the general engine answers that as well
+                    check(!list.isEmpty());
+                    changed |= list.size() != before;
+                    Set<String> subjectKinds = new HashSet<>();
+                    Set<String> objectKinds = new HashSet<>();
+                    for (Candidate candidate : list) {
+                        subjectKinds.add(candidate.subjectKind);
+                        objectKinds.add(candidate.objectKind);
+                    }
+                    changed |= restrict(pattern.getSubject(), subjectKinds);
+                    if (!objectKinds.contains(null)) {
+                        changed |= restrict(pattern.getObject(), objectKinds);
+                    }
+                }
+            }
+            for (List<Candidate> list : candidates) {
+                // more than one would need a UNION
+                check(list.size() == 1);
+            }
+        }
+
+        private boolean allows(Node node, String kind) {
+            if (node.isVariable()) {
+                Set<String> allowed = kinds.get(node);
+                return allowed == null || allowed.contains(kind);
+            }
+            if (node.isURI()) {
+                URITemplate template = templates.get(kind);
+                return template != null && template.match(node.getURI()) != null;
+            }
+            return node.isLiteral() && node.getLiteralLanguage().isEmpty()
+                    && kind.equals(LITERAL + datatype(node.getLiteralDatatypeURI()));
+        }
+
+        private boolean restrict(Node node, Set<String> allowed) {
+            if (!node.isVariable()) {
+                return false;
+            }
+            Set<String> current = kinds.get(node);
+            if (current == null) {
+                kinds.put(node, new HashSet<>(allowed));
+                return true;
+            }
+            return current.retainAll(allowed);
+        }
+
+        /**
+         * @return the alias of the row of map that node is the subject of: one per node for
+         *     a keyed TriplesMap, a new one on every call for the others
+         */
+        private String alias(Node node, TriplesMapDefinition map) {
+            Map<String, String> byMap = aliases.computeIfAbsent(node, n -> new HashMap<>());
+            String alias = keyed.contains(map.getName()) ? byMap.get(map.getName()) : null;
+            if (alias == null) {
+                alias = newAlias(map);
+                byMap.put(map.getName(), alias);
+                duplicates |= !keyed.contains(map.getName());
+            }
+            return alias;
+        }
+
+        private String newAlias(TriplesMapDefinition map) {
+            String alias = "t" + from.size();
+            from.add(map.getLogicalTableSql() + " " + alias);
+            return alias;
+        }
+
+        private void addOccurrence(Node node, Occurrence occurrence) {
+            occurrences.computeIfAbsent(node, n -> new ArrayList<>()).add(occurrence);
+        }
+
+        private void addPattern(Triple pattern, Candidate candidate) {
+            String alias = alias(pattern.getSubject(), candidate.map);
+            addOccurrence(pattern.getSubject(), new Occurrence(alias, candidate.map.getSubjectTemplate(), null, null));
+            PredicateObjectDefinition pom = candidate.pom;
+            if (pom == null) {
+                return;
+            }
+            if (pom.isReferencing()) {
+                TriplesMapDefinition parent = pom.getParent();
+                boolean byId = true;
+                for (JoinCondition join : pom.getJoinConditions()) {
+                    byId &= join.getParent().equalsIgnoreCase("id");
+                }
+                // a join on the parent's id reads one row, whether or not the parent is keyed
+                String parentAlias = byId && !keyed.contains(parent.getName())
+                        ? newAlias(parent) : alias(pattern.getObject(), parent);
+                duplicates |= !byId;
+                for (JoinCondition join : pom.getJoinConditions()) {
+                    where.add(alias + "." + join.getChild() + " = " + parentAlias + "." + join.getParent());
+                }
+                addOccurrence(pattern.getObject(), new Occurrence(parentAlias, parent.getSubjectTemplate(), null, null));
+            } else if (pom.getTemplate() != null) {
+                addOccurrence(pattern.getObject(), new Occurrence(alias, pom.getTemplate(), null, null));
+            } else {
+                addOccurrence(pattern.getObject(), new Occurrence(alias, null, pom.getColumn(),
+                        datatype(pom.getDatatype())));
+            }
+        }
+
+        /**
+         * Joins every occurrence of a node to its first, and binds the first to the node if it
+         * is a constant. A variable must not be null, no term is made of a null.
+         */
+        private void addNode(Node node, List<Occurrence> list) throws Unsupported {
+            Occurrence first = list.get(0);
+            List<String> firstColumns = first.columns();
+            for (Occurrence other : list.subList(1, list.size())) {
+                List<String> otherColumns = other.columns();
+                for (int i = 0; i < firstColumns.size(); i++) {
+                    if (!firstColumns.get(i).equals(otherColumns.get(i))) {
+                        where.add(firstColumns.get(i) + " = " + otherColumns.get(i));
+                    }
+                }
+            }
+            if (node.isVariable()) {
+                for (String column : firstColumns) {
+                    where.add(column + " IS NOT NULL");
+                }
+            } else if (node.isURI()) {
+                bindIri(first, node.getURI(), "=");
+            } else {
+                String lexical = node.getLiteralLexicalForm();
+                Object value = parameter(lexical, first.datatype);
+                // a term of the mapping has the canonical form of its datatype, see PartitionWriter
+                check(!(value instanceof BigDecimal) && !(value instanceof Double) && String.valueOf(value).equals(lexical));
+                where.add(firstColumns.get(0) + " = ?");
+                parameters.add(value);
+            }
+        }
+
+        private void bindIri(Occurrence occurrence, String iri, String operator) throws Unsupported {
+            String[] values = occurrence.template.match(iri);
+            check(values != null);
+            List<String> columns = occurrence.columns();
+            List<String> conditions = new ArrayList<>();
+            for (int i = 0; i < values.length; i++) {
+                String datatype = columnDatatype(occurrence.template, i);
+                Object value = parameter(values[i], datatype);
+                check(String.valueOf(value).equals(values[i]));
+                conditions.add(columns.get(i) + " " + operator + " ?");
+                parameters.add(value);
+            }
+            if (operator.equals("=")) {
+                where.addAll(conditions);
+            } else {
+                where.add("(" + String.join(" OR ", conditions) + ")");
+            }
+        }
+
+        private void addFilter(Expr expr) throws Unsupported {
+            if (expr instanceof E_LogicalAnd) {
+                addFilter(((E_LogicalAnd) expr).getArg1());
+                addFilter(((E_LogicalAnd) expr).getArg2());
+                return;
+            }
+            check(expr instanceof ExprFunction2);
+            ExprFunction2 comparison = (ExprFunction2) expr;
+            String operator = operator(comparison);
+            Expr left = comparison.getArg1();
+            Expr right = comparison.getArg2();
+            if (left.isConstant() && right.isVariable()) {
+                operator = flip(operator);
+                Expr swap = left;
+                left = right;
+                right = swap;
+            }
+            check(left.isVariable() && right.isConstant());
+            List<Occurrence> list = occurrences.get(left.asVar());
+            check(list != null);
+            Occurrence occurrence = list.get(0);
+            NodeValue constant = right.getConstant();
+            if (occurrence.template != null) {
+                check(constant.isIRI() && (operator.equals("=") || operator.equals("<>")));
+                bindIri(occurrence, constant.asNode().getURI(), operator);
+                return;
+            }
+            Object value;
+            if (NUMERIC.contains(occurrence.datatype)) {
+                check(constant.isNumber());
+                if (INTEGER.contains(occurrence.datatype) && constant.isInteger()) {
+                    BigInteger integer = constant.getInteger();
+                    check(integer.bitLength() < 64);
+                    value = integer.longValue();
+                } else if (constant.isDecimal() || constant.isInteger()) {
+                    value = constant.getDecimal();
+                } else {
+                    value = constant.getDouble();
+                }
+            } else if (XSD.xstring.getURI().equals(occurrence.datatype)) {
+                // SQL orders strings by collation, SPARQL by code point
+                check(constant.isString() && (operator.equals("=") || operator.equals("<>")));
+                value = constant.getString();
+            } else if (XSD.xboolean.getURI().equals(occurrence.datatype)) {
+                check(constant.isBoolean() && (operator.equals("=") || operator.equals("<>")));
+                value = constant.getBoolean();
+            } else {
+                throw new Unsupported();
+            }
+            where.add(occurrence.columns().get(0) + " " + operator + " ?");
+            parameters.add(value);
+        }
+
+        private SqlQuery select() throws Unsupported {
+            List<String> select = new ArrayList<>();
+            List<String> bindingNames = new ArrayList<>();
+            List<SqlQuery.Output> outputs = new ArrayList<>();
+            List<Var> projected = query.getProjectVars();
+            // with duplicates, an inner SELECT DISTINCT of every variable finds the solutions
+            boolean solutions = duplicates && !query.isDistinct();
+            List<String> labels = new ArrayList<>();
+            for (int i = 0; i < projected.size(); i++) {
+                List<Occurrence> list = occurrences.get(projected.get(i));
+                check(list != null);
+                Occurrence occurrence = list.get(0);
+                String label = "v" + i;
+                if (occurrence.template != null) {
+                    for (String column : occurrence.template.getColumns()) {
+                        select.add(occurrence.alias + "." + column + " AS " + label + "_" + column);
+                        labels.add(label + "_" + column);
+                    }
+                    outputs.add(new SqlQuery.Output(occurrence.template, label + "_", null));
+                } else {
+                    select.add(occurrence.alias + "." + occurrence.column + " AS " + label);
+                    labels.add(label);
+                    outputs.add(new SqlQuery.Output(null, label, occurrence.datatype));
+                }
+                bindingNames.add(projected.get(i).getVarName());
+            }
+            check(!select.isEmpty());
+            if (solutions) {
+                int hidden = 0;
+                for (Map.Entry<Node, List<Occurrence>> node : occurrences.entrySet()) {
+                    if (node.getKey().isVariable() && !projected.contains(node.getKey())) {
+                        List<String> columns = node.getValue().get(0).columns();
+                        for (int i = 0; i < columns.size(); i++) {
+                            select.add(columns.get(i) + " AS w" + hidden + "_" + i);
+                        }
+                        hidden++;
+                    }
+                }
+            }
+            StringBuilder sql = new StringBuilder("SELECT ");
+            if (query.isDistinct() || solutions) {
+                sql.append("DISTINCT ");
+            }
+            sql.append(String.join(", ", select))
+                    .append(" FROM ").append(String.join(", ", from));
+            if (!where.isEmpty()) {
+                sql.append(" WHERE ").append(String.join(" AND ", where));
+            }
+            if (solutions) {
+                sql.insert(0, "SELECT " + String.join(", ", labels) + " FROM (").append(") s");
+            }
+            if (query.hasLimit()) {
+                sql.append(" LIMIT ").append(query.getLimit());
+            }
+            if (query.hasOffset()) {
+                sql.append(" OFFSET ").append(query.getOffset());
+            }
+            String tag = "direct " + candidates.get(0).get(0).map.getName();
+            return new SqlQuery(SqlTags.tag(tag, sql.toString()), parameters, bindingNames, outputs);
+        }
+    }
+
+    private static void check(boolean supported) throws Unsupported {
+        if (!supported) {
+            throw new Unsupported();
+        }
+    }
+
+    /**
+     * @return the datatype of a literal of the mapping, where none means xsd:string
+     */
+    private static String datatype(String datatype) {
+        return datatype == null ? XSD.xstring.getURI() : datatype;
+    }
+
+    /**
+     * @return the datatype of the index-th column of a template, from a TriplesMap whose
+     *     subject has the same shape and that also maps its column to a literal, or xsd:string
+     */
+    private String columnDatatype(URITemplate template, int index) {
+        for (TriplesMapDefinition map : triplesMaps) {
+            if (!map.getSubjectTemplate().getShape().equals(template.getShape())) {
+                continue;
+            }
+            String column = map.getSubjectTemplate().getColumns().get(index);
+            for (PredicateObjectDefinition pom : map.getPredicateObjectMaps()) {
+                if (column.equalsIgnoreCase(pom.getColumn())) {
+                    return datatype(pom.getDatatype());
+                }
+            }
+        }
+        return XSD.xstring.getURI();
+    }
+
+    /**
+     * @return lexical as the java value of a JDBC parameter for a column of datatype
+     */
+    private static Object parameter(String lexical, String datatype) throws Unsupported {
+        try {
+            if (INTEGER.contains(datatype)) {
+                return Long.valueOf(lexical);
+            } else if (XSD.decimal.getURI().equals(datatype)) {
+                return new BigDecimal(lexical);
+            } else if (NUMERIC.contains(datatype)) {
+                return Double.valueOf(lexical);
+            } else if (XSD.xboolean.getURI().equals(datatype)) {
+                check(lexical.equals("true") || lexical.equals("false"));
+                return Boolean.valueOf(lexical);
+            }
+            return lexical;
+        } catch (NumberFormatException e) {
+            throw new Unsupported();
+        }
+    }
+
+    private static String operator(ExprFunction2 comparison) throws Unsupported {
+        if (comparison instanceof E_Equals) {
+            return "=";
+        } else if (comparison instanceof E_NotEquals) {
+            return "<>";
+        } else if (comparison instanceof E_LessThan) {
+            return "<";
+        } else if (comparison instanceof E_LessThanOrEqual) {
+            return "<=";
+        } else if (comparison instanceof E_GreaterThan) {
+            return ">";
+        } else if (comparison instanceof E_GreaterThanOrEqual) {
+            return ">=";
+        }
+        throw new Unsupported();
+    }
+
+    private static String flip(String operator) {
+        switch (operator) {
+            case "<":
+                return ">";
+            case "<=":
+                return ">=";
+            case ">":
+                return "<";
+            case ">=":
+                return "<=";
+            default:
+                return operator;
+        }
+    }
+}
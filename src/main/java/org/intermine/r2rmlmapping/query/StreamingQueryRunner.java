@@ -0,0 +1,165 @@
+package org.intermine.r2rmlmapping.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.resultio.QueryResultIO;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriter;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+/**
+ * Runs SELECT queries and streams their results to an RDF4J result writer.
+ *
+ * The query is evaluated on its own thread, which hands rows to the writer through a
+ * bounded queue. A slow consumer therefore stops the evaluation from pulling further
+ * rows instead of letting them pile up in memory, and a fast one never waits for more
+ * than the query itself.
+ */
+public class StreamingQueryRunner {
+
+    private static final Object END = new Object();
+
+    private final Repository repository;
+    private final TupleQueryResultFormat format;
+    private final int bufferSize;
+    private final ExecutorService evaluator = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "query-evaluator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param bufferSize the number of rows that may wait for the writer
+     */
+    public StreamingQueryRunner(Repository repository, TupleQueryResultFormat format, int bufferSize) {
+        this.repository = repository;
+        this.format = format;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param name tsv, csv, json or binary
+     */
+    public static TupleQueryResultFormat formatForName(String name) {
+        switch (name) {
+            case "tsv":
+                return TupleQueryResultFormat.TSV;
+            case "csv":
+                return TupleQueryResultFormat.CSV;
+            case "json":
+                return TupleQueryResultFormat.JSON;
+            case "binary":
+                return TupleQueryResultFormat.BINARY;
+            default:
+                throw new IllegalArgumentException("Unknown result format: " + name);
+        }
+    }
+
+    public TupleQueryResultFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Writes the results of query to out, which is flushed but not closed.
+     */
+    public QueryMetrics run(NamedQuery query, OutputStream out) throws InterruptedException {
+        List<MemoryPoolMXBean> heapPools = heapPools();
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+        BlockingQueue<Object> rows = new ArrayBlockingQueue<>(bufferSize);
+        long start = System.nanoTime();
+        Future<?> evaluation = evaluator.submit(() -> {
+            evaluate(query, rows);
+            return null;
+        });
+
+        long count = 0;
+        long firstRow = -1;
+        boolean finished = false;
+        try {
+            TupleQueryResultWriter writer = QueryResultIO.createTupleWriter(format, out);
+            Object next = rows.take();
+            while (next != END) {
+                if (next instanceof Throwable) {
+                    throw new QueryEvaluationException("Query " + query.getName() + " failed", (Throwable) next);
+                }
+                if (next instanceof List) {
+                    @SuppressWarnings("unchecked")
+                    List<String> bindingNames = (List<String>) next;
+                    writer.startQueryResult(bindingNames);
+                } else {
+                    if (firstRow < 0) {
+                        firstRow = System.nanoTime() - start;
+                    }
+                    writer.handleSolution((BindingSet) next);
+                    count++;
+                }
+                next = rows.take();
+            }
+            writer.endQueryResult();
+            out.flush();
+            finished = true;
+        } catch (IOException e) {
+            throw new QueryEvaluationException(e);
+        } finally {
+            if (!finished) {
+                // stops an evaluation that is blocked on a consumer which gave up
+                evaluation.cancel(true);
+            }
+        }
+        try {
+            // the evaluation has sent everything, wait for it to close the connection
+            evaluation.get();
+        } catch (ExecutionException e) {
+            throw new QueryEvaluationException(e.getCause());
+        }
+        long total = System.nanoTime() - start;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        return new QueryMetrics(query.getName(), count, firstRow, total, peak);
+    }
+
+    private void evaluate(NamedQuery query, BlockingQueue<Object> rows) throws InterruptedException {
+        try (RepositoryConnection connection = repository.getConnection();
+                TupleQueryResult result = connection.prepareTupleQuery(QueryLanguage.SPARQL, query.getQuery())
+                        .evaluate()) {
+            rows.put(result.getBindingNames());
+            while (result.hasNext()) {
+                rows.put(result.next());
+            }
+            rows.put(END);
+        } catch (RuntimeException | Error e) {
+            rows.put(e);
+        }
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>(ManagementFactory.getMemoryPoolMXBeans());
+        pools.removeIf(pool -> pool.getType() != MemoryType.HEAP);
+        return pools;
+    }
+
+    public void shutDown() {
+        evaluator.shutdownNow();
+    }
+}
@@ -0,0 +1,430 @@
+package org.intermine.r2rmlmapping.query;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.jena.riot.RDFDataMgr;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.resultio.QueryResultIO;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sparql.SPARQLRepository;
+import org.intermine.r2rmlmapping.federation.QueryKey;
+import org.intermine.r2rmlmapping.federation.ResultCache;
+import org.intermine.r2rmlmapping.jdbc.DatabaseConfig;
+import org.intermine.r2rmlmapping.jdbc.UniqueKeys;
+import org.intermine.r2rmlmapping.r2rml.MappingReader;
+
+/**
+ * Answers calls of the templates of templates.toml from a {@link ResultCache}, keyed by
+ * the template and its parameter values, see {@link QueryTemplate}.
+ *
+ * The cache holds serialized results, so a hit in memory costs a hash lookup and no SPARQL
+ * or SQL at all. It is emptied when the {@link MineVersion} changes, which is checked at
+ * most once per check interval. Every call is counted, and the most popular calls of
+ * earlier runs, kept in a popularity file, are evaluated again by {@link #warm(File, int)}
+ * before the first user asks for them. Only the counts of the popularity limit most popular
+ * calls are kept: when twice as many calls are counted, the others are dropped and the
+ * counts kept are halved, so that calls popular long ago make way for those popular now.
+ *
+ * Usage: TemplateService [--format=tsv|csv|json|binary] [--warm=calls] [--mapping=mapping.ttl]
+ *   templates.toml db.properties endpoint [template name [parameter=value...]]
+ *
+ * With a mapping, the templates {@link StarQueryCompiler} compiles are answered with SQL
+ * on the mine directly, and only the others by the endpoint.
+ *
+ * Without a template name, the templates and their parameters are listed.
+ */
+public class TemplateService {
+
+    static final String VERSION_KEY = "mine-version";
+    static final int DEFAULT_POPULARITY_LIMIT = 10000;
+
+    private final Repository repository;
+    private final Map<String, QueryTemplate> templates = new LinkedHashMap<>();
+    // part of the cache keys of a template, changes with the template's text
+    private final Map<String, String> templateKeys = new LinkedHashMap<>();
+    private final ResultCache cache;
+    private final TupleQueryResultFormat format;
+    private final Callable<String> versionSource;
+    private final long versionCheckMillis;
+    private volatile String version;
+    private volatile long lastVersionCheck;
+    private final ConcurrentMap<Call, LongAdder> popularity = new ConcurrentHashMap<>();
+    private final int popularityLimit;
+
+    /**
+     * A template and the values of all its parameters, defaults included.
+     */
+    private static final class Call {
+        final String template;
+        final Map<String, String> values;
+
+        Call(String template, Map<String, String> values) {
+            this.template = template;
+            this.values = new TreeMap<>(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Call && template.equals(((Call) o).template) && values.equals(((Call) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return template.hashCode() * 31 + values.hashCode();
+        }
+    }
+
+    /**
+     * @param format the format results are cached and returned in
+     * @param versionSource reads the mine's version, e.g. with {@link MineVersion#read}
+     * @param versionCheckMillis how long a version read is trusted
+     */
+    public TemplateService(Repository repository, List<QueryTemplate> templates, ResultCache cache,
+            TupleQueryResultFormat format, Callable<String> versionSource, long versionCheckMillis) {
+        this(repository, templates, cache, format, versionSource, versionCheckMillis, DEFAULT_POPULARITY_LIMIT);
+    }
+
+    /**
+     * @param popularityLimit the number of calls whose counts are kept and saved
+     */
+    public TemplateService(Repository repository, List<QueryTemplate> templates, ResultCache cache,
+            TupleQueryResultFormat format, Callable<String> versionSource, long versionCheckMillis,
+            int popularityLimit) {
+        if (popularityLimit < 1) {
+            throw new IllegalArgumentException("Popularity limit must be positive: " + popularityLimit);
+        }
+        this.popularityLimit = popularityLimit;
+        this.repository = repository;
+        for (QueryTemplate template : templates) {
+            this.templates.put(template.getName(), template);
+            this.templateKeys.put(template.getName(),
+                    QueryKey.of(template.bind(template.getDefaults()), null, null, null, false));
+        }
+        this.cache = cache;
+        this.format = format;
+        this.versionSource = versionSource;
+        this.versionCheckMillis = versionCheckMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String format = "tsv";
+        int warm = 100;
+        String mapping = null;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--format=")) {
+                format = arg.substring("--format=".length());
+            } else if (arg.startsWith("--warm=")) {
+                warm = Integer.parseInt(arg.substring("--warm=".length()));
+            } else if (arg.startsWith("--mapping=")) {
+                mapping = arg.substring("--mapping=".length());
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() < 3) {
+            System.err.println("Usage: TemplateService [--format=tsv|csv|json|binary] [--warm=calls]"
+                    + " [--mapping=mapping.ttl] templates.toml"
+                    + " db.properties endpoint [template name [parameter=value...]]");
+            System.exit(1);
+        }
+        List<QueryTemplate> templates = QueryTemplate.parseAll(NamedQuery.load(new File(positional.get(0))));
+        if (positional.size() == 3) {
+            for (QueryTemplate template : templates) {
+                System.out.println(template.getName() + "\t" + template.getDefaults());
+            }
+            return;
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String value : positional.subList(4, positional.size())) {
+            int equals = value.indexOf('=');
+            if (equals < 0) {
+                System.err.println("Expected parameter=value: " + value);
+                System.exit(1);
+            }
+            values.put(value.substring(0, equals), value.substring(equals + 1));
+        }
+
+        DatabaseConfig config = DatabaseConfig.load(positional.get(1));
+        // the version, not a time to live, decides when results are stale
+        ResultCache cache = new ResultCache(64L * 1024 * 1024, new File("template-cache"), 0);
+        File popularityFile = new File("template-popularity.tsv");
+        Repository repository = new SPARQLRepository(positional.get(2));
+        if (mapping != null) {
+            repository = new DirectSqlRepository(repository,
+                    new StarQueryCompiler(MappingReader.read(RDFDataMgr.loadModel(mapping)),
+                            new UniqueKeys(config.getDataSource())),
+                    config.getDataSource(), config.getInt("direct.fetchSize", 1000),
+                    config.getInt("direct.connections", 8));
+        }
+        TemplateService service = new TemplateService(repository, templates, cache,
+                StreamingQueryRunner.formatForName(format), () -> MineVersion.read(config.getDataSource()),
+                TimeUnit.MINUTES.toMillis(1));
+        try {
+            service.warm(popularityFile, warm);
+            long start = System.nanoTime();
+            byte[] results = service.getResults(positional.get(3), values);
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            System.out.write(results);
+            System.out.flush();
+            System.err.println(positional.get(3) + " " + values + " answered in " + micros + " us, cache: " + cache);
+            service.savePopularity(popularityFile);
+        } finally {
+            repository.shutDown();
+        }
+    }
+
+    public TupleQueryResultFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the results of the template for values, serialized in {@link #getFormat()}
+     * @throws IllegalArgumentException for an unknown template or invalid values
+     */
+    public byte[] getResults(String templateName, Map<String, String> values) {
+        Call call = call(templateName, values);
+        byte[] results = results(call);
+        popularity.computeIfAbsent(call, c -> new LongAdder()).increment();
+        if (popularity.size() > 2 * popularityLimit) {
+            prunePopularity();
+        }
+        return results;
+    }
+
+    /**
+     * {@link #getResults(String, Map)}, parsed.
+     */
+    public TupleQueryResult evaluate(String templateName, Map<String, String> values) {
+        try {
+            return QueryResultIO.parseTuple(new ByteArrayInputStream(getResults(templateName, values)), format);
+        } catch (IOException e) {
+            throw new QueryEvaluationException(e);
+        }
+    }
+
+    private Call call(String templateName, Map<String, String> values) {
+        QueryTemplate template = templates.get(templateName);
+        if (template == null) {
+            throw new IllegalArgumentException("No template named " + templateName);
+        }
+        Map<String, String> all = template.getDefaults();
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            if (!all.containsKey(value.getKey())) {
+                throw new IllegalArgumentException("Template " + templateName + " has no parameter " + value.getKey());
+            }
+            all.put(value.getKey(), value.getValue());
+        }
+        return new Call(templateName, all);
+    }
+
+    private byte[] results(Call call) {
+        // keyed by the values rather than by the whole query, which would be bound,
+        // normalized and hashed on every call
+        StringBuilder keyText = new StringBuilder(checkVersion()).append('\n').append(format.getName())
+                .append('\n').append(templateKeys.get(call.template));
+        for (Map.Entry<String, String> value : call.values.entrySet()) {
+            keyText.append('\n').append(value.getKey()).append('=')
+                    .append(value.getValue().replace("\\", "\\\\").replace("\n", "\\n"));
+        }
+        String key = QueryKey.sha256(keyText.toString());
+        byte[] results = cache.get(key);
+        if (results == null) {
+            String query = templates.get(call.template).bind(call.values);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (RepositoryConnection connection = repository.getConnection();
+                    TupleQueryResult result = connection.prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate()) {
+                QueryResultIO.writeTuple(result, format, out);
+            } catch (IOException e) {
+                throw new QueryEvaluationException(e);
+            }
+            results = out.toByteArray();
+            cache.put(key, results);
+        }
+        return results;
+    }
+
+    /**
+     * Empties the cache if the mine's version is not the one its results were computed
+     * under. The version is also part of the keys, so that a query that was running
+     * across a change does not put its stale results back.
+     */
+    private String checkVersion() {
+        long now = System.currentTimeMillis();
+        if (version != null && now - lastVersionCheck < versionCheckMillis) {
+            return version;
+        }
+        synchronized (this) {
+            if (version == null || now - lastVersionCheck >= versionCheckMillis) {
+                String current;
+                try {
+                    current = versionSource.call();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Cannot read the version of the mine", e);
+                }
+                // the disk level of the cache outlives the process, so it keeps its version too
+                byte[] cached = cache.get(VERSION_KEY);
+                if (cached == null || !current.equals(new String(cached, StandardCharsets.UTF_8))) {
+                    cache.invalidateAll();
+                    cache.put(VERSION_KEY, current.getBytes(StandardCharsets.UTF_8));
+                }
+                version = current;
+                lastVersionCheck = now;
+            }
+            return version;
+        }
+    }
+
+    /**
+     * Adds the counts of file to those of this service, then evaluates the most popular
+     * calls that are not cached yet. Calls of templates that no longer exist, or whose
+     * parameters changed, are dropped.
+     * @return the number of calls evaluated or found in the cache
+     */
+    public int warm(File file, int limit) throws IOException {
+        if (file.exists()) {
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (fields.length < 2 || !fields[0].matches("\\d+")) {
+                        continue;
+                    }
+                    Map<String, String> values = new TreeMap<>();
+                    for (int i = 2; i < fields.length; i++) {
+                        int equals = fields[i].indexOf('=');
+                        if (equals > 0) {
+                            values.put(decode(fields[i].substring(0, equals)), decode(fields[i].substring(equals + 1)));
+                        }
+                    }
+                    Call call = new Call(decode(fields[1]), values);
+                    QueryTemplate template = templates.get(call.template);
+                    if (template != null && template.getDefaults().keySet().equals(values.keySet())) {
+                        popularity.computeIfAbsent(call, c -> new LongAdder()).add(Long.parseLong(fields[0]));
+                    }
+                }
+            }
+            if (popularity.size() > popularityLimit) {
+                prunePopularity();
+            }
+        }
+        int warmed = 0;
+        for (Map.Entry<Call, Long> entry : mostPopular(limit).entrySet()) {
+            try {
+                results(entry.getKey());
+                warmed++;
+            } catch (RuntimeException e) {
+                System.err.println("Cannot warm " + entry.getKey().template + " " + entry.getKey().values + ": " + e);
+            }
+        }
+        return warmed;
+    }
+
+    /**
+     * Writes the counts of the popularity limit most popular calls to file, most popular
+     * first, for {@link #warm(File, int)}.
+     */
+    public void savePopularity(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            out.println("# calls\ttemplate\tparameter=value...");
+            for (Map.Entry<Call, Long> entry : mostPopular(popularityLimit).entrySet()) {
+                out.print(entry.getValue());
+                out.print('\t');
+                out.print(encode(entry.getKey().template));
+                for (Map.Entry<String, String> value : entry.getKey().values.entrySet()) {
+                    out.print('\t');
+                    out.print(encode(value.getKey()) + "=" + encode(value.getValue()));
+                }
+                out.println();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Drops the counts of all but the popularity limit most popular calls, and halves those.
+     * A call counted meanwhile may be dropped or keep a count not halved, counts only need
+     * to be about right.
+     */
+    private synchronized void prunePopularity() {
+        if (popularity.size() <= popularityLimit) {
+            return;
+        }
+        Map<Call, Long> top = mostPopular(popularityLimit);
+        popularity.keySet().retainAll(top.keySet());
+        for (Map.Entry<Call, Long> entry : top.entrySet()) {
+            LongAdder count = popularity.get(entry.getKey());
+            if (count != null) {
+                count.add(-(entry.getValue() / 2));
+            }
+        }
+    }
+
+    /**
+     * @return the number of calls whose counts are kept
+     */
+    int getPopularitySize() {
+        return popularity.size();
+    }
+
+    private Map<Call, Long> mostPopular(int limit) {
+        List<Map.Entry<Call, Long>> counts = new ArrayList<>();
+        for (Map.Entry<Call, LongAdder> entry : popularity.entrySet()) {
+            counts.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue().sum()));
+        }
+        counts.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<Call, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<Call, Long> entry : counts.subList(0, Math.min(limit, counts.size()))) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
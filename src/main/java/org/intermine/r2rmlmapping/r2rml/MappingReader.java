@@ -0,0 +1,149 @@
+package org.intermine.r2rmlmapping.r2rml;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.RDF;
+import org.intermine.r2rmlmapping.URITemplate;
+import org.intermine.r2rmlmapping.jdbc.SqlTags;
+import org.intermine.r2rmlmapping.vocabulary.R2RML;
+
+/**
+ * Reads the TriplesMaps written by R2RMLMapping back from a jena model.
+ *
+ * Only the subset of R2RML the generator emits is understood: rr:tableName and
+ * rr:sqlQuery logical tables, template subject maps with rr:class, and column,
+ * template or referencing object maps. The tagged query of a table's columns that
+ * --sql-tags writes in place of an rr:tableName, e.g.
+ * <code>/* urn:intermine-table:gene *&#47; SELECT id, symbol FROM gene</code>, is read as
+ * the table, so that it is partitioned and joined like one.
+ */
+public final class MappingReader
+{
+	private static final Pattern TABLE_QUERY = Pattern.compile(
+			"SELECT\\s+\\w+(?:\\s*,\\s*\\w+)*\\s+FROM\\s+(\\w+)\\s*", Pattern.CASE_INSENSITIVE);
+
+	private MappingReader()
+	{
+	}
+
+	/**
+	 * @param model a mapping, e.g. loaded from mapping.ttl
+	 * @return the TriplesMaps ordered by name
+	 */
+	public static List<TriplesMapDefinition> read(Model model)
+	{
+		Map<String, TriplesMapDefinition> byName = new HashMap<>();
+		ResIterator it = model.listSubjectsWithProperty(RDF.type, R2RML.TriplesMap);
+		try {
+			while (it.hasNext()) {
+				Resource triplesMap = it.next();
+				TriplesMapDefinition definition = readTriplesMap(triplesMap);
+				if (definition != null) {
+					byName.put(definition.getName(), definition);
+				}
+			}
+		} finally {
+			it.close();
+		}
+		for (TriplesMapDefinition definition : byName.values()) {
+			for (PredicateObjectDefinition pom : definition.getPredicateObjectMaps()) {
+				if (pom.isReferencing()) {
+					pom.setParent(byName.get(pom.getParentName()));
+				}
+			}
+			// a join to a table without a subject map would never produce a term
+			definition.getPredicateObjectMaps().removeIf(pom -> pom.isReferencing() && pom.getParent() == null);
+		}
+		List<TriplesMapDefinition> result = new ArrayList<>(byName.values());
+		result.sort(Comparator.comparing(TriplesMapDefinition::getName));
+		return result;
+	}
+
+	private static TriplesMapDefinition readTriplesMap(Resource triplesMap)
+	{
+		Resource logicalTable = triplesMap.getPropertyResourceValue(R2RML.logicalTable);
+		Resource subjectMap = triplesMap.getPropertyResourceValue(R2RML.subjectMap);
+		if (logicalTable == null || subjectMap == null || !subjectMap.hasProperty(R2RML.template)) {
+			System.err.println("Skipping incomplete TriplesMap " + triplesMap);
+			return null;
+		}
+		String tableName = getString(logicalTable, R2RML.tableName);
+		String sqlQuery = getString(logicalTable, R2RML.sqlQuery);
+		if (tableName == null && sqlQuery != null) {
+			Matcher table = TABLE_QUERY.matcher(SqlTags.strip(sqlQuery));
+			if (table.matches()) {
+				tableName = table.group(1);
+				sqlQuery = null;
+			}
+		}
+		TriplesMapDefinition definition = new TriplesMapDefinition(triplesMap.getURI(), tableName, sqlQuery,
+				URITemplate.compile(getString(subjectMap, R2RML.template)));
+		StmtIterator classes = subjectMap.listProperties(R2RML.classProperty);
+		while (classes.hasNext()) {
+			definition.getClasses().add(classes.next().getResource().getURI());
+		}
+		StmtIterator poms = triplesMap.listProperties(R2RML.predicateObjectMap);
+		while (poms.hasNext()) {
+			PredicateObjectDefinition pom = readPredicateObjectMap(poms.next().getResource());
+			if (pom != null) {
+				definition.getPredicateObjectMaps().add(pom);
+			}
+		}
+		definition.getPredicateObjectMaps().sort(Comparator.comparing(PredicateObjectDefinition::getPredicate));
+		return definition;
+	}
+
+	private static PredicateObjectDefinition readPredicateObjectMap(Resource predicateObjectMap)
+	{
+		Resource predicate = predicateObjectMap.getPropertyResourceValue(R2RML.predicate);
+		Resource objectMap = predicateObjectMap.getPropertyResourceValue(R2RML.objectMap);
+		if (predicate == null || objectMap == null) {
+			return null;
+		}
+		PredicateObjectDefinition pom = new PredicateObjectDefinition(predicate.getURI());
+		Resource parent = objectMap.getPropertyResourceValue(R2RML.parentTriplesMap);
+		if (parent != null) {
+			pom.setParentName(parent.getURI());
+			StmtIterator joins = objectMap.listProperties(R2RML.joinCondition);
+			while (joins.hasNext()) {
+				Resource join = joins.next().getResource();
+				pom.getJoinConditions().add(new PredicateObjectDefinition.JoinCondition(
+						getString(join, R2RML.child), getString(join, R2RML.parent)));
+			}
+		} else if (objectMap.hasProperty(R2RML.template)) {
+			// the many to many views carry both a column and a template, the template wins
+			pom.setTemplate(URITemplate.compile(getString(objectMap, R2RML.template)));
+		} else if (objectMap.hasProperty(R2RML.column)) {
+			pom.setColumn(getString(objectMap, R2RML.column));
+			Resource datatype = objectMap.getPropertyResourceValue(R2RML.datatype);
+			if (datatype != null) {
+				pom.setDatatype(datatype.getURI());
+			}
+		} else {
+			return null;
+		}
+		return pom;
+	}
+
+	private static String getString(Resource resource, org.apache.jena.rdf.model.Property property)
+	{
+		Statement statement = resource.getProperty(property);
+		if (statement == null) {
+			return null;
+		}
+		RDFNode object = statement.getObject();
+		return object.isLiteral() ? object.asLiteral().getLexicalForm() : object.toString();
+	}
+}
@@ -0,0 +1,119 @@
+package org.intermine.r2rmlmapping.r2rml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.intermine.r2rmlmapping.URITemplate;
+
+/**
+ * A predicate-object map. The object is either a column, a template or, for a
+ * referencing object map, the subject of a parent TriplesMap reached through join conditions.
+ */
+public class PredicateObjectDefinition
+{
+	/**
+	 * An rr:joinCondition between a child and a parent column.
+	 */
+	public static class JoinCondition
+	{
+		private final String child;
+		private final String parent;
+
+		public JoinCondition(String child, String parent)
+		{
+			this.child = child;
+			this.parent = parent;
+		}
+
+		public String getChild()
+		{
+			return child;
+		}
+
+		public String getParent()
+		{
+			return parent;
+		}
+	}
+
+	private final String predicate;
+	private String column;
+	private String datatype;
+	private URITemplate template;
+	private String parentName;
+	private TriplesMapDefinition parent;
+	private final List<JoinCondition> joinConditions = new ArrayList<>();
+
+	public PredicateObjectDefinition(String predicate)
+	{
+		this.predicate = predicate;
+	}
+
+	public String getPredicate()
+	{
+		return predicate;
+	}
+
+	public String getColumn()
+	{
+		return column;
+	}
+
+	public void setColumn(String column)
+	{
+		this.column = column;
+	}
+
+	/**
+	 * @return the datatype IRI of a literal column, or null
+	 */
+	public String getDatatype()
+	{
+		return datatype;
+	}
+
+	public void setDatatype(String datatype)
+	{
+		this.datatype = datatype;
+	}
+
+	public URITemplate getTemplate()
+	{
+		return template;
+	}
+
+	public void setTemplate(URITemplate template)
+	{
+		this.template = template;
+	}
+
+	public boolean isReferencing()
+	{
+		return parentName != null;
+	}
+
+	public String getParentName()
+	{
+		return parentName;
+	}
+
+	public void setParentName(String parentName)
+	{
+		this.parentName = parentName;
+	}
+
+	public TriplesMapDefinition getParent()
+	{
+		return parent;
+	}
+
+	public void setParent(TriplesMapDefinition parent)
+	{
+		this.parent = parent;
+	}
+
+	public List<JoinCondition> getJoinConditions()
+	{
+		return joinConditions;
+	}
+}
@@ -0,0 +1,111 @@
+package org.intermine.r2rmlmapping.r2rml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.intermine.r2rmlmapping.URITemplate;
+
+/**
+ * One rr:TriplesMap of a generated mapping, read back into plain java objects so
+ * it can be executed over JDBC.
+ */
+public class TriplesMapDefinition
+{
+	/** The names of the TriplesMaps of ClobAccess attributes start with this, see MappingOptions#getClobs() */
+	public static final String CLOB_PREFIX = "urn:intermine-clob:";
+
+	private final String name;
+	private final String tableName;
+	private final String sqlQuery;
+	private final URITemplate subjectTemplate;
+	private final List<String> classes = new ArrayList<>();
+	private final List<PredicateObjectDefinition> predicateObjectMaps = new ArrayList<>();
+
+	public TriplesMapDefinition(String name, String tableName, String sqlQuery, URITemplate subjectTemplate)
+	{
+		this.name = name;
+		this.tableName = tableName;
+		this.sqlQuery = sqlQuery;
+		this.subjectTemplate = subjectTemplate;
+	}
+
+	/**
+	 * @return the IRI of the TriplesMap, e.g. urn:intermine-table:Gene
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return the rr:tableName, or null if the logical table is an R2RMLView
+	 */
+	public String getTableName()
+	{
+		return tableName;
+	}
+
+	public String getSqlQuery()
+	{
+		return sqlQuery;
+	}
+
+	/**
+	 * @return true if the TriplesMap only maps one ClobAccess attribute of a class
+	 */
+	public boolean isClob()
+	{
+		return name.startsWith(CLOB_PREFIX);
+	}
+
+	/**
+	 * @return the table of the attribute of a clob TriplesMap, from its name
+	 *     urn:intermine-clob:table/column
+	 */
+	public String getClobTable()
+	{
+		return name.substring(CLOB_PREFIX.length(), name.lastIndexOf('/'));
+	}
+
+	/**
+	 * @return the column of the attribute of a clob TriplesMap
+	 */
+	public String getClobColumn()
+	{
+		return name.substring(name.lastIndexOf('/') + 1);
+	}
+
+	public boolean isView()
+	{
+		return tableName == null;
+	}
+
+	/**
+	 * @return the logical table as something that can follow a FROM
+	 */
+	public String getLogicalTableSql()
+	{
+		return isView() ? "(" + sqlQuery + ")" : tableName;
+	}
+
+	public URITemplate getSubjectTemplate()
+	{
+		return subjectTemplate;
+	}
+
+	public List<String> getClasses()
+	{
+		return classes;
+	}
+
+	public List<PredicateObjectDefinition> getPredicateObjectMaps()
+	{
+		return predicateObjectMaps;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
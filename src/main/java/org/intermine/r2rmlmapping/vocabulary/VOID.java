@@ -0,0 +1,22 @@
+package org.intermine.r2rmlmapping.vocabulary;
+
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+
+
+public class VOID
+{
+	public static final String uri = "http://rdfs.org/ns/void#";
+	public static final Resource Dataset = ResourceFactory.createResource(uri + "Dataset");
+	public static final Property sparqlEndpoint = ResourceFactory.createProperty(uri, "sparqlEndpoint");
+	public static final Property uriSpace = ResourceFactory.createProperty(uri, "uriSpace");
+	public static final Property classPartition = ResourceFactory.createProperty(uri, "classPartition");
+	public static final Property propertyPartition = ResourceFactory.createProperty(uri, "propertyPartition");
+	public static final Property classProperty = ResourceFactory.createProperty(uri, "class");
+	public static final Property property = ResourceFactory.createProperty(uri, "property");
+	public static final Property triples = ResourceFactory.createProperty(uri, "triples");
+	public static final Property entities = ResourceFactory.createProperty(uri, "entities");
+	public static final Property classes = ResourceFactory.createProperty(uri, "classes");
+	public static final Property properties = ResourceFactory.createProperty(uri, "properties");
+}
@@ -0,0 +1,50 @@
+package org.intermine.r2rmlmapping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+public class R2RMLMappingTest
+{
+	@Test
+	public void testClobLengthSql() throws Exception
+	{
+		DataSource dataSource = TestDatabase.create(
+				"CREATE TABLE sequence (id INT PRIMARY KEY, residues VARCHAR, content CLOB)",
+				"INSERT INTO sequence VALUES (1, '123,0,4567', 'ACGT'), (2, '5,10,0', ''), (3, NULL, NULL)");
+		try (Connection connection = dataSource.getConnection();
+				Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery("SELECT " + R2RMLMapping.clobLengthSql("residues", true)
+						+ ", " + R2RMLMapping.clobLengthSql("content", false) + " FROM sequence ORDER BY id")) {
+			rs.next();
+			assertEquals(4567, rs.getLong(1));
+			assertEquals(4, rs.getLong(2));
+			rs.next();
+			assertEquals(0, rs.getLong(1));
+			assertEquals(0, rs.getLong(2));
+			rs.next();
+			assertEquals(null, rs.getObject(1));
+			assertEquals(null, rs.getObject(2));
+		}
+	}
+
+	@Test
+	public void testSeparateClobsNeedColumnStorage()
+	{
+		MappingOptions.parse(new String[] {"--clobs=separate", "--clob-storage=column"}).getClobs();
+		MappingOptions.parse(new String[] {"--clobs=iri,summary"}).getClobs();
+		try {
+			MappingOptions.parse(new String[] {"--clobs=separate"}).getClobs();
+			fail("InterMine keeps the content in the clob table");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package org.intermine.r2rmlmapping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.vocabulary.RDF;
+import org.intermine.r2rmlmapping.r2rml.MappingReader;
+import org.intermine.r2rmlmapping.r2rml.PredicateObjectDefinition;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+import org.intermine.r2rmlmapping.vocabulary.R2RML;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ShardedMappingTest
+{
+	/** The TriplesMaps of each class, as R2RMLMapping.mapClass would give them */
+	private static final String[] CLASSES = {
+		"<urn:intermine-table:organism> a rr:TriplesMap ;\n"
+				+ "  rr:logicalTable [ rr:tableName \"organism\" ] ;\n"
+				+ "  rr:subjectMap [ rr:template \"http://mine/organism:{taxonid}\" ; rr:class im:Organism ] ;\n"
+				+ "  rr:predicateObjectMap [ rr:predicate im:hasName ; rr:objectMap [ rr:column \"name\" ] ] .\n",
+		"<urn:intermine-table:gene> a rr:TriplesMap ;\n"
+				+ "  rr:logicalTable [ rr:tableName \"gene\" ] ;\n"
+				+ "  rr:subjectMap [ rr:template \"http://mine/gene:{primaryidentifier}\" ; rr:class im:Gene ] ;\n"
+				+ "  rr:predicateObjectMap [ rr:predicate im:hasSymbol ; rr:objectMap [ rr:column \"symbol\" ] ] ;\n"
+				+ "  rr:predicateObjectMap [ rr:predicate im:hasOrganism ;\n"
+				+ "    rr:objectMap [ rr:parentTriplesMap <urn:intermine-table:organism> ;\n"
+				+ "      rr:joinCondition [ rr:child \"organismid\" ; rr:parent \"id\" ] ] ] .\n",
+		"<urn:intermine-table:protein> a rr:TriplesMap ;\n"
+				+ "  rr:logicalTable [ rr:tableName \"protein\" ] ;\n"
+				+ "  rr:subjectMap [ rr:template \"http://mine/protein:{primaryaccession}\" ; rr:class im:Protein ] ;\n"
+				+ "  rr:predicateObjectMap [ rr:predicate im:hasLength ;\n"
+				+ "    rr:objectMap [ rr:column \"length\" ; rr:datatype xsd:integer ] ] ;\n"
+				+ "  rr:predicateObjectMap [ rr:predicate im:hasProteinOrganism ;\n"
+				+ "    rr:objectMap [ rr:parentTriplesMap <urn:intermine-table:organism> ;\n"
+				+ "      rr:joinCondition [ rr:child \"organismid\" ; rr:parent \"id\" ] ] ] ;\n"
+				+ "  rr:predicateObjectMap [ rr:predicate im:hasGene ;\n"
+				+ "    rr:objectMap [ rr:parentTriplesMap <urn:intermine-table:gene> ;\n"
+				+ "      rr:joinCondition [ rr:child \"geneid\" ; rr:parent \"id\" ] ] ] .\n",
+		"<urn:intermine-table:chromosome> a rr:TriplesMap ;\n"
+				+ "  rr:logicalTable [ rr:tableName \"chromosome\" ] ;\n"
+				+ "  rr:subjectMap [ rr:template \"http://mine/chromosome:{primaryidentifier}\" ; rr:class im:Chromosome ] ;\n"
+				+ "  rr:predicateObjectMap [ rr:predicate im:hasChromosomeOrganism ;\n"
+				+ "    rr:objectMap [ rr:parentTriplesMap <urn:intermine-table:organism> ;\n"
+				+ "      rr:joinCondition [ rr:child \"organismid\" ; rr:parent \"id\" ] ] ] .\n",
+		"<urn:intermine-table:publication> a rr:TriplesMap ;\n"
+				+ "  rr:logicalTable [ rr:tableName \"publication\" ] ;\n"
+				+ "  rr:subjectMap [ rr:template \"http://mine/publication:{pubmedid}\" ; rr:class im:Publication ] ;\n"
+				+ "  rr:predicateObjectMap [ rr:predicate im:hasTitle ; rr:objectMap [ rr:column \"title\" ] ] .\n",
+		// a class without a URI identifier maps nothing
+		"",
+	};
+
+	private static DataSource dataSource;
+	private static List<Model> classMappings;
+	private static Graph unsharded;
+
+	@BeforeClass
+	public static void createMine() throws Exception
+	{
+		dataSource = TestDatabase.create(
+				"CREATE TABLE organism (id INT PRIMARY KEY, taxonid VARCHAR, name VARCHAR)",
+				"CREATE TABLE gene (id INT PRIMARY KEY, primaryidentifier VARCHAR, symbol VARCHAR, organismid INT)",
+				"CREATE TABLE protein (id INT PRIMARY KEY, primaryaccession VARCHAR, length INT, organismid INT,"
+						+ " geneid INT)",
+				"CREATE TABLE chromosome (id INT PRIMARY KEY, primaryidentifier VARCHAR, organismid INT)",
+				"CREATE TABLE publication (id INT PRIMARY KEY, pubmedid VARCHAR, title VARCHAR)",
+				"INSERT INTO organism VALUES (1, '7227', 'fly'), (2, '9606', NULL)",
+				"INSERT INTO gene VALUES (10, 'G1', 'eve', 1), (11, 'G2', NULL, 2), (12, 'G3', 'ftz', NULL)",
+				"INSERT INTO protein VALUES (20, 'P1', 100, 1, 10), (21, 'P2', NULL, 2, 10), (22, 'P3', 300, 1, NULL)",
+				"INSERT INTO chromosome VALUES (30, '2L', 1), (31, 'X', 2)",
+				"INSERT INTO publication VALUES (40, '123', 'A title'), (41, '456', NULL)");
+		classMappings = new ArrayList<>();
+		Model whole = ModelFactory.createDefaultModel();
+		for (String turtle : CLASSES)
+		{
+			Model classMapping = ModelFactory.createDefaultModel();
+			if (!turtle.isEmpty()) {
+				classMapping.read(new StringReader(TestDatabase.PREFIXES + turtle), null, "TURTLE");
+			}
+			classMappings.add(classMapping);
+			whole.add(classMapping);
+		}
+		unsharded = TestDatabase.materialize(dataSource, MappingReader.read(whole), 1000);
+	}
+
+	@Test
+	public void testTwoShards() throws Exception
+	{
+		checkShards(2);
+	}
+
+	@Test
+	public void testThreeShards() throws Exception
+	{
+		checkShards(3);
+	}
+
+	@Test
+	public void testOneShardPerClass() throws Exception
+	{
+		checkShards(5);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMoreShardsThanMappedClasses()
+	{
+		ShardedMapping.split(classMappings, 6);
+	}
+
+	private static void checkShards(int count) throws Exception
+	{
+		List<ShardedMapping.Shard> shards = ShardedMapping.split(classMappings, count);
+		assertEquals(count, shards.size());
+		Graph union = GraphFactory.createGraphMem();
+		int stubs = 0;
+		for (ShardedMapping.Shard shard : shards)
+		{
+			Model mapping = shard.getMapping();
+			assertFalse(mapping.isEmpty());
+			stubs += checkParentsResolve(mapping);
+			Graph triples = TestDatabase.materialize(dataSource, MappingReader.read(mapping), 1000);
+			for (Triple triple : triples.find().toList())
+			{
+				assertFalse(shard + " repeats " + triple, union.contains(triple));
+				union.add(triple);
+			}
+		}
+		assertTrue("joins of organism cross shards", stubs > 0);
+		assertTrue(union.isIsomorphicWith(unsharded));
+	}
+
+	/**
+	 * Checks that every rr:parentTriplesMap of mapping is a TriplesMap of mapping with a
+	 * logical table and a subject map, and that MappingReader keeps every join.
+	 * @return the number of joins to stubs, the parents without an rr:class
+	 */
+	private static int checkParentsResolve(Model mapping)
+	{
+		int stubs = 0;
+		for (RDFNode node : mapping.listObjectsOfProperty(R2RML.parentTriplesMap).toList())
+		{
+			Resource parent = node.asResource();
+			assertTrue(parent + " is in the shard", mapping.contains(parent, RDF.type, R2RML.TriplesMap));
+			assertNotNull(parent.getPropertyResourceValue(R2RML.logicalTable).getProperty(R2RML.tableName));
+			Resource subjectMap = parent.getPropertyResourceValue(R2RML.subjectMap);
+			assertNotNull(subjectMap.getProperty(R2RML.template));
+			if (!subjectMap.hasProperty(R2RML.classProperty)) {
+				assertFalse(parent.hasProperty(R2RML.predicateObjectMap));
+				stubs++;
+			}
+		}
+		int joins = mapping.listStatements(null, R2RML.parentTriplesMap, (RDFNode) null).toList().size();
+		int read = 0;
+		for (TriplesMapDefinition map : MappingReader.read(mapping))
+		{
+			for (PredicateObjectDefinition pom : map.getPredicateObjectMaps())
+			{
+				if (pom.isReferencing()) {
+					read++;
+				}
+			}
+		}
+		assertEquals(joins, read);
+		return stubs;
+	}
+}
@@ -0,0 +1,125 @@
+package org.intermine.r2rmlmapping;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.intermine.r2rmlmapping.jdbc.DriverManagerDataSource;
+import org.intermine.r2rmlmapping.materialize.Partition;
+import org.intermine.r2rmlmapping.materialize.PartitionSink;
+import org.intermine.r2rmlmapping.materialize.R2RMLMaterializer;
+import org.intermine.r2rmlmapping.r2rml.MappingReader;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+
+/**
+ * A mine in an in-memory H2 database, for the tests that run SQL, and the triples a
+ * mapping gives over it, materialized into a graph or an RDF4J memory store.
+ */
+public final class TestDatabase
+{
+	private static final AtomicInteger DATABASES = new AtomicInteger();
+
+	public static final String PREFIXES = "@prefix rr: <http://www.w3.org/ns/r2rml#> .\n"
+			+ "@prefix im: <http://intermine.org/vocabulary/> .\n"
+			+ "@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n";
+
+	private TestDatabase()
+	{
+	}
+
+	/**
+	 * @return a new database, with statements run on it, that lives until the JVM exits
+	 */
+	public static DataSource create(String... statements) throws SQLException
+	{
+		DataSource dataSource = new DriverManagerDataSource(
+				"jdbc:h2:mem:test" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1", "sa", "");
+		try (Connection connection = dataSource.getConnection();
+				Statement statement = connection.createStatement()) {
+			for (String sql : statements)
+			{
+				statement.execute(sql);
+			}
+		}
+		return dataSource;
+	}
+
+	/**
+	 * @param turtle a mapping without the prefixes rr:, im: and xsd:
+	 */
+	public static List<TriplesMapDefinition> mapping(String turtle)
+	{
+		org.apache.jena.rdf.model.Model model = ModelFactory.createDefaultModel();
+		model.read(new StringReader(PREFIXES + turtle), null, "TURTLE");
+		return MappingReader.read(model);
+	}
+
+	/**
+	 * @return the triples of the mapping over the database, by the materializer
+	 */
+	public static Graph materialize(DataSource dataSource, List<TriplesMapDefinition> triplesMaps,
+			long partitionSize) throws Exception
+	{
+		Graph graph = GraphFactory.createGraphMem();
+		PartitionSink sink = new PartitionSink()
+		{
+			@Override
+			public StreamRDF open(Partition partition)
+			{
+				return new StreamRDFBase()
+				{
+					@Override
+					public void triple(Triple triple)
+					{
+						synchronized (graph) {
+							graph.add(triple);
+						}
+					}
+				};
+			}
+
+			@Override
+			public void close(Partition partition, StreamRDF stream)
+			{
+			}
+		};
+		new R2RMLMaterializer(dataSource, 2, 100, partitionSize).materialize(triplesMaps, sink);
+		return graph;
+	}
+
+	/**
+	 * @return an RDF4J memory store holding graph
+	 */
+	public static Repository memoryStore(Graph graph) throws IOException
+	{
+		ByteArrayOutputStream ntriples = new ByteArrayOutputStream();
+		RDFDataMgr.write(ntriples, graph, Lang.NTRIPLES);
+		Repository repository = new SailRepository(new MemoryStore());
+		repository.init();
+		try (RepositoryConnection connection = repository.getConnection()) {
+			connection.add(new ByteArrayInputStream(ntriples.toByteArray()), "", RDFFormat.NTRIPLES);
+		}
+		return repository;
+	}
+}
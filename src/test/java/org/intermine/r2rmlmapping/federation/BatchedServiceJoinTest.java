@@ -0,0 +1,237 @@
+package org.intermine.r2rmlmapping.federation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.federated.FedXConfig;
+import org.eclipse.rdf4j.federated.FedXFactory;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.Test;
+
+public class BatchedServiceJoinTest {
+
+    private static final String MINE = "http://mine.test/sparql";
+    private static final String UNIPROT = "http://uniprot.test/sparql";
+    private static final String EX = "http://ex/";
+    private static final int GENES = 200;
+
+    private static final String LEFT = "SELECT ?g ?p WHERE { ?g <" + EX + "protein> ?p }";
+    private static final String QUERY = "SELECT ?g ?name WHERE { ?g <" + EX + "protein> ?p .\n"
+            + "  SERVICE <" + UNIPROT + "> { ?p <" + EX + "name> ?name } }";
+
+    @Test
+    public void testFewerRequestsThanFedX() throws Exception {
+        CountingSail fedxStore = uniProt();
+        List<String> fedx = run(federation(fedxStore, new FedXConfig()), QUERY);
+        CountingSail batchedStore = uniProt();
+        List<String> batched = run(federation(batchedStore, config(100, 4, false)), QUERY);
+
+        // every third protein has no name
+        assertEquals(GENES - GENES / 3 - 1, fedx.size());
+        assertEquals(new HashSet<>(fedx), new HashSet<>(batched));
+        assertTrue(batchedStore.getRequests() + " requests instead of FedX's " + fedxStore.getRequests(),
+                batchedStore.getRequests() < fedxStore.getRequests());
+    }
+
+    @Test
+    public void testConcurrencyBound() throws Exception {
+        CountingSail store = uniProt();
+        store.setLatency(20);
+        List<String> results = run(federation(store, config(10, 3, false)), QUERY);
+        assertEquals(GENES - GENES / 3 - 1, results.size());
+        assertTrue("in flight " + store.getMaxInFlight(), store.getMaxInFlight() <= 3);
+        assertTrue("in flight " + store.getMaxInFlight(), store.getMaxInFlight() > 1);
+    }
+
+    @Test
+    public void testSharedThreadsBoundConcurrentJoins() throws Exception {
+        CountingSail store = uniProt();
+        store.setLatency(20);
+        Repository federation = federation(store, config(10, 2, false));
+        // so that FedX's source selection is cached and only the joins reach the store
+        rows(federation, QUERY);
+        List<Thread> queries = new ArrayList<>();
+        List<List<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            queries.add(new Thread(() -> {
+                List<String> rows = rows(federation, QUERY);
+                synchronized (results) {
+                    results.add(rows);
+                }
+            }));
+        }
+        try {
+            for (Thread query : queries) {
+                query.start();
+            }
+            for (Thread query : queries) {
+                query.join();
+            }
+        } finally {
+            federation.shutDown();
+        }
+        assertEquals(3, results.size());
+        for (List<String> rows : results) {
+            assertEquals(GENES - GENES / 3 - 1, rows.size());
+        }
+        // three joins share the federation's two service threads
+        assertTrue("in flight " + store.getMaxInFlight(), store.getMaxInFlight() <= 2);
+    }
+
+    @Test
+    public void testOrdered() throws Exception {
+        CountingSail store = uniProt();
+        store.setLatency(20);
+        Repository federation = federation(store, config(10, 4, true));
+        List<String> expected = new ArrayList<>();
+        for (String row : rows(federation, LEFT)) {
+            int protein = Integer.parseInt(row.substring(row.lastIndexOf("protein") + "protein".length()));
+            if (hasName(protein)) {
+                expected.add(row.substring(0, row.indexOf(' ')));
+            }
+        }
+        List<String> genes = new ArrayList<>();
+        for (String row : run(federation, QUERY)) {
+            genes.add(row.substring(0, row.indexOf(' ')));
+        }
+        assertEquals(expected, genes);
+
+        // without --ordered the blocks that wait less come first
+        CountingSail unorderedStore = uniProt();
+        unorderedStore.setLatency(20);
+        List<String> unordered = new ArrayList<>();
+        for (String row : run(federation(unorderedStore, config(10, 4, false)), QUERY)) {
+            unordered.add(row.substring(0, row.indexOf(' ')));
+        }
+        assertEquals(new HashSet<>(expected), new HashSet<>(unordered));
+        assertNotEquals(expected, unordered);
+    }
+
+    @Test(timeout = 10000)
+    public void testNestedJoinOnTheServiceThread() throws Exception {
+        ServiceJoinConfig config = config(2, 1, false);
+        ValueFactory values = SimpleValueFactory.getInstance();
+        List<BindingSet> genes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            MapBindingSet gene = new MapBindingSet();
+            gene.addBinding("g", values.createIRI(EX + "gene" + i));
+            genes.add(gene);
+        }
+        // the block of the outer join runs on the only service thread, and joins with a
+        // SERVICE of its own, which must not wait for that thread
+        BatchedServiceJoin outer = new BatchedServiceJoin(iteration(genes),
+                block -> new BatchedServiceJoin(iteration(block), BatchedServiceJoinTest::iteration, config),
+                config);
+        int results = 0;
+        try {
+            while (outer.hasNext()) {
+                outer.next();
+                results++;
+            }
+        } finally {
+            outer.close();
+        }
+        assertEquals(genes.size(), results);
+    }
+
+    private static CloseableIteration<BindingSet, QueryEvaluationException> iteration(List<BindingSet> bindings) {
+        return new CloseableIteratorIteration<>(bindings.iterator());
+    }
+
+    private static ServiceJoinConfig config(int blockSize, int concurrency, boolean ordered) {
+        ServiceJoinConfig config = new ServiceJoinConfig()
+                .withServiceBlockSize(blockSize)
+                .withServiceConcurrency(concurrency)
+                .withOrderedServiceResults(ordered);
+        config.withSparqlEvaluationStrategy(VoidFederationEvalStrategy.class);
+        return config;
+    }
+
+    private static boolean hasName(int protein) {
+        return protein % 3 != 0;
+    }
+
+    /**
+     * @return the stand-in for UniProt, with the names of the proteins
+     */
+    private static CountingSail uniProt() {
+        CountingSail store = new CountingSail(new MemoryStore());
+        Repository repository = new SailRepository(store);
+        repository.init();
+        ValueFactory values = SimpleValueFactory.getInstance();
+        try (RepositoryConnection connection = repository.getConnection()) {
+            for (int i = 0; i < GENES; i++) {
+                if (hasName(i)) {
+                    connection.add(values.createIRI(EX + "protein" + i), values.createIRI(EX + "name"),
+                            values.createLiteral("P" + i));
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return a federation of the mine, whose genes each have a protein, and uniProt
+     */
+    private static Repository federation(CountingSail uniProt, FedXConfig config) {
+        Repository mine = new SailRepository(new MemoryStore());
+        mine.init();
+        ValueFactory values = SimpleValueFactory.getInstance();
+        try (RepositoryConnection connection = mine.getConnection()) {
+            for (int i = 0; i < GENES; i++) {
+                connection.add(values.createIRI(EX + "gene" + i), values.createIRI(EX + "protein"),
+                        values.createIRI(EX + "protein" + i));
+            }
+        }
+        Repository federation = FedXFactory.newFederation()
+                .withMembers(Arrays.asList(CachingEndpoints.endpoint(MINE, mine, null),
+                        CachingEndpoints.endpoint(UNIPROT, new SailRepository(uniProt), null)))
+                .withConfig(config)
+                .create();
+        federation.init();
+        return federation;
+    }
+
+    private static List<String> run(Repository federation, String query) {
+        try {
+            return rows(federation, query);
+        } finally {
+            federation.shutDown();
+        }
+    }
+
+    /**
+     * @return the rows of the result, in order, as the values of their bindings
+     */
+    private static List<String> rows(Repository federation, String query) {
+        List<String> rows = new ArrayList<>();
+        try (RepositoryConnection connection = federation.getConnection();
+                TupleQueryResult result = connection.prepareTupleQuery(query).evaluate()) {
+            for (BindingSet row : result) {
+                List<String> values = new ArrayList<>();
+                for (String name : result.getBindingNames()) {
+                    values.add(String.valueOf(row.getValue(name)));
+                }
+                rows.add(String.join(" ", values));
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,144 @@
+package org.intermine.r2rmlmapping.federation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.rdf4j.federated.FedXFactory;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.Test;
+
+public class CachingEndpointsTest {
+
+    private static final String LOCATION = "http://uniprot.test/sparql";
+    private static final String QUERY = "SELECT ?protein ?name WHERE { ?protein <http://ex/name> ?name }";
+    private static final int PROTEINS = 5;
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        ResultCache cache = new ResultCache(1 << 20, null, 0);
+        CountingSail store = store();
+        Repository federation = federation(store, cache);
+        try {
+            Set<String> first = run(federation);
+            assertEquals(PROTEINS, first.size());
+            int requests = store.getRequests();
+            assertTrue(requests > 0);
+            assertTrue(cache.getMisses() > 0);
+            assertEquals(0, cache.getMemoryHits());
+
+            long misses = cache.getMisses();
+            assertEquals(first, run(federation));
+            assertEquals("answered from the cache", requests, store.getRequests());
+            assertEquals(misses, cache.getMisses());
+            assertTrue(cache.getMemoryHits() > 0);
+        } finally {
+            federation.shutDown();
+        }
+    }
+
+    @Test
+    public void testTtlExpiry() throws Exception {
+        ResultCache cache = new ResultCache(1 << 20, null, 50);
+        CountingSail store = store();
+        Repository federation = federation(store, cache);
+        try {
+            Set<String> first = run(federation);
+            int requests = store.getRequests();
+            Thread.sleep(200);
+            assertEquals(first, run(federation));
+            assertTrue(cache.getExpirations() > 0);
+            assertTrue("expired entries are asked for again", store.getRequests() > requests);
+        } finally {
+            federation.shutDown();
+        }
+    }
+
+    @Test
+    public void testDiskLevelAndClearCache() throws Exception {
+        File directory = Files.createTempDirectory("federation-cache").toFile();
+        try {
+            Set<String> expected = runOnce(store(), new ResultCache(1 << 20, directory, 60000));
+
+            // the next run of FederatedQuery finds the results on disk
+            ResultCache reopened = new ResultCache(1 << 20, directory, 60000);
+            CountingSail store = store();
+            assertEquals(expected, runOnce(store, reopened));
+            assertEquals(0, store.getRequests());
+            assertTrue(reopened.getDiskHits() > 0);
+            assertEquals(0, reopened.getMisses());
+
+            // what --clear-cache does before the first query
+            ResultCache cleared = new ResultCache(1 << 20, directory, 60000);
+            cleared.invalidateAll();
+            store = store();
+            assertEquals(expected, runOnce(store, cleared));
+            assertTrue(store.getRequests() > 0);
+            assertEquals(0, cleared.getDiskHits());
+            assertTrue(cleared.getMisses() > 0);
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private static CountingSail store() {
+        CountingSail store = new CountingSail(new MemoryStore());
+        Repository repository = new SailRepository(store);
+        repository.init();
+        ValueFactory values = SimpleValueFactory.getInstance();
+        try (RepositoryConnection connection = repository.getConnection()) {
+            for (int i = 0; i < PROTEINS; i++) {
+                connection.add(values.createIRI("http://ex/protein" + i), values.createIRI("http://ex/name"),
+                        values.createLiteral("P" + i));
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return a federation with store as its only member, through cache
+     */
+    private static Repository federation(CountingSail store, ResultCache cache) {
+        Repository federation = FedXFactory.newFederation()
+                .withMembers(Collections.singletonList(
+                        CachingEndpoints.endpoint(LOCATION, new SailRepository(store), cache)))
+                .create();
+        federation.init();
+        return federation;
+    }
+
+    private static Set<String> runOnce(CountingSail store, ResultCache cache) {
+        Repository federation = federation(store, cache);
+        try {
+            return run(federation);
+        } finally {
+            federation.shutDown();
+        }
+    }
+
+    private static Set<String> run(Repository federation) {
+        Set<String> rows = new HashSet<>();
+        try (RepositoryConnection connection = federation.getConnection();
+                TupleQueryResult result = connection.prepareTupleQuery(QUERY).evaluate()) {
+            for (BindingSet row : result) {
+                rows.add(row.getValue("protein") + " " + row.getValue("name"));
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,85 @@
+package org.intermine.r2rmlmapping.federation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.sail.Sail;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.helpers.SailConnectionWrapper;
+import org.eclipse.rdf4j.sail.helpers.SailWrapper;
+
+/**
+ * Counts the queries and statement lookups that reach a store, standing in for the
+ * requests a remote endpoint would get. Queries can be made to take a while, the way a
+ * remote endpoint's do, to see how many overlap.
+ */
+class CountingSail extends SailWrapper {
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long latencyMillis;
+
+    CountingSail(Sail store) {
+        super(store);
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the most queries evaluated at once
+     */
+    int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * Makes every query wait up to latencyMillis before it is evaluated, every third one
+     * not at all, so that they complete in another order than they were sent.
+     */
+    void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    private void await(int request) throws SailException {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(latencyMillis * (request % 3));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SailException(e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public SailConnection getConnection() throws SailException {
+        return new SailConnectionWrapper(super.getConnection()) {
+            @Override
+            public CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluate(TupleExpr tupleExpr,
+                    Dataset dataset, BindingSet bindings, boolean includeInferred) throws SailException {
+                await(requests.incrementAndGet());
+                return super.evaluate(tupleExpr, dataset, bindings, includeInferred);
+            }
+
+            @Override
+            public CloseableIteration<? extends Statement, SailException> getStatements(Resource subj, IRI pred,
+                    Value obj, boolean includeInferred, Resource... contexts) throws SailException {
+                requests.incrementAndGet();
+                return super.getStatements(subj, pred, obj, includeInferred, contexts);
+            }
+        };
+    }
+}
@@ -0,0 +1,121 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+import org.intermine.r2rmlmapping.TestDatabase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ClobReaderTest
+{
+	private static final String LONG = residues(3 * ClobReader.CHUNK_SIZE + 17);
+	private static final String EXACT = residues(ClobReader.CHUNK_SIZE);
+
+	private static DataSource dataSource;
+
+	@BeforeClass
+	public static void createMine() throws Exception
+	{
+		dataSource = TestDatabase.create("CREATE TABLE sequence (id INT PRIMARY KEY, residues CLOB)",
+				"CREATE TABLE clob (clobid INT, clobpage INT, clob VARCHAR)",
+				// pages of any size, in any order
+				"INSERT INTO clob VALUES (7, 1, 'DEFG'), (7, 0, 'ABC'), (7, 2, 'HIJKLM'), (8, 0, 'XYZ')");
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement insert = connection.prepareStatement("INSERT INTO sequence VALUES (?, ?)")) {
+			Object[] values = {LONG, EXACT, "", null, "ACGT"};
+			for (int i = 0; i < values.length; i++)
+			{
+				insert.setInt(1, i + 1);
+				insert.setObject(2, values[i]);
+				insert.executeUpdate();
+			}
+		}
+	}
+
+	@Test
+	public void testColumn() throws Exception
+	{
+		assertEquals(LONG, read(1));
+		assertEquals(EXACT, read(2));
+		assertEquals("", read(3));
+		assertNull(read(4));
+		assertEquals("ACGT", read(5));
+		assertNull(read(6));
+	}
+
+	@Test
+	public void testInterMine() throws Exception
+	{
+		assertEquals("ABCDEFGHIJKLM", readInterMine("7,0,13"));
+		assertEquals("CDEFGHI", readInterMine("7,2,7"));
+		assertEquals("DEFG", readInterMine("7,3,4"));
+		assertEquals("", readInterMine("7,5,0"));
+		assertEquals("Y", readInterMine("8,1,1"));
+		try {
+			readInterMine("8,1,5");
+			fail("The clob is shorter than its description");
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			readInterMine("ACGT");
+			fail("Not a description");
+		} catch (SQLException e) {
+			// expected
+		}
+	}
+
+	private static String read(long id) throws Exception
+	{
+		try (Connection connection = dataSource.getConnection()) {
+			return read(ClobReader.column(connection, "sequence", "residues", id, "test"));
+		}
+	}
+
+	private static String readInterMine(String description) throws Exception
+	{
+		try (Connection connection = dataSource.getConnection()) {
+			return read(ClobReader.interMine(connection, description, "test"));
+		}
+	}
+
+	private static String read(Reader reader) throws IOException
+	{
+		if (reader == null) {
+			return null;
+		}
+		StringBuilder content = new StringBuilder();
+		try (Reader in = reader) {
+			// smaller than a chunk, so that pieces are read in several calls
+			char[] buffer = new char[1000];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+			{
+				content.append(buffer, 0, read);
+			}
+		}
+		return content.toString();
+	}
+
+	private static String residues(int length)
+	{
+		Random random = new Random(length);
+		StringBuilder residues = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+		{
+			residues.append("ACGT".charAt(random.nextInt(4)));
+		}
+		return residues.toString();
+	}
+}
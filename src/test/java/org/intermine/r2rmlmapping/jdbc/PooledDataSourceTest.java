@@ -0,0 +1,99 @@
+package org.intermine.r2rmlmapping.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.intermine.r2rmlmapping.TestDatabase;
+import org.junit.Test;
+
+public class PooledDataSourceTest
+{
+	@Test
+	public void testReusesReturnedConnections() throws Exception
+	{
+		try (PooledDataSource pool = new PooledDataSource(TestDatabase.create(), 2)) {
+			Connection first = pool.getConnection();
+			Connection unwrapped = first.unwrap(Connection.class);
+			first.close();
+			assertTrue(first.isClosed());
+			assertEquals(1, pool.getIdleCount());
+			try (Connection second = pool.getConnection()) {
+				assertTrue(unwrapped == second.unwrap(Connection.class));
+				assertEquals(0, pool.getIdleCount());
+			}
+			try {
+				first.createStatement();
+				fail("A returned connection is closed");
+			} catch (SQLException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testResetsReturnedConnections() throws Exception
+	{
+		try (PooledDataSource pool = new PooledDataSource(
+				TestDatabase.create("CREATE TABLE t (id INT)"), 1)) {
+			try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+				connection.setAutoCommit(false);
+				connection.setReadOnly(true);
+				statement.execute("INSERT INTO t VALUES (1)");
+			}
+			try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement();
+					ResultSet rs = statement.executeQuery("SELECT count(*) FROM t")) {
+				assertTrue(connection.getAutoCommit());
+				assertFalse(connection.isReadOnly());
+				rs.next();
+				assertEquals("not committed", 0, rs.getInt(1));
+			}
+		}
+	}
+
+	@Test
+	public void testBoundsOpenConnections() throws Exception
+	{
+		DataSource database = TestDatabase.create();
+		try (PooledDataSource pool = new PooledDataSource(database, 2)) {
+			pool.setLoginTimeout(1);
+			Connection first = pool.getConnection();
+			Connection second = pool.getConnection();
+			try {
+				pool.getConnection();
+				fail("Only two connections may be open");
+			} catch (SQLException e) {
+				// expected
+			}
+			second.close();
+			pool.getConnection().close();
+			first.close();
+			assertEquals(2, pool.getIdleCount());
+		}
+	}
+
+	@Test
+	public void testCloseClosesIdleConnections() throws Exception
+	{
+		PooledDataSource pool = new PooledDataSource(TestDatabase.create(), 2);
+		Connection lent = pool.getConnection();
+		Connection idle = pool.getConnection();
+		Connection idleUnwrapped = idle.unwrap(Connection.class);
+		Connection lentUnwrapped = lent.unwrap(Connection.class);
+		idle.close();
+		pool.close();
+		assertTrue(idleUnwrapped.isClosed());
+		assertFalse(lentUnwrapped.isClosed());
+		lent.close();
+		assertTrue(lentUnwrapped.isClosed());
+		assertEquals(0, pool.getIdleCount());
+	}
+}
@@ -0,0 +1,97 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.intermine.r2rmlmapping.TestDatabase;
+import org.intermine.r2rmlmapping.jdbc.ClobReader;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PartitionWriterTest
+{
+	private static final String MAPPING = ""
+			+ "<urn:intermine-clob:sequence/residues> a rr:TriplesMap ;\n"
+			+ "  rr:logicalTable [ rr:tableName \"sequence\" ] ;\n"
+			+ "  rr:subjectMap [ rr:template \"http://mine/sequence:{md5checksum}\" ] ;\n"
+			+ "  rr:predicateObjectMap [ rr:predicate im:hasResidues ;\n"
+			+ "    rr:objectMap [ rr:column \"residues\" ; rr:datatype xsd:string ] ] .\n";
+
+	private static final String RESIDUES = residues(2 * ClobReader.CHUNK_SIZE + 5);
+
+	private static DataSource dataSource;
+	private static List<TriplesMapDefinition> triplesMaps;
+
+	@BeforeClass
+	public static void createMine() throws Exception
+	{
+		dataSource = TestDatabase.create(
+				"CREATE TABLE sequence (id INT PRIMARY KEY, md5checksum VARCHAR, residues CLOB)");
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement insert = connection.prepareStatement("INSERT INTO sequence VALUES (?, ?, ?)")) {
+			Object[][] rows = {{1, "a", RESIDUES}, {2, "b", "\"quoted\"\n\u00e9\ud83e\udde0"}, {3, "c", null}};
+			for (Object[] row : rows)
+			{
+				for (int i = 0; i < row.length; i++)
+				{
+					insert.setObject(i + 1, row[i]);
+				}
+				insert.executeUpdate();
+			}
+		}
+		triplesMaps = TestDatabase.mapping(MAPPING);
+	}
+
+	@Test
+	public void testClobContent() throws Exception
+	{
+		Graph graph = TestDatabase.materialize(dataSource, triplesMaps, 1000);
+		assertEquals(2, graph.size());
+		assertTrue(graph.contains(Triple.create(NodeFactory.createURI("http://mine/sequence:a"),
+				NodeFactory.createURI("http://intermine.org/vocabulary/hasResidues"),
+				NodeFactory.createLiteral(RESIDUES))));
+		assertTrue(graph.isIsomorphicWith(nTriples()));
+	}
+
+	/**
+	 * @return the triples as the chunked N-Triples of the materializer, read back
+	 */
+	private static Graph nTriples() throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		NTriplesStream stream = new NTriplesStream(out);
+		stream.start();
+		try (Connection connection = dataSource.getConnection()) {
+			new PartitionWriter(100).write(connection, new Partition(triplesMaps.get(0), 0, null, null), stream);
+		}
+		stream.finish();
+		Graph graph = GraphFactory.createGraphMem();
+		RDFDataMgr.read(graph, new ByteArrayInputStream(out.toByteArray()), Lang.NTRIPLES);
+		return graph;
+	}
+
+	private static String residues(int length)
+	{
+		StringBuilder residues = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+		{
+			residues.append("ACGT".charAt(i * 7 % 4));
+		}
+		return residues.toString();
+	}
+}
@@ -0,0 +1,203 @@
+package org.intermine.r2rmlmapping.materialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.sql.DataSource;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.intermine.r2rmlmapping.TestDatabase;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class R2RMLMaterializerTest
+{
+	private static final String MAPPING = ""
+			+ "<urn:intermine-table:gene> a rr:TriplesMap ;\n"
+			+ "  rr:logicalTable [ rr:tableName \"gene\" ] ;\n"
+			+ "  rr:subjectMap [ rr:template \"http://mine/gene:{primaryidentifier}\" ; rr:class im:Gene ] ;\n"
+			+ "  rr:predicateObjectMap [ rr:predicate im:hasSymbol ; rr:objectMap [ rr:column \"symbol\" ] ] ;\n"
+			+ "  rr:predicateObjectMap [ rr:predicate im:hasOrganism ;\n"
+			+ "    rr:objectMap [ rr:parentTriplesMap <urn:intermine-table:organism> ;\n"
+			+ "      rr:joinCondition [ rr:child \"organismid\" ; rr:parent \"id\" ] ] ] .\n"
+			+ "<urn:intermine-table:organism> a rr:TriplesMap ;\n"
+			+ "  rr:logicalTable [ rr:tableName \"organism\" ] ;\n"
+			+ "  rr:subjectMap [ rr:template \"http://mine/organism:{taxonid}\" ; rr:class im:Organism ] .\n"
+			+ "<urn:intermine-view:bioentity> a rr:TriplesMap ;\n"
+			+ "  rr:logicalTable [ rr:sqlQuery \"SELECT g.id, g.primaryidentifier, g.organismid FROM gene g\" ] ;\n"
+			+ "  rr:subjectMap [ rr:template \"http://mine/gene:{primaryidentifier}\" ; rr:class im:BioEntity ] ;\n"
+			+ "  rr:predicateObjectMap [ rr:predicate im:hasBioEntityOrganism ;\n"
+			+ "    rr:objectMap [ rr:parentTriplesMap <urn:intermine-table:organism> ;\n"
+			+ "      rr:joinCondition [ rr:child \"organismid\" ; rr:parent \"id\" ] ] ] .\n"
+			+ "<urn:intermine-join:gene/proteins> a rr:TriplesMap ;\n"
+			+ "  rr:logicalTable [ rr:sqlQuery \"\"\"SELECT gene.primaryidentifier, protein.primaryaccession AS to_column,"
+			+ " genesproteins.genes AS id FROM gene, genesproteins, protein WHERE gene.id = genesproteins.genes"
+			+ " AND protein.id = genesproteins.proteins\"\"\" ] ;\n"
+			+ "  rr:subjectMap [ rr:template \"http://mine/gene:{primaryidentifier}\" ] ;\n"
+			+ "  rr:predicateObjectMap [ rr:predicate im:hasProtein ;\n"
+			+ "    rr:objectMap [ rr:template \"http://mine/protein:{to_column}\" ] ] .\n";
+
+	private static final int GENES = 10;
+
+	private static DataSource dataSource;
+	private static List<TriplesMapDefinition> triplesMaps;
+
+	@BeforeClass
+	public static void createMine() throws Exception
+	{
+		StringBuilder genes = new StringBuilder("INSERT INTO gene VALUES ");
+		StringBuilder proteins = new StringBuilder("INSERT INTO protein VALUES ");
+		StringBuilder genesProteins = new StringBuilder("INSERT INTO genesproteins VALUES ");
+		for (int i = 1; i <= GENES; i++)
+		{
+			String separator = i == 1 ? "" : ", ";
+			// the ids of a table are far apart, as other tables take ids from the same sequence
+			genes.append(separator).append("(").append(geneId(i)).append(", 'G").append(i).append("', ")
+					.append(i % 3 == 0 ? "NULL" : "'sym" + i + "'").append(", ").append(100 + i % 2).append(")");
+			proteins.append(separator).append("(").append(200 + i).append(", 'P").append(i).append("')");
+			genesProteins.append(separator).append("(").append(geneId(i)).append(", ").append(200 + GENES + 1 - i).append(")");
+		}
+		dataSource = TestDatabase.create(
+				"CREATE TABLE organism (id INT PRIMARY KEY, taxonid VARCHAR)",
+				"CREATE TABLE gene (id INT PRIMARY KEY, primaryidentifier VARCHAR, symbol VARCHAR, organismid INT)",
+				"CREATE TABLE protein (id INT PRIMARY KEY, primaryaccession VARCHAR)",
+				"CREATE TABLE genesproteins (genes INT, proteins INT)",
+				"INSERT INTO organism VALUES (100, '7227'), (101, '9606')",
+				genes.toString(), proteins.toString(), genesProteins.toString());
+		triplesMaps = TestDatabase.mapping(MAPPING);
+	}
+
+	@Test
+	public void testPlan() throws Exception
+	{
+		R2RMLMaterializer materializer = new R2RMLMaterializer(dataSource, 1, 100, 3);
+		try (Connection connection = dataSource.getConnection()) {
+			// 10 rows in 4 quantiles of 3, 3, 2 and 2 ids, not 34 ranges of 3 ids
+			List<Partition> gene = materializer.plan(connection, map("urn:intermine-table:gene"));
+			assertEquals(4, gene.size());
+			assertEquals(Long.valueOf(geneId(1)), gene.get(0).getLowId());
+			assertEquals(Long.valueOf(geneId(4)), gene.get(1).getLowId());
+			assertEquals(Long.valueOf(geneId(7)), gene.get(2).getLowId());
+			assertEquals(Long.valueOf(geneId(9)), gene.get(3).getLowId());
+			assertEquals(Long.valueOf(geneId(GENES) + 1), gene.get(3).getHighId());
+
+			List<Partition> bioEntity = materializer.plan(connection, map("urn:intermine-view:bioentity"));
+			assertEquals(4, bioEntity.size());
+			assertTrue(bioEntity.get(0).isBounded());
+
+			// the view of a many to many collection is split on the referring id
+			List<Partition> proteins = materializer.plan(connection, map("urn:intermine-join:gene/proteins"));
+			assertEquals(4, proteins.size());
+			assertTrue(proteins.get(0).isBounded());
+
+			// the organisms do not fill one partition
+			List<Partition> organism = materializer.plan(connection, map("urn:intermine-table:organism"));
+			assertEquals(1, organism.size());
+			assertEquals(Long.valueOf(100), organism.get(0).getLowId());
+			assertEquals(Long.valueOf(102), organism.get(0).getHighId());
+		}
+	}
+
+	@Test
+	public void testPlanWithRepeatedIds() throws Exception
+	{
+		// a gene with many proteins has as many rows in the view of the collection
+		DataSource repeated = TestDatabase.create(
+				"CREATE TABLE gene (id INT PRIMARY KEY, primaryidentifier VARCHAR)",
+				"CREATE TABLE protein (id INT PRIMARY KEY, primaryaccession VARCHAR)",
+				"CREATE TABLE genesproteins (genes INT, proteins INT)",
+				"INSERT INTO gene VALUES (1, 'G1'), (50, 'G2')",
+				"INSERT INTO protein VALUES (201, 'P1'), (202, 'P2'), (203, 'P3'), (204, 'P4')",
+				"INSERT INTO genesproteins VALUES (1, 201), (1, 202), (1, 203), (1, 204), (50, 201)");
+		R2RMLMaterializer materializer = new R2RMLMaterializer(repeated, 1, 100, 2);
+		try (Connection connection = repeated.getConnection()) {
+			List<Partition> proteins = materializer.plan(connection, map("urn:intermine-join:gene/proteins"));
+			// the rows of gene 1 fill two quantiles, one partition holds them all
+			assertEquals(2, proteins.size());
+			assertEquals(Long.valueOf(1), proteins.get(0).getLowId());
+			assertEquals(Long.valueOf(50), proteins.get(0).getHighId());
+			assertEquals(Long.valueOf(50), proteins.get(1).getLowId());
+			assertEquals(Long.valueOf(51), proteins.get(1).getHighId());
+		}
+	}
+
+	@Test
+	public void testPartitionsGiveTheSameTriples() throws Exception
+	{
+		Graph whole = TestDatabase.materialize(dataSource, triplesMaps, 1000);
+		// the genes' types, 7 symbols and organisms, the organisms, the bio entities' types and organisms, the proteins
+		assertEquals(10 + 7 + 10 + 2 + 10 + 10 + 10, whole.size());
+		assertTrue(whole.contains(Triple.create(NodeFactory.createURI("http://mine/gene:G1"),
+				NodeFactory.createURI("http://intermine.org/vocabulary/hasProtein"),
+				NodeFactory.createURI("http://mine/protein:P10"))));
+		assertTrue(whole.contains(Triple.create(NodeFactory.createURI("http://mine/gene:G2"),
+				NodeFactory.createURI("http://intermine.org/vocabulary/hasBioEntityOrganism"),
+				NodeFactory.createURI("http://mine/organism:7227"))));
+		for (long partitionSize : new long[] {1, 3, 7})
+		{
+			Graph partitioned = TestDatabase.materialize(dataSource, triplesMaps, partitionSize);
+			assertTrue("partitions of " + partitionSize, partitioned.isIsomorphicWith(whole));
+		}
+	}
+
+	@Test
+	public void testThriftDump() throws Exception
+	{
+		File directory = Files.createTempDirectory("dump").toFile();
+		try {
+			Lang thrift = FilePartitionSink.langForFormat("thrift");
+			assertEquals(RDFLanguages.RDFTHRIFT, thrift);
+			long triples = new R2RMLMaterializer(dataSource, 2, 4, 4)
+					.materialize(triplesMaps, new FilePartitionSink(directory, thrift));
+			Graph dump = GraphFactory.createGraphMem();
+			File[] files = directory.listFiles();
+			for (File file : files)
+			{
+				assertTrue(file.getName(), file.getName().endsWith(".gz"));
+				try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+					RDFDataMgr.read(dump, in, thrift);
+				}
+			}
+			assertEquals(triples, dump.size());
+			assertTrue(dump.isIsomorphicWith(TestDatabase.materialize(dataSource, triplesMaps, 1000)));
+		} finally {
+			for (File file : directory.listFiles())
+			{
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private static long geneId(int gene)
+	{
+		return gene * gene;
+	}
+
+	private static TriplesMapDefinition map(String name)
+	{
+		for (TriplesMapDefinition map : triplesMaps)
+		{
+			if (map.getName().equals(name)) {
+				return map;
+			}
+		}
+		throw new IllegalArgumentException(name);
+	}
+}
@@ -0,0 +1,271 @@
+package org.intermine.r2rmlmapping.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.intermine.r2rmlmapping.TestDatabase;
+import org.intermine.r2rmlmapping.jdbc.UniqueKeys;
+import org.intermine.r2rmlmapping.r2rml.TriplesMapDefinition;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares the answers of compiled queries with those of RDF4J over the materialized
+ * triples, on a mine where URI identifiers repeat, are NULL, and links are duplicated.
+ */
+public class StarQueryCompilerTest {
+
+    // the shape R2RMLMapping generates, see the many to many TriplesMaps
+    private static final String MAPPING = "@prefix up: <http://purl.uniprot.org/core/> .\n"
+            + "<urn:test:Gene> a rr:TriplesMap ;\n"
+            + "  rr:logicalTable [ rr:tableName \"gene\" ] ;\n"
+            + "  rr:subjectMap [ rr:template \"http://mine/gene:{primaryIdentifier}\" ; rr:class im:Gene ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasPrimaryIdentifier ;\n"
+            + "    rr:objectMap [ rr:column \"primaryidentifier\" ; rr:datatype xsd:string ; rr:termType rr:Literal ] ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasSymbol ;\n"
+            + "    rr:objectMap [ rr:column \"symbol\" ; rr:datatype xsd:string ; rr:termType rr:Literal ] ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasOrganism ; rr:objectMap [\n"
+            + "    rr:parentTriplesMap <urn:test:Organism> ;\n"
+            + "    rr:joinCondition [ rr:child \"organismid\" ; rr:parent \"id\" ] ] ] .\n"
+            + "<urn:test:Organism> a rr:TriplesMap ;\n"
+            + "  rr:logicalTable [ rr:tableName \"organism\" ] ;\n"
+            + "  rr:subjectMap [ rr:template \"http://mine/organism:{taxonId}\" ; rr:class im:Organism ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasName ;\n"
+            + "    rr:objectMap [ rr:column \"name\" ; rr:datatype xsd:string ; rr:termType rr:Literal ] ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasTaxonId ;\n"
+            + "    rr:objectMap [ rr:column \"taxonid\" ; rr:datatype xsd:integer ; rr:termType rr:Literal ] ] .\n"
+            + "<urn:test:Protein> a rr:TriplesMap ;\n"
+            + "  rr:logicalTable [ rr:tableName \"protein\" ] ;\n"
+            + "  rr:subjectMap [ rr:template \"http://mine/protein:{primaryAccession}\" ; rr:class up:Protein ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasPrimaryAccession ;\n"
+            + "    rr:objectMap [ rr:column \"primaryaccession\" ; rr:datatype xsd:string ; rr:termType rr:Literal ] ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasUniprotName ;\n"
+            + "    rr:objectMap [ rr:column \"uniprotname\" ; rr:datatype xsd:string ; rr:termType rr:Literal ] ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasName ;\n"
+            + "    rr:objectMap [ rr:column \"name\" ; rr:datatype xsd:string ; rr:termType rr:Literal ] ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasLength ;\n"
+            + "    rr:objectMap [ rr:column \"length\" ; rr:datatype xsd:integer ; rr:termType rr:Literal ] ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasMd5checksum ;\n"
+            + "    rr:objectMap [ rr:column \"md5checksum\" ; rr:datatype xsd:string ; rr:termType rr:Literal ] ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasOrganism ; rr:objectMap [\n"
+            + "    rr:parentTriplesMap <urn:test:Organism> ;\n"
+            + "    rr:joinCondition [ rr:child \"organismid\" ; rr:parent \"id\" ] ] ] .\n"
+            + "<urn:test:Gene/GenesProteins/Protein> a rr:TriplesMap ;\n"
+            + "  rr:logicalTable [ a rr:R2RMLView ; rr:sqlQuery \"SELECT Gene.primaryIdentifier,"
+            + " Protein.primaryAccession AS toColumnName  FROM Gene,GenesProteins,Protein"
+            + " WHERE Gene.id = GenesProteins.proteins AND Protein.id = GenesProteins.genes\" ] ;\n"
+            + "  rr:subjectMap [ rr:template \"http://mine/gene:{primaryIdentifier}\" ; rr:class im:Gene ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasProtein ;\n"
+            + "    rr:objectMap [ a rr:TermMap, rr:ObjectMap ; rr:column \"primaryAccession\" ;\n"
+            + "      rr:template \"http://mine/protein:{toColumnName}\" ; rr:termType rr:IRI ] ] .\n"
+            + "<urn:test:Protein/GenesProteins/Gene> a rr:TriplesMap ;\n"
+            + "  rr:logicalTable [ a rr:R2RMLView ; rr:sqlQuery \"SELECT Protein.primaryAccession,"
+            + " Gene.primaryIdentifier AS toColumnName  FROM Protein,GenesProteins,Gene"
+            + " WHERE Protein.id = GenesProteins.genes AND Gene.id = GenesProteins.proteins\" ] ;\n"
+            + "  rr:subjectMap [ rr:template \"http://mine/protein:{primaryAccession}\" ; rr:class up:Protein ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasGene ;\n"
+            + "    rr:objectMap [ a rr:TermMap, rr:ObjectMap ; rr:column \"primaryIdentifier\" ;\n"
+            + "      rr:template \"http://mine/gene:{toColumnName}\" ; rr:termType rr:IRI ] ] .\n"
+            + "<urn:test:Publication> a rr:TriplesMap ;\n"
+            + "  rr:logicalTable [ rr:tableName \"publication\" ] ;\n"
+            + "  rr:subjectMap [ rr:template \"http://mine/publication:{id}\" ; rr:class im:Publication ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasTitle ; rr:objectMap [ rr:column \"title\" ] ] ;\n"
+            + "  rr:predicateObjectMap [ rr:predicate im:hasOrganism ; rr:objectMap [\n"
+            + "    rr:parentTriplesMap <urn:test:Organism> ;\n"
+            + "    rr:joinCondition [ rr:child \"organismid\" ; rr:parent \"id\" ] ] ] .\n";
+
+    // the queries of templates.toml, after PREFIX
+    private static final String GENE_PROTEINS = ""
+            + "SELECT ?protein ?primaryAccession ?uniprotName ?gene ?genePrimaryIdentifier ?symbol WHERE {\n"
+            + "?protein a up:Protein .\n"
+            + "?protein im:hasPrimaryAccession ?primaryAccession .\n"
+            + "?protein im:hasUniprotName ?uniprotName .\n"
+            + "?protein im:hasGene ?gene .\n"
+            + "?gene im:hasPrimaryIdentifier ?genePrimaryIdentifier .\n"
+            + "?gene im:hasSymbol ?symbol .\n"
+            + "FILTER(?symbol=\"ABRA\"^^xsd:string)\n"
+            + "}";
+    private static final String ORGANISM_PROTEINS = ""
+            + "SELECT ?protein ?primaryAccession ?uniprotName ?name ?length ?md5checksum ?organismName WHERE {\n"
+            + "?protein a up:Protein .\n"
+            + "?protein im:hasPrimaryAccession ?primaryAccession .\n"
+            + "?protein im:hasUniprotName ?uniprotName .\n"
+            + "?protein im:hasName ?name .\n"
+            + "?protein im:hasLength ?length .\n"
+            + "?protein im:hasMd5checksum ?md5checksum .\n"
+            + "?protein im:hasOrganism ?organism .\n"
+            + "?organism im:hasName ?organismName .\n"
+            + "FILTER(?organismName=\"Plasmodium falciparum 3D7\"^^xsd:string)\n"
+            + "}";
+
+    private static final String PREFIX = "PREFIX im: <http://intermine.org/vocabulary/>\n"
+            + "PREFIX up: <http://purl.uniprot.org/core/>\n"
+            + "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>\n";
+
+    private static DataSource dataSource;
+    private static List<TriplesMapDefinition> triplesMaps;
+    private static Repository expected;
+
+    @BeforeClass
+    public static void createMine() throws Exception {
+        dataSource = TestDatabase.create(
+                "CREATE TABLE organism (id INT PRIMARY KEY, taxonid INT, name VARCHAR)",
+                // 7227 twice
+                "INSERT INTO organism VALUES (10, 7227, 'fly'), (11, 9606, 'human'), (12, 7227, 'drosophila'),"
+                        + " (13, 36329, 'Plasmodium falciparum 3D7')",
+                "CREATE TABLE gene (id INT PRIMARY KEY, primaryidentifier VARCHAR, symbol VARCHAR, organismid INT)",
+                // G1 twice, with different symbols, one gene without identifier and one without symbol
+                "INSERT INTO gene VALUES (1, 'G1', 'abc', 10), (2, 'G1', 'def', 11), (3, 'G2', 'abc', 11),"
+                        + " (4, NULL, 'xyz', 10), (5, 'G3', NULL, NULL), (6, 'G2', 'abc', 11), (7, 'G4', 'ABRA', 13)",
+                "CREATE TABLE protein (id INT PRIMARY KEY, primaryaccession VARCHAR, uniprotname VARCHAR,"
+                        + " name VARCHAR, length INT, md5checksum VARCHAR, organismid INT)",
+                // P1 twice, one protein without uniprot name
+                "INSERT INTO protein VALUES (20, 'P1', 'P1_PLAF7', 'one', 100, 'aa', 13),"
+                        + " (21, 'P2', NULL, 'two', 200, 'bb', 13), (22, 'P1', 'P1_HUMAN', 'uno', 100, 'cc', 11),"
+                        + " (23, 'P3', 'P3_PLAF7', 'three', 300, 'dd', 13)",
+                // InterMine names each column of an indirection table after the other side
+                "CREATE TABLE genesproteins (proteins INT, genes INT)",
+                // 1-20 twice
+                "INSERT INTO genesproteins VALUES (1, 20), (2, 20), (2, 21), (3, 22), (1, 20), (4, 21),"
+                        + " (7, 20), (7, 21), (7, 23)",
+                "CREATE TABLE publication (id INT PRIMARY KEY, title VARCHAR, organismid INT)",
+                "INSERT INTO publication VALUES (30, 'On flies', 10), (31, 'On humans', 11), (32, NULL, 12)");
+        triplesMaps = TestDatabase.mapping(MAPPING);
+        expected = TestDatabase.memoryStore(TestDatabase.materialize(dataSource, triplesMaps, 1000));
+    }
+
+    @AfterClass
+    public static void shutDown() {
+        expected.shutDown();
+    }
+
+    @Test
+    public void testUniqueKeys() throws Exception {
+        UniqueKeys keys = new UniqueKeys(dataSource);
+        assertFalse(keys.isUnique("gene", "primaryidentifier"));
+        assertFalse(keys.isUnique("organism", "taxonid"));
+        assertTrue(keys.isUnique("organism", "name"));
+        assertTrue(keys.isUnique("publication", "title"));
+        assertTrue(keys.isUnique("gene", "id"));
+    }
+
+    @Test
+    public void testStar() throws Exception {
+        assertSameAnswers("SELECT ?g ?s WHERE { ?g a im:Gene ; im:hasSymbol ?s }");
+    }
+
+    @Test
+    public void testRepeatedPredicate() throws Exception {
+        // G1 is one subject with the symbols of both its rows
+        assertSameAnswers("SELECT ?g ?s1 ?s2 WHERE { ?g im:hasSymbol ?s1 ; im:hasSymbol ?s2 }");
+    }
+
+    @Test
+    public void testConstantSubject() throws Exception {
+        assertSameAnswers("SELECT ?s ?o WHERE { <http://mine/gene:G1> im:hasSymbol ?s ; im:hasOrganism ?o }");
+    }
+
+    @Test
+    public void testReference() throws Exception {
+        assertSameAnswers("SELECT ?g ?n WHERE { ?g im:hasSymbol ?s ; im:hasOrganism ?o . ?o im:hasName ?n }");
+    }
+
+    @Test
+    public void testProjectionKeepsDuplicates() throws Exception {
+        assertSameAnswers("SELECT ?s WHERE { ?g im:hasSymbol ?s }");
+        assertSameAnswers("SELECT DISTINCT ?s WHERE { ?g im:hasSymbol ?s }");
+    }
+
+    @Test
+    public void testManyToMany() throws Exception {
+        assertSameAnswers("SELECT ?g ?p WHERE { ?g im:hasProtein ?p }");
+        assertSameAnswers("SELECT ?s ?p WHERE { ?g im:hasSymbol ?s ; im:hasProtein ?p }");
+        assertSameAnswers("SELECT ?g WHERE { ?g im:hasProtein <http://mine/protein:P1> }");
+        assertSameAnswers("SELECT ?p WHERE { ?p a up:Protein ; im:hasGene <http://mine/gene:G1> }");
+    }
+
+    @Test
+    public void testManyToManyToEntity() throws Exception {
+        // the object of the view is joined to the table by its template's shape
+        assertSameAnswers("SELECT ?s ?a WHERE { ?g im:hasSymbol ?s ; im:hasProtein ?p . ?p im:hasPrimaryAccession ?a }");
+        assertSameAnswers("SELECT ?p ?s WHERE { ?p im:hasGene ?g . ?g a im:Gene ; im:hasSymbol ?s }");
+        assertSameAnswers("SELECT ?g ?n WHERE { ?g im:hasProtein ?p . ?p im:hasOrganism ?o . ?o im:hasName ?n }");
+    }
+
+    @Test
+    public void testTemplates() throws Exception {
+        assertSameAnswers(GENE_PROTEINS);
+        assertSameAnswers(ORGANISM_PROTEINS);
+        // P1 with the uniprot names of both its rows, and P3
+        assertEquals(3, answers(expected, PREFIX + GENE_PROTEINS).size());
+        // P1 with every combination of the values of its rows, and P3
+        assertEquals(2 * 2 * 2 + 1, answers(expected, PREFIX + ORGANISM_PROTEINS).size());
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        assertSameAnswers("SELECT ?o ?n WHERE { ?o im:hasName ?n ; im:hasTaxonId ?t FILTER(?t > 8000) }");
+        assertSameAnswers("SELECT ?g WHERE { ?g im:hasSymbol ?s FILTER(?s = \"abc\") }");
+    }
+
+    @Test
+    public void testKeyedTablesNeedNoDistinct() throws Exception {
+        StarQueryCompiler compiler = new StarQueryCompiler(triplesMaps, new UniqueKeys(dataSource));
+        String keyed = PREFIX + "SELECT ?p ?t ?o WHERE { ?p im:hasTitle ?t ; im:hasOrganism ?o }";
+        SqlQuery sql = compiler.compile(keyed);
+        assertNotNull(sql);
+        assertFalse(sql.getSql(), sql.getSql().contains("DISTINCT"));
+        assertSameAnswers("SELECT ?p ?t ?o WHERE { ?p im:hasTitle ?t ; im:hasOrganism ?o }");
+        // the organism is read by the join to its id, but its taxonid repeats
+        assertSameAnswers("SELECT ?p ?n WHERE { ?p im:hasTitle ?t ; im:hasOrganism ?o . ?o im:hasName ?n }");
+    }
+
+    /**
+     * Asserts that the query compiles and gives the answers RDF4J gives, as many times.
+     */
+    private static void assertSameAnswers(String query) throws Exception {
+        String sparql = PREFIX + query;
+        StarQueryCompiler compiler = new StarQueryCompiler(triplesMaps, new UniqueKeys(dataSource));
+        assertNotNull("Not compiled: " + query, compiler.compile(sparql));
+        DirectSqlRepository direct = new DirectSqlRepository(expected, compiler, dataSource, 100, 2);
+        assertEquals(query, answers(expected, sparql), answers(direct, sparql));
+        assertEquals(1, direct.getDirectCount());
+    }
+
+    /**
+     * @return the number of times each solution is given
+     */
+    private static Map<Map<String, String>, Integer> answers(Repository repository, String sparql) {
+        Map<Map<String, String>, Integer> answers = new HashMap<>();
+        try (RepositoryConnection connection = repository.getConnection();
+                TupleQueryResult result = connection.prepareTupleQuery(QueryLanguage.SPARQL, sparql).evaluate()) {
+            List<String> names = new ArrayList<>(result.getBindingNames());
+            while (result.hasNext()) {
+                BindingSet bindings = result.next();
+                Map<String, String> solution = new HashMap<>();
+                for (String name : names) {
+                    if (bindings.hasBinding(name)) {
+                        solution.put(name, bindings.getValue(name).toString());
+                    }
+                }
+                answers.merge(solution, 1, Integer::sum);
+            }
+        }
+        return answers;
+    }
+}
@@ -0,0 +1,64 @@
+package org.intermine.r2rmlmapping.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.intermine.r2rmlmapping.federation.ResultCache;
+import org.junit.Test;
+
+public class TemplateServiceTest {
+
+    private static final String EX = "http://ex/";
+    private static final String TEMPLATE = "Gene by name";
+
+    @Test
+    public void testPopularityIsBounded() throws Exception {
+        Repository repository = new SailRepository(new MemoryStore());
+        repository.init();
+        ValueFactory values = SimpleValueFactory.getInstance();
+        try (RepositoryConnection connection = repository.getConnection()) {
+            for (int i = 0; i < 50; i++) {
+                connection.add(values.createIRI(EX + "gene" + i), values.createIRI(EX + "name"),
+                        values.createLiteral("n" + i));
+            }
+        }
+        List<QueryTemplate> templates = QueryTemplate.parseAll(Collections.singletonList(new NamedQuery(TEMPLATE,
+                "SELECT ?g WHERE { ?g <" + EX + "name> ?name FILTER(?name = \"n0\") }")));
+        TemplateService service = new TemplateService(repository, templates, new ResultCache(1 << 20, null, 0),
+                TupleQueryResultFormat.TSV, () -> "1", 60000, 3);
+        File file = File.createTempFile("popularity", ".tsv");
+        try {
+            // n0 and n1 are called all along, every other name once
+            for (int i = 2; i < 50; i++) {
+                service.getResults(TEMPLATE, Collections.singletonMap("name", "n0"));
+                if (i % 2 == 0) {
+                    service.getResults(TEMPLATE, Collections.singletonMap("name", "n1"));
+                }
+                service.getResults(TEMPLATE, Collections.singletonMap("name", "n" + i));
+                assertTrue("counted " + service.getPopularitySize(), service.getPopularitySize() <= 2 * 3);
+            }
+            service.savePopularity(file);
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            // the header and the 3 most popular calls
+            assertEquals(1 + 3, lines.size());
+            assertTrue(lines.get(1), lines.get(1).endsWith("\tname=n0"));
+            assertTrue(lines.get(2), lines.get(2).endsWith("\tname=n1"));
+        } finally {
+            file.delete();
+            repository.shutDown();
+        }
+    }
+}
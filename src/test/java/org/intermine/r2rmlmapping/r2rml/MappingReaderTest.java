@@ -0,0 +1,65 @@
+package org.intermine.r2rmlmapping.r2rml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.intermine.r2rmlmapping.TestDatabase;
+import org.intermine.r2rmlmapping.jdbc.SqlTags;
+import org.junit.Test;
+
+public class MappingReaderTest
+{
+	private static final String MAPPING = ""
+			+ "<urn:intermine-table:gene> a rr:TriplesMap ;\n"
+			+ "  rr:logicalTable [ rr:sqlQuery \"/* urn:intermine-table:gene */ SELECT id, primaryidentifier, organismid FROM gene\" ] ;\n"
+			+ "  rr:subjectMap [ rr:template \"http://mine/gene:{primaryidentifier}\" ] ;\n"
+			+ "  rr:predicateObjectMap [ rr:predicate im:hasOrganism ;\n"
+			+ "    rr:objectMap [ rr:parentTriplesMap <urn:intermine-table:organism> ;\n"
+			+ "      rr:joinCondition [ rr:child \"organismid\" ; rr:parent \"id\" ] ] ] .\n"
+			+ "<urn:intermine-table:organism> a rr:TriplesMap ;\n"
+			+ "  rr:logicalTable [ rr:sqlQuery \"select id,taxonid from organism\" ] ;\n"
+			+ "  rr:subjectMap [ rr:template \"http://mine/organism:{taxonid}\" ] .\n"
+			+ "<urn:intermine-view:bioentity> a rr:TriplesMap ;\n"
+			+ "  rr:logicalTable [ rr:sqlQuery \"/* urn:intermine-view:bioentity */ SELECT g.id, g.primaryidentifier FROM gene g\" ] ;\n"
+			+ "  rr:subjectMap [ rr:template \"http://mine/gene:{primaryidentifier}\" ] .\n"
+			+ "<urn:intermine-view:protein> a rr:TriplesMap ;\n"
+			+ "  rr:logicalTable [ rr:sqlQuery \"SELECT id, primaryaccession FROM protein WHERE id > 0\" ] ;\n"
+			+ "  rr:subjectMap [ rr:template \"http://mine/protein:{primaryaccession}\" ] .\n";
+
+	@Test
+	public void testTaggedTableQueriesAreTables()
+	{
+		List<TriplesMapDefinition> triplesMaps = TestDatabase.mapping(MAPPING);
+		assertEquals(4, triplesMaps.size());
+
+		TriplesMapDefinition gene = triplesMaps.get(0);
+		assertEquals("urn:intermine-table:gene", gene.getName());
+		assertFalse(gene.isView());
+		assertEquals("gene", gene.getTableName());
+		assertNull(gene.getSqlQuery());
+		assertEquals("organism", gene.getPredicateObjectMaps().get(0).getParent().getTableName());
+
+		TriplesMapDefinition organism = triplesMaps.get(1);
+		assertFalse(organism.isView());
+		assertEquals("organism", organism.getTableName());
+
+		// aliases, joins and conditions make a view
+		TriplesMapDefinition bioEntity = triplesMaps.get(2);
+		assertTrue(bioEntity.isView());
+		assertEquals(SqlTags.tag(bioEntity.getName(), "SELECT g.id, g.primaryidentifier FROM gene g"),
+				bioEntity.getSqlQuery());
+		assertTrue(triplesMaps.get(3).isView());
+	}
+
+	@Test
+	public void testStrip()
+	{
+		assertEquals("SELECT 1", SqlTags.strip("  /* urn:intermine-table:gene */  SELECT 1"));
+		assertEquals("SELECT 1", SqlTags.strip("SELECT 1"));
+		assertEquals("/* unclosed SELECT 1", SqlTags.strip("/* unclosed SELECT 1"));
+	}
+}